@@ -27,10 +27,6 @@ import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
-import android.renderscript.Allocation;
-import android.renderscript.Element;
-import android.renderscript.RenderScript;
-import android.renderscript.ScriptIntrinsicBlur;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -62,23 +58,7 @@ public class BitmapUtils {
     }
 
     public static Bitmap blurBitmap(Context context, Bitmap bmp, float radius) {
-        Bitmap out = Bitmap.createBitmap(bmp);
-        RenderScript rs = RenderScript.create(context);
-        radius = Math.min(Math.max(radius, 0), 25);
-
-        Allocation input = Allocation.createFromBitmap(
-                rs, bmp, Allocation.MipmapControl.MIPMAP_NONE, Allocation.USAGE_SCRIPT);
-        Allocation output = Allocation.createTyped(rs, input.getType());
-
-        ScriptIntrinsicBlur script = ScriptIntrinsicBlur.create(rs, Element.U8_4(rs));
-        script.setInput(input);
-        script.setRadius(radius);
-        script.forEach(output);
-
-        output.copyTo(out);
-
-        rs.destroy();
-        return out;
+        return BlurEngine.getInstance(context).blur(bmp, radius);
     }
 
     @SuppressLint("UseSparseArrays")
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2020 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.q.gravitybox;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.renderscript.Allocation;
+import android.renderscript.Element;
+import android.renderscript.RenderScript;
+import android.renderscript.ScriptIntrinsicBlur;
+import android.util.Log;
+
+/**
+ * Process wide blur engine.
+ * Keeps RenderScript context, blur script and allocations alive between calls
+ * and blurs downscaled copy of the source which is then scaled back up.
+ * Falls back to {@link StackBlur} when RenderScript is not available.
+ */
+public class BlurEngine {
+    private static final String TAG = "GB:BlurEngine";
+    private static final boolean DEBUG = false;
+
+    public static final float MAX_RADIUS = 25f;
+
+    private static BlurEngine sInstance;
+
+    public static synchronized BlurEngine getInstance(Context context) {
+        if (sInstance == null) {
+            Context appContext = context.getApplicationContext();
+            sInstance = new BlurEngine(appContext != null ? appContext : context);
+        }
+        return sInstance;
+    }
+
+    private final Context mContext;
+    private final StackBlur mStackBlur = new StackBlur();
+    private RenderScript mRs;
+    private ScriptIntrinsicBlur mScript;
+    private Allocation mInput;
+    private Allocation mOutput;
+    private int mAllocWidth;
+    private int mAllocHeight;
+    private boolean mRsUnavailable;
+    private int[] mPixels;
+
+    private BlurEngine(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Returns new blurred bitmap of the same size as source
+     * @param bmp - source bitmap; left untouched
+     * @param radius - blur radius in source pixels (0 - 25)
+     */
+    public synchronized Bitmap blur(Bitmap bmp, float radius) {
+        final long startTime = DEBUG ? System.currentTimeMillis() : 0;
+        radius = Math.min(Math.max(radius, 0), MAX_RADIUS);
+
+        final int width = bmp.getWidth();
+        final int height = bmp.getHeight();
+        final int sampleSize = getSampleSize(radius);
+        final int sw = Math.max(1, width / sampleSize);
+        final int sh = Math.max(1, height / sampleSize);
+
+        Bitmap in = (sw != width || sh != height) ?
+                Bitmap.createScaledBitmap(bmp, sw, sh, true) : bmp;
+        if (in.getConfig() != Bitmap.Config.ARGB_8888) {
+            Bitmap tmp = in.copy(Bitmap.Config.ARGB_8888, false);
+            if (in != bmp) in.recycle();
+            in = tmp;
+        }
+
+        Bitmap out = Bitmap.createBitmap(sw, sh, Bitmap.Config.ARGB_8888);
+        final float scaledRadius = radius * sw / width;
+        if (scaledRadius <= 0 || !blurRenderScript(in, out, scaledRadius)) {
+            blurStack(in, out, Math.round(scaledRadius));
+        }
+        if (in != bmp) in.recycle();
+
+        if (sw != width || sh != height) {
+            Bitmap tmp = Bitmap.createScaledBitmap(out, width, height, true);
+            out.recycle();
+            out = tmp;
+        }
+
+        if (DEBUG) Log.d(TAG, "blur: " + width + "x" + height + "; radius=" + radius +
+                "; sampleSize=" + sampleSize + "; took " +
+                (System.currentTimeMillis() - startTime) + "ms");
+        return out;
+    }
+
+    private static int getSampleSize(float radius) {
+        // larger radius hides upscaling artifacts so we can afford smaller intermediate image
+        if (radius >= 12) return 4;
+        if (radius >= 6) return 2;
+        return 1;
+    }
+
+    private boolean blurRenderScript(Bitmap in, Bitmap out, float radius) {
+        if (mRsUnavailable) return false;
+
+        try {
+            if (mRs == null) {
+                mRs = RenderScript.create(mContext);
+                mScript = ScriptIntrinsicBlur.create(mRs, Element.U8_4(mRs));
+            }
+            if (mInput == null || mAllocWidth != in.getWidth() || mAllocHeight != in.getHeight()) {
+                destroyAllocations();
+                mInput = Allocation.createFromBitmap(mRs, in,
+                        Allocation.MipmapControl.MIPMAP_NONE, Allocation.USAGE_SCRIPT);
+                mOutput = Allocation.createTyped(mRs, mInput.getType());
+                mAllocWidth = in.getWidth();
+                mAllocHeight = in.getHeight();
+            } else {
+                mInput.copyFrom(in);
+            }
+            mScript.setInput(mInput);
+            mScript.setRadius(radius);
+            mScript.forEach(mOutput);
+            mOutput.copyTo(out);
+            return true;
+        } catch (Throwable t) {
+            Log.w(TAG, "RenderScript blur unavailable, using stack blur", t);
+            mRsUnavailable = true;
+            destroyAllocations();
+            if (mScript != null) {
+                mScript.destroy();
+                mScript = null;
+            }
+            if (mRs != null) {
+                mRs.destroy();
+                mRs = null;
+            }
+            return false;
+        }
+    }
+
+    private void destroyAllocations() {
+        if (mInput != null) {
+            mInput.destroy();
+            mInput = null;
+        }
+        if (mOutput != null) {
+            mOutput.destroy();
+            mOutput = null;
+        }
+        mAllocWidth = mAllocHeight = 0;
+    }
+
+    private void blurStack(Bitmap in, Bitmap out, int radius) {
+        final int width = in.getWidth();
+        final int height = in.getHeight();
+        if (mPixels == null || mPixels.length < width * height) {
+            mPixels = new int[width * height];
+        }
+        in.getPixels(mPixels, 0, width, 0, 0, width, height);
+        mStackBlur.blur(mPixels, width, height, radius);
+        out.setPixels(mPixels, 0, width, 0, 0, width, height);
+    }
+}
@@ -22,9 +22,12 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 
 import com.ceco.q.gravitybox.ledcontrol.LedMainActivity;
@@ -57,6 +60,7 @@ import android.preference.Preference.OnPreferenceChangeListener;
 import android.preference.PreferenceCategory;
 import android.preference.PreferenceFragment;
 import android.preference.PreferenceGroup;
+import android.preference.PreferenceManager;
 import android.preference.PreferenceScreen;
 import android.preference.RingtonePreference;
 import android.text.TextUtils.TruncateAt;
@@ -67,6 +71,9 @@ import android.view.Display;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
+import android.view.View;
+import android.widget.ListAdapter;
+import android.widget.ListView;
 import android.widget.SearchView;
 import android.widget.SearchView.OnQueryTextListener;
 import android.widget.TextView;
@@ -395,6 +402,7 @@ public class GravityBoxSettings extends GravityBoxActivity implements GravityBox
     public static final String ACTION_NOTIF_EXPAND_ALL_CHANGED = "gravitybox.intent.action.NOTIF_EXPAND_ALL_CHANGED";
     public static final String EXTRA_NOTIF_EXPAND_ALL = "notifExpandAll";
 
+    public static final String PREF_CAT_KEY_PIE_CONTROL = "pref_cat_pie_control";
     public static final String PREF_KEY_PIE_CONTROL_ENABLE = "pref_pie_control_enable2";
     public static final String PREF_KEY_PIE_CONTROL_CUSTOM_KEY = "pref_pie_control_custom_key";
     public static final String PREF_KEY_PIE_CONTROL_MENU = "pref_pie_control_menu";
@@ -531,6 +539,7 @@ public class GravityBoxSettings extends GravityBoxActivity implements GravityBox
     public static final String EXTRA_CLOCK_LONGPRESS_LINK = "clockLongpressLink";
     public static final String EXTRA_ALARM_HIDE = "alarmHide";
 
+    public static final String PREF_CAT_KEY_NAVIGATION_BAR = "pref_cat_navigation_bar";
     public static final String PREF_CAT_KEY_NAVBAR_KEYS = "pref_cat_navbar_keys";
     public static final String PREF_CAT_KEY_NAVBAR_COLOR = "pref_cat_navbar_color";
     public static final String PREF_CAT_KEY_NAVBAR_DIMEN = "pref_cat_navbar_dimen";
@@ -616,6 +625,7 @@ public class GravityBoxSettings extends GravityBoxActivity implements GravityBox
     public static final String PREF_KEY_DATA_TRAFFIC_OMNI_SHOW_ICON = "pref_data_traffic_omni_show_icon";
     public static final String PREF_KEY_DATA_TRAFFIC_OMNI_AUTOHIDE = "pref_data_traffic_omni_autohide";
     public static final String PREF_KEY_DATA_TRAFFIC_OMNI_AUTOHIDE_TH = "pref_data_traffic_omni_autohide_threshold";
+    public static final String PREF_KEY_DATA_TRAFFIC_SPARKLINE = "pref_data_traffic_sparkline";
     public static final String ACTION_PREF_DATA_TRAFFIC_CHANGED = 
             "gravitybox.intent.action.DATA_TRAFFIC_CHANGED";
     public static final String EXTRA_DT_MODE = "dtMode";
@@ -629,6 +639,7 @@ public class GravityBoxSettings extends GravityBoxActivity implements GravityBox
     public static final String EXTRA_DT_OMNI_SHOW_ICON = "dtOmniShowIcon";
     public static final String EXTRA_DT_OMNI_AUTOHIDE = "dtOmniAutohide";
     public static final String EXTRA_DT_OMNI_AUTOHIDE_TH = "dtOmniAutohideTh";
+    public static final String EXTRA_DT_SPARKLINE = "dtSparkline";
 
     public static final String PREF_CAT_KEY_APP_LAUNCHER = "pref_cat_app_launcher";
     public static final List<String> PREF_KEY_APP_LAUNCHER_SLOT = new ArrayList<>(Arrays.asList(
@@ -676,6 +687,7 @@ public class GravityBoxSettings extends GravityBoxActivity implements GravityBox
 
     private static final String PREF_LED_CONTROL = "pref_led_control";
 
+    public static final String PREF_CAT_KEY_SCREENRECORD_OPTIONS = "pref_cat_screenrecord_options";
     public static final String PREF_KEY_SCREENRECORD_SIZE = "pref_screenrecord_size";
     public static final String PREF_KEY_SCREENRECORD_BITRATE = "pref_screenrecord_bitrate";
     public static final String PREF_KEY_SCREENRECORD_TIMELIMIT = "pref_screenrecord_timelimit";
@@ -942,7 +954,20 @@ public class GravityBoxSettings extends GravityBoxActivity implements GravityBox
         public int[] fingerprintIds;
         public boolean isOxygenOsRom;
 
+        // false for properties loaded from cache as licensing state is never cached
+        public boolean licensingKnown;
+
+        private static final String CACHE_PREFS_NAME = "system_properties";
+        private static final String CACHE_KEY_VERSION_CODE = "cache:versionCode";
+        private static final String CACHE_ARRAY_SUFFIX = "[]";
+        private static final List<String> LICENSING_KEYS = Arrays.asList(
+                "uuidRegistered", "uuidType", "uncTrialCountdown", "tunerTrialCountdown");
+
+        private final Bundle mData;
+
         public SystemProperties(Bundle data) {
+            mData = data;
+            licensingKnown = data.containsKey("uuidRegistered");
             if (data.containsKey("hasGeminiSupport")) {
                 hasGeminiSupport = data.getBoolean("hasGeminiSupport");
             }
@@ -983,6 +1008,106 @@ public class GravityBoxSettings extends GravityBoxActivity implements GravityBox
                 isOxygenOsRom = data.getBoolean("isOxygenOsRom");
             }
         }
+
+        /**
+         * Returns last known properties cached by the same app version
+         * or null if there are none. Licensing state is not included.
+         */
+        public static SystemProperties loadFromCache(Context context) {
+            try {
+                SharedPreferences prefs = context.getSharedPreferences(
+                        CACHE_PREFS_NAME, Context.MODE_PRIVATE);
+                if (prefs.getLong(CACHE_KEY_VERSION_CODE, -1) != getVersionCode(context)) {
+                    return null;
+                }
+
+                Bundle data = new Bundle();
+                for (Map.Entry<String, ?> entry : prefs.getAll().entrySet()) {
+                    final String key = entry.getKey();
+                    final Object value = entry.getValue();
+                    // licensing state must never be served from cache
+                    if (key.startsWith("cache:") || LICENSING_KEYS.contains(key)) {
+                        continue;
+                    } else if (key.endsWith(CACHE_ARRAY_SUFFIX) && value instanceof String) {
+                        data.putIntArray(key.substring(0, key.length() - CACHE_ARRAY_SUFFIX.length()),
+                                parseIntArray((String) value));
+                    } else if (value instanceof Boolean) {
+                        data.putBoolean(key, (Boolean) value);
+                    } else if (value instanceof Integer) {
+                        data.putInt(key, (Integer) value);
+                    } else if (value instanceof String) {
+                        data.putString(key, (String) value);
+                    }
+                }
+                return new SystemProperties(data);
+            } catch (Throwable t) {
+                Log.e("GravityBox", "Error loading cached system properties: ", t);
+                return null;
+            }
+        }
+
+        public void saveToCache(Context context) {
+            try {
+                SharedPreferences.Editor editor = context.getSharedPreferences(
+                        CACHE_PREFS_NAME, Context.MODE_PRIVATE).edit().clear();
+                for (Map.Entry<String, Object> entry : getCacheValues().entrySet()) {
+                    final Object value = entry.getValue();
+                    if (value instanceof Boolean) {
+                        editor.putBoolean(entry.getKey(), (Boolean) value);
+                    } else if (value instanceof Integer) {
+                        editor.putInt(entry.getKey(), (Integer) value);
+                    } else {
+                        editor.putString(entry.getKey(), (String) value);
+                    }
+                }
+                editor.putLong(CACHE_KEY_VERSION_CODE, getVersionCode(context))
+                      .apply();
+            } catch (Throwable t) {
+                Log.e("GravityBox", "Error caching system properties: ", t);
+            }
+        }
+
+        /**
+         * Compares values other than licensing state
+         */
+        public boolean hasSameValues(SystemProperties other) {
+            return other != null && getCacheValues().equals(other.getCacheValues());
+        }
+
+        private Map<String, Object> getCacheValues() {
+            Map<String, Object> values = new HashMap<>();
+            for (String key : mData.keySet()) {
+                if (LICENSING_KEYS.contains(key)) continue;
+                final Object value = mData.get(key);
+                if (value instanceof int[]) {
+                    StringBuilder sb = new StringBuilder();
+                    for (int i : (int[]) value) {
+                        if (sb.length() > 0) sb.append(',');
+                        sb.append(i);
+                    }
+                    values.put(key + CACHE_ARRAY_SUFFIX, sb.toString());
+                } else if (value instanceof Boolean || value instanceof Integer ||
+                        value instanceof String) {
+                    values.put(key, value);
+                }
+            }
+            return values;
+        }
+
+        private static int[] parseIntArray(String value) {
+            if (value.isEmpty()) return new int[0];
+            String[] parts = value.split(",");
+            int[] array = new int[parts.length];
+            for (int i = 0; i < parts.length; i++) {
+                array[i] = Integer.parseInt(parts[i]);
+            }
+            return array;
+        }
+
+        private static long getVersionCode(Context context) throws NameNotFoundException {
+            return context.getPackageManager().getPackageInfo(
+                    context.getPackageName(), 0).getLongVersionCode();
+        }
     }
 
     private GravityBoxResultReceiver mReceiver;
@@ -996,6 +1121,14 @@ public class GravityBoxSettings extends GravityBoxActivity implements GravityBox
     private Runnable mGetSystemPropertiesTimeout = new Runnable() {
         @Override
         public void run() {
+            mHandler = null;
+            if (mPrefsFragment != null) {
+                // preferences shown from cached properties stay usable; let user know
+                // changes might have no effect and licensed features remain disabled
+                Toast.makeText(GravityBoxSettings.this, R.string.gb_startup_warning,
+                        Toast.LENGTH_LONG).show();
+                return;
+            }
             dismissProgressDialog();
             AlertDialog.Builder builder = new AlertDialog.Builder(GravityBoxSettings.this)
                 .setTitle(R.string.app_name)
@@ -1052,14 +1185,22 @@ public class GravityBoxSettings extends GravityBoxActivity implements GravityBox
             intent.setAction(SystemPropertyProvider.ACTION_GET_SYSTEM_PROPERTIES);
             intent.putExtra("receiver", mReceiver);
             intent.putExtra("settings_uuid", SettingsManager.getInstance(this).getOrCreateUuid());
-            mProgressDialog = new ProgressDialog(this);
-            mProgressDialog.setIndeterminate(true);
-            mProgressDialog.setTitle(R.string.app_name);
-            mProgressDialog.setMessage(getString(R.string.gb_startup_progress));
-            mProgressDialog.setCancelable(false);
-            mProgressDialog.show();
+            // show preferences right away from last known properties
+            // and reconcile them with the reply from SystemUI once it arrives
+            SystemProperties cachedProperties = SystemProperties.loadFromCache(this);
             mHandler = new Handler();
             mHandler.postDelayed(mGetSystemPropertiesTimeout, 5000);
+            if (cachedProperties != null) {
+                sSystemProperties = cachedProperties;
+                showPrefsFragment();
+            } else {
+                mProgressDialog = new ProgressDialog(this);
+                mProgressDialog.setIndeterminate(true);
+                mProgressDialog.setTitle(R.string.app_name);
+                mProgressDialog.setMessage(getString(R.string.gb_startup_progress));
+                mProgressDialog.setCancelable(false);
+                mProgressDialog.show();
+            }
             sendBroadcast(intent);
         }
     }
@@ -1157,15 +1298,31 @@ public class GravityBoxSettings extends GravityBoxActivity implements GravityBox
         dismissProgressDialog();
         Log.d("GravityBox", "result received: resultCode=" + resultCode);
         if (resultCode == SystemPropertyProvider.RESULT_SYSTEM_PROPERTIES) {
-            sSystemProperties = new SystemProperties(resultData);
-            mPrefsFragment = new PrefsFragment();
-            mPrefsFragment.setSearchQuery(mSearchQuery);
-            getFragmentManager().beginTransaction().replace(android.R.id.content, mPrefsFragment).commit();
-        } else {
+            SystemProperties properties = new SystemProperties(resultData);
+            properties.saveToCache(this);
+            final boolean changed = !properties.hasSameValues(sSystemProperties);
+            sSystemProperties = properties;
+            if (mPrefsFragment == null || changed) {
+                if (mPrefsFragment != null) {
+                    Log.d("GravityBox", "Cached system properties outdated; reloading preferences");
+                }
+                showPrefsFragment();
+            } else {
+                mPrefsFragment.onLicensingStateReceived();
+            }
+        } else if (mPrefsFragment == null) {
             finish();
         }
     }
 
+    private void showPrefsFragment() {
+        if (isFinishing() || isDestroyed()) return;
+        mPrefsFragment = new PrefsFragment();
+        mPrefsFragment.setSearchQuery(mSearchQuery);
+        getFragmentManager().beginTransaction().replace(android.R.id.content, mPrefsFragment)
+                .commitAllowingStateLoss();
+    }
+
     private void dismissProgressDialog() {
         if (mProgressDialog != null && mProgressDialog.isShowing()) {
             mProgressDialog.dismiss();
@@ -1183,6 +1340,29 @@ public class GravityBoxSettings extends GravityBoxActivity implements GravityBox
     public static class PrefsFragment extends PreferenceFragment 
                                       implements OnSharedPreferenceChangeListener,
                                                  OnPreferenceChangeListener {
+        private static final String STATE_INFLATED_CATEGORIES = "inflatedCategories";
+        // app version default values of lazy categories were last written for
+        private static final String CATEGORY_DEFAULTS_PREFS_NAME = "category_defaults";
+        private static final String CATEGORY_DEFAULTS_KEY_VERSION_CODE = "versionCode";
+
+        // top level categories inflated from their own resources when opened for the first time
+        private static final Map<String, Integer> LAZY_CATEGORIES = new LinkedHashMap<>();
+        static {
+            LAZY_CATEGORIES.put(PREF_CAT_KEY_LOCKSCREEN, R.xml.gravitybox_lockscreen);
+            LAZY_CATEGORIES.put(PREF_CAT_KEY_STATUSBAR, R.xml.gravitybox_statusbar);
+            LAZY_CATEGORIES.put(PREF_CAT_KEY_NAVIGATION_BAR, R.xml.gravitybox_navigation_bar);
+            LAZY_CATEGORIES.put(PREF_CAT_KEY_PIE_CONTROL, R.xml.gravitybox_pie_control);
+            LAZY_CATEGORIES.put(PREF_CAT_KEY_POWER, R.xml.gravitybox_power);
+            LAZY_CATEGORIES.put(PREF_CAT_KEY_DISPLAY, R.xml.gravitybox_display);
+            LAZY_CATEGORIES.put(PREF_CAT_KEY_PHONE, R.xml.gravitybox_phone);
+            LAZY_CATEGORIES.put(PREF_CAT_KEY_MEDIA, R.xml.gravitybox_media);
+            LAZY_CATEGORIES.put(PREF_CAT_HWKEY_ACTIONS, R.xml.gravitybox_hwkey_actions);
+            LAZY_CATEGORIES.put(PREF_CAT_KEY_APP_LAUNCHER, R.xml.gravitybox_app_launcher);
+            LAZY_CATEGORIES.put(PREF_CAT_KEY_FINGERPRINT_LAUNCHER, R.xml.gravitybox_fingerprint_launcher);
+            LAZY_CATEGORIES.put(PREF_CAT_KEY_SCREENRECORD_OPTIONS, R.xml.gravitybox_screenrecord_options);
+            LAZY_CATEGORIES.put(PREF_CAT_KEY_MISC, R.xml.gravitybox_misc);
+        }
+
         private ListPreference mBatteryStyle;
         private ListPreference mPrefBatteryPercentSize;
         private ListPreference mPrefBatteryPercentStyle;
@@ -1285,6 +1465,7 @@ public class GravityBoxSettings extends GravityBoxActivity implements GravityBox
         private SeekBarPreference mPrefDataTrafficOmniAutohideTh;
         private CheckBoxPreference mPrefDataTrafficActiveMobileOnly;
         private ListPreference mPrefDataTrafficDisplayMode;
+        private CheckBoxPreference mPrefDataTrafficSparkline;
         private ListPreference mPrefLinkVolumes;
         private ListPreference mPrefLinkRingerSystemVolumes;
         private PreferenceScreen mPrefCatAppLauncher;
@@ -1325,6 +1506,8 @@ public class GravityBoxSettings extends GravityBoxActivity implements GravityBox
 
         private String mSearchQuery;
         private int mDonateUrlResId;
+        private boolean mLicensingStateApplied;
+        private final Set<String> mInflatedCategories = new HashSet<>();
 
         @Override
         public void onCreate(Bundle savedInstanceState) {
@@ -1348,12 +1531,6 @@ public class GravityBoxSettings extends GravityBoxActivity implements GravityBox
             // Force update tile service components
             TileOrderActivity.updateServiceComponents(getActivity());
 
-            mBatteryStyle = (ListPreference) findPreference(PREF_KEY_BATTERY_STYLE);
-            mPrefBatteryPercentSize = (ListPreference) findPreference(PREF_KEY_BATTERY_PERCENT_TEXT_SIZE);
-            mPrefBatteryPercentStyle = (ListPreference) findPreference(PREF_KEY_BATTERY_PERCENT_TEXT_STYLE);
-            mPrefBatteryPercentCharging = (ListPreference) findPreference(PREF_KEY_BATTERY_PERCENT_TEXT_CHARGING);
-            mLowBatteryWarning = (ListPreference) findPreference(PREF_KEY_LOW_BATTERY_WARNING_POLICY);
-
             mPrefCatAbout = (PreferenceScreen) findPreference(PREF_CAT_KEY_ABOUT);
             mPrefAboutGb = findPreference(PREF_KEY_ABOUT_GRAVITYBOX);
 
@@ -1378,148 +1555,199 @@ public class GravityBoxSettings extends GravityBoxActivity implements GravityBox
                 getPreferenceScreen().removePreference(mPrefEngMode);
             }
 
-            mPrefCatLockscreenBg = 
-                    (PreferenceCategory) findPreference(PREF_CAT_KEY_LOCKSCREEN_BACKGROUND);
-            mPrefLockscreenBg = (ListPreference) findPreference(PREF_KEY_LOCKSCREEN_BACKGROUND);
-            mPrefLockscreenBgColor = 
-                    (ColorPickerPreference) findPreference(PREF_KEY_LOCKSCREEN_BACKGROUND_COLOR);
-            mPrefLockscreenBgImage =
-                    findPreference(PREF_KEY_LOCKSCREEN_BACKGROUND_IMAGE);
-            mPrefLockscreenBgBlurEffect =
-                    (CheckBoxPreference) findPreference(PREF_KEY_LOCKSCREEN_BACKGROUND_BLUR_EFFECT);
-            mPrefLockscreenBlurIntensity =
-                    (SeekBarPreference) findPreference(PREF_KEY_LOCKSCREEN_BACKGROUND_BLUR_INTENSITY);
-            mPrefLockscreenCarrierText = 
-                    (EditTextPreference) findPreference(PREF_KEY_LOCKSCREEN_CARRIER_TEXT);
-
             wallpaperImage = new File(SettingsManager.getInstance(getActivity()).getPreferenceDir() + "/lockwallpaper");
 
-            mPrefHwKeyMenuSingletap = (ListPreference) findPreference(PREF_KEY_HWKEY_MENU_SINGLETAP);
-            mPrefHwKeyMenuLongpress = (ListPreference) findPreference(PREF_KEY_HWKEY_MENU_LONGPRESS);
-            mPrefHwKeyMenuDoubletap = (ListPreference) findPreference(PREF_KEY_HWKEY_MENU_DOUBLETAP);
-            mPrefHwKeyHomeLongpress = (ListPreference) findPreference(PREF_KEY_HWKEY_HOME_LONGPRESS);
-            //mPrefHwKeyHomeLongpressKeyguard = (CheckBoxPreference) findPreference(PREF_KEY_HWKEY_HOME_LONGPRESS_KEYGUARD);
-            mPrefHwKeyHomeDoubletap = (ListPreference) findPreference(PREF_KEY_HWKEY_HOME_DOUBLETAP);
-            mPrefHwKeyBackSingletap = (ListPreference) findPreference(PREF_KEY_HWKEY_BACK_SINGLETAP);
-            mPrefHwKeyBackLongpress = (ListPreference) findPreference(PREF_KEY_HWKEY_BACK_LONGPRESS);
-            mPrefHwKeyBackDoubletap = (ListPreference) findPreference(PREF_KEY_HWKEY_BACK_DOUBLETAP);
-            mPrefHwKeyRecentsSingletap = (ListPreference) findPreference(PREF_KEY_HWKEY_RECENTS_SINGLETAP);
-            mPrefHwKeyRecentsLongpress = (ListPreference) findPreference(PREF_KEY_HWKEY_RECENTS_LONGPRESS);
-            mPrefHwKeyRecentsDoubletap = (ListPreference) findPreference(PREF_KEY_HWKEY_RECENTS_DOUBLETAP);
-            mPrefHwKeyDoubletapSpeed = (ListPreference) findPreference(PREF_KEY_HWKEY_DOUBLETAP_SPEED);
-            mPrefHwKeyKillDelay = (ListPreference) findPreference(PREF_KEY_HWKEY_KILL_DELAY);
-            mPrefHwKeyLockscreenTorch = (ListPreference) findPreference(PREF_KEY_HWKEY_LOCKSCREEN_TORCH);
-            mPrefCatHwKeyOthers = (PreferenceCategory) findPreference(PREF_CAT_KEY_HWKEY_ACTIONS_OTHERS);
-
-            mPrefPhoneFlip = (ListPreference) findPreference(PREF_KEY_PHONE_FLIP);
+            mPrefGbThemeDark = (CheckBoxPreference) findPreference(PREF_KEY_GB_THEME_DARK);
+            File file = new File(Utils.getFilesDir(getActivity()) + "/" + FILE_THEME_DARK_FLAG);
+            mPrefGbThemeDark.setChecked(file.exists());
 
             mPrefCatStatusbar = (PreferenceScreen) findPreference(PREF_CAT_KEY_STATUSBAR);
-            mPrefCatStatusbarQs = (PreferenceScreen) findPreference(PREF_CAT_KEY_STATUSBAR_QS);
-            mPrefCatQsTileSettings = (PreferenceScreen) findPreference(PREF_CAT_KEY_QS_TILE_SETTINGS);
-            mPrefCatQsNmTileSettings = (PreferenceScreen) findPreference(PREF_CAT_KEY_QS_NM_TILE_SETTINGS);
-            //mPrefAutoSwitchQs = (ListPreference) findPreference(PREF_KEY_QUICK_SETTINGS_AUTOSWITCH);
-            mPrefQuickPulldown = (ListPreference) findPreference(PREF_KEY_QUICK_PULLDOWN);
-            mPrefQuickPulldownSize = (SeekBarPreference) findPreference(PREF_KEY_QUICK_PULLDOWN_SIZE);
+            mPrefCatPhone = (PreferenceScreen) findPreference(PREF_CAT_KEY_PHONE);
+            mPrefCatLockscreen = (PreferenceScreen) findPreference(PREF_CAT_KEY_LOCKSCREEN);
+            mPrefCatPower = (PreferenceScreen) findPreference(PREF_CAT_KEY_POWER);
+            mPrefCatDisplay = (PreferenceScreen) findPreference(PREF_CAT_KEY_DISPLAY);
+            mPrefCatMedia = (PreferenceScreen) findPreference(PREF_CAT_KEY_MEDIA);
+            mPrefCatAppLauncher = (PreferenceScreen) findPreference(PREF_CAT_KEY_APP_LAUNCHER);
 
-            mPrefCatNotifDrawerStyle = (PreferenceScreen) findPreference(PREF_CAT_KEY_NOTIF_DRAWER_STYLE);
-            mPrefNotifExpandAll = (CheckBoxPreference) findPreference(PREF_KEY_NOTIF_EXPAND_ALL);
+            mPrefBackup = findPreference(PREF_KEY_SETTINGS_BACKUP);
+            mPrefRestore = findPreference(PREF_KEY_SETTINGS_RESTORE);
 
-            mPrefDisableRoamingIndicators = (CheckBoxPreference) findPreference(PREF_KEY_DISABLE_ROAMING_INDICATORS);
-            mPrefButtonBacklightMode = (ListPreference) findPreference(PREF_KEY_BUTTON_BACKLIGHT_MODE);
+            mPrefTransVerification = (EditTextPreference) findPreference(PREF_KEY_TRANS_VERIFICATION);
 
-            mPrefPieEnabled = (ListPreference) findPreference(PREF_KEY_PIE_CONTROL_ENABLE);
-            mPrefPieHwKeysDisabled = (CheckBoxPreference) findPreference(PREF_KEY_HWKEYS_DISABLE);
-            mPrefPieCustomKey = (ListPreference) findPreference(PREF_KEY_PIE_CONTROL_CUSTOM_KEY);
-            mPrefPieColorBg = (ColorPickerPreference) findPreference(PREF_KEY_PIE_COLOR_BG);
-            mPrefPieColorFg = (ColorPickerPreference) findPreference(PREF_KEY_PIE_COLOR_FG);
-            mPrefPieColorOutline = (ColorPickerPreference) findPreference(PREF_KEY_PIE_COLOR_OUTLINE);
-            mPrefPieColorSelected = (ColorPickerPreference) findPreference(PREF_KEY_PIE_COLOR_SELECTED);
-            mPrefPieColorText = (ColorPickerPreference) findPreference(PREF_KEY_PIE_COLOR_TEXT);
-            mPrefPieColorReset = findPreference(PREF_KEY_PIE_COLOR_RESET);
-            mPrefPieBackLongpress = (ListPreference) findPreference(PREF_KEY_PIE_BACK_LONGPRESS);
-            mPrefPieHomeLongpress = (ListPreference) findPreference(PREF_KEY_PIE_HOME_LONGPRESS);
-            mPrefPieRecentsLongpress = (ListPreference) findPreference(PREF_KEY_PIE_RECENTS_LONGPRESS);
-            mPrefPieSearchLongpress = (ListPreference) findPreference(PREF_KEY_PIE_SEARCH_LONGPRESS);
-            mPrefPieMenuLongpress = (ListPreference) findPreference(PREF_KEY_PIE_MENU_LONGPRESS);
-            mPrefPieAppLongpress = (ListPreference) findPreference(PREF_KEY_PIE_APP_LONGPRESS);
-            mPrefPieLongpressDelay = (ListPreference) findPreference(PREF_KEY_PIE_LONGPRESS_DELAY);
+            mPrefLedControl = findPreference(PREF_LED_CONTROL);
 
-            mPrefGbThemeDark = (CheckBoxPreference) findPreference(PREF_KEY_GB_THEME_DARK);
-            File file = new File(Utils.getFilesDir(getActivity()) + "/" + FILE_THEME_DARK_FLAG);
-            mPrefGbThemeDark.setChecked(file.exists());
+            // TODO: Virtual key vibrate pattern
+            //mPrefVkVibratePattern = (EditTextPreference) findPreference(PREF_KEY_VK_VIBRATE_PATTERN);
+            //mPrefVkVibratePattern.setOnPreferenceChangeListener(this);
 
-            mPrefQsRambarMode = (ListPreference) findPreference(PREF_KEY_QS_RAMBAR_MODE);
+            mPrefCustomApp = (AppPickerPreference) findPreference(PREF_KEY_HWKEY_CUSTOM_APP);
+            getPreferenceScreen().removePreference(mPrefCustomApp);
 
-            mPrefCatPhone = (PreferenceScreen) findPreference(PREF_CAT_KEY_PHONE);
+            mPrefTuner = findPreference(PREF_TUNER);
 
-            mPrefBrightnessMin = (SeekBarPreference) findPreference(PREF_KEY_BRIGHTNESS_MIN);
-            mPrefBrightnessMin.setMinimum(getResources().getInteger(R.integer.screen_brightness_min));
-            mPrefScreenDimLevel = (SeekBarPreference) findPreference(PREF_KEY_SCREEN_DIM_LEVEL);
-            mPrefScreenDimLevel.setMinimum(getResources().getInteger(R.integer.screen_brightness_dim_min));
+            if (Utils.isWifiOnly(getActivity())) {
+                getPreferenceScreen().removePreference(mPrefCatPhone);
+            }
 
-            mPrefCatLockscreen = (PreferenceScreen) findPreference(PREF_CAT_KEY_LOCKSCREEN);
-            mPrefCatPower = (PreferenceScreen) findPreference(PREF_CAT_KEY_POWER);
-            mPrefCatPowerMenu = (PreferenceCategory) findPreference(PREF_CAT_KEY_POWER_MENU);
-            mPrefCatPowerOther = (PreferenceCategory) findPreference(PREF_CAT_KEY_POWER_OTHER);
-            mPrefPowerProximityWake = (CheckBoxPreference) findPreference(PREF_KEY_POWER_PROXIMITY_WAKE);
-            mPrefCatDisplay = (PreferenceScreen) findPreference(PREF_CAT_KEY_DISPLAY);
-            mPrefUnplugTurnsOnScreen = (CheckBoxPreference) findPreference(PREF_KEY_UNPLUG_TURNS_ON_SCREEN);
-            mPrefCatMedia = (PreferenceScreen) findPreference(PREF_CAT_KEY_MEDIA);
-            mPrefMusicVolumeSteps = (CheckBoxPreference) findPreference(PREF_KEY_MUSIC_VOLUME_STEPS);
-            mPrefMusicVolumeStepsValue = (SeekBarPreference) findPreference(PREF_KEY_MUSIC_VOLUME_STEPS_VALUE);
-            mPrefLinkVolumes = (ListPreference) findPreference(PREF_KEY_LINK_VOLUMES);
-            mPrefLinkRingerSystemVolumes = (ListPreference) findPreference(PREF_KEY_LINK_RINGER_SYSTEM_VOLUMES);
-            mPrefTranclucentDecor =  (ListPreference) findPreference(PREF_KEY_TRANSLUCENT_DECOR);
+            // Remove more music volume steps option if necessary
+            if (!Utils.shouldAllowMoreVolumeSteps()) {
+                mPrefs.edit().putBoolean(PREF_KEY_MUSIC_VOLUME_STEPS, false).apply();
+            }
 
-            mPrefExpandedDesktop = (ListPreference) findPreference(PREF_KEY_EXPANDED_DESKTOP);
+            if (!sSystemProperties.supportsFingerprint) {
+                Preference p = findPreference(PREF_CAT_KEY_FINGERPRINT_LAUNCHER);
+                if (p != null) getPreferenceScreen().removePreference(p);
+            }
 
-            mPrefCatNavbarKeys = (PreferenceCategory) findPreference(PREF_CAT_KEY_NAVBAR_KEYS);
-            mPrefCatNavbarColor = (PreferenceCategory) findPreference(PREF_CAT_KEY_NAVBAR_COLOR);
-            mPrefCatNavbarDimen = (PreferenceCategory) findPreference(PREF_CAT_KEY_NAVBAR_DIMEN);
-            mPrefNavbarEnable = (CheckBoxPreference) findPreference(PREF_KEY_NAVBAR_ENABLE);
-            mPrefNavbarCustomKeySingletap = (ListPreference) findPreference(PREF_KEY_NAVBAR_CUSTOM_KEY_SINGLETAP);
-            mPrefNavbarCustomKeyLongpress = (ListPreference) findPreference(PREF_KEY_NAVBAR_CUSTOM_KEY_LONGPRESS);
-            mPrefNavbarCustomKeyDoubletap = (ListPreference) findPreference(PREF_KEY_NAVBAR_CUSTOM_KEY_DOUBLETAP);
+            // categories opened before the fragment got recreated
+            if (savedInstanceState != null) {
+                ArrayList<String> categories =
+                        savedInstanceState.getStringArrayList(STATE_INFLATED_CATEGORIES);
+                if (categories != null) {
+                    for (String catKey : categories) {
+                        inflateCategory(catKey);
+                    }
+                }
+            }
 
-            mPrefCatPhoneTelephony = (PreferenceCategory) findPreference(PREF_CAT_KEY_PHONE_TELEPHONY);
-            mPrefCallVibrations = (MultiSelectListPreference) findPreference(PREF_KEY_CALL_VIBRATIONS);
+            persistCategoryDefaults();
+            setDefaultValues();
+            checkPermissions();
+        }
 
-            mPrefQsNetworkModeSimSlot = (ListPreference) findPreference(PREF_KEY_QS_NETWORK_MODE_SIM_SLOT);
-            //mPrefQsTileLabelStyle = (ListPreference) findPreference(PREF_KEY_QUICK_SETTINGS_TILE_LABEL_STYLE);
+        /**
+         * Writes XML default values of categories that have not been inflated so that
+         * mods see the same values as if the whole hierarchy was inflated.
+         * Categories are inflated for that only once per app version.
+         */
+        private void persistCategoryDefaults() {
+            final Context ctx = getActivity().createDeviceProtectedStorageContext();
+            final SharedPreferences state = ctx.getSharedPreferences(
+                    CATEGORY_DEFAULTS_PREFS_NAME, Context.MODE_PRIVATE);
+            long versionCode;
+            try {
+                versionCode = SystemProperties.getVersionCode(ctx);
+            } catch (NameNotFoundException e) {
+                versionCode = -1;
+            }
+            if (versionCode != -1 &&
+                    state.getLong(CATEGORY_DEFAULTS_KEY_VERSION_CODE, -1) == versionCode) {
+                return;
+            }
 
-            mPrefSbClockDate = (ListPreference) findPreference(PREF_KEY_STATUSBAR_CLOCK_DATE);
-            mPrefSbClockDow = (ListPreference) findPreference(PREF_KEY_STATUSBAR_CLOCK_DOW);
-            mPrefSbClockDowSize = (SeekBarPreference) findPreference(PREF_KEY_STATUSBAR_CLOCK_DOW_SIZE);
+            final String prefsName = getPreferenceManager().getSharedPreferencesName();
+            for (Integer resId : LAZY_CATEGORIES.values()) {
+                // readAgain is needed as the "defaults set" flag is shared by all resources
+                PreferenceManager.setDefaultValues(ctx, prefsName, Context.MODE_PRIVATE, resId, true);
+            }
+            state.edit().putLong(CATEGORY_DEFAULTS_KEY_VERSION_CODE, versionCode).apply();
+        }
 
-            mPrefCatDataTraffic = (PreferenceScreen) findPreference(PREF_CAT_KEY_DATA_TRAFFIC);
-            mPrefDataTrafficPosition = (ListPreference) findPreference(PREF_KEY_DATA_TRAFFIC_POSITION);
-            mPrefDataTrafficLs = (CheckBoxPreference) findPreference(PREF_KEY_DATA_TRAFFIC_LOCKSCREEN);
-            mPrefDataTrafficSize = (ListPreference) findPreference(PREF_KEY_DATA_TRAFFIC_SIZE);
-            mPrefDataTrafficMode = (ListPreference) findPreference(PREF_KEY_DATA_TRAFFIC_MODE);
-            mPrefDataTrafficInactivityMode = (ListPreference) findPreference(PREF_KEY_DATA_TRAFFIC_INACTIVITY_MODE);
-            mPrefDataTrafficOmniMode = (ListPreference) findPreference(PREF_KEY_DATA_TRAFFIC_OMNI_MODE);
-            mPrefDataTrafficOmniShowIcon = (CheckBoxPreference) findPreference(PREF_KEY_DATA_TRAFFIC_OMNI_SHOW_ICON);
-            mPrefDataTrafficActiveMobileOnly = (CheckBoxPreference) findPreference(PREF_KEY_DATA_TRAFFIC_ACTIVE_MOBILE_ONLY);
-            mPrefDataTrafficDisplayMode = (ListPreference) findPreference(PREF_KEY_DATA_TRAFFIC_DISPLAY_MODE);
-            mPrefDataTrafficOmniAutohide = (CheckBoxPreference) findPreference(PREF_KEY_DATA_TRAFFIC_OMNI_AUTOHIDE);
-            mPrefDataTrafficOmniAutohideTh = (SeekBarPreference) findPreference(PREF_KEY_DATA_TRAFFIC_OMNI_AUTOHIDE_TH);
+        /**
+         * Makes default values of lazy categories get written again next time settings open,
+         * e.g. after preferences were replaced by restore
+         */
+        public static void resetCategoryDefaults(Context context) {
+            context.createDeviceProtectedStorageContext().getSharedPreferences(
+                    CATEGORY_DEFAULTS_PREFS_NAME, Context.MODE_PRIVATE).edit().clear().commit();
+        }
 
-            mPrefCatAppLauncher = (PreferenceScreen) findPreference(PREF_CAT_KEY_APP_LAUNCHER);
-            mPrefAppLauncherSlot = new AppPickerPreference[PREF_KEY_APP_LAUNCHER_SLOT.size()];
-            for (int i = 0; i < mPrefAppLauncherSlot.length; i++) {
-                AppPickerPreference appPref = new AppPickerPreference(getActivity(), null);
-                appPref.setKey(PREF_KEY_APP_LAUNCHER_SLOT.get(i));
-                appPref.setTitle(String.format(
-                        getActivity().getString(R.string.pref_app_launcher_slot_title), i + 1));
-                appPref.setDialogTitle(appPref.getTitle());
-                appPref.setDefaultSummary(getActivity().getString(R.string.app_picker_none));
-                appPref.setSummary(getActivity().getString(R.string.app_picker_none));
-                mPrefAppLauncherSlot[i] = appPref;
-                mPrefCatAppLauncher.addPreference(mPrefAppLauncherSlot[i]);
-                if (mPrefs.getString(appPref.getKey(), null) == null) {
-                    mPrefs.edit().putString(appPref.getKey(), null).commit();
+        @Override
+        public void onSaveInstanceState(Bundle outState) {
+            super.onSaveInstanceState(outState);
+            outState.putStringArrayList(STATE_INFLATED_CATEGORIES,
+                    new ArrayList<>(mInflatedCategories));
+        }
+
+        /**
+         * Inflates content of top level category into its placeholder screen
+         * @return true if category got inflated, false if it is not lazy, was already inflated
+         * or was removed from the hierarchy
+         */
+        private boolean inflateCategory(String catKey) {
+            final Integer resId = LAZY_CATEGORIES.get(catKey);
+            if (resId == null || mInflatedCategories.contains(catKey)) return false;
+            final PreferenceScreen root = getPreferenceScreen();
+            final PreferenceScreen placeholder = (PreferenceScreen) root.findPreference(catKey);
+            if (placeholder == null) return false;
+
+            // resource content gets appended to the root; move it into the placeholder
+            final int rootCount = root.getPreferenceCount();
+            addPreferencesFromResource(resId);
+            while (root.getPreferenceCount() > rootCount) {
+                Preference p = root.getPreference(rootCount);
+                root.removePreference(p);
+                placeholder.addPreference(p);
+            }
+            mInflatedCategories.add(catKey);
+
+            setupCategory(catKey);
+
+            // special handling for RingtonePreference
+            for (String key : ringToneKeys) {
+                Preference rp = placeholder.findPreference(key);
+                if (rp != null) {
+                    rp.setOnPreferenceChangeListener(this::onRingtonePreferenceChanged);
+                }
+            }
+            return true;
+        }
+
+        private void openPreferenceScreen(PreferenceScreen parent, PreferenceScreen screen) {
+            final int position = getAdapterPosition(parent, screen);
+            if (position >= 0) {
+                parent.onItemClick(null, null, position, parent.getRootAdapter().getItemId(position));
+            }
+        }
+
+        private static int getAdapterPosition(PreferenceScreen screen, Preference pref) {
+            final ListAdapter adapter = screen.getRootAdapter();
+            for (int i = 0; i < adapter.getCount(); i++) {
+                if (adapter.getItem(i) == pref) {
+                    return i;
                 }
             }
+            return -1;
+        }
+
+        private void setupCategory(String catKey) {
+            switch (catKey) {
+                case PREF_CAT_KEY_LOCKSCREEN: setupLockscreenCategory(); break;
+                case PREF_CAT_KEY_STATUSBAR: setupStatusbarCategory(); break;
+                case PREF_CAT_KEY_NAVIGATION_BAR: setupNavigationBarCategory(); break;
+                case PREF_CAT_KEY_PIE_CONTROL: setupPieControlCategory(); break;
+                case PREF_CAT_KEY_POWER: setupPowerCategory(); break;
+                case PREF_CAT_KEY_DISPLAY: setupDisplayCategory(); break;
+                case PREF_CAT_KEY_PHONE: setupPhoneCategory(); break;
+                case PREF_CAT_KEY_MEDIA: setupMediaCategory(); break;
+                case PREF_CAT_HWKEY_ACTIONS: setupHwKeyActionsCategory(); break;
+                case PREF_CAT_KEY_APP_LAUNCHER: setupAppLauncherCategory(); break;
+                case PREF_CAT_KEY_FINGERPRINT_LAUNCHER:
+                    if (sSystemProperties.fingerprintIds != null) {
+                        initFingerprintLauncher();
+                    }
+                    break;
+                case PREF_CAT_KEY_SCREENRECORD_OPTIONS:
+                    mPrefScreenrecordSize = (ListPreference) findPreference(PREF_KEY_SCREENRECORD_SIZE);
+                    break;
+                case PREF_CAT_KEY_MISC: setupMiscCategory(); break;
+            }
+        }
+
+        private void setupLockscreenCategory() {
+            mPrefCatLockscreenBg = 
+                    (PreferenceCategory) findPreference(PREF_CAT_KEY_LOCKSCREEN_BACKGROUND);
+            mPrefLockscreenBg = (ListPreference) findPreference(PREF_KEY_LOCKSCREEN_BACKGROUND);
+            mPrefLockscreenBgColor = 
+                    (ColorPickerPreference) findPreference(PREF_KEY_LOCKSCREEN_BACKGROUND_COLOR);
+            mPrefLockscreenBgImage =
+                    findPreference(PREF_KEY_LOCKSCREEN_BACKGROUND_IMAGE);
+            mPrefLockscreenBgBlurEffect =
+                    (CheckBoxPreference) findPreference(PREF_KEY_LOCKSCREEN_BACKGROUND_BLUR_EFFECT);
+            mPrefLockscreenBlurIntensity =
+                    (SeekBarPreference) findPreference(PREF_KEY_LOCKSCREEN_BACKGROUND_BLUR_INTENSITY);
+            mPrefLockscreenCarrierText = 
+                    (EditTextPreference) findPreference(PREF_KEY_LOCKSCREEN_CARRIER_TEXT);
 
             mPrefCatLsOther = (PreferenceCategory) findPreference(PREF_CAT_KEY_LOCKSCREEN_OTHER);
             mPrefLsRotation = (ListPreference) findPreference(PREF_KEY_LOCKSCREEN_ROTATION);
@@ -1537,96 +1765,87 @@ public class GravityBoxSettings extends GravityBoxActivity implements GravityBox
                 appPref.setLaunchesFromLockscreen(true);
                 mPrefCatLsShortcuts.addPreference(appPref);
                 if (mPrefs.getString(appPref.getKey(), null) == null) {
-                    mPrefs.edit().putString(appPref.getKey(), null).commit();
+                    mPrefs.edit().putString(appPref.getKey(), null).apply();
                 }
             }
 
-            mPrefVolumeRockerWake = (ListPreference) findPreference(PREF_KEY_VOLUME_ROCKER_WAKE);
-
-            mPrefPulseNotificationDelay = (SeekBarPreference) findPreference(PREF_KEY_PULSE_NOTIFICATION_DELAY);
-
-            mPrefCatMiscOther = (PreferenceCategory) findPreference(PREF_CAT_KEY_MISC_OTHER);
-            mPrefTorchAutoOff = (SeekBarPreference) findPreference(PREF_KEY_TORCH_AUTO_OFF);
-
-            mPrefBackup = findPreference(PREF_KEY_SETTINGS_BACKUP);
-            mPrefRestore = findPreference(PREF_KEY_SETTINGS_RESTORE);
-
-            mPrefTransVerification = (EditTextPreference) findPreference(PREF_KEY_TRANS_VERIFICATION);
-
-            mPrefScreenrecordSize = (ListPreference) findPreference(PREF_KEY_SCREENRECORD_SIZE);
-
-            mPrefLedControl = findPreference(PREF_LED_CONTROL);
-
-            // TODO: Virtual key vibrate pattern
-            //mPrefVkVibratePattern = (EditTextPreference) findPreference(PREF_KEY_VK_VIBRATE_PATTERN);
-            //mPrefVkVibratePattern.setOnPreferenceChangeListener(this);
-
-            mPrefSbBtVisibility = (ListPreference) findPreference(PREF_KEY_STATUSBAR_BT_VISIBILITY);
-
-            mPrefCustomApp = (AppPickerPreference) findPreference(PREF_KEY_HWKEY_CUSTOM_APP);
-            getPreferenceScreen().removePreference(mPrefCustomApp);
-
-            mPrefChargingLed = (ListPreference) findPreference(PREF_KEY_CHARGING_LED);
-            mPrefProximityWakeIgnoreCall = (CheckBoxPreference) findPreference(PREF_KEY_POWER_PROXIMITY_WAKE_IGNORE_CALL); 
-
-            mPrefQrQuality = (ListPreference) findPreference(PREF_KEY_QUICKRECORD_QUALITY);
+            // Remove MTK specific preferences
+            if (Utils.isMtkDevice()) {
+                mPrefCatLsOther.removePreference(mPrefLsRotation);
+            }
 
-            mPrefSrAdaptiveDelay = (SeekBarPreference) findPreference(PREF_KEY_SMART_RADIO_ADAPTIVE_DELAY);
+            // Remove Xperia preferences
+            if (Utils.isXperiaDevice()) {
+                mPrefCatLsOther.removePreference(mPrefLockscreenCarrierText);
+            }
 
-            mPrefBbarPosition = (ListPreference) findPreference(PREF_KEY_BATTERY_BAR_POSITION);
+            // Remove OxygenOS and fingerprint related preferences
+            if (sSystemProperties.isOxygenOsRom || !sSystemProperties.supportsFingerprint) {
+                Preference p = findPreference(PREF_KEY_LOCKSCREEN_IMPRINT_MODE);
+                if (p != null) mPrefCatLsOther.removePreference(p);
+                p = findPreference(PREF_KEY_IMPRINT_VIBE_DISABLE);
+                if (p != null) mPrefCatLsOther.removePreference(p);
+            }
+        }
 
-            mPrefSbdpMode = (ListPreference) findPreference(PREF_KEY_STATUSBAR_DOWNLOAD_PROGRESS);
+        private void setupStatusbarCategory() {
+            mBatteryStyle = (ListPreference) findPreference(PREF_KEY_BATTERY_STYLE);
+            mPrefBatteryPercentSize = (ListPreference) findPreference(PREF_KEY_BATTERY_PERCENT_TEXT_SIZE);
+            mPrefBatteryPercentStyle = (ListPreference) findPreference(PREF_KEY_BATTERY_PERCENT_TEXT_STYLE);
+            mPrefBatteryPercentCharging = (ListPreference) findPreference(PREF_KEY_BATTERY_PERCENT_TEXT_CHARGING);
 
-            //mPrefCatCellTile = (PreferenceScreen) findPreference(PREF_CAT_KEY_CELL_TILE);
+            mPrefCatStatusbarQs = (PreferenceScreen) findPreference(PREF_CAT_KEY_STATUSBAR_QS);
+            mPrefCatQsTileSettings = (PreferenceScreen) findPreference(PREF_CAT_KEY_QS_TILE_SETTINGS);
+            mPrefCatQsNmTileSettings = (PreferenceScreen) findPreference(PREF_CAT_KEY_QS_NM_TILE_SETTINGS);
+            //mPrefAutoSwitchQs = (ListPreference) findPreference(PREF_KEY_QUICK_SETTINGS_AUTOSWITCH);
+            mPrefQuickPulldown = (ListPreference) findPreference(PREF_KEY_QUICK_PULLDOWN);
+            mPrefQuickPulldownSize = (SeekBarPreference) findPreference(PREF_KEY_QUICK_PULLDOWN_SIZE);
 
-            mPrefBatteryTileTempUnit = (ListPreference) findPreference(PREF_KEY_BATTERY_TILE_TEMP_UNIT); 
+            mPrefCatNotifDrawerStyle = (PreferenceScreen) findPreference(PREF_CAT_KEY_NOTIF_DRAWER_STYLE);
+            mPrefNotifExpandAll = (CheckBoxPreference) findPreference(PREF_KEY_NOTIF_EXPAND_ALL);
 
-            mPrefPowerCameraVp = (EditTextPreference) findPreference(PREF_KEY_POWER_CAMERA_VP);
+            mPrefDisableRoamingIndicators = (CheckBoxPreference) findPreference(PREF_KEY_DISABLE_ROAMING_INDICATORS);
+            mPrefQsRambarMode = (ListPreference) findPreference(PREF_KEY_QS_RAMBAR_MODE);
+            mPrefQsNetworkModeSimSlot = (ListPreference) findPreference(PREF_KEY_QS_NETWORK_MODE_SIM_SLOT);
+            //mPrefQsTileLabelStyle = (ListPreference) findPreference(PREF_KEY_QUICK_SETTINGS_TILE_LABEL_STYLE);
 
-            mPrefTuner = findPreference(PREF_TUNER);
+            mPrefSbClockDate = (ListPreference) findPreference(PREF_KEY_STATUSBAR_CLOCK_DATE);
+            mPrefSbClockDow = (ListPreference) findPreference(PREF_KEY_STATUSBAR_CLOCK_DOW);
+            mPrefSbClockDowSize = (SeekBarPreference) findPreference(PREF_KEY_STATUSBAR_CLOCK_DOW_SIZE);
 
-            // Filter preferences according to feature availability 
-            if (!Utils.hasFlash(getActivity())) {
-                mPrefCatHwKeyOthers.removePreference(mPrefHwKeyLockscreenTorch);
-                mPrefCatMiscOther.removePreference(mPrefTorchAutoOff);
-            }
-            if (!Utils.hasVibrator(getActivity())) {
-                mPrefCatPhoneTelephony.removePreference(mPrefCallVibrations);
-            }
-            if (!Utils.hasProximitySensor(getActivity())) {
-                mPrefCatPowerOther.removePreference(mPrefPowerProximityWake);
-                mPrefCatPowerOther.removePreference(mPrefProximityWakeIgnoreCall);
-            }
-            if (!Utils.hasTelephonySupport(getActivity())) {
-                mPrefCatPhone.removePreference(mPrefCatPhoneTelephony);
-                mPrefCatMedia.removePreference(mPrefLinkVolumes);
-                mPrefCatMedia.removePreference(mPrefLinkRingerSystemVolumes);
-            }
+            mPrefCatDataTraffic = (PreferenceScreen) findPreference(PREF_CAT_KEY_DATA_TRAFFIC);
+            mPrefDataTrafficPosition = (ListPreference) findPreference(PREF_KEY_DATA_TRAFFIC_POSITION);
+            mPrefDataTrafficLs = (CheckBoxPreference) findPreference(PREF_KEY_DATA_TRAFFIC_LOCKSCREEN);
+            mPrefDataTrafficSize = (ListPreference) findPreference(PREF_KEY_DATA_TRAFFIC_SIZE);
+            mPrefDataTrafficMode = (ListPreference) findPreference(PREF_KEY_DATA_TRAFFIC_MODE);
+            mPrefDataTrafficInactivityMode = (ListPreference) findPreference(PREF_KEY_DATA_TRAFFIC_INACTIVITY_MODE);
+            mPrefDataTrafficOmniMode = (ListPreference) findPreference(PREF_KEY_DATA_TRAFFIC_OMNI_MODE);
+            mPrefDataTrafficOmniShowIcon = (CheckBoxPreference) findPreference(PREF_KEY_DATA_TRAFFIC_OMNI_SHOW_ICON);
+            mPrefDataTrafficActiveMobileOnly = (CheckBoxPreference) findPreference(PREF_KEY_DATA_TRAFFIC_ACTIVE_MOBILE_ONLY);
+            mPrefDataTrafficDisplayMode = (ListPreference) findPreference(PREF_KEY_DATA_TRAFFIC_DISPLAY_MODE);
+            mPrefDataTrafficOmniAutohide = (CheckBoxPreference) findPreference(PREF_KEY_DATA_TRAFFIC_OMNI_AUTOHIDE);
+            mPrefDataTrafficOmniAutohideTh = (SeekBarPreference) findPreference(PREF_KEY_DATA_TRAFFIC_OMNI_AUTOHIDE_TH);
+            mPrefDataTrafficSparkline = (CheckBoxPreference) findPreference(PREF_KEY_DATA_TRAFFIC_SPARKLINE);
+
+            mPrefSbBtVisibility = (ListPreference) findPreference(PREF_KEY_STATUSBAR_BT_VISIBILITY);
+            mPrefQrQuality = (ListPreference) findPreference(PREF_KEY_QUICKRECORD_QUALITY);
+            mPrefBbarPosition = (ListPreference) findPreference(PREF_KEY_BATTERY_BAR_POSITION);
+            mPrefSbdpMode = (ListPreference) findPreference(PREF_KEY_STATUSBAR_DOWNLOAD_PROGRESS);
+            //mPrefCatCellTile = (PreferenceScreen) findPreference(PREF_CAT_KEY_CELL_TILE);
+            mPrefBatteryTileTempUnit = (ListPreference) findPreference(PREF_KEY_BATTERY_TILE_TEMP_UNIT); 
 
             if (Utils.isWifiOnly(getActivity())) {
                 // Remove preferences that don't apply to wifi-only devices
-                getPreferenceScreen().removePreference(mPrefCatPhone);
                 //mPrefCatQsTileSettings.removePreference(mPrefCatCellTile);
                 mPrefCatQsTileSettings.removePreference(mPrefCatQsNmTileSettings);
                 mPrefCatStatusbar.removePreference(mPrefDisableRoamingIndicators);
                 mPrefCatQsNmTileSettings.removePreference(mPrefQsNetworkModeSimSlot);
-                mPrefCatPowerOther.removePreference(mPrefProximityWakeIgnoreCall);
             }
 
-            // remove unsupported features
-            // TODO: Brightness
-            Preference pb = findPreference(PREF_CAT_KEY_BRIGHTNESS);
-            if (pb != null) mPrefCatDisplay.removePreference(pb);
-
             // Remove MTK specific preferences for non-MTK devices
-            if (!Utils.isMtkDevice()) {
+            // and Gemini specific preferences for non-Gemini MTK devices
+            if (!Utils.isMtkDevice() || !sSystemProperties.hasGeminiSupport) {
                 mPrefCatStatusbar.removePreference(mPrefDisableRoamingIndicators);
-            } else {
-                mPrefCatLsOther.removePreference(mPrefLsRotation);
-                // Remove Gemini specific preferences for non-Gemini MTK devices
-                if (!sSystemProperties.hasGeminiSupport) {
-                    mPrefCatStatusbar.removePreference(mPrefDisableRoamingIndicators);
-                }
             }
 
             // Remove MSIM preferences for non-MSIM devices
@@ -1634,34 +1853,14 @@ public class GravityBoxSettings extends GravityBoxActivity implements GravityBox
                 mPrefCatQsNmTileSettings.removePreference(mPrefQsNetworkModeSimSlot);
             }
 
-            // Remove Xperia preferences
-            if (Utils.isXperiaDevice()) {
-                mPrefCatLsOther.removePreference(mPrefLockscreenCarrierText);
-            }
-
-            // Remove more music volume steps option if necessary
-            if (!Utils.shouldAllowMoreVolumeSteps()) {
-                mPrefs.edit().putBoolean(PREF_KEY_MUSIC_VOLUME_STEPS, false).commit();
-                mPrefCatMedia.removePreference(mPrefMusicVolumeSteps);
-                mPrefCatMedia.removePreference(mPrefMusicVolumeStepsValue);
-            }
-
             // Remove OxygenOS preferences
             if (sSystemProperties.isOxygenOsRom) {
-                Preference p = findPreference(PREF_KEY_LOCKSCREEN_IMPRINT_MODE);
-                if (p != null) mPrefCatLsOther.removePreference(p);
-                p = findPreference(PREF_KEY_IMPRINT_VIBE_DISABLE);
-                if (p != null) mPrefCatLsOther.removePreference(p);
-                p = findPreference(PREF_CAT_KEY_BATTERY_TILE);
+                Preference p = findPreference(PREF_CAT_KEY_BATTERY_TILE);
                 if (p != null) mPrefCatQsTileSettings.removePreference(p);
                 p = findPreference(PREF_KEY_STATUSBAR_HIDE_VIBRATE_ICON);
                 if (p != null) mPrefCatStatusbar.removePreference(p);
             } else {
-                Preference p = findPreference(PREF_KEY_OOS_CALL_RECORDING);
-                if (p != null) mPrefCatPhoneTelephony.removePreference(p);
-                p = findPreference(PREF_KEY_OOS_DASH_SOUND_DISABLE);
-                if (p != null) mPrefCatPowerOther.removePreference(p);
-                p = findPreference(PREF_KEY_QS_BRIGHTNESS_ICON);
+                Preference p = findPreference(PREF_KEY_QS_BRIGHTNESS_ICON);
                 if (p != null) mPrefCatStatusbarQs.removePreference(p);
             }
 
@@ -1670,104 +1869,224 @@ public class GravityBoxSettings extends GravityBoxActivity implements GravityBox
                 Preference p = findPreference(PREF_CAT_KEY_OP_SCREEN_REFRESH_RATE);
                 if (p != null) mPrefCatQsTileSettings.removePreference(p);
             }
+        }
+
+        private void setupNavigationBarCategory() {
+            mPrefCatNavbarKeys = (PreferenceCategory) findPreference(PREF_CAT_KEY_NAVBAR_KEYS);
+            mPrefCatNavbarColor = (PreferenceCategory) findPreference(PREF_CAT_KEY_NAVBAR_COLOR);
+            mPrefCatNavbarDimen = (PreferenceCategory) findPreference(PREF_CAT_KEY_NAVBAR_DIMEN);
+            mPrefNavbarEnable = (CheckBoxPreference) findPreference(PREF_KEY_NAVBAR_ENABLE);
+            mPrefNavbarCustomKeySingletap = (ListPreference) findPreference(PREF_KEY_NAVBAR_CUSTOM_KEY_SINGLETAP);
+            mPrefNavbarCustomKeyLongpress = (ListPreference) findPreference(PREF_KEY_NAVBAR_CUSTOM_KEY_LONGPRESS);
+            mPrefNavbarCustomKeyDoubletap = (ListPreference) findPreference(PREF_KEY_NAVBAR_CUSTOM_KEY_DOUBLETAP);
+
+            setKeyActionEntries(false, mPrefNavbarCustomKeySingletap,
+                    mPrefNavbarCustomKeyLongpress, mPrefNavbarCustomKeyDoubletap);
+        }
+
+        private void setupPieControlCategory() {
+            mPrefPieEnabled = (ListPreference) findPreference(PREF_KEY_PIE_CONTROL_ENABLE);
+            mPrefPieHwKeysDisabled = (CheckBoxPreference) findPreference(PREF_KEY_HWKEYS_DISABLE);
+            mPrefPieCustomKey = (ListPreference) findPreference(PREF_KEY_PIE_CONTROL_CUSTOM_KEY);
+            mPrefPieColorBg = (ColorPickerPreference) findPreference(PREF_KEY_PIE_COLOR_BG);
+            mPrefPieColorFg = (ColorPickerPreference) findPreference(PREF_KEY_PIE_COLOR_FG);
+            mPrefPieColorOutline = (ColorPickerPreference) findPreference(PREF_KEY_PIE_COLOR_OUTLINE);
+            mPrefPieColorSelected = (ColorPickerPreference) findPreference(PREF_KEY_PIE_COLOR_SELECTED);
+            mPrefPieColorText = (ColorPickerPreference) findPreference(PREF_KEY_PIE_COLOR_TEXT);
+            mPrefPieColorReset = findPreference(PREF_KEY_PIE_COLOR_RESET);
+            mPrefPieBackLongpress = (ListPreference) findPreference(PREF_KEY_PIE_BACK_LONGPRESS);
+            mPrefPieHomeLongpress = (ListPreference) findPreference(PREF_KEY_PIE_HOME_LONGPRESS);
+            mPrefPieRecentsLongpress = (ListPreference) findPreference(PREF_KEY_PIE_RECENTS_LONGPRESS);
+            mPrefPieSearchLongpress = (ListPreference) findPreference(PREF_KEY_PIE_SEARCH_LONGPRESS);
+            mPrefPieMenuLongpress = (ListPreference) findPreference(PREF_KEY_PIE_MENU_LONGPRESS);
+            mPrefPieAppLongpress = (ListPreference) findPreference(PREF_KEY_PIE_APP_LONGPRESS);
+            mPrefPieLongpressDelay = (ListPreference) findPreference(PREF_KEY_PIE_LONGPRESS_DELAY);
+
+            // remove unsupported actions for pie keys
+            setKeyActionEntries(true, mPrefPieBackLongpress, mPrefPieHomeLongpress,
+                    mPrefPieRecentsLongpress, mPrefPieSearchLongpress,
+                    mPrefPieMenuLongpress, mPrefPieAppLongpress);
+        }
+
+        private void setupPowerCategory() {
+            mLowBatteryWarning = (ListPreference) findPreference(PREF_KEY_LOW_BATTERY_WARNING_POLICY);
+            mPrefCatPowerMenu = (PreferenceCategory) findPreference(PREF_CAT_KEY_POWER_MENU);
+            mPrefCatPowerOther = (PreferenceCategory) findPreference(PREF_CAT_KEY_POWER_OTHER);
+            mPrefPowerProximityWake = (CheckBoxPreference) findPreference(PREF_KEY_POWER_PROXIMITY_WAKE);
+            mPrefChargingLed = (ListPreference) findPreference(PREF_KEY_CHARGING_LED);
+            mPrefProximityWakeIgnoreCall = (CheckBoxPreference) findPreference(PREF_KEY_POWER_PROXIMITY_WAKE_IGNORE_CALL); 
+            mPrefPowerCameraVp = (EditTextPreference) findPreference(PREF_KEY_POWER_CAMERA_VP);
+
+            if (!Utils.hasProximitySensor(getActivity())) {
+                mPrefCatPowerOther.removePreference(mPrefPowerProximityWake);
+                mPrefCatPowerOther.removePreference(mPrefProximityWakeIgnoreCall);
+            }
+            if (Utils.isWifiOnly(getActivity())) {
+                mPrefCatPowerOther.removePreference(mPrefProximityWakeIgnoreCall);
+            }
+
+            // Remove OxygenOS preferences
+            if (!sSystemProperties.isOxygenOsRom) {
+                Preference p = findPreference(PREF_KEY_OOS_DASH_SOUND_DISABLE);
+                if (p != null) mPrefCatPowerOther.removePreference(p);
+            }
 
             // Remove Samsung preferences
             if (Utils.isSamsungRom()) {
                 mPrefCatPower.removePreference(mPrefCatPowerMenu);
+            }
+        }
+
+        private void setupDisplayCategory() {
+            mPrefButtonBacklightMode = (ListPreference) findPreference(PREF_KEY_BUTTON_BACKLIGHT_MODE);
+
+            mPrefBrightnessMin = (SeekBarPreference) findPreference(PREF_KEY_BRIGHTNESS_MIN);
+            mPrefBrightnessMin.setMinimum(getResources().getInteger(R.integer.screen_brightness_min));
+            mPrefScreenDimLevel = (SeekBarPreference) findPreference(PREF_KEY_SCREEN_DIM_LEVEL);
+            mPrefScreenDimLevel.setMinimum(getResources().getInteger(R.integer.screen_brightness_dim_min));
+
+            mPrefUnplugTurnsOnScreen = (CheckBoxPreference) findPreference(PREF_KEY_UNPLUG_TURNS_ON_SCREEN);
+            mPrefTranclucentDecor =  (ListPreference) findPreference(PREF_KEY_TRANSLUCENT_DECOR);
+            mPrefExpandedDesktop = (ListPreference) findPreference(PREF_KEY_EXPANDED_DESKTOP);
+            mPrefPulseNotificationDelay = (SeekBarPreference) findPreference(PREF_KEY_PULSE_NOTIFICATION_DELAY);
+
+            // remove unsupported features
+            // TODO: Brightness
+            Preference pb = findPreference(PREF_CAT_KEY_BRIGHTNESS);
+            if (pb != null) mPrefCatDisplay.removePreference(pb);
+        }
+
+        private void setupPhoneCategory() {
+            mPrefPhoneFlip = (ListPreference) findPreference(PREF_KEY_PHONE_FLIP);
+            mPrefCatPhoneTelephony = (PreferenceCategory) findPreference(PREF_CAT_KEY_PHONE_TELEPHONY);
+            mPrefCallVibrations = (MultiSelectListPreference) findPreference(PREF_KEY_CALL_VIBRATIONS);
+            mPrefSrAdaptiveDelay = (SeekBarPreference) findPreference(PREF_KEY_SMART_RADIO_ADAPTIVE_DELAY);
+
+            if (!Utils.hasVibrator(getActivity())) {
+                mPrefCatPhoneTelephony.removePreference(mPrefCallVibrations);
+            }
+            if (!Utils.hasTelephonySupport(getActivity())) {
+                mPrefCatPhone.removePreference(mPrefCatPhoneTelephony);
+            }
+
+            // Remove OxygenOS preferences
+            if (!sSystemProperties.isOxygenOsRom) {
+                Preference p = findPreference(PREF_KEY_OOS_CALL_RECORDING);
+                if (p != null) mPrefCatPhoneTelephony.removePreference(p);
+            }
+
+            // Remove Samsung preferences
+            if (Utils.isSamsungRom()) {
                 Preference p = findPreference(PREF_KEY_INCREASING_RING);
                 if (p != null) mPrefCatPhoneTelephony.removePreference(p);
             }
+        }
+
+        private void setupMediaCategory() {
+            mPrefMusicVolumeSteps = (CheckBoxPreference) findPreference(PREF_KEY_MUSIC_VOLUME_STEPS);
+            mPrefMusicVolumeStepsValue = (SeekBarPreference) findPreference(PREF_KEY_MUSIC_VOLUME_STEPS_VALUE);
+            mPrefLinkVolumes = (ListPreference) findPreference(PREF_KEY_LINK_VOLUMES);
+            mPrefLinkRingerSystemVolumes = (ListPreference) findPreference(PREF_KEY_LINK_RINGER_SYSTEM_VOLUMES);
+
+            if (!Utils.hasTelephonySupport(getActivity())) {
+                mPrefCatMedia.removePreference(mPrefLinkVolumes);
+                mPrefCatMedia.removePreference(mPrefLinkRingerSystemVolumes);
+            }
 
-            // Remove fingerprint related preferences
-            if (!sSystemProperties.supportsFingerprint) {
-                Preference p = findPreference(PREF_KEY_LOCKSCREEN_IMPRINT_MODE);
-                if (p != null) mPrefCatLsOther.removePreference(p);
-                p = findPreference(PREF_KEY_IMPRINT_VIBE_DISABLE);
-                if (p != null) mPrefCatLsOther.removePreference(p);
-                p = findPreference(PREF_CAT_KEY_FINGERPRINT_LAUNCHER);
-                if (p != null) getPreferenceScreen().removePreference(p);
+            // Remove more music volume steps option if necessary
+            if (!Utils.shouldAllowMoreVolumeSteps()) {
+                mPrefCatMedia.removePreference(mPrefMusicVolumeSteps);
+                mPrefCatMedia.removePreference(mPrefMusicVolumeStepsValue);
+            }
+        }
+
+        private void setupHwKeyActionsCategory() {
+            mPrefHwKeyMenuSingletap = (ListPreference) findPreference(PREF_KEY_HWKEY_MENU_SINGLETAP);
+            mPrefHwKeyMenuLongpress = (ListPreference) findPreference(PREF_KEY_HWKEY_MENU_LONGPRESS);
+            mPrefHwKeyMenuDoubletap = (ListPreference) findPreference(PREF_KEY_HWKEY_MENU_DOUBLETAP);
+            mPrefHwKeyHomeLongpress = (ListPreference) findPreference(PREF_KEY_HWKEY_HOME_LONGPRESS);
+            //mPrefHwKeyHomeLongpressKeyguard = (CheckBoxPreference) findPreference(PREF_KEY_HWKEY_HOME_LONGPRESS_KEYGUARD);
+            mPrefHwKeyHomeDoubletap = (ListPreference) findPreference(PREF_KEY_HWKEY_HOME_DOUBLETAP);
+            mPrefHwKeyBackSingletap = (ListPreference) findPreference(PREF_KEY_HWKEY_BACK_SINGLETAP);
+            mPrefHwKeyBackLongpress = (ListPreference) findPreference(PREF_KEY_HWKEY_BACK_LONGPRESS);
+            mPrefHwKeyBackDoubletap = (ListPreference) findPreference(PREF_KEY_HWKEY_BACK_DOUBLETAP);
+            mPrefHwKeyRecentsSingletap = (ListPreference) findPreference(PREF_KEY_HWKEY_RECENTS_SINGLETAP);
+            mPrefHwKeyRecentsLongpress = (ListPreference) findPreference(PREF_KEY_HWKEY_RECENTS_LONGPRESS);
+            mPrefHwKeyRecentsDoubletap = (ListPreference) findPreference(PREF_KEY_HWKEY_RECENTS_DOUBLETAP);
+            mPrefHwKeyDoubletapSpeed = (ListPreference) findPreference(PREF_KEY_HWKEY_DOUBLETAP_SPEED);
+            mPrefHwKeyKillDelay = (ListPreference) findPreference(PREF_KEY_HWKEY_KILL_DELAY);
+            mPrefHwKeyLockscreenTorch = (ListPreference) findPreference(PREF_KEY_HWKEY_LOCKSCREEN_TORCH);
+            mPrefCatHwKeyOthers = (PreferenceCategory) findPreference(PREF_CAT_KEY_HWKEY_ACTIONS_OTHERS);
+            mPrefVolumeRockerWake = (ListPreference) findPreference(PREF_KEY_VOLUME_ROCKER_WAKE);
+
+            if (!Utils.hasFlash(getActivity())) {
+                mPrefCatHwKeyOthers.removePreference(mPrefHwKeyLockscreenTorch);
             }
 
             // Remove actions for HW keys based on device features
-            mPrefHwKeyMenuLongpress.setEntries(R.array.hwkey_action_entries);
-            mPrefHwKeyMenuLongpress.setEntryValues(R.array.hwkey_action_values);
+            setKeyActionEntries(false, mPrefHwKeyMenuSingletap, mPrefHwKeyMenuLongpress,
+                    mPrefHwKeyMenuDoubletap, mPrefHwKeyHomeLongpress, mPrefHwKeyHomeDoubletap,
+                    mPrefHwKeyBackSingletap, mPrefHwKeyBackLongpress, mPrefHwKeyBackDoubletap,
+                    mPrefHwKeyRecentsSingletap, mPrefHwKeyRecentsLongpress,
+                    mPrefHwKeyRecentsDoubletap);
+        }
+
+        private void setupAppLauncherCategory() {
+            mPrefAppLauncherSlot = new AppPickerPreference[PREF_KEY_APP_LAUNCHER_SLOT.size()];
+            for (int i = 0; i < mPrefAppLauncherSlot.length; i++) {
+                AppPickerPreference appPref = new AppPickerPreference(getActivity(), null);
+                appPref.setKey(PREF_KEY_APP_LAUNCHER_SLOT.get(i));
+                appPref.setTitle(String.format(
+                        getActivity().getString(R.string.pref_app_launcher_slot_title), i + 1));
+                appPref.setDialogTitle(appPref.getTitle());
+                appPref.setDefaultSummary(getActivity().getString(R.string.app_picker_none));
+                appPref.setSummary(getActivity().getString(R.string.app_picker_none));
+                mPrefAppLauncherSlot[i] = appPref;
+                mPrefCatAppLauncher.addPreference(mPrefAppLauncherSlot[i]);
+                if (mPrefs.getString(appPref.getKey(), null) == null) {
+                    mPrefs.edit().putString(appPref.getKey(), null).apply();
+                }
+            }
+        }
+
+        private void setupMiscCategory() {
+            mPrefCatMiscOther = (PreferenceCategory) findPreference(PREF_CAT_KEY_MISC_OTHER);
+            mPrefTorchAutoOff = (SeekBarPreference) findPreference(PREF_KEY_TORCH_AUTO_OFF);
+
+            if (!Utils.hasFlash(getActivity())) {
+                mPrefCatMiscOther.removePreference(mPrefTorchAutoOff);
+            }
+        }
+
+        /**
+         * Sets action entries supported by the device to given key action preferences
+         * @param pieKeys - whether to exclude actions not supported by pie keys
+         */
+        private void setKeyActionEntries(boolean pieKeys, ListPreference... prefs) {
             List<CharSequence> actEntries = new ArrayList<>(Arrays.asList(
-                    mPrefHwKeyMenuLongpress.getEntries()));
+                    getResources().getTextArray(R.array.hwkey_action_entries)));
             List<CharSequence> actEntryValues = new ArrayList<>(Arrays.asList(
-                    mPrefHwKeyMenuLongpress.getEntryValues()));
+                    getResources().getTextArray(R.array.hwkey_action_values)));
             if (!Utils.hasFlash(getActivity())) {
                 actEntries.remove(getString(R.string.hwkey_action_torch));
                 actEntryValues.remove("11");
             }
+            if (pieKeys) {
+                actEntries.remove(getString(R.string.hwkey_action_back));
+                actEntryValues.remove(String.valueOf(HWKEY_ACTION_BACK));
+                actEntries.remove(getString(R.string.hwkey_action_home));
+                actEntryValues.remove(String.valueOf(HWKEY_ACTION_HOME));
+                actEntries.remove(getString(R.string.hwkey_action_menu));
+                actEntryValues.remove(String.valueOf(HWKEY_ACTION_MENU));
+                actEntries.remove(getString(R.string.hwkey_action_recent_apps));
+                actEntryValues.remove(String.valueOf(HWKEY_ACTION_RECENT_APPS));
+            }
             CharSequence[] actionEntries = actEntries.toArray(new CharSequence[actEntries.size()]);
             CharSequence[] actionEntryValues = actEntryValues.toArray(new CharSequence[actEntryValues.size()]);
-            mPrefHwKeyMenuSingletap.setEntries(actionEntries);
-            mPrefHwKeyMenuSingletap.setEntryValues(actionEntryValues);
-            mPrefHwKeyMenuLongpress.setEntries(actionEntries);
-            mPrefHwKeyMenuLongpress.setEntryValues(actionEntryValues);
-            // other preferences have the exact same entries and entry values
-            mPrefHwKeyMenuDoubletap.setEntries(actionEntries);
-            mPrefHwKeyMenuDoubletap.setEntryValues(actionEntryValues);
-            mPrefHwKeyHomeLongpress.setEntries(actionEntries);
-            mPrefHwKeyHomeLongpress.setEntryValues(actionEntryValues);
-            mPrefHwKeyHomeDoubletap.setEntries(actionEntries);
-            mPrefHwKeyHomeDoubletap.setEntryValues(actionEntryValues);
-            mPrefHwKeyBackSingletap.setEntries(actionEntries);
-            mPrefHwKeyBackSingletap.setEntryValues(actionEntryValues);
-            mPrefHwKeyBackLongpress.setEntries(actionEntries);
-            mPrefHwKeyBackLongpress.setEntryValues(actionEntryValues);
-            mPrefHwKeyBackDoubletap.setEntries(actionEntries);
-            mPrefHwKeyBackDoubletap.setEntryValues(actionEntryValues);
-            mPrefHwKeyRecentsSingletap.setEntries(actionEntries);
-            mPrefHwKeyRecentsSingletap.setEntryValues(actionEntryValues);
-            mPrefHwKeyRecentsLongpress.setEntries(actionEntries);
-            mPrefHwKeyRecentsLongpress.setEntryValues(actionEntryValues);
-            mPrefHwKeyRecentsDoubletap.setEntries(actionEntries);
-            mPrefHwKeyRecentsDoubletap.setEntryValues(actionEntryValues);
-            mPrefNavbarCustomKeySingletap.setEntries(actionEntries);
-            mPrefNavbarCustomKeySingletap.setEntryValues(actionEntryValues);
-            mPrefNavbarCustomKeyLongpress.setEntries(actionEntries);
-            mPrefNavbarCustomKeyLongpress.setEntryValues(actionEntryValues);
-            mPrefNavbarCustomKeyDoubletap.setEntries(actionEntries);
-            mPrefNavbarCustomKeyDoubletap.setEntryValues(actionEntryValues);
-
-            // remove unsupported actions for pie keys
-            actEntries.remove(getString(R.string.hwkey_action_back));
-            actEntryValues.remove(String.valueOf(HWKEY_ACTION_BACK));
-            actEntries.remove(getString(R.string.hwkey_action_home));
-            actEntryValues.remove(String.valueOf(HWKEY_ACTION_HOME));
-            actEntries.remove(getString(R.string.hwkey_action_menu));
-            actEntryValues.remove(String.valueOf(HWKEY_ACTION_MENU));
-            actEntries.remove(getString(R.string.hwkey_action_recent_apps));
-            actEntryValues.remove(String.valueOf(HWKEY_ACTION_RECENT_APPS));
-            actionEntries = actEntries.toArray(new CharSequence[actEntries.size()]);
-            actionEntryValues = actEntryValues.toArray(new CharSequence[actEntryValues.size()]);
-            mPrefPieBackLongpress.setEntries(actionEntries);
-            mPrefPieBackLongpress.setEntryValues(actionEntryValues);
-            mPrefPieHomeLongpress.setEntries(actionEntries);
-            mPrefPieHomeLongpress.setEntryValues(actionEntryValues);
-            mPrefPieRecentsLongpress.setEntries(actionEntries);
-            mPrefPieRecentsLongpress.setEntryValues(actionEntryValues);
-            mPrefPieSearchLongpress.setEntries(actionEntries);
-            mPrefPieSearchLongpress.setEntryValues(actionEntryValues);
-            mPrefPieMenuLongpress.setEntries(actionEntries);
-            mPrefPieMenuLongpress.setEntryValues(actionEntryValues);
-            mPrefPieAppLongpress.setEntries(actionEntries);
-            mPrefPieAppLongpress.setEntryValues(actionEntryValues);
-
-            // special handling for RingtonePreference
-            for (String key : ringToneKeys) {
-                Preference rp = findPreference(key);
-                if (rp != null) {
-                    rp.setOnPreferenceChangeListener(this::onRingtonePreferenceChanged);
-                }
-            }
-
-            if (sSystemProperties.fingerprintIds != null) {
-                initFingerprintLauncher();
+            for (ListPreference p : prefs) {
+                p.setEntries(actionEntries);
+                p.setEntryValues(actionEntryValues);
             }
-            setDefaultValues();
-            checkPermissions();
         }
 
         protected void setSearchQuery(String query) {
@@ -1775,15 +2094,95 @@ public class GravityBoxSettings extends GravityBoxActivity implements GravityBox
         }
 
         protected void filterPreferences() {
-            filterPreferences(mSearchQuery);
+            filterPreferences(mSearchQuery, false);
         }
 
         protected void filterPreferences(String query) {
+            filterPreferences(query, true);
+        }
+
+        private void filterPreferences(String query, boolean showResult) {
             setSearchQuery(query);
+            if (query == null) {
+                filterPreferences(Collections.emptyList(), showResult);
+                return;
+            }
+            SettingsSearchIndexLoader.loadIndex(getActivity(), mPrefs,
+                    R.xml.gravitybox, LAZY_CATEGORIES, index -> {
+                if (!isAdded() || !query.equals(mSearchQuery)) return;
+                // inflate only categories the index found matches in
+                List<SettingsSearchIndex.Entry> matches = index.find(query);
+                boolean inflated = false;
+                for (String catKey : SettingsSearchIndex.getCategories(matches)) {
+                    inflated |= inflateCategory(catKey);
+                }
+                // runtime summaries have to be in place before filtering
+                if (inflated) {
+                    updatePreferences(null);
+                }
+                filterPreferences(matches, showResult);
+            });
+        }
+
+        private void filterPreferences(List<SettingsSearchIndex.Entry> matches, boolean showResult) {
             if (filterPreferencesInternal(getPreferenceScreen(), null) == 0) {
                 Toast.makeText(getActivity(), R.string.search_no_match,
                         Toast.LENGTH_SHORT).show();
+            } else if (showResult) {
+                showSearchResult(matches);
+            }
+        }
+
+        /**
+         * Opens screen holding all the matches left after filtering
+         * and highlights the first of them
+         */
+        private void showSearchResult(List<SettingsSearchIndex.Entry> matches) {
+            final PreferenceScreen root = getPreferenceScreen();
+            SettingsSearchIndex.Entry first = null;
+            for (SettingsSearchIndex.Entry entry : matches) {
+                if (entry.key == null || root.findPreference(entry.key) == null) continue;
+                if (first == null) {
+                    first = entry;
+                } else if (!Arrays.equals(first.screens, entry.screens)) {
+                    return;
+                }
             }
+            if (first == null) return;
+
+            PreferenceScreen screen = root;
+            for (String key : first.screens) {
+                Preference p = screen.findPreference(key);
+                if (!(p instanceof PreferenceScreen)) return;
+                openPreferenceScreen(screen, (PreferenceScreen) p);
+                screen = (PreferenceScreen) p;
+            }
+            highlightPreference(screen, screen.findPreference(first.key));
+        }
+
+        private void highlightPreference(PreferenceScreen screen, Preference pref) {
+            final int position = getAdapterPosition(screen, pref);
+            if (position < 0) return;
+            // nested screens are shown in their own dialogs
+            final ListView list;
+            if (screen == getPreferenceScreen()) {
+                list = getView().findViewById(android.R.id.list);
+            } else if (screen.getDialog() != null) {
+                list = screen.getDialog().findViewById(android.R.id.list);
+            } else {
+                return;
+            }
+            if (list == null) return;
+            list.post(() -> {
+                list.setSelection(position);
+                list.post(() -> {
+                    View v = list.getChildAt(position - list.getFirstVisiblePosition());
+                    if (v != null) {
+                        v.setPressed(true);
+                        v.postDelayed(() -> v.setPressed(false), 1000);
+                    }
+                });
+            });
         }
 
         private int filterPreferencesInternal(PreferenceGroup prefGroup, PreferenceGroup parentGroup) {
@@ -1795,12 +2194,11 @@ public class GravityBoxSettings extends GravityBoxActivity implements GravityBox
             for (int i = count-1; i >= 0; i--) {
                 Preference p = prefGroup.getPreference(i);
                 p.setDependency(null);
-                String title = (p.getTitle() == null ? "" :
-                    p.getTitle().toString()).toLowerCase(Locale.getDefault());
-                String summary = (p.getSummary() == null ? "" :
-                    p.getSummary().toString()).toLowerCase(Locale.getDefault());
+                String title = (p.getTitle() == null ? null : p.getTitle().toString());
+                String summary = (p.getSummary() == null ? null : p.getSummary().toString());
                 if ((p.isEnabled() || (p instanceof PreferenceCategory)) && 
-                        (title.contains(mSearchQuery) || summary.contains(mSearchQuery))) {
+                        (SettingsSearchIndex.matches(title, mSearchQuery) ||
+                                SettingsSearchIndex.matches(summary, mSearchQuery))) {
                     matchCount++;
                 } else if (p instanceof PreferenceGroup && p.getIntent() == null) {
                     matchCount += filterPreferencesInternal((PreferenceGroup)p, prefGroup);
@@ -1926,6 +2324,7 @@ public class GravityBoxSettings extends GravityBoxActivity implements GravityBox
         @Override
         public void onStop() {
             mPrefs.unregisterOnSharedPreferenceChangeListener(this);
+            SettingsChangeBroadcaster.getInstance(getActivity()).flush();
             super.onStop();
         }
 
@@ -1949,7 +2348,7 @@ public class GravityBoxSettings extends GravityBoxActivity implements GravityBox
                 builder.setView(msgView);
                 builder.setPositiveButton(stage == 0 ? R.string.compat_warning_ok_stage1 :
                     R.string.compat_warning_ok_stage2, (dialog, which) ->
-                        mPrefs.edit().putInt("compat_warning_stage", (stage+1)).commit());
+                        mPrefs.edit().putInt("compat_warning_stage", (stage+1)).apply());
                 builder.setNegativeButton(android.R.string.cancel, null);
                 mDialog = builder.create();
                 mDialog.show();
@@ -1961,8 +2360,10 @@ public class GravityBoxSettings extends GravityBoxActivity implements GravityBox
                 mPrefs.edit()
                         .putBoolean(PREF_KEY_NAVBAR_ENABLE, sSystemProperties.hasNavigationBar)
                         .putBoolean(PREF_KEY_NAVBAR_ENABLE + "_set", true)
-                        .commit();
-                mPrefNavbarEnable.setChecked(sSystemProperties.hasNavigationBar);
+                        .apply();
+                if (mPrefNavbarEnable != null) {
+                    mPrefNavbarEnable.setChecked(sSystemProperties.hasNavigationBar);
+                }
             }
 
             if (!mPrefs.getBoolean(PREF_KEY_UNPLUG_TURNS_ON_SCREEN + "_set", false)) {
@@ -1970,7 +2371,9 @@ public class GravityBoxSettings extends GravityBoxActivity implements GravityBox
                         .putBoolean(PREF_KEY_UNPLUG_TURNS_ON_SCREEN, sSystemProperties.unplugTurnsOnScreen)
                         .putBoolean(PREF_KEY_UNPLUG_TURNS_ON_SCREEN + "_set", true)
                         .commit();
-                mPrefUnplugTurnsOnScreen.setChecked(sSystemProperties.unplugTurnsOnScreen);
+                if (mPrefUnplugTurnsOnScreen != null) {
+                    mPrefUnplugTurnsOnScreen.setChecked(sSystemProperties.unplugTurnsOnScreen);
+                }
             }
 
             if (!mPrefs.getBoolean(PREF_KEY_PULSE_NOTIFICATION_DELAY + "_set", false)) {
@@ -1979,10 +2382,37 @@ public class GravityBoxSettings extends GravityBoxActivity implements GravityBox
                     .putInt(PREF_KEY_PULSE_NOTIFICATION_DELAY, delay)
                     .putBoolean(PREF_KEY_PULSE_NOTIFICATION_DELAY + "_set", true)
                     .commit();
-                mPrefPulseNotificationDelay.setDefaultValue(delay);
-                mPrefPulseNotificationDelay.setValue(delay);
+                if (mPrefPulseNotificationDelay != null) {
+                    mPrefPulseNotificationDelay.setDefaultValue(delay);
+                    mPrefPulseNotificationDelay.setValue(delay);
+                }
+            }
+
+            if (sSystemProperties.licensingKnown) {
+                updateLicensingState();
+            } else {
+                // wait for licensing state from SystemUI
+                disableLicensedFeatures();
             }
 
+            WebServiceClient.getAppSignatureHash(getActivity());
+        }
+
+        protected void onLicensingStateReceived() {
+            // preferences not created yet get set up with current properties
+            if (mPrefBackup == null || mLicensingStateApplied) return;
+            updateLicensingState();
+        }
+
+        private void disableLicensedFeatures() {
+            mPrefBackup.setEnabled(false);
+            mPrefRestore.setEnabled(false);
+            mPrefLedControl.setEnabled(false);
+            mPrefTuner.setEnabled(false);
+        }
+
+        private void updateLicensingState() {
+            mLicensingStateApplied = true;
             restrictFeatures();
             if (sSystemProperties.uuidRegistered) {
                 if ("PayPal".equals(sSystemProperties.uuidType)) {
@@ -1991,13 +2421,13 @@ public class GravityBoxSettings extends GravityBoxActivity implements GravityBox
                     UnlockActivity.checkPolicyOk(getContext(), ok -> {
                         if (ok) {
                             unrestrictFeatures();
-                            mPrefs.edit().putInt("policy_counter", 0).commit();
+                            mPrefs.edit().putInt("policy_counter", 0).apply();
                         } else {
                             int cnt = mPrefs.getInt("policy_counter", 0) + 1;
                             if (cnt > 3) {
                                 SettingsManager.getInstance(getContext()).resetUuid();
                             } else {
-                                mPrefs.edit().putInt("policy_counter", cnt).commit();
+                                mPrefs.edit().putInt("policy_counter", cnt).apply();
                                 unrestrictFeatures();
                             }
                         }
@@ -2006,8 +2436,6 @@ public class GravityBoxSettings extends GravityBoxActivity implements GravityBox
             } else {
                 UnlockActivity.maybeRunUnlocker(getContext());
             }
-
-            WebServiceClient.getAppSignatureHash(getActivity());
         }
 
         private void restrictFeatures() {
@@ -2031,7 +2459,7 @@ public class GravityBoxSettings extends GravityBoxActivity implements GravityBox
             } else {
                 TunerMainActivity.lockTuner(getActivity(), false);
             }
-            mPrefs.edit().putString(PREF_KEY_TRANS_VERIFICATION, null).commit();
+            mPrefs.edit().putString(PREF_KEY_TRANS_VERIFICATION, null).apply();
             mPrefTransVerification.setText(null);
             mPrefTransVerification.getEditText().setText(null);
             mDonateUrlResId = R.string.url_donate_fixed_amount;
@@ -2054,18 +2482,18 @@ public class GravityBoxSettings extends GravityBoxActivity implements GravityBox
         }
 
         private void updatePreferences(String key) {
-            if (key == null || key.equals(PREF_KEY_BATTERY_STYLE)) {
+            if (mBatteryStyle != null && (key == null || key.equals(PREF_KEY_BATTERY_STYLE))) {
                 mBatteryStyle.setSummary(mBatteryStyle.getEntry());
                 String value = mBatteryStyle.getValue();
                 Preference p = findPreference(PREF_KEY_BATTERY_PERCENT_TEXT_STATUSBAR_HEADER);
                 if (p != null) p.setEnabled(!"1".equals(value) && !"4".equals(value));
             }
 
-            if (key == null || key.equals(PREF_KEY_LOW_BATTERY_WARNING_POLICY)) {
+            if (mLowBatteryWarning != null && (key == null || key.equals(PREF_KEY_LOW_BATTERY_WARNING_POLICY))) {
                 mLowBatteryWarning.setSummary(mLowBatteryWarning.getEntry());
             }
 
-            if (key == null || key.equals(PREF_KEY_LOCKSCREEN_BACKGROUND)) {
+            if (mPrefLockscreenBg != null && (key == null || key.equals(PREF_KEY_LOCKSCREEN_BACKGROUND))) {
                 mPrefLockscreenBg.setSummary(mPrefLockscreenBg.getEntry());
                 mPrefCatLockscreenBg.removePreference(mPrefLockscreenBgColor);
                 mPrefCatLockscreenBg.removePreference(mPrefLockscreenBgImage);
@@ -2083,31 +2511,31 @@ public class GravityBoxSettings extends GravityBoxActivity implements GravityBox
                 }
             }
 
-            if (key == null || key.equals(PREF_KEY_HWKEY_DOUBLETAP_SPEED)) {
+            if (mPrefHwKeyDoubletapSpeed != null && (key == null || key.equals(PREF_KEY_HWKEY_DOUBLETAP_SPEED))) {
                 mPrefHwKeyDoubletapSpeed.setSummary(getString(R.string.pref_hwkey_doubletap_speed_summary)
                         + " (" + mPrefHwKeyDoubletapSpeed.getEntry() + ")");
             }
 
-            if (key == null || key.equals(PREF_KEY_HWKEY_KILL_DELAY)) {
+            if (mPrefHwKeyKillDelay != null && (key == null || key.equals(PREF_KEY_HWKEY_KILL_DELAY))) {
                 mPrefHwKeyKillDelay.setSummary(getString(R.string.pref_hwkey_kill_delay_summary)
                         + " (" + mPrefHwKeyKillDelay.getEntry() + ")");
             }
 
-            if (key == null || key.equals(PREF_KEY_PHONE_FLIP)) {
+            if (mPrefPhoneFlip != null && (key == null || key.equals(PREF_KEY_PHONE_FLIP))) {
                 mPrefPhoneFlip.setSummary(getString(R.string.pref_phone_flip_summary)
                         + " (" + mPrefPhoneFlip.getEntry() + ")");
             }
 
-            if (key == null || key.equals(PREF_KEY_BUTTON_BACKLIGHT_MODE)) {
+            if (mPrefButtonBacklightMode != null && (key == null || key.equals(PREF_KEY_BUTTON_BACKLIGHT_MODE))) {
                 mPrefButtonBacklightMode.setSummary(mPrefButtonBacklightMode.getEntry());
             }
 
-            if (key == null || key.equals(PREF_KEY_PIE_CONTROL_ENABLE)) {
+            if (mPrefPieEnabled != null && (key == null || key.equals(PREF_KEY_PIE_CONTROL_ENABLE))) {
                 final int pieMode = 
                         Integer.valueOf(mPrefs.getString(PREF_KEY_PIE_CONTROL_ENABLE, "0"));
                 if (pieMode == 0) {
                     if (mPrefPieHwKeysDisabled.isChecked()) {
-                        mPrefs.edit().putBoolean(PREF_KEY_HWKEYS_DISABLE, false).commit();
+                        mPrefs.edit().putBoolean(PREF_KEY_HWKEYS_DISABLE, false).apply();
                         mPrefPieHwKeysDisabled.setChecked(false);
                     }
                     mPrefPieHwKeysDisabled.setEnabled(false);
@@ -2117,85 +2545,85 @@ public class GravityBoxSettings extends GravityBoxActivity implements GravityBox
                 mPrefPieEnabled.setSummary(mPrefPieEnabled.getEntry());
             }
 
-            if (key == null || key.equals(PREF_KEY_QS_RAMBAR_MODE)) {
+            if (mPrefQsRambarMode != null && (key == null || key.equals(PREF_KEY_QS_RAMBAR_MODE))) {
                 mPrefQsRambarMode.setSummary(mPrefQsRambarMode.getEntry());
             }
 
-            if (key == null || key.equals(PREF_KEY_EXPANDED_DESKTOP)) {
+            if (mPrefExpandedDesktop != null && (key == null || key.equals(PREF_KEY_EXPANDED_DESKTOP))) {
                 mPrefExpandedDesktop.setSummary(mPrefExpandedDesktop.getEntry());
             }
 
-            if (key == null || key.equals(PREF_KEY_NAVBAR_OVERRIDE)
-                    || key.equals(PREF_KEY_NAVBAR_ENABLE)) {
+            if (mPrefNavbarEnable != null && (key == null || key.equals(PREF_KEY_NAVBAR_OVERRIDE)
+                    || key.equals(PREF_KEY_NAVBAR_ENABLE))) {
                 final boolean override = mPrefs.getBoolean(PREF_KEY_NAVBAR_OVERRIDE, false);
                 mPrefCatNavbarKeys.setEnabled(override && mPrefNavbarEnable.isChecked());
                 mPrefCatNavbarColor.setEnabled(override && mPrefNavbarEnable.isChecked());
                 mPrefCatNavbarDimen.setEnabled(override && mPrefNavbarEnable.isChecked());
             }
 
-            if (key == null || key.equals(PREF_KEY_QS_NETWORK_MODE_SIM_SLOT)) {
+            if (mPrefQsNetworkModeSimSlot != null && (key == null || key.equals(PREF_KEY_QS_NETWORK_MODE_SIM_SLOT))) {
                 mPrefQsNetworkModeSimSlot.setSummary(
                         String.format(getString(R.string.pref_qs_network_mode_sim_slot_summary),
                                 mPrefQsNetworkModeSimSlot.getEntry()));
             }
 
-            if (key == null || key.equals(PREF_KEY_STATUSBAR_CLOCK_DATE)) {
+            if (mPrefSbClockDate != null && (key == null || key.equals(PREF_KEY_STATUSBAR_CLOCK_DATE))) {
                 mPrefSbClockDate.setSummary(mPrefSbClockDate.getEntry());
             }
 
-            if (key == null || key.equals(PREF_KEY_STATUSBAR_CLOCK_DOW)) {
+            if (mPrefSbClockDow != null && (key == null || key.equals(PREF_KEY_STATUSBAR_CLOCK_DOW))) {
                 mPrefSbClockDow.setSummary(mPrefSbClockDow.getEntry());
                 mPrefSbClockDowSize.setEnabled(Integer.valueOf(
                         mPrefSbClockDow.getValue()) != 0);
             }
 
-            if (key == null || key.equals(PREF_KEY_DATA_TRAFFIC_POSITION)) {
+            if (mPrefDataTrafficPosition != null && (key == null || key.equals(PREF_KEY_DATA_TRAFFIC_POSITION))) {
                 mPrefDataTrafficPosition.setSummary(mPrefDataTrafficPosition.getEntry());
             }
 
-            if (key == null || key.equals(PREF_KEY_DATA_TRAFFIC_SIZE)) {
+            if (mPrefDataTrafficSize != null && (key == null || key.equals(PREF_KEY_DATA_TRAFFIC_SIZE))) {
                 mPrefDataTrafficSize.setSummary(mPrefDataTrafficSize.getEntry());
             }
 
-            if (key == null || key.equals(PREF_KEY_PIE_CONTROL_CUSTOM_KEY)) {
+            if (mPrefPieCustomKey != null && (key == null || key.equals(PREF_KEY_PIE_CONTROL_CUSTOM_KEY))) {
                 mPrefPieCustomKey.setSummary(mPrefPieCustomKey.getEntry());
             }
 
-            if (key == null || key.equals(PREF_KEY_HWKEY_LOCKSCREEN_TORCH)) {
+            if (mPrefHwKeyLockscreenTorch != null && (key == null || key.equals(PREF_KEY_HWKEY_LOCKSCREEN_TORCH))) {
                 mPrefHwKeyLockscreenTorch.setSummary(mPrefHwKeyLockscreenTorch.getEntry());
             }
 
-            if (key == null || key.equals(PREF_KEY_TRANSLUCENT_DECOR)) {
+            if (mPrefTranclucentDecor != null && (key == null || key.equals(PREF_KEY_TRANSLUCENT_DECOR))) {
                 mPrefTranclucentDecor.setSummary(mPrefTranclucentDecor.getEntry());
             }
 
-            if (key == null || key.equals(PREF_KEY_VOLUME_ROCKER_WAKE)) {
+            if (mPrefVolumeRockerWake != null && (key == null || key.equals(PREF_KEY_VOLUME_ROCKER_WAKE))) {
                 mPrefVolumeRockerWake.setSummary(mPrefVolumeRockerWake.getEntry());
                 Preference p = findPreference(PREF_KEY_VOLUME_ROCKER_WAKE_ALLOW_MUSIC);
                 if (p != null) p.setEnabled("enabled".equals(mPrefVolumeRockerWake.getValue()));
             }
 
-            if (key == null || key.equals(PREF_KEY_DATA_TRAFFIC_OMNI_MODE)) {
+            if (mPrefDataTrafficOmniMode != null && (key == null || key.equals(PREF_KEY_DATA_TRAFFIC_OMNI_MODE))) {
                 mPrefDataTrafficOmniMode.setSummary(mPrefDataTrafficOmniMode.getEntry());
             }
 
-            if (key == null || key.equals(PREF_KEY_DATA_TRAFFIC_INACTIVITY_MODE)) {
+            if (mPrefDataTrafficInactivityMode != null && (key == null || key.equals(PREF_KEY_DATA_TRAFFIC_INACTIVITY_MODE))) {
                 mPrefDataTrafficInactivityMode.setSummary(mPrefDataTrafficInactivityMode.getEntry());
             }
 
-            if (key == null || key.equals(PREF_KEY_BATTERY_PERCENT_TEXT_SIZE)) {
+            if (mPrefBatteryPercentSize != null && (key == null || key.equals(PREF_KEY_BATTERY_PERCENT_TEXT_SIZE))) {
                 mPrefBatteryPercentSize.setSummary(mPrefBatteryPercentSize.getEntry());
             }
 
-            if (key == null || key.equals(PREF_KEY_BATTERY_PERCENT_TEXT_STYLE)) {
+            if (mPrefBatteryPercentStyle != null && (key == null || key.equals(PREF_KEY_BATTERY_PERCENT_TEXT_STYLE))) {
                 mPrefBatteryPercentStyle.setSummary(mPrefBatteryPercentStyle.getEntry());
             }
 
-            if (key == null || key.equals(PREF_KEY_BATTERY_PERCENT_TEXT_CHARGING)) {
+            if (mPrefBatteryPercentCharging != null && (key == null || key.equals(PREF_KEY_BATTERY_PERCENT_TEXT_CHARGING))) {
                 mPrefBatteryPercentCharging.setSummary(mPrefBatteryPercentCharging.getEntry());
             }
 
-            if (key == null || key.equals(PREF_KEY_LOCKSCREEN_CARRIER_TEXT)) {
+            if (mPrefLockscreenCarrierText != null && (key == null || key.equals(PREF_KEY_LOCKSCREEN_CARRIER_TEXT))) {
                 String carrierText = mPrefLockscreenCarrierText.getText();
                 if (carrierText == null || carrierText.isEmpty()) {
                     carrierText = getString(R.string.carrier_text_default);
@@ -2205,25 +2633,25 @@ public class GravityBoxSettings extends GravityBoxActivity implements GravityBox
                 mPrefLockscreenCarrierText.setSummary(carrierText);
             }
 
-            if (key == null || key.equals(PREF_KEY_PIE_BACK_LONGPRESS)) {
+            if (mPrefPieBackLongpress != null && (key == null || key.equals(PREF_KEY_PIE_BACK_LONGPRESS))) {
                 mPrefPieBackLongpress.setSummary(mPrefPieBackLongpress.getEntry());
             }
-            if (key == null || key.equals(PREF_KEY_PIE_HOME_LONGPRESS)) {
+            if (mPrefPieHomeLongpress != null && (key == null || key.equals(PREF_KEY_PIE_HOME_LONGPRESS))) {
                 mPrefPieHomeLongpress.setSummary(mPrefPieHomeLongpress.getEntry());
             }
-            if (key == null || key.equals(PREF_KEY_PIE_RECENTS_LONGPRESS)) {
+            if (mPrefPieRecentsLongpress != null && (key == null || key.equals(PREF_KEY_PIE_RECENTS_LONGPRESS))) {
                 mPrefPieRecentsLongpress.setSummary(mPrefPieRecentsLongpress.getEntry());
             }
-            if (key == null || key.equals(PREF_KEY_PIE_SEARCH_LONGPRESS)) {
+            if (mPrefPieSearchLongpress != null && (key == null || key.equals(PREF_KEY_PIE_SEARCH_LONGPRESS))) {
                 mPrefPieSearchLongpress.setSummary(mPrefPieSearchLongpress.getEntry());
             }
-            if (key == null || key.equals(PREF_KEY_PIE_MENU_LONGPRESS)) {
+            if (mPrefPieMenuLongpress != null && (key == null || key.equals(PREF_KEY_PIE_MENU_LONGPRESS))) {
                 mPrefPieMenuLongpress.setSummary(mPrefPieMenuLongpress.getEntry());
             }
-            if (key == null || key.equals(PREF_KEY_PIE_APP_LONGPRESS)) {
+            if (mPrefPieAppLongpress != null && (key == null || key.equals(PREF_KEY_PIE_APP_LONGPRESS))) {
                 mPrefPieAppLongpress.setSummary(mPrefPieAppLongpress.getEntry());
             }
-            if (key == null || key.equals(PREF_KEY_PIE_LONGPRESS_DELAY)) {
+            if (mPrefPieLongpressDelay != null && (key == null || key.equals(PREF_KEY_PIE_LONGPRESS_DELAY))) {
                 mPrefPieLongpressDelay.setSummary(mPrefPieLongpressDelay.getEntry());
             }
 
@@ -2231,24 +2659,24 @@ public class GravityBoxSettings extends GravityBoxActivity implements GravityBox
 //                mPrefQsTileLabelStyle.setSummary(mPrefQsTileLabelStyle.getEntry());
 //            }
 
-            if (key == null || key.equals(PREF_KEY_QUICK_PULLDOWN)) {
+            if (mPrefQuickPulldown != null && (key == null || key.equals(PREF_KEY_QUICK_PULLDOWN))) {
                 mPrefQuickPulldownSize.setEnabled(!"0".equals(mPrefQuickPulldown.getValue()) &&
                         mPrefs.getBoolean(GravityBoxSettings.PREF_KEY_QUICK_SETTINGS_ENABLE, false));
             }
 
-            if (key == null || key.equals(PREF_KEY_SCREENRECORD_SIZE)) {
+            if (mPrefScreenrecordSize != null && (key == null || key.equals(PREF_KEY_SCREENRECORD_SIZE))) {
                 mPrefScreenrecordSize.setSummary(mPrefScreenrecordSize.getEntry());
             }
 
-            if (key == null || key.equals(PREF_KEY_LINK_VOLUMES)) {
+            if (mPrefLinkVolumes != null && (key == null || key.equals(PREF_KEY_LINK_VOLUMES))) {
                 mPrefLinkVolumes.setSummary(mPrefLinkVolumes.getEntry());
             }
 
-            if (key == null || key.equals(PREF_KEY_LINK_RINGER_SYSTEM_VOLUMES)) {
+            if (mPrefLinkRingerSystemVolumes != null && (key == null || key.equals(PREF_KEY_LINK_RINGER_SYSTEM_VOLUMES))) {
                 mPrefLinkRingerSystemVolumes.setSummary(mPrefLinkRingerSystemVolumes.getEntry());
             }
 
-            if (key == null || key.equals(PREF_KEY_DATA_TRAFFIC_MODE)) {
+            if (mPrefDataTrafficMode != null && (key == null || key.equals(PREF_KEY_DATA_TRAFFIC_MODE))) {
                 mPrefDataTrafficMode.setSummary(mPrefDataTrafficMode.getEntry());
                 mPrefCatDataTraffic.removePreference(mPrefDataTrafficPosition);
                 mPrefCatDataTraffic.removePreference(mPrefDataTrafficLs);
@@ -2260,6 +2688,7 @@ public class GravityBoxSettings extends GravityBoxActivity implements GravityBox
                 mPrefCatDataTraffic.removePreference(mPrefDataTrafficDisplayMode);
                 mPrefCatDataTraffic.removePreference(mPrefDataTrafficOmniAutohide);
                 mPrefCatDataTraffic.removePreference(mPrefDataTrafficOmniAutohideTh);
+                mPrefCatDataTraffic.removePreference(mPrefDataTrafficSparkline);
                 String mode = mPrefDataTrafficMode.getValue();
                 if (!mode.equals("OFF")) {
                     if (!Utils.isWifiOnly(getActivity())) {
@@ -2269,6 +2698,7 @@ public class GravityBoxSettings extends GravityBoxActivity implements GravityBox
                     mPrefCatDataTraffic.addPreference(mPrefDataTrafficPosition);
                     mPrefCatDataTraffic.addPreference(mPrefDataTrafficLs);
                     mPrefCatDataTraffic.addPreference(mPrefDataTrafficSize);
+                    mPrefCatDataTraffic.addPreference(mPrefDataTrafficSparkline);
                 }
                 if (mode.equals("SIMPLE")) {
                     mPrefCatDataTraffic.addPreference(mPrefDataTrafficInactivityMode);
@@ -2280,38 +2710,38 @@ public class GravityBoxSettings extends GravityBoxActivity implements GravityBox
                 }
             }
 
-            if (key == null || key.equals(PREF_KEY_DATA_TRAFFIC_DISPLAY_MODE)) {
+            if (mPrefDataTrafficDisplayMode != null && (key == null || key.equals(PREF_KEY_DATA_TRAFFIC_DISPLAY_MODE))) {
                 mPrefDataTrafficDisplayMode.setSummary(mPrefDataTrafficDisplayMode.getEntry());
             }
 
-            if (key == null || key.equals(PREF_KEY_STATUSBAR_BT_VISIBILITY)) {
+            if (mPrefSbBtVisibility != null && (key == null || key.equals(PREF_KEY_STATUSBAR_BT_VISIBILITY))) {
                 mPrefSbBtVisibility.setSummary(mPrefSbBtVisibility.getEntry());
             }
 
-            if (key == null || key.equals(PREF_KEY_CHARGING_LED)) {
+            if (mPrefChargingLed != null && (key == null || key.equals(PREF_KEY_CHARGING_LED))) {
                 mPrefChargingLed.setSummary(mPrefChargingLed.getEntry());
             }
 
-            if (key == null || key.equals(PREF_KEY_QUICKRECORD_QUALITY)) {
+            if (mPrefQrQuality != null && (key == null || key.equals(PREF_KEY_QUICKRECORD_QUALITY))) {
                 mPrefQrQuality.setSummary(mPrefQrQuality.getEntry());
             }
 
-            if (key == null || key.equals(PREF_KEY_SMART_RADIO_SCREEN_OFF_DELAY)) {
+            if (mPrefSrAdaptiveDelay != null && (key == null || key.equals(PREF_KEY_SMART_RADIO_SCREEN_OFF_DELAY))) {
                 mPrefSrAdaptiveDelay.setEnabled(
                         mPrefs.getBoolean(PREF_KEY_SMART_RADIO_ENABLE, false) &&
                         mPrefs.getBoolean(PREF_KEY_SMART_RADIO_SCREEN_OFF, false) &&
                         mPrefs.getInt(PREF_KEY_SMART_RADIO_SCREEN_OFF_DELAY, 0) > 0);
             }
 
-            if (key == null || key.equals(PREF_KEY_BATTERY_BAR_POSITION)) {
+            if (mPrefBbarPosition != null && (key == null || key.equals(PREF_KEY_BATTERY_BAR_POSITION))) {
                 mPrefBbarPosition.setSummary(mPrefBbarPosition.getEntry());
             }
 
-            if (key == null || key.equals(PREF_KEY_STATUSBAR_DOWNLOAD_PROGRESS)) {
+            if (mPrefSbdpMode != null && (key == null || key.equals(PREF_KEY_STATUSBAR_DOWNLOAD_PROGRESS))) {
                 mPrefSbdpMode.setSummary(mPrefSbdpMode.getEntry());
             }
 
-            if (key == null || key.equals(PREF_KEY_BATTERY_TILE_TEMP_UNIT)) {
+            if (mPrefBatteryTileTempUnit != null && (key == null || key.equals(PREF_KEY_BATTERY_TILE_TEMP_UNIT))) {
                 mPrefBatteryTileTempUnit.setSummary(mPrefBatteryTileTempUnit.getEntry());
             }
 
@@ -2408,7 +2838,7 @@ public class GravityBoxSettings extends GravityBoxActivity implements GravityBox
                     intent.putExtra(EXTRA_HWKEY_VALUE, HWKEY_ACTION_CUSTOM_APP);
                     intent.putExtra(EXTRA_HWKEY_CUSTOM_APP, mPrefCustomApp.getValue());
                     mPrefs.edit().commit();
-                    getActivity().sendBroadcast(intent);
+                    SettingsChangeBroadcaster.getInstance(getActivity()).post(key, intent);
                 } else if (key == null || customAppKeys.contains(key)) {
                     String value = caPref.getValue();
                     if (value != null && Integer.valueOf(value) == HWKEY_ACTION_CUSTOM_APP) {
@@ -2446,19 +2876,23 @@ public class GravityBoxSettings extends GravityBoxActivity implements GravityBox
 
         @Override
         public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
+            // runtime summaries collected by search index might have changed
+            SettingsSearchIndexLoader.invalidate(key);
+
             if (customAppKeys.contains(key)) { 
                 if (Integer.valueOf(prefs.getString(key, "0")) == HWKEY_ACTION_CUSTOM_APP) {
                     Intent intent = new Intent(ACTION_PREF_HWKEY_CHANGED);
                     intent.putExtra(EXTRA_HWKEY_KEY, key);
                     intent.putExtra(EXTRA_HWKEY_VALUE, HWKEY_ACTION_CUSTOM_APP);
                     mPrefs.edit().commit();
-                    getActivity().sendBroadcast(intent);
-                    findPreference(key).setSummary(R.string.app_picker_none);
+                    SettingsChangeBroadcaster.getInstance(getActivity()).post(key, intent);
+                    Preference p = findPreference(key);
+                    if (p != null) p.setSummary(R.string.app_picker_none);
                     mPrefCustomApp.setKey(key + "_custom");
                     mPrefCustomApp.show();
                     return;
                 } else {
-                    mPrefs.edit().putString(key + "_custom", null).commit();
+                    mPrefs.edit().putString(key + "_custom", null).apply();
                 }
             }
             updatePreferences(key);
@@ -2967,6 +3401,9 @@ public class GravityBoxSettings extends GravityBoxActivity implements GravityBox
             } else if (key.equals(PREF_KEY_DATA_TRAFFIC_LOCKSCREEN)) {
                 intent.setAction(ACTION_PREF_DATA_TRAFFIC_CHANGED);
                 intent.putExtra(EXTRA_DT_LOCKSCREEN, prefs.getBoolean(key, true));
+            } else if (key.equals(PREF_KEY_DATA_TRAFFIC_SPARKLINE)) {
+                intent.setAction(ACTION_PREF_DATA_TRAFFIC_CHANGED);
+                intent.putExtra(EXTRA_DT_SPARKLINE, prefs.getBoolean(key, false));
             } else if (key.equals(PREF_KEY_DATA_TRAFFIC_SIZE)) {
                 intent.setAction(ACTION_PREF_DATA_TRAFFIC_CHANGED);
                 intent.putExtra(EXTRA_DT_SIZE, Integer.valueOf(
@@ -3293,10 +3730,11 @@ public class GravityBoxSettings extends GravityBoxActivity implements GravityBox
             }
 
             if (intent.getAction() != null) {
+                SettingsChangeBroadcaster broadcaster = SettingsChangeBroadcaster.getInstance(getActivity());
                 if (delayedBroadcast) {
-                    new Handler().postDelayed(() -> getActivity().sendBroadcast(intent), 200);
+                    broadcaster.postDelayed(key, intent, 200);
                 } else {
-                    getActivity().sendBroadcast(intent);
+                    broadcaster.post(key, intent);
                 }
             }
 
@@ -3373,6 +3811,13 @@ public class GravityBoxSettings extends GravityBoxActivity implements GravityBox
         @SuppressLint("SetWorldReadable")
         @Override
         public boolean onPreferenceTreeClick(PreferenceScreen prefScreen, Preference pref) {
+            if (inflateCategory(pref.getKey())) {
+                updatePreferences(null);
+                // placeholder was empty when clicked so it has to be opened again
+                openPreferenceScreen(getPreferenceScreen(), (PreferenceScreen) pref);
+                return true;
+            }
+
             Intent intent = null;
 
             if (pref == mPrefAboutGb) {
@@ -3435,7 +3880,7 @@ public class GravityBoxSettings extends GravityBoxActivity implements GravityBox
                 .setMessage(R.string.hwkey_navbar_warning)
                 .setPositiveButton(android.R.string.ok, (dialog, which) -> {
                     dialog.dismiss();
-                    mPrefs.edit().putBoolean("hw_keys_navbar_warning_shown", true).commit();
+                    mPrefs.edit().putBoolean("hw_keys_navbar_warning_shown", true).apply();
                 });
                 mDialog = builder.create();
                 mDialog.show();
@@ -14,34 +14,44 @@
  */
 package com.ceco.q.gravitybox;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+
 import android.annotation.SuppressLint;
 import android.app.Service;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.os.AsyncTask;
+import android.os.Bundle;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.Message;
 import android.os.Messenger;
 import android.os.RemoteException;
+import android.os.SharedMemory;
+import android.os.SystemClock;
+import android.util.Log;
 
 public class KeyguardImageService extends Service {
-    public static final int MSG_BEGIN_OUTPUT = 1;
-    public static final int MSG_WRITE_OUTPUT = 2;
-    public static final int MSG_FINISH_OUTPUT = 3;
-    public static final int MSG_GET_NEXT_CHUNK = 4;
+    private static final String TAG = "GB:KeyguardImageService";
+    private static final boolean DEBUG = false;
+
+    public static final int MSG_SET_IMAGE = 1;
+    public static final int MSG_IMAGE_SAVED = 2;
     public static final int MSG_ERROR = -1;
 
+    public static final String EXTRA_IMAGE = "image";
+    public static final String EXTRA_WIDTH = "width";
+    public static final String EXTRA_HEIGHT = "height";
+
+    public static final String IMAGE_FILE_NAME = "kis_image.jpg";
+    private static final String LEGACY_IMAGE_FILE_NAME = "kis_image.png";
+
     public static final String ACTION_KEYGUARD_IMAGE_UPDATED = "gravitybox.intent.action.KEYGUARD_IMAGE_UPDATED";
 
     private File mKisImageFile;
-    private boolean mWriteInProgress;
-    private ByteArrayOutputStream mOutputStream;
     private SharedPreferences mPrefs;
 
     final Messenger mMessenger = new Messenger(new ClientHandler());
@@ -50,44 +60,24 @@ public class KeyguardImageService extends Service {
     class ClientHandler extends Handler {
         @Override
         public void handleMessage(Message msg) {
-            switch (msg.what) {
-                case MSG_BEGIN_OUTPUT:
-                    if (mWriteInProgress) return;
-                    try {
-                        mOutputStream = new ByteArrayOutputStream();
-                        mWriteInProgress = true;
-                        msg.replyTo.send(Message.obtain(null, MSG_GET_NEXT_CHUNK));
-                    } catch (Throwable t) {
-                        try {
-                            msg.replyTo.send(Message.obtain(null, MSG_ERROR));
-                        } catch (RemoteException ignored) { }
-                        t.printStackTrace();
-                    }
-                    break;
-                case MSG_WRITE_OUTPUT:
-                    try {
-                        byte[] data = msg.getData().getByteArray("data");
-                        mOutputStream.write(data);
-                        data = null;
-                        msg.replyTo.send(Message.obtain(null, MSG_GET_NEXT_CHUNK));
-                    } catch (Throwable t) {
-                        try {
-                            msg.replyTo.send(Message.obtain(null, MSG_ERROR));
-                        } catch (RemoteException ignored) { }
-                        t.printStackTrace();
-                    }
-                    break;
-                case MSG_FINISH_OUTPUT:
-                    try {
-                        if (saveImage()) {
-                            Intent intent = new Intent(ACTION_KEYGUARD_IMAGE_UPDATED);
-                            sendBroadcast(intent);
-                        }
-                        mOutputStream.close();
-                    } catch (Throwable t) {
-                        t.printStackTrace();
+            if (msg.what != MSG_SET_IMAGE) return;
+
+            final Messenger client = msg.replyTo;
+            final int transferId = msg.arg1;
+            try {
+                final Bitmap bmp = readImage(msg.getData());
+                // blurring and writing is done off the main thread;
+                // client keeps us bound until it gets the reply
+                AsyncTask.execute(() -> {
+                    boolean saved = saveImage(bmp);
+                    if (saved) {
+                        sendBroadcast(new Intent(ACTION_KEYGUARD_IMAGE_UPDATED));
                     }
-                    break;
+                    reply(client, saved ? MSG_IMAGE_SAVED : MSG_ERROR, transferId);
+                });
+            } catch (Throwable t) {
+                reply(client, MSG_ERROR, transferId);
+                t.printStackTrace();
             }
         }
     }
@@ -95,8 +85,19 @@ public class KeyguardImageService extends Service {
     @Override
     public void onCreate() {
         super.onCreate();
-        mKisImageFile = new File(SettingsManager.getInstance(this).getPreferenceDir(), "kis_image.png");
+        final File prefsDir = SettingsManager.getInstance(this).getPreferenceDir();
+        mKisImageFile = new File(prefsDir, IMAGE_FILE_NAME);
         mPrefs = SettingsManager.getInstance(this).getMainPrefs();
+        deleteLegacyImage(prefsDir);
+    }
+
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    private static void deleteLegacyImage(File prefsDir) {
+        final File legacyFile = new File(prefsDir, LEGACY_IMAGE_FILE_NAME);
+        if (legacyFile.exists()) {
+            legacyFile.delete();
+            if (DEBUG) Log.d(TAG, "deleteLegacyImage: " + legacyFile + " deleted");
+        }
     }
 
     @Override
@@ -104,26 +105,76 @@ public class KeyguardImageService extends Service {
         return mMessenger.getBinder();
     }
 
+    private static void reply(Messenger client, int what, int transferId) {
+        if (client == null) return;
+        try {
+            client.send(Message.obtain(null, what, transferId, 0));
+        } catch (RemoteException ignored) { }
+    }
+
+    private static Bitmap readImage(Bundle data) throws Exception {
+        final long startTime = SystemClock.elapsedRealtime();
+        SharedMemory image = data.getParcelable(EXTRA_IMAGE);
+        if (image == null) {
+            throw new IllegalArgumentException("Missing image data");
+        }
+        try {
+            Bitmap bmp = Bitmap.createBitmap(data.getInt(EXTRA_WIDTH), data.getInt(EXTRA_HEIGHT),
+                    Bitmap.Config.ARGB_8888);
+            ByteBuffer buffer = image.mapReadOnly();
+            try {
+                bmp.copyPixelsFromBuffer(buffer);
+            } finally {
+                SharedMemory.unmap(buffer);
+            }
+            if (DEBUG) Log.d(TAG, "readImage: " + bmp.getByteCount() + " bytes copied in " +
+                    (SystemClock.elapsedRealtime() - startTime) + "ms");
+            return bmp;
+        } finally {
+            image.close();
+        }
+    }
+
     @SuppressWarnings("ResultOfMethodCallIgnored")
     @SuppressLint("SetWorldReadable")
-    private boolean saveImage() {
+    private boolean saveImage(Bitmap bmp) {
+        final long startTime = SystemClock.elapsedRealtime();
+        final File tmpFile = new File(mKisImageFile.getPath() + ".tmp");
+        Bitmap tmpBmp = bmp;
         try {
-            Bitmap tmpBmp = BitmapFactory.decodeStream(
-                    new ByteArrayInputStream(mOutputStream.toByteArray()));
-            if (tmpBmp != null) {
-                if (mPrefs.getBoolean(GravityBoxSettings.PREF_KEY_LOCKSCREEN_BACKGROUND_BLUR_EFFECT, false)) {
-                    tmpBmp = BitmapUtils.blurBitmap(this, tmpBmp, mPrefs.getInt(
-                            GravityBoxSettings.PREF_KEY_LOCKSCREEN_BACKGROUND_BLUR_INTENSITY, 14));
+            if (mPrefs.getBoolean(GravityBoxSettings.PREF_KEY_LOCKSCREEN_BACKGROUND_BLUR_EFFECT, false)) {
+                tmpBmp = BitmapUtils.blurBitmap(this, tmpBmp, mPrefs.getInt(
+                        GravityBoxSettings.PREF_KEY_LOCKSCREEN_BACKGROUND_BLUR_INTENSITY, 14));
+            }
+            try (FileOutputStream os = new FileOutputStream(tmpFile)) {
+                // screenshot is opaque; JPEG encodes many times faster than PNG
+                if (!tmpBmp.compress(Bitmap.CompressFormat.JPEG, 95, os)) {
+                    tmpFile.delete();
+                    return false;
                 }
-                tmpBmp.compress(Bitmap.CompressFormat.PNG, 100, new FileOutputStream(mKisImageFile));
-                mKisImageFile.setReadable(true, false);
-                tmpBmp.recycle();
-                return true;
+                os.flush();
+                os.getFD().sync();
             }
-            return false;
+            tmpFile.setReadable(true, false);
+            // replace atomically so that readers never see partially written image
+            if (!tmpFile.renameTo(mKisImageFile)) {
+                tmpFile.delete();
+                return false;
+            }
+            if (DEBUG) Log.d(TAG, "saveImage: " + mKisImageFile.length() + " bytes written in " +
+                    (SystemClock.elapsedRealtime() - startTime) + "ms");
+            return true;
         } catch (Exception e) {
             e.printStackTrace();
             return false;
+        } finally {
+            // blurring might have failed leaving no image
+            if (tmpBmp != null) {
+                tmpBmp.recycle();
+            }
+            if (tmpBmp != bmp) {
+                bmp.recycle();
+            }
         }
     }
 }
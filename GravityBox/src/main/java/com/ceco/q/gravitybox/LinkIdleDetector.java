@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2020 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.q.gravitybox;
+
+/**
+ * Decides whether data link is idle from byte counter samples.
+ * Throughput is estimated as exponentially weighted moving average with weight
+ * of each sample depending on time it covers. Link becomes busy when estimate
+ * reaches threshold and idle again only when it drops below half of it.
+ * Link has to stay idle for minimum dwell time to be reported as idle.
+ * When sample bringing link back to idle shows idle rate over its whole interval,
+ * e.g. the time device slept, the link is considered idle since start of that interval.
+ * All times are supplied by caller so decisions can be replayed from recorded samples.
+ */
+class LinkIdleDetector {
+    private final long mTimeConstant;
+    private final long mMinIdleDwell;
+    // busy threshold in bytes per second; link is idle below half of it
+    private long mThreshold;
+    private double mEstimate;
+    private boolean mBusy;
+    private long mIdleSince;
+    private long mTimestamp;
+    private long mRxBytes;
+    private long mTxBytes;
+
+    /**
+     * @param timeConstant - time in ms after which weight of older samples drops to 1/e
+     * @param minIdleDwell - time in ms link has to stay idle before it is reported as idle
+     */
+    LinkIdleDetector(long timeConstant, long minIdleDwell) {
+        if (timeConstant <= 0) {
+            throw new IllegalArgumentException("Time constant must be positive");
+        }
+        mTimeConstant = timeConstant;
+        mMinIdleDwell = minIdleDwell;
+    }
+
+    void setThreshold(long bytesPerSecond) {
+        mThreshold = bytesPerSecond;
+    }
+
+    /**
+     * Starts new observation. Link is considered idle since given timestamp.
+     */
+    void reset(long timestamp, long rxBytes, long txBytes) {
+        mEstimate = 0;
+        mBusy = false;
+        mIdleSince = timestamp;
+        mTimestamp = timestamp;
+        mRxBytes = rxBytes;
+        mTxBytes = txBytes;
+    }
+
+    /**
+     * Feeds current values of byte counters
+     */
+    void addSample(long timestamp, long rxBytes, long txBytes) {
+        final long timeDelta = timestamp - mTimestamp;
+        if (timeDelta <= 0) return;
+
+        // counters might have been reset on link change
+        final long bytes = Math.max(Math.max(0, rxBytes - mRxBytes), Math.max(0, txBytes - mTxBytes));
+        final double rate = bytes * 1000d / timeDelta;
+        final double alpha = 1 - Math.exp(-(double) timeDelta / mTimeConstant);
+        mEstimate += alpha * (rate - mEstimate);
+
+        if (!mBusy && mEstimate >= mThreshold) {
+            mBusy = true;
+        } else if (mBusy && mEstimate < mThreshold / 2d) {
+            mBusy = false;
+            mIdleSince = rate < mThreshold / 2d ? mTimestamp : timestamp;
+        }
+
+        mTimestamp = timestamp;
+        mRxBytes = rxBytes;
+        mTxBytes = txBytes;
+    }
+
+    /**
+     * @return estimated throughput in bytes per second
+     */
+    long getEstimate() {
+        return (long) mEstimate;
+    }
+
+    boolean isIdle(long timestamp) {
+        return !mBusy && timestamp - mIdleSince >= mMinIdleDwell;
+    }
+}
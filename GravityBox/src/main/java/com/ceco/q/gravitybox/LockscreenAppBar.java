@@ -19,13 +19,14 @@ import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.List;
 
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.content.pm.ActivityInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.res.Configuration;
 import android.content.res.Resources;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
@@ -34,6 +35,7 @@ import android.graphics.Paint;
 import android.graphics.Rect;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
+import android.os.AsyncTask;
 import android.os.Handler;
 import android.provider.CallLog;
 import android.service.notification.StatusBarNotification;
@@ -43,6 +45,7 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageView;
 
+import com.ceco.q.gravitybox.managers.SysUiAppIconCache;
 import com.ceco.q.gravitybox.managers.SysUiConfigChangeMonitor;
 import com.ceco.q.gravitybox.managers.SysUiKeyguardStateMonitor;
 import com.ceco.q.gravitybox.managers.SysUiNotificationDataMonitor;
@@ -56,7 +59,8 @@ import de.robv.android.xposed.XposedHelpers;
 
 public class LockscreenAppBar implements SysUiKeyguardStateMonitor.Listener,
                                          SysUiNotificationDataMonitor.Listener,
-                                         SysUiConfigChangeMonitor.ConfigChangeListener {
+                                         SysUiConfigChangeMonitor.ConfigChangeListener,
+                                         SysUiAppIconCache.Listener {
     private static final String TAG = "GB:LockscreenAppBar";
     private static final boolean DEBUG = false;
 
@@ -83,6 +87,11 @@ public class LockscreenAppBar implements SysUiKeyguardStateMonitor.Listener,
     private boolean mIsActive;
     private boolean mIsInteractive = true;
     private int mScale;
+    // kept up to date by call log observer while badges are shown
+    private int mMissedCallCount;
+    private ContentObserver mCallLogObserver;
+    // queries run in parallel; only result of the latest one is applied
+    private int mMissedCallQuerySeq;
 
     public LockscreenAppBar(Context ctx, Context gbCtx, ViewGroup container,
             Object notifPanel, XSharedPreferences prefs) {
@@ -98,6 +107,7 @@ public class LockscreenAppBar implements SysUiKeyguardStateMonitor.Listener,
         mShowBadges = prefs.getBoolean(
                 GravityBoxSettings.PREF_KEY_LOCKSCREEN_SHORTCUT_SHOW_BADGES, false);
         mScale = prefs.getInt(GravityBoxSettings.PREF_KEY_LOCKSCREEN_SHORTCUT_SCALE, 0);
+        updateCallLogObserver();
 
         mNdMonitor = SysUiManagers.NotifDataMonitor;
         if (mNdMonitor != null) {
@@ -124,6 +134,10 @@ public class LockscreenAppBar implements SysUiKeyguardStateMonitor.Listener,
 
         mKgMonitor = SysUiManagers.KeyguardMonitor;
         mKgMonitor.registerListener(this);
+
+        if (SysUiManagers.AppIconCache != null) {
+            SysUiManagers.AppIconCache.registerListener(this);
+        }
     }
 
     @Override
@@ -134,12 +148,27 @@ public class LockscreenAppBar implements SysUiKeyguardStateMonitor.Listener,
             GravityBox.log(TAG, t);
         }
         updateScale();
+        reloadAppIcons();
     }
 
-    private void updateScale() {
+    @Override
+    public void onPackageIconsInvalidated(String pkgName) {
+        for (AppInfo ai : mAppSlots) {
+            if (ai.isAppComponentOf(pkgName)) {
+                ai.initAppInfo(ai.getValue());
+            }
+        }
+        updateRootViewVisibility();
+    }
+
+    private int getIconSizePx() {
         float scaledSizeDp = DEFAULT_SIZE_DP * (1 + (float)mScale/100f);
-        int scaledSizePx = Math.round(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP,
+        return Math.round(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP,
                 scaledSizeDp, mContext.getResources().getDisplayMetrics()));
+    }
+
+    private void updateScale() {
+        int scaledSizePx = getIconSizePx();
         int childCount = mRootView.getChildCount();
         for (int i = 0; i < childCount; i++) {
             View v = mRootView.getChildAt(i);
@@ -165,12 +194,22 @@ public class LockscreenAppBar implements SysUiKeyguardStateMonitor.Listener,
 
     public void setShowBadges(boolean showBadges) {
         mShowBadges = showBadges;
+        updateCallLogObserver();
         onNotificationDataChanged(null);
     }
 
     public void setScale(int scale) {
         mScale = scale;
         updateScale();
+        reloadAppIcons();
+    }
+
+    private void reloadAppIcons() {
+        for (AppInfo ai : mAppSlots) {
+            if (ai.isAppComponentOf(null)) {
+                ai.initAppInfo(ai.getValue());
+            }
+        }
     }
 
     public void updateAppSlot(int slot, String value) {
@@ -267,15 +306,51 @@ public class LockscreenAppBar implements SysUiKeyguardStateMonitor.Listener,
         }
     }
 
-    private int getMissedCallCount() {
-        try {
-            String[] selection = { CallLog.Calls.TYPE };
-            String where = CallLog.Calls.TYPE + "=" + CallLog.Calls.MISSED_TYPE +
-                    " AND " + CallLog.Calls.NEW + "=1";
-            Cursor c = mContext.getContentResolver().query(CallLog.Calls.CONTENT_URI, selection, where, null, null);
-            int count = c.getCount();
-            c.close();
-            return count;
+    private void updateCallLogObserver() {
+        if (mShowBadges && mCallLogObserver == null) {
+            mCallLogObserver = new ContentObserver(mHandler) {
+                @Override
+                public void onChange(boolean selfChange) {
+                    refreshMissedCallCount();
+                }
+            };
+            mContext.getContentResolver().registerContentObserver(
+                    CallLog.Calls.CONTENT_URI, true, mCallLogObserver);
+            refreshMissedCallCount();
+            if (DEBUG) log("Call log observer registered");
+        } else if (!mShowBadges && mCallLogObserver != null) {
+            mContext.getContentResolver().unregisterContentObserver(mCallLogObserver);
+            mCallLogObserver = null;
+            mMissedCallCount = 0;
+            if (DEBUG) log("Call log observer unregistered");
+        }
+    }
+
+    private void refreshMissedCallCount() {
+        final int seq = ++mMissedCallQuerySeq;
+        AsyncTask.execute(() -> {
+            final int count = queryMissedCallCount();
+            mHandler.post(() -> {
+                if (seq != mMissedCallQuerySeq || mCallLogObserver == null ||
+                        count == mMissedCallCount) return;
+                mMissedCallCount = count;
+                if (DEBUG) log("Missed call count changed: " + count);
+                for (AppInfo ai : mAppSlots) {
+                    if (ModTelecom.PACKAGE_NAME.equals(ai.getPackageName())) {
+                        ai.updateIcon();
+                    }
+                }
+            });
+        });
+    }
+
+    private int queryMissedCallCount() {
+        String[] selection = { CallLog.Calls.TYPE };
+        String where = CallLog.Calls.TYPE + "=" + CallLog.Calls.MISSED_TYPE +
+                " AND " + CallLog.Calls.NEW + "=1";
+        try (Cursor c = mContext.getContentResolver().query(
+                CallLog.Calls.CONTENT_URI, selection, where, null, null)) {
+            return (c == null ? 0 : c.getCount());
         } catch (Throwable t) {
             GravityBox.log(TAG, t);
             return 0;
@@ -293,6 +368,7 @@ public class LockscreenAppBar implements SysUiKeyguardStateMonitor.Listener,
     };
 
     private final class AppInfo implements View.OnClickListener {
+        private String mValue;
         private Intent mIntent;
         private Resources mResources;
         private Resources mGbResources;
@@ -308,6 +384,7 @@ public class LockscreenAppBar implements SysUiKeyguardStateMonitor.Listener,
         }
 
         private void reset() {
+            mValue = null;
             mIntent = null;
             mIcon = null;
             mView.setImageDrawable(null);
@@ -320,6 +397,7 @@ public class LockscreenAppBar implements SysUiKeyguardStateMonitor.Listener,
                 return;
             }
 
+            mValue = value;
             try {
                 mIntent = Intent.parseUri(value, 0);
                 if (!mIntent.hasExtra("mode")) {
@@ -345,8 +423,9 @@ public class LockscreenAppBar implements SysUiKeyguardStateMonitor.Listener,
 
                 if (mIcon == null) {
                     if (mode == AppPickerPreference.MODE_APP) {
-                        ActivityInfo ai = mPm.getActivityInfo(mIntent.getComponent(), 0);
-                        mIcon = ai.loadIcon(mPm);
+                        // fails with NameNotFoundException for no longer existing app
+                        mPm.getActivityInfo(mIntent.getComponent(), 0);
+                        loadAppIcon();
                     } else {
                         mIcon = mContext.getDrawable(android.R.drawable.ic_menu_help);
                     }
@@ -364,6 +443,44 @@ public class LockscreenAppBar implements SysUiKeyguardStateMonitor.Listener,
             }
         }
 
+        private void loadAppIcon() {
+            final ComponentName cn = mIntent.getComponent();
+            final int sizePx = getIconSizePx();
+            final SysUiAppIconCache iconCache = SysUiManagers.AppIconCache;
+            Bitmap icon = iconCache == null ? SysUiAppIconCache.createIcon(mPm, cn, sizePx) :
+                    iconCache.getCachedIcon(cn, sizePx);
+            if (icon != null || iconCache == null) {
+                mIcon = icon == null ? mContext.getDrawable(android.R.drawable.ic_menu_help) :
+                        new BitmapDrawable(mResources, icon);
+                return;
+            }
+
+            final Intent intent = mIntent;
+            iconCache.loadIcon(cn, sizePx, (component, bmp) -> {
+                if (bmp != null && intent == mIntent) {
+                    mIcon = new BitmapDrawable(mResources, bmp);
+                    updateIcon();
+                }
+            });
+        }
+
+        String getValue() {
+            return mValue;
+        }
+
+        /**
+         * Whether this slot shows icon of an app component
+         * @param pkgName - package the component must belong to or null for any package
+         */
+        boolean isAppComponentOf(String pkgName) {
+            if (mIntent == null || mIntent.getComponent() == null ||
+                    mIntent.getIntExtra("mode", AppPickerPreference.MODE_APP) !=
+                            AppPickerPreference.MODE_APP) {
+                return false;
+            }
+            return (pkgName == null || pkgName.equals(mIntent.getComponent().getPackageName()));
+        }
+
         private String getPackageName() {
             if (mIntent != null && mIntent.getComponent() != null &&
                     mIntent.getComponent().getPackageName() != null) {
@@ -393,7 +510,7 @@ public class LockscreenAppBar implements SysUiKeyguardStateMonitor.Listener,
         private int getNotifCount() {
             final String pkgName = getPackageName();
             if (ModTelecom.PACKAGE_NAME.equals(pkgName)) {
-                return getMissedCallCount();
+                return mMissedCallCount;
             } else if (mNdMonitor != null) {
                 return mNdMonitor.getNotifCountFor(pkgName);
             } else {
@@ -70,7 +70,7 @@ public class ModAudio {
                 updateStreamVolumeAlias();
             }
         } else if (intent.getAction().equals(QuietHoursActivity.ACTION_QUIET_HOURS_CHANGED)) {
-            mQh = new QuietHours(intent.getExtras());
+            mQh = QuietHours.update(intent.getExtras());
         }
     };
 
@@ -79,7 +79,7 @@ public class ModAudio {
             final Class<?> classAudioService = XposedHelpers.findClass(CLASS_AUDIO_SERVICE, classLoader);
             final Class<?> classAudioSystem = XposedHelpers.findClass(CLASS_AUDIO_SYSTEM, classLoader);
 
-            mQh = new QuietHours(qhPrefs);
+            mQh = QuietHours.getInstance(qhPrefs);
             mRingNotifVolumesLinked = StreamLink.valueOf(prefs.getString(
                     GravityBoxSettings.PREF_KEY_LINK_VOLUMES, "DEFAULT"));
             mRingSystemVolumesLinked = StreamLink.valueOf(prefs.getString(
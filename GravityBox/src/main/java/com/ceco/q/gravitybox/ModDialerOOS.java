@@ -48,7 +48,7 @@ public class ModDialerOOS {
         @Override
         public void onReceive(Context context, Intent intent) {
             if (intent.getAction().equals(QuietHoursActivity.ACTION_QUIET_HOURS_CHANGED)) {
-                mQuietHours = new QuietHours(intent.getExtras());
+                mQuietHours = QuietHours.update(intent.getExtras());
                 if (DEBUG) log("QuietHours updated");
             }
         }
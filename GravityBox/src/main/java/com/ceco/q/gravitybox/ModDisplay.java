@@ -15,10 +15,8 @@
 
 package com.ceco.q.gravitybox;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -34,7 +32,7 @@ import android.content.Intent;
 import android.content.ServiceConnection;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
-import android.graphics.Bitmap.CompressFormat;
+import android.graphics.BitmapFactory;
 import android.graphics.Color;
 import android.graphics.Rect;
 import android.os.BatteryManager;
@@ -46,6 +44,10 @@ import android.os.Messenger;
 import android.os.PowerManager;
 import android.os.PowerManager.WakeLock;
 import android.os.ResultReceiver;
+import android.os.SharedMemory;
+import android.os.SystemClock;
+import android.system.ErrnoException;
+import android.system.OsConstants;
 import android.view.Surface;
 import de.robv.android.xposed.XC_MethodHook;
 import de.robv.android.xposed.XSharedPreferences;
@@ -80,7 +82,9 @@ public class ModDisplay {
     private static ChargingLed mChargingLed;
 
     private static ServiceConnection mKisServiceConn;
-    private static InputStream mKisImageStream;
+    private static SharedMemory mKisImage;
+    private static WakeLock mKisWakeLock;
+    private static int mKisTransferId;
     private static Messenger mKisService;
     private static Messenger mKisClient;
     private static KeyguardManager mKeyguardManager;
@@ -417,9 +421,19 @@ public class ModDisplay {
                         new Thread(() -> {
                             final WakeLock wakeLock = mPm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, TAG);
                             wakeLock.acquire(10000);
+                            final long startTime = SystemClock.elapsedRealtime();
                             Bitmap tmpBmp = bmp;
-                            int width = bmp.getWidth();
-                            int height = bmp.getHeight();
+                            // pixels of hardware bitmaps cannot be accessed directly
+                            if (tmpBmp.getConfig() != Bitmap.Config.ARGB_8888) {
+                                tmpBmp = bmp.copy(Bitmap.Config.ARGB_8888, false);
+                                bmp.recycle();
+                                if (tmpBmp == null) {
+                                    wakeLock.release();
+                                    return;
+                                }
+                            }
+                            int width = tmpBmp.getWidth();
+                            int height = tmpBmp.getHeight();
                             // scale image (keeping aspect ratio) if it is too large
                             if (width * height > 1440000) {
                                 int newWidth = (width < height) ? 900 : 1600;
@@ -427,88 +441,29 @@ public class ModDisplay {
                                 int newHeight = (int) (height * factor);
                                 if (DEBUG_KIS) log("requestPowerState: scaled image res (WxH):"
                                         + newWidth + "x" + newHeight);
-                                tmpBmp = Bitmap.createScaledBitmap(bmp, newWidth, newHeight, true);
+                                Bitmap scaledBmp = Bitmap.createScaledBitmap(tmpBmp, newWidth, newHeight, true);
+                                tmpBmp.recycle();
+                                tmpBmp = scaledBmp;
                             }
 
-                            final ByteArrayOutputStream os = new ByteArrayOutputStream();
-                            tmpBmp.compress(CompressFormat.PNG, 100, os);
+                            final SharedMemory image;
                             try {
-                               os.close();
-                            } catch (IOException ignored) { }
-                            bmp.recycle();
-                            tmpBmp.recycle();
-                            mKisImageStream = new ByteArrayInputStream(os.toByteArray());
-
-                            if (mKisClient == null) {
-                                mKisClient = new Messenger(new Handler(h.getLooper()) {
-                                    @Override
-                                    public void handleMessage(Message msg) {
-                                        if (DEBUG_KIS) log("mKisClient: got reply: what=" + msg.what);
-                                        try {
-                                            if (msg.what == KeyguardImageService.MSG_GET_NEXT_CHUNK) {
-                                                byte[] data = new byte[204800];
-                                                if (mKisImageStream.read(data) != -1) {
-                                                    Bundle bundle = new Bundle();
-                                                    bundle.putByteArray("data", data);
-                                                    Message dataMsg = Message.obtain(null, KeyguardImageService.MSG_WRITE_OUTPUT);
-                                                    dataMsg.setData(bundle);
-                                                    dataMsg.replyTo = mKisClient;
-                                                    mKisService.send(dataMsg);
-                                                    if (DEBUG_KIS) log("mKisClient: MSG_WRITE_OUTPUT sent");
-                                                } else {
-                                                    msg = Message.obtain(null, KeyguardImageService.MSG_FINISH_OUTPUT);
-                                                    mKisService.send(msg);
-                                                    mContext.unbindService(mKisServiceConn);
-                                                    if (wakeLock != null && wakeLock.isHeld()) {
-                                                        wakeLock.release();
-                                                    }
-                                                    mKisService = null;
-                                                    mKisServiceConn = null;
-                                                    if (DEBUG_KIS) log("mKisClient: MSG_FINISH_OUTPUT sent");
-                                                }
-                                            } else if (msg.what == KeyguardImageService.MSG_ERROR) {
-                                                mContext.unbindService(mKisServiceConn);
-                                                if (wakeLock != null && wakeLock.isHeld()) {
-                                                    wakeLock.release();
-                                                }
-                                                mKisService = null;
-                                                mKisServiceConn = null;
-                                                GravityBox.log(TAG, "mKisClient: MSG_ERROR received");
-                                            }
-                                        } catch (Throwable t) {
-                                            GravityBox.log(TAG, t);
-                                        }
-                                    }
-                                });
+                                image = createKisImage(tmpBmp);
+                            } catch (Throwable t) {
+                                GravityBox.log(TAG, t);
+                                tmpBmp.recycle();
+                                wakeLock.release();
+                                return;
                             }
-
-                            mKisServiceConn = new ServiceConnection() {
-                                @Override
-                                public void onServiceConnected(ComponentName cn, IBinder binder) {
-                                    try {
-                                        mKisService = new Messenger(binder);
-                                        Message msg = Message.obtain(null, KeyguardImageService.MSG_BEGIN_OUTPUT);
-                                        msg.replyTo = mKisClient;
-                                        mKisService.send(msg);
-                                        if (DEBUG_KIS) log("mKisServiceConn: onServiceConnected");
-                                    } catch (Throwable t) {
-                                        GravityBox.log(TAG, t);
-                                    }
-                                }
-                                @Override
-                                public void onServiceDisconnected(ComponentName cn) {
-                                    if (wakeLock != null && wakeLock.isHeld()) {
-                                        wakeLock.release();
-                                    }
-                                    mKisService = null;
-                                    mKisServiceConn = null;
-                                    if (DEBUG_KIS) log("mKisServiceConn: onServiceDisconnected");
-                                }
-                            };
-                            ComponentName cn = new ComponentName(GravityBox.PACKAGE_NAME, KeyguardImageService.class.getName());
-                            Intent intent = new Intent();
-                            intent.setComponent(cn);
-                            mContext.bindService(intent, mKisServiceConn, Context.BIND_AUTO_CREATE);
+                            final int imageWidth = tmpBmp.getWidth();
+                            final int imageHeight = tmpBmp.getHeight();
+                            if (DEBUG_KIS) {
+                                log("requestPowerState: " + tmpBmp.getByteCount() +
+                                    " bytes shared in " + (SystemClock.elapsedRealtime() - startTime) + "ms");
+                                measureKisTransfer(tmpBmp);
+                            }
+                            tmpBmp.recycle();
+                            h.post(() -> sendKisImage(h, image, imageWidth, imageHeight, wakeLock));
                         }).start();
                     }
                 }
@@ -518,6 +473,137 @@ public class ModDisplay {
         }
     }
 
+    /**
+     * Compares per capture cost of both end to end transfers of the same image:
+     * former PNG encode, 200 KB chunks and PNG decode against shared memory copy in and out
+     */
+    private static void measureKisTransfer(Bitmap bmp) {
+        try {
+            long startTime = SystemClock.elapsedRealtime();
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            bmp.compress(Bitmap.CompressFormat.PNG, 100, os);
+            final byte[] data = os.toByteArray();
+            int chunkCount = 0;
+            for (int offset = 0; offset < data.length; offset += 204800) {
+                Arrays.copyOfRange(data, offset, Math.min(data.length, offset + 204800));
+                chunkCount++;
+            }
+            Bitmap decoded = BitmapFactory.decodeByteArray(data, 0, data.length);
+            final long legacyTime = SystemClock.elapsedRealtime() - startTime;
+            if (decoded != null) {
+                decoded.recycle();
+            }
+
+            startTime = SystemClock.elapsedRealtime();
+            SharedMemory image = createKisImage(bmp);
+            Bitmap copy = Bitmap.createBitmap(bmp.getWidth(), bmp.getHeight(), Bitmap.Config.ARGB_8888);
+            ByteBuffer buffer = image.mapReadOnly();
+            try {
+                copy.copyPixelsFromBuffer(buffer);
+            } finally {
+                SharedMemory.unmap(buffer);
+                image.close();
+            }
+            final long sharedTime = SystemClock.elapsedRealtime() - startTime;
+            copy.recycle();
+
+            log("measureKisTransfer: legacy: " + data.length + " encoded bytes in " +
+                    chunkCount + " chunk(s), " + legacyTime + "ms; shared memory: " +
+                    bmp.getByteCount() + " pixel bytes, " + sharedTime + "ms");
+        } catch (Throwable t) {
+            GravityBox.log(TAG, t);
+        }
+    }
+
+    private static SharedMemory createKisImage(Bitmap bmp) throws ErrnoException {
+        SharedMemory image = SharedMemory.create("gb_kis_image", bmp.getByteCount());
+        ByteBuffer buffer = image.mapReadWrite();
+        try {
+            bmp.copyPixelsToBuffer(buffer);
+        } finally {
+            SharedMemory.unmap(buffer);
+        }
+        image.setProtect(OsConstants.PROT_READ);
+        return image;
+    }
+
+    private static void sendKisImage(Handler h, SharedMemory image, int width, int height, WakeLock wakeLock) {
+        // drop any unfinished transfer; the latest screen is what matters
+        finishKisTransfer();
+        final int transferId = ++mKisTransferId;
+        mKisImage = image;
+        mKisWakeLock = wakeLock;
+
+        if (mKisClient == null) {
+            mKisClient = new Messenger(new Handler(h.getLooper()) {
+                @Override
+                public void handleMessage(Message msg) {
+                    if (DEBUG_KIS) log("mKisClient: got reply: what=" + msg.what);
+                    // ignore late replies belonging to previously dropped transfers
+                    if (msg.arg1 != mKisTransferId) return;
+                    if (msg.what == KeyguardImageService.MSG_ERROR) {
+                        GravityBox.log(TAG, "mKisClient: MSG_ERROR received");
+                    }
+                    if (msg.what == KeyguardImageService.MSG_IMAGE_SAVED ||
+                            msg.what == KeyguardImageService.MSG_ERROR) {
+                        finishKisTransfer();
+                    }
+                }
+            });
+        }
+
+        mKisServiceConn = new ServiceConnection() {
+            @Override
+            public void onServiceConnected(ComponentName cn, IBinder binder) {
+                try {
+                    mKisService = new Messenger(binder);
+                    Bundle data = new Bundle();
+                    data.putParcelable(KeyguardImageService.EXTRA_IMAGE, mKisImage);
+                    data.putInt(KeyguardImageService.EXTRA_WIDTH, width);
+                    data.putInt(KeyguardImageService.EXTRA_HEIGHT, height);
+                    Message msg = Message.obtain(null, KeyguardImageService.MSG_SET_IMAGE, transferId, 0);
+                    msg.setData(data);
+                    msg.replyTo = mKisClient;
+                    mKisService.send(msg);
+                    if (DEBUG_KIS) log("mKisServiceConn: MSG_SET_IMAGE sent");
+                } catch (Throwable t) {
+                    GravityBox.log(TAG, t);
+                    finishKisTransfer();
+                }
+            }
+            @Override
+            public void onServiceDisconnected(ComponentName cn) {
+                if (DEBUG_KIS) log("mKisServiceConn: onServiceDisconnected");
+                finishKisTransfer();
+            }
+        };
+        ComponentName cn = new ComponentName(GravityBox.PACKAGE_NAME, KeyguardImageService.class.getName());
+        Intent intent = new Intent();
+        intent.setComponent(cn);
+        if (!mContext.bindService(intent, mKisServiceConn, Context.BIND_AUTO_CREATE)) {
+            GravityBox.log(TAG, "Unable to bind to KeyguardImageService");
+            finishKisTransfer();
+        }
+    }
+
+    private static void finishKisTransfer() {
+        if (mKisServiceConn != null) {
+            try {
+                mContext.unbindService(mKisServiceConn);
+            } catch (Throwable ignored) { }
+            mKisServiceConn = null;
+        }
+        mKisService = null;
+        if (mKisImage != null) {
+            mKisImage.close();
+            mKisImage = null;
+        }
+        if (mKisWakeLock != null && mKisWakeLock.isHeld()) {
+            mKisWakeLock.release();
+        }
+        mKisWakeLock = null;
+    }
+
     private static void updateAutobrightnessConfig(int[] lux, int[] brightness) {
         if (mDisplayPowerController == null || mContext == null) return;
 
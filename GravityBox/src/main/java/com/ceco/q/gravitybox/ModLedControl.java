@@ -18,10 +18,12 @@ package com.ceco.q.gravitybox;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.ceco.q.gravitybox.ModStatusBar.StatusBarState;
 import com.ceco.q.gravitybox.ledcontrol.LedSettings;
@@ -110,7 +112,8 @@ public class ModLedControl {
     private static boolean mUncActiveScreenEnabled;
     private static boolean mUncActiveScreenPocketModeEnabled;
     private static boolean mUncActiveScreenIgnoreQh;
-    private static Map<String,LedSettings> mUncAppPrefs = new HashMap<>();
+    // parsed per-package settings of current ledcontrol prefs generation
+    private static Map<String,LedSettings> mUncAppPrefs = new ConcurrentHashMap<>();
 
     private static SensorEventListener mProxSensorEventListener = new SensorEventListener() {
         @Override
@@ -166,9 +169,14 @@ public class ModLedControl {
                 mUncAppPrefs.put(pkgName, LedSettings.deserialize(pkgName,
                         intent.getStringArrayListExtra(LedSettings.EXTRA_UNC_PACKAGE_SETTINGS)));
                 if (DEBUG) log("Settings for " + pkgName + " updated");
+            } else if (mUncPrefs.hasFileChanged()) {
+                // new prefs generation (e.g. restored settings); drop everything parsed so far
+                mUncPrefs.reload();
+                mUncAppPrefs.clear();
+                if (DEBUG) log("UNC prefs reloaded; parsed settings cleared");
             }
         } else if (action.equals(QuietHoursActivity.ACTION_QUIET_HOURS_CHANGED)) {
-            mQuietHours = new QuietHours(intent.getExtras());
+            mQuietHours = QuietHours.update(intent.getExtras());
         } else if (action.equals(Intent.ACTION_USER_PRESENT)) {
             if (DEBUG) log("User present");
             mScreenOnDueToActiveScreen = false;
@@ -193,7 +201,7 @@ public class ModLedControl {
             final XSharedPreferences uncPrefs, final XSharedPreferences qhPrefs,
             final ClassLoader classLoader) {
         mUncPrefs = uncPrefs;
-        mQuietHours = new QuietHours(qhPrefs);
+        mQuietHours = QuietHours.getInstance(qhPrefs);
 
         mProximityWakeUpEnabled = mainPrefs.getBoolean(GravityBoxSettings.PREF_KEY_POWER_PROXIMITY_WAKE, false);
         mUncLocked = mUncPrefs.getBoolean(LedSettings.PREF_KEY_LOCKED, false);
@@ -264,13 +272,13 @@ public class ModLedControl {
     }
 
     private static LedSettings resolveLedSettings(String pkgName) {
-        if (mUncAppPrefs.containsKey(pkgName)) {
-            if (DEBUG) log("resolveLedSettings: getting in-memory settings for " + pkgName);
-            return mUncAppPrefs.get(pkgName);
-        } else {
-            if (DEBUG) log("resolveLedSettings: getting in-prefs settings for " + pkgName);
-            return LedSettings.deserialize(mUncPrefs.getStringSet(pkgName, null));
+        LedSettings ls = mUncAppPrefs.get(pkgName);
+        if (ls == null) {
+            if (DEBUG) log("resolveLedSettings: parsing in-prefs settings for " + pkgName);
+            ls = LedSettings.deserialize(mUncPrefs.getStringSet(pkgName, null));
+            mUncAppPrefs.put(pkgName, ls);
         }
+        return ls;
     }
 
     private static XC_MethodHook createNotificationRecordHook = new XC_MethodHook() {
@@ -342,7 +350,7 @@ public class ModLedControl {
                 if (qhActiveIncludingLed || 
                         (ls.getEnabled() && !(isOngoing && !ls.getOngoing()) &&
                             (ls.getLedMode() == LedMode.OFF ||
-                             currentZenModeDisallowsLed(ls.getLedDnd()) ||
+                             currentZenModeDisallowsLed(ls) ||
                              shouldIgnoreUpdatedNotificationLight(oldRecord, ls.getLedIgnoreUpdate())))) {
                     XposedHelpers.setObjectField(param.thisObject, "mLight", null);
                     if (DEBUG) log("Removing light");
@@ -683,15 +691,14 @@ public class ModLedControl {
         }
     }
 
-    private static boolean currentZenModeDisallowsLed(String dnd) {
-        if (dnd == null || dnd.isEmpty())
+    private static boolean currentZenModeDisallowsLed(LedSettings ls) {
+        if (ls.getLedDnd() == null || ls.getLedDnd().isEmpty())
             return false;
 
         try {
             int zenMode = Settings.Global.getInt(mContext.getContentResolver(),
                     SETTING_ZEN_MODE, 0);
-            List<String> dndList = Arrays.asList(dnd.split(","));
-            return dndList.contains(Integer.toString(zenMode));
+            return ls.isLedDisabledForZenMode(zenMode);
         } catch (Throwable t) {
             GravityBox.log(TAG, t);
             return false;
@@ -743,10 +750,33 @@ public class ModLedControl {
     private static Object mStatusBar;
     private static XSharedPreferences mSysUiPrefs;
     private static XSharedPreferences mSysUiUncPrefs;
+    private static volatile Set<String> mSysUiDndPackages;
+    private static volatile boolean mSysUiUncLocked;
 
     private static BroadcastMediator.Receiver mSystemUiBroadcastReceiver = (context, intent) -> {
         if (intent.getAction().equals(GravityBoxSettings.ACTION_HEADS_UP_SETTINGS_CHANGED)) {
             mSysUiPrefs.reload();
+        } else if (intent.getAction().equals(LedSettings.ACTION_UNC_SETTINGS_CHANGED)) {
+            if (intent.hasExtra(LedSettings.PREF_KEY_LOCKED)) {
+                mSysUiUncLocked = intent.getBooleanExtra(LedSettings.PREF_KEY_LOCKED, false);
+            }
+            if (intent.hasExtra(LedSettings.EXTRA_UNC_PACKAGE_NAME) &&
+                    intent.hasExtra(LedSettings.EXTRA_UNC_PACKAGE_SETTINGS)) {
+                if (mSysUiDndPackages != null) {
+                    String pkgName = intent.getStringExtra(LedSettings.EXTRA_UNC_PACKAGE_NAME);
+                    LedSettings ls = LedSettings.deserialize(pkgName,
+                            intent.getStringArrayListExtra(LedSettings.EXTRA_UNC_PACKAGE_SETTINGS));
+                    Set<String> dndPackages = new HashSet<>(mSysUiDndPackages);
+                    if (ls.getEnabled() && ls.getHeadsUpDnd()) {
+                        dndPackages.add(pkgName);
+                    } else {
+                        dndPackages.remove(pkgName);
+                    }
+                    mSysUiDndPackages = dndPackages;
+                }
+            } else if (mSysUiUncPrefs.hasFileChanged()) {
+                mSysUiDndPackages = null;
+            }
         }
     };
 
@@ -804,7 +834,8 @@ public class ModLedControl {
                 protected void afterHookedMethod(MethodHookParam param) {
                     mStatusBar = param.thisObject;
                     SysUiManagers.BroadcastMediator.subscribe(mSystemUiBroadcastReceiver,
-                            GravityBoxSettings.ACTION_HEADS_UP_SETTINGS_CHANGED);
+                            GravityBoxSettings.ACTION_HEADS_UP_SETTINGS_CHANGED,
+                            LedSettings.ACTION_UNC_SETTINGS_CHANGED);
                 }
             });
 
@@ -980,6 +1011,9 @@ public class ModLedControl {
 
     @SuppressWarnings("deprecation")
     private static String getTopLevelPackageName(Context context) {
+        if (SysUiManagers.TaskStackMonitor != null) {
+            return SysUiManagers.TaskStackMonitor.getTopPackageName();
+        }
         try {
             final ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
             List<ActivityManager.RunningTaskInfo> taskInfo = am.getRunningTasks(1);
@@ -991,14 +1025,37 @@ public class ModLedControl {
         }
     }
 
+    private static Set<String> getDndPackages() {
+        Set<String> dndPackages = mSysUiDndPackages;
+        if (dndPackages == null) {
+            synchronized (mSysUiUncPrefs) {
+                dndPackages = mSysUiDndPackages;
+                if (dndPackages == null) {
+                    mSysUiUncPrefs.reload();
+                    mSysUiUncLocked = mSysUiUncPrefs.getBoolean(LedSettings.PREF_KEY_LOCKED, false);
+                    dndPackages = new HashSet<>();
+                    for (Map.Entry<String, ?> entry : mSysUiUncPrefs.getAll().entrySet()) {
+                        if (!(entry.getValue() instanceof Set)) continue;
+                        @SuppressWarnings("unchecked")
+                        LedSettings ls = LedSettings.deserialize((Set<String>) entry.getValue());
+                        if (ls.getEnabled() && ls.getHeadsUpDnd()) {
+                            dndPackages.add(entry.getKey());
+                        }
+                    }
+                    mSysUiDndPackages = dndPackages;
+                    if (DEBUG) log("Heads up DND packages: " + dndPackages);
+                }
+            }
+        }
+        return dndPackages;
+    }
+
     private static boolean shouldNotDisturb(Context context) {
-        String pkgName = getTopLevelPackageName(context);
-        mSysUiUncPrefs.reload();
-        if(!mSysUiUncPrefs.getBoolean(LedSettings.PREF_KEY_LOCKED, false) && pkgName != null) {
-            LedSettings ls = LedSettings.deserialize(mSysUiUncPrefs.getStringSet(pkgName, null));
-            return (ls.getEnabled() && ls.getHeadsUpDnd());
-        } else {
+        Set<String> dndPackages = getDndPackages();
+        if (mSysUiUncLocked || dndPackages.isEmpty()) {
             return false;
         }
+        String pkgName = getTopLevelPackageName(context);
+        return (pkgName != null && dndPackages.contains(pkgName));
     }
 }
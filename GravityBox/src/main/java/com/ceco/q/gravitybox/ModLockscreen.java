@@ -103,6 +103,7 @@ public class ModLockscreen {
     private static boolean mLeftActionHidden;
     private static boolean mRightActionHidden;
     private static boolean mKgBottomAreaLayoutChanging;
+    private static View mKgBottomAreaView;
 
     private static void log(String message) {
         XposedBridge.log(TAG + ": " + message);
@@ -120,7 +121,7 @@ public class ModLockscreen {
             if (DEBUG_KIS) log("ACTION_KEYGUARD_IMAGE_UPDATED received");
             setLastScreenBackground(true);
         } else if (action.equals(QuietHoursActivity.ACTION_QUIET_HOURS_CHANGED)) {
-            mQuietHours = new QuietHours(intent.getExtras());
+            mQuietHours = QuietHours.update(intent.getExtras());
             if (DEBUG) log("QuietHours settings reloaded");
         } else if (action.equals(GravityBoxSettings.ACTION_PREF_LOCKSCREEN_SHORTCUT_CHANGED)) {
             if (mAppBar != null) {
@@ -158,7 +159,7 @@ public class ModLockscreen {
         final Class<?> sbWindowControllerClass;
         try {
             mPrefs = prefs;
-            mQuietHours = new QuietHours(qhPrefs);
+            mQuietHours = QuietHours.getInstance(qhPrefs);
 
             kgPasswordViewClass = XposedHelpers.findClass(CLASS_KG_PASSWORD_VIEW, classLoader);
             kgPINViewClass = XposedHelpers.findClass(CLASS_KG_PIN_VIEW, classLoader);
@@ -537,6 +538,7 @@ public class ModLockscreen {
                     "onFinishInflate", new XC_MethodHook() {
                 @Override
                 protected void afterHookedMethod(MethodHookParam param) {
+                    mKgBottomAreaView = (View) param.thisObject;
                     ((View)param.thisObject).getViewTreeObserver().addOnGlobalLayoutListener(() -> {
                         if (mKgBottomAreaLayoutChanging) return;
                         mKgBottomAreaLayoutChanging = true;
@@ -798,8 +800,10 @@ public class ModLockscreen {
             if (!bgType.equals(GravityBoxSettings.LOCKSCREEN_BG_LAST_SCREEN) &&
                     mCustomBg != null && mPrefs.getBoolean(
                     GravityBoxSettings.PREF_KEY_LOCKSCREEN_BACKGROUND_BLUR_EFFECT, false)) {
-                mCustomBg = BitmapUtils.blurBitmap(mContext, mCustomBg, mPrefs.getInt(
+                Bitmap source = mCustomBg;
+                mCustomBg = BitmapUtils.blurBitmap(mContext, source, mPrefs.getInt(
                           GravityBoxSettings.PREF_KEY_LOCKSCREEN_BACKGROUND_BLUR_INTENSITY, 14));
+                source.recycle();
             }
 
             if (updateMediaMetadata) {
@@ -823,7 +827,8 @@ public class ModLockscreen {
 
     private static synchronized void setLastScreenBackground(boolean refresh) {
         try {
-            String kisImageFile = mPrefs.getFile().getParent() + "/kis_image.png";
+            String kisImageFile = mPrefs.getFile().getParent() + "/" +
+                    KeyguardImageService.IMAGE_FILE_NAME;
             mCustomBg = BitmapFactory.decodeFile(kisImageFile);
             if (refresh) {
                 updateMediaMetaData();
@@ -869,11 +874,14 @@ public class ModLockscreen {
                 (mLeftAction == null || !action.equals(mLeftAction.getValue()))) {
             mLeftAction = SysUiManagers.AppLauncher.createAppInfo();
             mLeftAction.setSizeDp(32);
+            mLeftAction.setAppIconListener(mBottomActionIconListener);
             mLeftAction.initAppInfo(action);
             String pkg = mLeftAction.getPackageName();
             if (pkg != null && pkg.equals(Utils.getDefaultDialerPackageName(mContext))) {
-                mLeftAction.setAppIcon(tryGetStockPhoneIcon(
-                        mLeftAction.getAppIcon()));
+                Drawable d = tryGetStockPhoneIcon(null);
+                if (d != null) {
+                    mLeftAction.setAppIcon(d);
+                }
             }
         }
     }
@@ -885,15 +893,25 @@ public class ModLockscreen {
                 (mRightAction == null || !action.equals(mRightAction.getValue()))) {
             mRightAction = SysUiManagers.AppLauncher.createAppInfo();
             mRightAction.setSizeDp(32);
+            mRightAction.setAppIconListener(mBottomActionIconListener);
             mRightAction.initAppInfo(action);
             String pkg = mRightAction.getPackageName();
             if (pkg != null && pkg.equals(Utils.getDefaultDialerPackageName(mContext))) {
-                mRightAction.setAppIcon(tryGetStockPhoneIcon(
-                        mRightAction.getAppIcon()));
+                Drawable d = tryGetStockPhoneIcon(null);
+                if (d != null) {
+                    mRightAction.setAppIcon(d);
+                }
             }
         }
     }
 
+    // bottom area applies action icons on layout
+    private static final SysUiAppLauncher.AppIconListener mBottomActionIconListener = ai -> {
+        if (mKgBottomAreaView != null && (ai == mLeftAction || ai == mRightAction)) {
+            mKgBottomAreaView.requestLayout();
+        }
+    };
+
     private static Drawable tryGetStockPhoneIcon(Drawable def) {
         try {
             int resId = mContext.getResources().getIdentifier(
@@ -195,8 +195,13 @@ public class ModLowBatteryWarning {
     private static boolean isDashSoundDisabled(final XSharedPreferences prefs, final XSharedPreferences qhPrefs) {
         prefs.reload();
         if (!prefs.getBoolean(GravityBoxSettings.PREF_KEY_OOS_DASH_SOUND_DISABLE, false)) {
-            qhPrefs.reload();
-            QuietHours qh = new QuietHours(qhPrefs);
+            final QuietHours qh;
+            if (qhPrefs.hasFileChanged()) {
+                qhPrefs.reload();
+                qh = QuietHours.update(qhPrefs);
+            } else {
+                qh = QuietHours.getInstance(qhPrefs);
+            }
             return qh.isSystemSoundMuted(QuietHours.SystemSound.CHARGER);
         }
         return true;
@@ -97,13 +97,13 @@ public class ModPower {
                         GravityBoxSettings.HWKEY_TORCH_DISABLED);
             }
         } else if (intent.getAction().equals(QuietHoursActivity.ACTION_QUIET_HOURS_CHANGED)) {
-            mQh = new QuietHours(intent.getExtras());
+            mQh = QuietHours.update(intent.getExtras());
         }
     };
 
     public static void initAndroid(final XSharedPreferences prefs, final XSharedPreferences qhPrefs,
                                    final ClassLoader classLoader) {
-        mQh = new QuietHours(qhPrefs);
+        mQh = QuietHours.getInstance(qhPrefs);
 
         Class<?> pmServiceClass = null;
         try {
@@ -82,6 +82,30 @@ public class ModPowerMenu {
     private static boolean mRebootAllowOnLockscreen;
     private static boolean mAllowSoftReboot;
     private static Object mGlobalActionsDialog;
+    private static PrefsSnapshot<Values> mValues;
+
+    private static final class Values {
+        final boolean disableOnLockscreen;
+        final boolean advancedPowerOff;
+        final boolean rebootConfirmRequired;
+        final boolean rebootAllowOnLockscreen;
+        final boolean allowSoftReboot;
+        final boolean expandedDesktopAction;
+
+        Values(XSharedPreferences prefs) {
+            disableOnLockscreen = prefs.getBoolean(
+                    GravityBoxSettings.PREF_KEY_POWERMENU_DISABLE_ON_LOCKSCREEN, false);
+            advancedPowerOff = prefs.getBoolean(GravityBoxSettings.PREF_KEY_POWEROFF_ADVANCED, false);
+            rebootConfirmRequired = prefs.getBoolean(
+                    GravityBoxSettings.PREF_KEY_REBOOT_CONFIRM_REQUIRED, true);
+            rebootAllowOnLockscreen = prefs.getBoolean(
+                    GravityBoxSettings.PREF_KEY_REBOOT_ALLOW_ON_LOCKSCREEN, false);
+            allowSoftReboot = prefs.getBoolean(
+                    GravityBoxSettings.PREF_KEY_REBOOT_ALLOW_SOFTREBOOT, false);
+            expandedDesktopAction = ExpandedDesktopAction.isExpandedDesktopEnabled(prefs) &&
+                    prefs.getBoolean(GravityBoxSettings.PREF_KEY_POWERMENU_EXPANDED_DESKTOP, true);
+        }
+    }
 
     private static void log(String message) {
         XposedBridge.log(TAG + ": " + message);
@@ -90,6 +114,13 @@ public class ModPowerMenu {
     public static void init(final XSharedPreferences prefs, final ClassLoader classLoader) {
 
         try {
+            mValues = new PrefsSnapshot<Values>(prefs) {
+                @Override
+                protected Values build() {
+                    return new Values(prefs);
+                }
+            };
+
             final Class<?> globalActionsClass = XposedHelpers.findClass(CLASS_GLOBAL_ACTIONS, classLoader);
             final Class<?> actionClass = XposedHelpers.findClass(CLASS_ACTION, classLoader);
 
@@ -147,13 +178,11 @@ public class ModPowerMenu {
                 @Override
                 protected void afterHookedMethod(final MethodHookParam param) throws Throwable {
                     final Context ctx = ((Dialog) param.getResult()).getContext();
+                    final Values values = mValues.get();
 
-                    mRebootConfirmRequired = prefs.getBoolean(
-                            GravityBoxSettings.PREF_KEY_REBOOT_CONFIRM_REQUIRED, true);
-                    mRebootAllowOnLockscreen = prefs.getBoolean(
-                            GravityBoxSettings.PREF_KEY_REBOOT_ALLOW_ON_LOCKSCREEN, false);
-                    mAllowSoftReboot = prefs.getBoolean(
-                            GravityBoxSettings.PREF_KEY_REBOOT_ALLOW_SOFTREBOOT, false);
+                    mRebootConfirmRequired = values.rebootConfirmRequired;
+                    mRebootAllowOnLockscreen = values.rebootAllowOnLockscreen;
+                    mAllowSoftReboot = values.allowSoftReboot;
 
                     @SuppressWarnings("unchecked")
                     List<Object> mItems = (List<Object>) XposedHelpers.getObjectField(param.thisObject, "mItems");
@@ -211,7 +240,7 @@ public class ModPowerMenu {
                     }
 
                     // Add/hook reboot action if enabled
-                    if (prefs.getBoolean(GravityBoxSettings.PREF_KEY_POWEROFF_ADVANCED, false)) {
+                    if (values.advancedPowerOff) {
                         if (mRebootActionItemStockExists) {
                             mRebootActionHook = XposedHelpers.findAndHookMethod(mRebootActionItem.getClass(), 
                                     "onPress", new XC_MethodReplacement () {
@@ -238,8 +267,7 @@ public class ModPowerMenu {
                     }
 
                     // Add Expanded Desktop action if enabled
-                    if (ExpandedDesktopAction.isExpandedDesktopEnabled(prefs) &&
-                            prefs.getBoolean(GravityBoxSettings.PREF_KEY_POWERMENU_EXPANDED_DESKTOP, true)) {
+                    if (values.expandedDesktopAction) {
                         if (mExpandedDesktopAction == null) {
                             mExpandedDesktopAction = Proxy.newProxyInstance(classLoader, 
                                     new Class<?>[] { actionClass },
@@ -256,8 +284,9 @@ public class ModPowerMenu {
             XC_MethodHook showDialogHook = new XC_MethodHook() {
                 @Override
                 protected void beforeHookedMethod(final MethodHookParam param) {
-                    prefs.reload();
-                    if (prefs.getBoolean(GravityBoxSettings.PREF_KEY_POWERMENU_DISABLE_ON_LOCKSCREEN, false)) {
+                    // settings are parsed again only when preference file changed
+                    mValues.invalidate();
+                    if (mValues.get().disableOnLockscreen) {
                         boolean locked = (Boolean) param.args[0];
                         if (!locked) {
                             // double-check using keyguard manager
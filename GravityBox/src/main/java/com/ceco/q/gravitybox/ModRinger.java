@@ -66,7 +66,7 @@ public class ModRinger {
                        IncreasingRingPreference.EXTRA_RAMP_UP_DURATION, 10);
                if (DEBUG) log(mRingerConfig.toString());
            } else if (intent.getAction().equals(QuietHoursActivity.ACTION_QUIET_HOURS_CHANGED)) {
-               mQuietHours = new QuietHours(intent.getExtras());
+               mQuietHours = QuietHours.update(intent.getExtras());
            }
         }
     };
@@ -118,7 +118,7 @@ public class ModRinger {
                     GravityBoxSettings.PREF_KEY_INCREASING_RING, null));
             if (DEBUG) log(mRingerConfig.toString());
 
-            mQuietHours = new QuietHours(qhPrefs);
+            mQuietHours = QuietHours.getInstance(qhPrefs);
 
             XposedBridge.hookAllConstructors(clsTelecomServiceImpl, new XC_MethodHook() {
                 @Override
@@ -32,6 +32,7 @@ import android.net.TrafficStats;
 import android.os.Handler;
 import android.os.PowerManager;
 import android.os.PowerManager.WakeLock;
+import android.os.SystemClock;
 import android.provider.Settings;
 import android.telephony.TelephonyManager;
 import de.robv.android.xposed.XC_MethodHook;
@@ -346,6 +347,10 @@ public class ModSmartRadio {
 
     private static class NetworkModeChanger implements Runnable, BroadcastMediator.Receiver {
         public static final String ACTION_CHANGE_MODE_ALARM = "gravitybox.smartradio.intent.action.CHANGE_MODE_ALARM";
+        public static final String ACTION_SAMPLE_ALARM = "gravitybox.smartradio.intent.action.SAMPLE_ALARM";
+        private static final long IDLE_TIME_CONSTANT = 30000;
+        private static final long IDLE_MIN_DWELL = 60000;
+        private static final long SAMPLE_INTERVAL = 60000;
 
         private Context mContext;
         private Handler mHandler;
@@ -354,13 +359,12 @@ public class ModSmartRadio {
         private WakeLock mWakeLock;
         private AlarmManager mAlarmManager;
         private PendingIntent mPendingIntent;
-        private LinkActivity mLinkActivity;
-
-        class LinkActivity {
-            long timestamp;
-            long rxBytes;
-            long txBytes;
-        }
+        private PendingIntent mSamplePendingIntent;
+        // switch was postponed due to link activity and may happen as soon as link is idle
+        private boolean mPostponed;
+        private final LinkIdleDetector mIdleDetector =
+                new LinkIdleDetector(IDLE_TIME_CONSTANT, IDLE_MIN_DWELL);
+        private final long[] mMobileBytes = new long[2];
 
         public NetworkModeChanger(Context context, Handler handler) {
             mContext = context;
@@ -368,13 +372,13 @@ public class ModSmartRadio {
             mNextNetworkMode = -1;
             mCurrentNetworkMode = -1;
             mAlarmManager = (AlarmManager) mContext.getSystemService(Context.ALARM_SERVICE);
-            mLinkActivity = new LinkActivity();
 
             PowerManager pm = (PowerManager) mContext.getSystemService(Context.POWER_SERVICE);
             mWakeLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "GB:SmartRadio");
 
             SysUiManagers.BroadcastMediator.subscribe(this,
                     ACTION_CHANGE_MODE_ALARM,
+                    ACTION_SAMPLE_ALARM,
                     PhoneWrapper.ACTION_NETWORK_TYPE_CHANGED);
         }
 
@@ -427,13 +431,37 @@ public class ModSmartRadio {
         }
 
         private void scheduleAlarm() {
+            scheduleAlarm(mScreenOffDelay*60*1000);
+            if (mAdaptiveDelayThreshold > 0) {
+                mIdleDetector.setThreshold(mAdaptiveDelayThreshold * 1024L);
+                readMobileBytes();
+                mIdleDetector.reset(SystemClock.elapsedRealtime(), mMobileBytes[0], mMobileBytes[1]);
+                mPostponed = false;
+                // non-wakeup alarm gets delivered only when device is awake anyway, e.g. to transfer data
+                Intent intent = new Intent(ACTION_SAMPLE_ALARM);
+                mSamplePendingIntent = PendingIntent.getBroadcast(mContext, 2, intent, 0);
+                mAlarmManager.setRepeating(AlarmManager.RTC,
+                        System.currentTimeMillis() + SAMPLE_INTERVAL, SAMPLE_INTERVAL,
+                        mSamplePendingIntent);
+            }
+        }
+
+        private void scheduleAlarm(long delayMs) {
             Intent intent = new Intent(ACTION_CHANGE_MODE_ALARM);
             mPendingIntent = PendingIntent.getBroadcast(mContext, 1, intent, PendingIntent.FLAG_ONE_SHOT);
-            long triggerAtMillis = System.currentTimeMillis() + mScreenOffDelay*60*1000;
+            long triggerAtMillis = System.currentTimeMillis() + delayMs;
             mAlarmManager.setExact(AlarmManager.RTC_WAKEUP, triggerAtMillis, mPendingIntent);
-            mLinkActivity.timestamp = System.currentTimeMillis();
-            mLinkActivity.rxBytes = TrafficStats.getMobileRxBytes();
-            mLinkActivity.txBytes = TrafficStats.getMobileTxBytes();
+        }
+
+        private void takeSample() {
+            readMobileBytes();
+            mIdleDetector.addSample(SystemClock.elapsedRealtime(), mMobileBytes[0], mMobileBytes[1]);
+        }
+
+        // shared sampler does not run while screen is off, which is when link is observed here
+        private void readMobileBytes() {
+            mMobileBytes[0] = TrafficStats.getMobileRxBytes();
+            mMobileBytes[1] = TrafficStats.getMobileTxBytes();
         }
 
         private void cancelPendingAlarm() {
@@ -441,22 +469,21 @@ public class ModSmartRadio {
                 mAlarmManager.cancel(mPendingIntent);
                 mPendingIntent = null;
             }
+            if (mAlarmManager != null && mSamplePendingIntent != null) {
+                mAlarmManager.cancel(mSamplePendingIntent);
+                mSamplePendingIntent = null;
+            }
         }
 
-        private boolean shouldPostponeAlarm() {
-            boolean postpone = false;
-            if (mAdaptiveDelayThreshold > 0) {
-                // if there's link activity higher than defined threshold
-                long rxDelta = TrafficStats.getMobileRxBytes() - mLinkActivity.rxBytes;
-                long txDelta = TrafficStats.getMobileTxBytes() - mLinkActivity.txBytes;
-                long timeDelta = System.currentTimeMillis() - mLinkActivity.timestamp;
-                long speedRxKBs = (long)(rxDelta / (timeDelta / 1000f)) / 1024;
-                long speedTxKBs = (long)(txDelta / (timeDelta / 1000f)) / 1024;
-                postpone |= speedTxKBs >= mAdaptiveDelayThreshold || speedRxKBs >= mAdaptiveDelayThreshold;
-                if (DEBUG) log("shouldPostponeAlarm: speedRxKBs=" + speedRxKBs +
-                        "; speedTxKBs=" + speedTxKBs + "; threshold=" + mAdaptiveDelayThreshold);
+        private boolean isLinkIdle() {
+            if (mAdaptiveDelayThreshold <= 0) {
+                return true;
             }
-            return postpone;
+            takeSample();
+            final boolean idle = mIdleDetector.isIdle(SystemClock.elapsedRealtime());
+            if (DEBUG) log("isLinkIdle: estimateKBs=" + mIdleDetector.getEstimate() / 1024 +
+                    "; threshold=" + mAdaptiveDelayThreshold + "; idle=" + idle);
+            return idle;
         }
 
         @Override
@@ -464,10 +491,19 @@ public class ModSmartRadio {
             if (intent.getAction().equals(ACTION_CHANGE_MODE_ALARM)) {
                 if (DEBUG) log("ACTION_CHANGE_MODE_ALARM received");
                 mPendingIntent = null;
-                if (shouldPostponeAlarm()) {
-                    if (DEBUG) log("NetworkModeChanger: postponing alarm for switching to power saving mode");
-                    scheduleAlarm();
+                if (isLinkIdle()) {
+                    cancelPendingAlarm();
+                    run();
                 } else {
+                    if (DEBUG) log("NetworkModeChanger: postponing alarm for switching to power saving mode");
+                    mPostponed = true;
+                    scheduleAlarm(mScreenOffDelay*60*1000);
+                }
+            } else if (intent.getAction().equals(ACTION_SAMPLE_ALARM)) {
+                // postponed switch is done without waiting for next wakeup once link is idle
+                if (mSamplePendingIntent != null && isLinkIdle() && mPostponed) {
+                    if (DEBUG) log("NetworkModeChanger: link idle; switching to power saving mode");
+                    cancelPendingAlarm();
                     run();
                 }
             } else if (intent.getAction().equals(PhoneWrapper.ACTION_NETWORK_TYPE_CHANGED)) {
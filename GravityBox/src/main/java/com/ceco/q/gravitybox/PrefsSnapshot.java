@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2020 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.q.gravitybox;
+
+import java.io.File;
+import java.lang.reflect.Field;
+
+import de.robv.android.xposed.XSharedPreferences;
+import de.robv.android.xposed.XposedHelpers;
+
+/**
+ * Holds typed, pre-parsed copy of preference values read by hot hook paths.
+ * Subclasses parse values in {@link #build()} into an immutable object exposing plain fields.
+ * Snapshot is built from values preferences currently hold. Backing preferences are never
+ * reloaded implicitly, so snapshot of preferences inherited from Zygote sees the same values
+ * as the rest of the process. Owners which are allowed to reload preferences call
+ * {@link #invalidate()}; snapshot is then rebuilt and replaced as a whole on next access
+ * only when any of backing files differs from the one snapshot was built from.
+ * Modification time and size of files are tracked by the snapshot itself since
+ * preference instances are shared and any other owner may have reloaded them.
+ * Reload done by any other owner replaces value map of shared instance; snapshot
+ * compares identity of those maps on each access and is rebuilt when any of them changed.
+ * @param <T> - type of the snapshot
+ */
+public abstract class PrefsSnapshot<T> {
+    private static final String TAG = "GB:PrefsSnapshot";
+
+    // value map replaced as a whole by each reload of XSharedPreferences
+    private static final Field sMapField;
+    static {
+        Field field = null;
+        try {
+            field = XposedHelpers.findField(XSharedPreferences.class, "mMap");
+        } catch (Throwable t) {
+            GravityBox.log(TAG, t);
+        }
+        sMapField = field;
+    }
+
+    private final XSharedPreferences[] mPrefs;
+    // state of backing files at the time of last build
+    private final long[] mLastModified;
+    private final long[] mLength;
+    // value maps of preferences at the time of last build
+    private final Object[] mMaps;
+    private volatile T mSnapshot;
+    private volatile boolean mInvalidated;
+
+    protected PrefsSnapshot(XSharedPreferences... prefs) {
+        mPrefs = prefs;
+        mLastModified = new long[prefs.length];
+        mLength = new long[prefs.length];
+        mMaps = new Object[prefs.length];
+    }
+
+    /**
+     * Creates new snapshot from current state of preferences
+     */
+    protected abstract T build();
+
+    public final T get() {
+        final T snapshot = mSnapshot;
+        if (snapshot != null && !mInvalidated && !isReloaded()) {
+            return snapshot;
+        }
+        return refresh();
+    }
+
+    private static Object getMap(XSharedPreferences prefs) {
+        if (sMapField == null) return null;
+        try {
+            return sMapField.get(prefs);
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    private boolean isReloaded() {
+        for (int i = 0; i < mPrefs.length; i++) {
+            if (getMap(mPrefs[i]) != mMaps[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Makes next {@link #get()} rebuild the snapshot if any of backing files changed
+     * since the last build, reloading preferences not reloaded by other owners yet
+     */
+    public final void invalidate() {
+        mInvalidated = true;
+    }
+
+    private synchronized T refresh() {
+        final boolean initial = (mSnapshot == null);
+        boolean changed = initial || isReloaded();
+        if (mInvalidated || initial) {
+            final boolean reload = mInvalidated;
+            mInvalidated = false;
+            for (int i = 0; i < mPrefs.length; i++) {
+                try {
+                    final File file = mPrefs[i].getFile();
+                    final long lastModified = file.lastModified();
+                    final long length = file.length();
+                    if (lastModified == mLastModified[i] && length == mLength[i]) continue;
+                    mLastModified[i] = lastModified;
+                    mLength[i] = length;
+                    changed = true;
+                    // no-op when other owner of shared instance reloaded it already
+                    if (reload && mPrefs[i].hasFileChanged()) {
+                        mPrefs[i].reload();
+                    }
+                } catch (Throwable t) {
+                    GravityBox.log(TAG, t);
+                }
+            }
+        }
+        if (changed) {
+            final T snapshot = build();
+            // values were read from maps loaded at this point; published along with snapshot
+            for (int i = 0; i < mPrefs.length; i++) {
+                mMaps[i] = getMap(mPrefs[i]);
+            }
+            mSnapshot = snapshot;
+        }
+        return mSnapshot;
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2020 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.q.gravitybox;
+
+import java.util.Arrays;
+
+/**
+ * Long keyed lookup table with explicit negative entries used by ResourceProxy.
+ * Open addressing with linear probing so that lookups allocate nothing.
+ * Number of negative entries is bounded; when the limit is reached they are
+ * dropped all at once while positive entries are kept.
+ * Not thread safe; has no Android dependencies.
+ * @param <V> - type of values
+ */
+final class ResourceLookupCache<V> {
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final V mNegative;
+    private final int mMaxNegativeCount;
+    private long[] mKeys;
+    private Object[] mValues;
+    private int mCount;
+    private int mNegativeCount;
+    private long mHitCount;
+    private long mMissCount;
+
+    /**
+     * @param negative - value marking keys known to have no value
+     * @param maxNegativeCount - maximum number of negative entries kept
+     */
+    ResourceLookupCache(V negative, int maxNegativeCount) {
+        if (negative == null) {
+            throw new IllegalArgumentException("Negative value cannot be null");
+        }
+        mNegative = negative;
+        mMaxNegativeCount = maxNegativeCount;
+        mKeys = new long[INITIAL_CAPACITY];
+        mValues = new Object[INITIAL_CAPACITY];
+    }
+
+    private static int hash(long key) {
+        final long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * @return value stored for the key including negative value or null if key is unknown
+     */
+    @SuppressWarnings("unchecked")
+    V get(long key) {
+        final int mask = mKeys.length - 1;
+        for (int i = hash(key) & mask; mValues[i] != null; i = (i + 1) & mask) {
+            if (mKeys[i] == key) {
+                mHitCount++;
+                return (V) mValues[i];
+            }
+        }
+        mMissCount++;
+        return null;
+    }
+
+    void put(long key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Value cannot be null");
+        }
+        if (value == mNegative && mNegativeCount >= mMaxNegativeCount) {
+            dropNegativeEntries();
+        }
+        if ((mCount + 1) * 2 > mKeys.length) {
+            rehash(mKeys.length * 2);
+        }
+        final int mask = mKeys.length - 1;
+        int i = hash(key) & mask;
+        while (mValues[i] != null) {
+            if (mKeys[i] == key) {
+                if (mValues[i] == mNegative) mNegativeCount--;
+                if (value == mNegative) mNegativeCount++;
+                mValues[i] = value;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        mKeys[i] = key;
+        mValues[i] = value;
+        mCount++;
+        if (value == mNegative) mNegativeCount++;
+    }
+
+    void clear() {
+        Arrays.fill(mValues, null);
+        mCount = 0;
+        mNegativeCount = 0;
+    }
+
+    private void dropNegativeEntries() {
+        final long[] keys = mKeys;
+        final Object[] values = mValues;
+        mKeys = new long[keys.length];
+        mValues = new Object[values.length];
+        mCount = 0;
+        mNegativeCount = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (values[i] != null && values[i] != mNegative) {
+                insert(keys[i], values[i]);
+            }
+        }
+    }
+
+    private void rehash(int capacity) {
+        final long[] keys = mKeys;
+        final Object[] values = mValues;
+        mKeys = new long[capacity];
+        mValues = new Object[capacity];
+        mCount = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (values[i] != null) {
+                insert(keys[i], values[i]);
+            }
+        }
+    }
+
+    private void insert(long key, Object value) {
+        final int mask = mKeys.length - 1;
+        int i = hash(key) & mask;
+        while (mValues[i] != null) {
+            i = (i + 1) & mask;
+        }
+        mKeys[i] = key;
+        mValues[i] = value;
+        mCount++;
+    }
+
+    int size() {
+        return mCount;
+    }
+
+    int getNegativeCount() {
+        return mNegativeCount;
+    }
+
+    long getHitCount() {
+        return mHitCount;
+    }
+
+    long getMissCount() {
+        return mMissCount;
+    }
+}
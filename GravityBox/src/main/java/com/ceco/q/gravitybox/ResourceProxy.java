@@ -15,12 +15,15 @@
 package com.ceco.q.gravitybox;
 
 import android.content.Context;
+import android.content.res.AssetManager;
 import android.content.res.Configuration;
 import android.content.res.Resources;
 import android.util.SparseArray;
 
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.WeakHashMap;
 import java.util.regex.Pattern;
 
 import de.robv.android.xposed.XC_MethodHook;
@@ -35,9 +38,28 @@ public class ResourceProxy {
         XposedBridge.log(TAG + ": " + message);
     }
 
-    private static SparseArray<ResourceSpec> sCache = new SparseArray<>();
-    private static int getCacheKey(String pkgName, int resId) {
-        return (pkgName + "_" + resId).hashCode();
+    private static final int FAKE_RES_ID_MASK = 0xff000000;
+    private static final int FAKE_RES_ID_PREFIX = 0x7e000000;
+
+    // Spec cache keyed by package index (upper 32 bits) and resource id (lower 32 bits).
+    // Resources not claimed by any interceptor are stored as NO_SPEC so that subsequent
+    // lookups of the same resource end with a single probe; their number is bounded.
+    // All the static state below is guarded by sCache.
+    private static final int MAX_NEGATIVE_ENTRIES = 4096;
+    private static final ResourceSpec NO_SPEC = new ResourceSpec(null, 0, null, null);
+    private static final ResourceLookupCache<ResourceSpec> sCache =
+            new ResourceLookupCache<>(NO_SPEC, MAX_NEGATIVE_ENTRIES);
+    // Package names resolved so far; position in the list is the package index
+    private static final List<String> sPackageNames = new ArrayList<>();
+    // Per asset manager mapping of resource package id to package index + 1
+    private static final WeakHashMap<AssetManager, int[]> sPackageIndexes = new WeakHashMap<>();
+    // Mapping of the asset manager used last so that consecutive lookups skip the weak map;
+    // asset manager is weakly referenced so that it can still be collected
+    private static WeakReference<AssetManager> sLastAssets = new WeakReference<>(null);
+    private static int[] sLastPackageIndexes;
+
+    private static long getCacheKey(int pkgIndex, int resId) {
+        return ((long) pkgIndex << 32) | (resId & 0xffffffffL);
     }
 
     public static class ResourceSpec {
@@ -95,7 +117,11 @@ public class ResourceProxy {
     }
 
     static int getFakeResId(String resourceName) {
-        return 0x7e000000 | (resourceName.hashCode() & 0x00ffffff);
+        return FAKE_RES_ID_PREFIX | (resourceName.hashCode() & 0x00ffffff);
+    }
+
+    private static boolean isFakeResId(int resId) {
+        return (resId & FAKE_RES_ID_MASK) == FAKE_RES_ID_PREFIX;
     }
 
     private static Context getGbContext(Configuration config) {
@@ -111,6 +137,7 @@ public class ResourceProxy {
     }
 
     private final List<Interceptor> mInterceptors = new ArrayList<>();
+    private final SparseArray<Interceptor> mFakeResIdInterceptors = new SparseArray<>();
 
     ResourceProxy() {
         createIntegerHook();
@@ -126,8 +153,17 @@ public class ResourceProxy {
         synchronized (mInterceptors) {
             if (!mInterceptors.contains(interceptor)) {
                 mInterceptors.add(interceptor);
+                for (Integer fakeResId : interceptor.supportedFakeResIds) {
+                    if (mFakeResIdInterceptors.get(fakeResId) == null) {
+                        mFakeResIdInterceptors.put(fakeResId, interceptor);
+                    }
+                }
             }
         }
+        // new interceptor might claim resources cached as not intercepted
+        synchronized (sCache) {
+            sCache.clear();
+        }
     }
 
     private Interceptor findInterceptorForFramework() {
@@ -155,10 +191,9 @@ public class ResourceProxy {
     }
 
     private Interceptor findInterceptorForFakeResourceId(int fakeResId) {
+        if (!isFakeResId(fakeResId)) return null;
         synchronized (mInterceptors) {
-            return mInterceptors.stream().filter((i) ->
-                    i.supportedFakeResIds.contains(fakeResId))
-                    .findFirst().orElse(null);
+            return mFakeResIdInterceptors.get(fakeResId);
         }
     }
 
@@ -181,7 +216,9 @@ public class ResourceProxy {
         }
         @Override
         protected void afterHookedMethod(MethodHookParam param) {
-            if (param.getExtra().getBoolean("returnEarly")) {
+            // extras are only ever set for fake resources; checking the id first avoids
+            // creating extras bundle for each and every resource request
+            if (isFakeResId((int)param.args[0]) && param.getExtra().getBoolean("returnEarly")) {
                 if (DEBUG) log(param.method.getName() + " after hook suppressed by before hook");
                 return;
             }
@@ -197,25 +234,76 @@ public class ResourceProxy {
     };
 
     private ResourceSpec getOrCreateResourceSpec(Resources res, int resId, Object value) {
-        String pkgName = getResourcePackageName(res, resId);
-        if (pkgName == null) return null;
-
-        int cacheKey = getCacheKey(pkgName, resId);
-        if (sCache.get(cacheKey) != null) {
-            sCache.get(cacheKey).value = value;
-            return sCache.get(cacheKey);
+        final int pkgId = resId >>> 24;
+        final AssetManager assets = res.getAssets();
+        int[] indexes;
+        int pkgIndex;
+        long cacheKey = 0;
+        ResourceSpec spec = null;
+        // cached resources are resolved with a single lock and a single probe
+        synchronized (sCache) {
+            indexes = getPackageIndexes(assets);
+            pkgIndex = indexes[pkgId] - 1;
+            if (pkgIndex >= 0) {
+                cacheKey = getCacheKey(pkgIndex, resId);
+                spec = sCache.get(cacheKey);
+                if (spec != null && spec != NO_SPEC) {
+                    spec.value = value;
+                }
+            }
+        }
+        if (spec == NO_SPEC) return null;
+        if (spec != null) return spec;
+
+        final String pkgName;
+        if (pkgIndex < 0) {
+            pkgName = getResourcePackageName(res, resId);
+            if (pkgName == null) return null;
+        } else {
+            synchronized (sCache) {
+                pkgName = sPackageNames.get(pkgIndex);
+            }
         }
 
         String resName = getResourceEntryName(res, resId);
         if (resName == null) return null;
 
         Interceptor i = findInterceptorForResource(pkgName, resName);
-        if (i == null) return null;
+        spec = (i == null ? NO_SPEC : new ResourceSpec(i, resId, resName, value));
+        if (DEBUG && i != null) log("New " + spec.toString());
+        synchronized (sCache) {
+            if (pkgIndex < 0) {
+                pkgIndex = sPackageNames.indexOf(pkgName);
+                if (pkgIndex < 0) {
+                    pkgIndex = sPackageNames.size();
+                    sPackageNames.add(pkgName);
+                }
+                indexes[pkgId] = pkgIndex + 1;
+                cacheKey = getCacheKey(pkgIndex, resId);
+            }
+            sCache.put(cacheKey, spec);
+            if (DEBUG && sCache.getMissCount() % 1000 == 0) {
+                log("Spec cache: hits=" + sCache.getHitCount() + "; misses=" + sCache.getMissCount() +
+                        "; size=" + sCache.size() + "; negative=" + sCache.getNegativeCount());
+            }
+        }
+        return (spec == NO_SPEC ? null : spec);
+    }
 
-        ResourceSpec spec = new ResourceSpec(i, resId, resName, value);
-        if (DEBUG) log("New " + spec.toString());
-        sCache.put(cacheKey, spec);
-        return spec;
+    /**
+     * Must be called with sCache lock held
+     */
+    private static int[] getPackageIndexes(AssetManager assets) {
+        if (assets != sLastAssets.get()) {
+            int[] indexes = sPackageIndexes.get(assets);
+            if (indexes == null) {
+                indexes = new int[256];
+                sPackageIndexes.put(assets, indexes);
+            }
+            sLastAssets = new WeakReference<>(assets);
+            sLastPackageIndexes = indexes;
+        }
+        return sLastPackageIndexes;
     }
 
     private static String getResourcePackageName(Resources res, int id) {
@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2020 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.q.gravitybox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import android.annotation.SuppressLint;
+
+/**
+ * Single file settings backup. Archive starts with a manifest listing size and CRC32
+ * of every entry followed by the entries themselves so both backup and restore
+ * need just a single sequential pass.
+ * Backup is skipped when archive already contains identical files and restore
+ * replaces only files that differ from the ones already present.
+ */
+class SettingsArchive {
+    private static final String MANIFEST = "manifest";
+    private static final String MANIFEST_HEADER = "gravitybox-settings 1";
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    interface TargetResolver {
+        /**
+         * @return file entry of given name should be restored to or null to skip it
+         */
+        File resolve(String name);
+    }
+
+    static final class Record {
+        final long size;
+        final long crc;
+
+        Record(long size, long crc) {
+            this.size = size;
+            this.crc = crc;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Record)) return false;
+            Record r = (Record) o;
+            return size == r.size && crc == r.crc;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(size) * 31 + Long.hashCode(crc);
+        }
+    }
+
+    private final File mFile;
+    private final Map<String, File> mSources = new LinkedHashMap<>();
+    private final byte[] mBuffer = new byte[BUFFER_SIZE];
+
+    SettingsArchive(File file) {
+        mFile = file;
+    }
+
+    boolean exists() {
+        return mFile.exists();
+    }
+
+    /**
+     * Adds file to be stored under given entry name by next {@link #write()}
+     */
+    void add(String name, File source) {
+        mSources.put(name, source);
+    }
+
+    /**
+     * Writes all added files into the archive
+     * @return false if archive already contained identical files and was left untouched
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    boolean write() throws IOException {
+        final Map<String, Record> manifest = new LinkedHashMap<>();
+        for (Map.Entry<String, File> source : mSources.entrySet()) {
+            File f = source.getValue();
+            manifest.put(source.getKey(), new Record(f.length(), checksum(f)));
+        }
+
+        try {
+            if (manifest.equals(readManifest())) {
+                return false;
+            }
+        } catch (IOException ignored) {
+            // missing or damaged archive gets rewritten
+        }
+
+        final File tmpFile = new File(mFile.getPath() + ".tmp");
+        try (ZipOutputStream zos = new ZipOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+            zos.putNextEntry(new ZipEntry(MANIFEST));
+            zos.write(formatManifest(manifest).getBytes(StandardCharsets.UTF_8));
+            zos.closeEntry();
+
+            for (Map.Entry<String, File> source : mSources.entrySet()) {
+                zos.putNextEntry(new ZipEntry(source.getKey()));
+                final long crc;
+                try (InputStream in = new FileInputStream(source.getValue())) {
+                    crc = copy(in, zos);
+                }
+                zos.closeEntry();
+                if (crc != manifest.get(source.getKey()).crc) {
+                    throw new IOException("File changed during backup: " + source.getValue());
+                }
+            }
+        } catch (IOException e) {
+            tmpFile.delete();
+            throw e;
+        }
+
+        if (!tmpFile.renameTo(mFile)) {
+            tmpFile.delete();
+            throw new IOException("Unable to replace " + mFile);
+        }
+        return true;
+    }
+
+    /**
+     * @return entries listed in archive manifest keyed by name
+     */
+    Map<String, Record> readManifest() throws IOException {
+        try (ZipInputStream zis = openArchive()) {
+            return readManifest(zis);
+        }
+    }
+
+    /**
+     * Restores archive entries which differ from target files.
+     * Every entry is verified against its manifest checksum before replacing the target.
+     * @return number of replaced files
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    @SuppressLint("SetWorldReadable")
+    int extract(TargetResolver resolver) throws IOException {
+        int restored = 0;
+        try (ZipInputStream zis = openArchive()) {
+            final Map<String, Record> manifest = readManifest(zis);
+            ZipEntry ze;
+            while ((ze = zis.getNextEntry()) != null) {
+                final Record record = manifest.get(ze.getName());
+                final File target = record == null ? null : resolver.resolve(ze.getName());
+                if (target == null) continue;
+                if (target.exists() && target.length() == record.size &&
+                        checksum(target) == record.crc) {
+                    continue;
+                }
+
+                final File tmpFile = new File(target.getParent(), "." + target.getName() + ".tmp");
+                try {
+                    final long crc;
+                    try (OutputStream out = new FileOutputStream(tmpFile)) {
+                        crc = copy(zis, out);
+                    }
+                    if (crc != record.crc) {
+                        throw new IOException("Checksum mismatch for " + ze.getName());
+                    }
+                    if (!tmpFile.renameTo(target)) {
+                        throw new IOException("Unable to replace " + target);
+                    }
+                } finally {
+                    tmpFile.delete();
+                }
+                target.setReadable(true, false);
+                restored++;
+            }
+        }
+        return restored;
+    }
+
+    private ZipInputStream openArchive() throws FileNotFoundException {
+        return new ZipInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+    }
+
+    private static Map<String, Record> readManifest(ZipInputStream zis) throws IOException {
+        ZipEntry ze = zis.getNextEntry();
+        if (ze == null || !MANIFEST.equals(ze.getName())) {
+            throw new IOException("Archive manifest missing");
+        }
+        // do not close reader as it would close the archive stream
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(zis, StandardCharsets.UTF_8));
+        if (!MANIFEST_HEADER.equals(reader.readLine())) {
+            throw new IOException("Unsupported archive manifest");
+        }
+        final Map<String, Record> manifest = new LinkedHashMap<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) continue;
+            String[] parts = line.split("\t", 3);
+            if (parts.length != 3) {
+                throw new IOException("Invalid manifest line: " + line);
+            }
+            try {
+                manifest.put(parts[2], new Record(Long.parseLong(parts[1]),
+                        Long.parseLong(parts[0], 16)));
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid manifest line: " + line);
+            }
+        }
+        return Collections.unmodifiableMap(manifest);
+    }
+
+    private static String formatManifest(Map<String, Record> manifest) {
+        StringBuilder sb = new StringBuilder(MANIFEST_HEADER).append('\n');
+        for (Map.Entry<String, Record> e : manifest.entrySet()) {
+            sb.append(Long.toHexString(e.getValue().crc)).append('\t')
+              .append(e.getValue().size).append('\t')
+              .append(e.getKey()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private long checksum(File file) throws IOException {
+        final CRC32 crc = new CRC32();
+        try (InputStream in = new FileInputStream(file)) {
+            int len;
+            while ((len = in.read(mBuffer)) > 0) {
+                crc.update(mBuffer, 0, len);
+            }
+        }
+        return crc.getValue();
+    }
+
+    private long copy(InputStream in, OutputStream out) throws IOException {
+        final CRC32 crc = new CRC32();
+        int len;
+        while ((len = in.read(mBuffer)) > 0) {
+            out.write(mBuffer, 0, len);
+            crc.update(mBuffer, 0, len);
+        }
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2020 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.q.gravitybox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * Collects settings change broadcasts until settings stop changing for a short while
+ * and sends them as a single batch broadcast unpacked by BroadcastMediator in target processes.
+ * Only the latest broadcast is kept for each action and preference key so intermediate
+ * values, e.g. while dragging a slider, are never sent.
+ * Actions having receivers registered outside BroadcastMediator are sent right away.
+ */
+public class SettingsChangeBroadcaster {
+    public static final String ACTION_BATCH = "gravitybox.intent.action.SETTINGS_BATCH";
+    public static final String EXTRA_INTENTS = "intents";
+
+    private static final long BATCH_DELAY = 100;
+    // continuous changes do not hold pending broadcasts back longer than this
+    private static final long BATCH_MAX_DELAY = 1000;
+
+    // actions received by plain broadcast receivers which do not understand batches
+    private static final Set<String> DIRECT_ACTIONS = new HashSet<>(Arrays.asList(
+            GravityBoxSettings.ACTION_PREF_IME_CHANGED,
+            GravityBoxSettings.ACTION_PREF_TELEPHONY_CHANGED,
+            GravityBoxSettings.ACTION_PREF_CALL_FEATURES_CHANGED,
+            GravityBoxSettings.ACTION_PREF_QS_NETWORK_MODE_SIM_SLOT_CHANGED
+    ));
+
+    private static SettingsChangeBroadcaster sInstance;
+
+    public static synchronized SettingsChangeBroadcaster getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new SettingsChangeBroadcaster(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private final Context mContext;
+    private final Handler mHandler;
+    private final Map<String, Intent> mPending = new LinkedHashMap<>();
+    private long mFirstPendingTime;
+
+    private SettingsChangeBroadcaster(Context context) {
+        mContext = context;
+        mHandler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * Queues broadcast to be sent with the next batch replacing one queued
+     * for the same action and preference key. Must be called from the main thread.
+     * @param key - preference key the broadcast reports change of
+     * @param intent - broadcast to send
+     */
+    public void post(String key, Intent intent) {
+        if (DIRECT_ACTIONS.contains(intent.getAction())) {
+            mContext.sendBroadcast(intent);
+            return;
+        }
+        final long now = SystemClock.uptimeMillis();
+        if (mPending.isEmpty()) {
+            mFirstPendingTime = now;
+        }
+        // re-inserted so that batch keeps order of latest changes
+        final String pendingKey = intent.getAction() + "/" + key;
+        mPending.remove(pendingKey);
+        mPending.put(pendingKey, intent);
+        mHandler.removeCallbacks(mFlushRunnable);
+        mHandler.postAtTime(mFlushRunnable,
+                Math.min(now + BATCH_DELAY, mFirstPendingTime + BATCH_MAX_DELAY));
+    }
+
+    /**
+     * Queues broadcast after given delay
+     */
+    public void postDelayed(String key, Intent intent, long delayMs) {
+        mHandler.postDelayed(() -> post(key, intent), delayMs);
+    }
+
+    /**
+     * Sends pending broadcasts immediately
+     */
+    public void flush() {
+        mHandler.removeCallbacks(mFlushRunnable);
+        if (mPending.isEmpty()) return;
+
+        if (mPending.size() == 1) {
+            mContext.sendBroadcast(mPending.values().iterator().next());
+        } else {
+            Intent batch = new Intent(ACTION_BATCH);
+            batch.putParcelableArrayListExtra(EXTRA_INTENTS, new ArrayList<>(mPending.values()));
+            mContext.sendBroadcast(batch);
+        }
+        mPending.clear();
+    }
+
+    private final Runnable mFlushRunnable = this::flush;
+}
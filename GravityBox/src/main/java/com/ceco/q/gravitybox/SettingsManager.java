@@ -38,6 +38,10 @@ public class SettingsManager {
     private static final String BACKUP_OK_FLAG_OBSOLETE = BACKUP_PATH + "/.backup_ok";
     private static final String BACKUP_OK_FLAG = BACKUP_PATH + "/.backup_ok_lp";
     private static final String BACKUP_NO_MEDIA = BACKUP_PATH + "/.nomedia";
+    private static final String BACKUP_ARCHIVE = BACKUP_PATH + "/settings.zip";
+    private static final String ARCHIVE_PREFS_DIR = "prefs/";
+    private static final String ARCHIVE_APP_PICKER_DIR = "app_picker/";
+    private static final String ARCHIVE_FILES_DIR = "files/";
     private static final String LP_PREFERENCES = "com.ceco.lollipop.gravitybox_preferences.xml";
     private static final String MM_PREFERENCES = "com.ceco.marshmallow.gravitybox_preferences.xml";
     private static final String N_PREFERENCES = "com.ceco.nougat.gravitybox_preferences.xml";
@@ -111,8 +115,7 @@ public class SettingsManager {
             return false;
         }
 
-        // create all necessary backup folders/subfolders in one go
-        File targetDir = new File(BACKUP_PATH + "/files/app_picker");
+        File targetDir = new File(BACKUP_PATH);
         if (!(targetDir.exists() && targetDir.isDirectory())) {
             if (!targetDir.mkdirs()) {
                 Toast.makeText(mContext, R.string.settings_backup_failed, Toast.LENGTH_LONG).show();
@@ -128,33 +131,17 @@ public class SettingsManager {
             } catch (IOException ignored) { }
         }
 
-        // delete backup OK flag file first (if exists)
-        File backupOkFlagFile = new File(BACKUP_OK_FLAG);
-        if (backupOkFlagFile.exists()) {
-            backupOkFlagFile.delete();
-        }
+        // make sure pending asynchronous writes reached preference files
+        flushPreferences();
+
+        SettingsArchive archive = new SettingsArchive(new File(BACKUP_ARCHIVE));
 
         // preferences
-        String[] prefsFileNames = new String[] { 
-                mContext.getPackageName() + "_preferences.xml",
-                "ledcontrol.xml",
-                "quiet_hours.xml",
-                "tuner.xml",
-                "navbar_custom_key_image",
-                "lockwallpaper"
-        };
+        String[] prefsFileNames = getBackupPrefsFileNames();
         for (String prefsFileName : prefsFileNames) {
             File prefsFile = new File(getPreferenceDir(), prefsFileName);
             if (prefsFile.exists()) {
-                String bupPath = prefsFileName.endsWith(".xml") ? BACKUP_PATH : BACKUP_PATH + "/files";
-                File prefsDestFile = new File(bupPath, prefsFileName);
-                try {
-                    Utils.copyFile(prefsFile, prefsDestFile);
-                } catch (IOException e) {
-                    e.printStackTrace();
-                    Toast.makeText(mContext, R.string.settings_backup_failed, Toast.LENGTH_LONG).show();
-                    return false;
-                }
+                archive.add(ARCHIVE_PREFS_DIR + prefsFileName, prefsFile);
             } else if (prefsFileName.equals(prefsFileNames[0])) {
                 // normally, this should never happen
                 Toast.makeText(mContext, R.string.settings_backup_no_prefs, Toast.LENGTH_LONG).show();
@@ -163,55 +150,43 @@ public class SettingsManager {
         }
 
         // app picker
-        String appPickerFilesDirPath = BACKUP_PATH + "/files/app_picker";
         File sourceDir = new File(getPreferenceDir() + "/app_picker");
         File[] appPickerfileList = sourceDir.listFiles();
         if (appPickerfileList != null) {
             for (File apf : appPickerfileList) {
-                File outFile = new File(appPickerFilesDirPath, apf.getName());
-                try {
-                    Utils.copyFile(apf, outFile);
-                } catch (IOException e) {
-                    e.printStackTrace();
-                    Toast.makeText(mContext, R.string.settings_backup_failed, Toast.LENGTH_LONG).show();
-                    return false;
+                if (apf.isFile()) {
+                    archive.add(ARCHIVE_APP_PICKER_DIR + apf.getName(), apf);
                 }
             }
         }
 
         // other files
-        String targetFilesDirPath = BACKUP_PATH + "/files";
         File[] fileList = mContext.getFilesDir().listFiles();
         if (fileList != null) {
             for (File f : fileList) {
                 if (f.isFile()) {
-                    File outFile = new File(targetFilesDirPath, f.getName());
-                    try {
-                        Utils.copyFile(f, outFile);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                        Toast.makeText(mContext, R.string.settings_backup_failed, Toast.LENGTH_LONG).show();
-                        return false;
-                    }
+                    archive.add(ARCHIVE_FILES_DIR + f.getName(), f);
                 }
             }
         }
 
         try {
-            backupOkFlagFile.createNewFile();
+            if (!archive.write()) {
+                Log.d("GravityBox", "Settings backup is up to date");
+            }
         } catch (IOException e) {
             e.printStackTrace();
             Toast.makeText(mContext, R.string.settings_backup_failed, Toast.LENGTH_LONG).show();
             return false;
         }
-       
+
         Toast.makeText(mContext, R.string.settings_backup_success, Toast.LENGTH_SHORT).show();
         return true;
     }
 
     public boolean isBackupAvailable() {
-        File backupOkFlagFile = new File(BACKUP_OK_FLAG);
-        return backupOkFlagFile.exists();
+        return new File(BACKUP_ARCHIVE).exists() ||
+                new File(BACKUP_OK_FLAG).exists();
     }
 
     public boolean isBackupObsolete() {
@@ -239,15 +214,19 @@ public class SettingsManager {
             new File(mContext.getFilesDir() + "/" + uuid).createNewFile();
         } catch (IOException e) { /* ignore */ }
 
+        // make sure no pending asynchronous write overwrites restored preferences
+        flushPreferences();
+        // restored preferences might come from version with different defaults
+        GravityBoxSettings.PrefsFragment.resetCategoryDefaults(mContext);
+
+        SettingsArchive archive = new SettingsArchive(new File(BACKUP_ARCHIVE));
+        if (archive.exists()) {
+            return restoreArchive(archive);
+        }
+
+        // legacy backup consisting of separate files
         // preferences
-        String[] prefsFileNames = new String[] { 
-                mContext.getPackageName() + "_preferences.xml",
-                "ledcontrol.xml",
-                "quiet_hours.xml",
-                "tuner.xml",
-                "navbar_custom_key_image",
-                "lockwallpaper"
-        };
+        String[] prefsFileNames = getBackupPrefsFileNames();
         for (String prefsFileName : prefsFileNames) {
             String bupPath = prefsFileName.endsWith(".xml") ? BACKUP_PATH : BACKUP_PATH + "/files";
             File prefsFile = new File(bupPath, prefsFileName);
@@ -284,13 +263,7 @@ public class SettingsManager {
 
         // app picker
         String appPickerFilesDirPath = getPreferenceDir() + "/app_picker";
-        File appPickerFilesDir = new File(appPickerFilesDirPath);
-        if (!(appPickerFilesDir.exists() && appPickerFilesDir.isDirectory())) {
-            if (appPickerFilesDir.mkdirs()) {
-                appPickerFilesDir.setExecutable(true, false);
-                appPickerFilesDir.setReadable(true, false);
-            }
-        }
+        prepareRestoreDir(new File(appPickerFilesDirPath));
         File sourceDir = new File(BACKUP_PATH + "/files/app_picker");
         File[] appPickerfileList = sourceDir.listFiles();
         if (appPickerfileList != null) {
@@ -309,13 +282,7 @@ public class SettingsManager {
 
         // other files
         String targetFilesDirPath = mContext.getFilesDir().getAbsolutePath();
-        File targetFilesDir = new File(targetFilesDirPath);
-        if (!(targetFilesDir.exists() && targetFilesDir.isDirectory())) {
-            if (targetFilesDir.mkdirs()) {
-                targetFilesDir.setExecutable(true, false);
-                targetFilesDir.setReadable(true, false);
-            }
-        }
+        prepareRestoreDir(new File(targetFilesDirPath));
         File[] fileList = new File(BACKUP_PATH + "/files").listFiles();
         if (fileList != null) {
             for (File f : fileList) {
@@ -337,6 +304,76 @@ public class SettingsManager {
         return true;
     }
 
+    private boolean restoreArchive(SettingsArchive archive) {
+        final File prefsDir = new File(getPreferenceDir());
+        final File appPickerDir = new File(prefsDir, "app_picker");
+        final File filesDir = mContext.getFilesDir();
+        try {
+            if (!archive.readManifest().containsKey(ARCHIVE_PREFS_DIR + getBackupPrefsFileNames()[0])) {
+                Toast.makeText(mContext, R.string.settings_restore_no_backup, Toast.LENGTH_SHORT).show();
+                return false;
+            }
+            prepareRestoreDir(appPickerDir);
+            prepareRestoreDir(filesDir);
+            int restored = archive.extract(name -> {
+                File target = resolveArchiveEntry(name, ARCHIVE_PREFS_DIR, prefsDir);
+                if (target == null)
+                    target = resolveArchiveEntry(name, ARCHIVE_APP_PICKER_DIR, appPickerDir);
+                if (target == null)
+                    target = resolveArchiveEntry(name, ARCHIVE_FILES_DIR, filesDir);
+                return target;
+            });
+            Log.d("GravityBox", "Settings restored: " + restored + " files replaced");
+        } catch (IOException e) {
+            e.printStackTrace();
+            Toast.makeText(mContext, R.string.settings_restore_failed, Toast.LENGTH_LONG).show();
+            return false;
+        }
+
+        Toast.makeText(mContext, R.string.settings_restore_success, Toast.LENGTH_SHORT).show();
+        return true;
+    }
+
+    private static File resolveArchiveEntry(String name, String prefix, File dir) {
+        if (!name.startsWith(prefix)) return null;
+        String fileName = name.substring(prefix.length());
+        if (fileName.isEmpty() || fileName.contains("/") ||
+                fileName.equals(".") || fileName.equals("..")) {
+            return null;
+        }
+        return new File(dir, fileName);
+    }
+
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    @SuppressLint("SetWorldReadable")
+    private static void prepareRestoreDir(File dir) {
+        if (!(dir.exists() && dir.isDirectory())) {
+            if (dir.mkdirs()) {
+                dir.setExecutable(true, false);
+                dir.setReadable(true, false);
+            }
+        }
+    }
+
+    private String[] getBackupPrefsFileNames() {
+        return new String[] {
+                mContext.getPackageName() + "_preferences.xml",
+                "ledcontrol.xml",
+                "quiet_hours.xml",
+                "tuner.xml",
+                "navbar_custom_key_image",
+                "lockwallpaper"
+        };
+    }
+
+    private void flushPreferences() {
+        // empty commit waits for all writes queued by apply()
+        mPrefsMain.edit().commit();
+        mPrefsLedControl.edit().commit();
+        mPrefsQuietHours.edit().commit();
+        mPrefsTuner.edit().commit();
+    }
+
     public String getOrCreateUuid() {
         String uuid = mPrefsMain.getString("settings_uuid", null);
         if (uuid == null) {
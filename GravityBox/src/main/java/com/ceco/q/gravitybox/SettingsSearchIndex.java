@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2020 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.q.gravitybox;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Searchable index of preferences so that no Preference objects need to be inflated
+ * to find out where a match is. Preference matches a query when its title, summary
+ * or one of the texts it can show as summary at runtime contains the query,
+ * same as when filtering the inflated hierarchy.
+ * Every suffix of every word is indexed so that candidates containing a query word
+ * are found with a single prefix range lookup.
+ */
+class SettingsSearchIndex {
+    private static final String[] NO_TEXTS = new String[0];
+
+    static final class Entry {
+        final String key;
+        final String title;
+        final String summary;
+        // texts preference can show as summary at runtime, e.g. list entries
+        final String[] values;
+        // key of top level category the preference is inflated from or null for main screen
+        final String category;
+        // keys of screens to open from the main screen to get to the preference
+        final String[] screens;
+
+        Entry(String key, String title, String summary, String[] values,
+              String category, String[] screens) {
+            this.key = key;
+            this.title = title;
+            this.summary = summary;
+            this.values = (values == null ? NO_TEXTS : values);
+            this.category = category;
+            this.screens = (screens == null ? NO_TEXTS : screens);
+        }
+
+        /**
+         * @param query - lower case query
+         */
+        boolean matches(String query) {
+            if (SettingsSearchIndex.matches(title, query) ||
+                    SettingsSearchIndex.matches(summary, query)) {
+                return true;
+            }
+            for (String value : values) {
+                if (SettingsSearchIndex.matches(value, query)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private final List<Entry> mEntries = new ArrayList<>();
+    // suffix of a word -> indexes of entries containing it; sorted so suffixes sharing prefix are adjacent
+    private final TreeMap<String, List<Integer>> mSuffixes = new TreeMap<>();
+
+    int size() {
+        return mEntries.size();
+    }
+
+    void add(Entry entry) {
+        final int index = mEntries.size();
+        mEntries.add(entry);
+        addText(entry.title, index);
+        addText(entry.summary, index);
+        for (String value : entry.values) {
+            addText(value, index);
+        }
+    }
+
+    private void addText(String text, int index) {
+        for (String word : tokenize(text)) {
+            for (int i = 0; i < word.length(); i++) {
+                final String suffix = word.substring(i);
+                List<Integer> list = mSuffixes.get(suffix);
+                if (list == null) {
+                    list = new ArrayList<>(2);
+                    mSuffixes.put(suffix, list);
+                }
+                if (list.isEmpty() || list.get(list.size() - 1) != index) {
+                    list.add(index);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return entries matching the query in the order they were added
+     */
+    List<Entry> find(String query) {
+        if (query == null || query.isEmpty()) return Collections.emptyList();
+        final String lcQuery = query.toLowerCase(Locale.getDefault());
+
+        // any text containing the query has a word containing its longest word;
+        // query without any word is checked against all entries
+        String longestWord = null;
+        for (String word : tokenize(lcQuery)) {
+            if (longestWord == null || word.length() > longestWord.length()) {
+                longestWord = word;
+            }
+        }
+        final BitSet candidates = new BitSet(mEntries.size());
+        if (longestWord == null) {
+            candidates.set(0, mEntries.size());
+        } else {
+            for (List<Integer> list : mSuffixes.subMap(longestWord, true,
+                    longestWord + Character.MAX_VALUE, true).values()) {
+                for (int index : list) {
+                    candidates.set(index);
+                }
+            }
+        }
+
+        final List<Entry> entries = new ArrayList<>();
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            final Entry entry = mEntries.get(i);
+            if (entry.matches(lcQuery)) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * @return keys of top level categories of given entries
+     */
+    static Set<String> getCategories(List<Entry> entries) {
+        final Set<String> categories = new LinkedHashSet<>();
+        for (Entry entry : entries) {
+            if (entry.category != null) {
+                categories.add(entry.category);
+            }
+        }
+        return categories;
+    }
+
+    /**
+     * Splits text into lower case words
+     */
+    static String[] tokenize(String text) {
+        if (text == null) return NO_TEXTS;
+        final List<String> words = new ArrayList<>();
+        for (String word : text.toLowerCase(Locale.getDefault()).split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+        return words.toArray(new String[words.size()]);
+    }
+
+    /**
+     * @param query - lower case query
+     * @return true if text contains the query ignoring case
+     */
+    static boolean matches(String text, String query) {
+        return text != null && text.toLowerCase(Locale.getDefault()).contains(query);
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2020 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.q.gravitybox;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import com.ceco.q.gravitybox.preference.AppPickerPreference;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.content.res.Resources;
+import android.content.res.XmlResourceParser;
+import android.media.Ringtone;
+import android.media.RingtoneManager;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * Builds SettingsSearchIndex by reading preference XML resources without inflating them.
+ * Besides static title and summary it collects texts preferences show as summary
+ * at runtime: list entries, picked app names, ringtone titles and edited texts.
+ * Index is built in background and cached until locale changes or any of the preferences
+ * runtime summaries were collected from changes.
+ */
+class SettingsSearchIndexLoader {
+    private static final String ANDROID_NS = "http://schemas.android.com/apk/res/android";
+
+    interface Callback {
+        void onIndexLoaded(SettingsSearchIndex index);
+    }
+
+    private static final Handler sHandler = new Handler(Looper.getMainLooper());
+    private static SettingsSearchIndex sIndex;
+    private static Locale sLocale;
+    // keys of preferences runtime summaries of cached index were collected from
+    private static Set<String> sRuntimeKeys;
+    private static int sGeneration;
+
+    /**
+     * Delivers index to callback on the main thread building it in background when necessary
+     * @param rootResId - resource of the main screen
+     * @param categories - resources of top level categories keyed by category key
+     */
+    static void loadIndex(Context context, SharedPreferences prefs, int rootResId,
+                          Map<String, Integer> categories, Callback callback) {
+        final Context appContext = context.getApplicationContext();
+        final Locale locale = appContext.getResources().getConfiguration().getLocales().get(0);
+        final int generation;
+        synchronized (SettingsSearchIndexLoader.class) {
+            if (sIndex != null && locale.equals(sLocale)) {
+                callback.onIndexLoaded(sIndex);
+                return;
+            }
+            generation = sGeneration;
+        }
+        AsyncTask.execute(() -> {
+            final SettingsSearchIndexLoader loader = new SettingsSearchIndexLoader(appContext, prefs);
+            loader.addResource(rootResId, null);
+            for (Map.Entry<String, Integer> cat : categories.entrySet()) {
+                loader.addResource(cat.getValue(), cat.getKey());
+            }
+            synchronized (SettingsSearchIndexLoader.class) {
+                // index collected values preferences had before they changed
+                if (generation == sGeneration) {
+                    sIndex = loader.mIndex;
+                    sLocale = locale;
+                    sRuntimeKeys = loader.mRuntimeKeys;
+                }
+            }
+            sHandler.post(() -> callback.onIndexLoaded(loader.mIndex));
+        });
+    }
+
+    /**
+     * Drops cached index when runtime summaries were collected from given preference
+     */
+    static synchronized void invalidate(String key) {
+        if (sIndex == null || sRuntimeKeys.contains(key)) {
+            sIndex = null;
+            sGeneration++;
+        }
+    }
+
+    private final Context mContext;
+    private final Resources mResources;
+    private final SharedPreferences mPrefs;
+    private final SettingsSearchIndex mIndex = new SettingsSearchIndex();
+    private final Set<String> mRuntimeKeys = new HashSet<>();
+
+    private SettingsSearchIndexLoader(Context context, SharedPreferences prefs) {
+        mContext = context;
+        mResources = context.getResources();
+        mPrefs = prefs;
+    }
+
+    private void addResource(int resId, String category) {
+        // keys of elements currently open; null for elements other than nested screens
+        final List<String> open = new ArrayList<>();
+        try (XmlResourceParser parser = mResources.getXml(resId)) {
+            int type;
+            while ((type = parser.next()) != XmlPullParser.END_DOCUMENT) {
+                if (type == XmlPullParser.END_TAG) {
+                    open.remove(open.size() - 1);
+                    continue;
+                }
+                if (type != XmlPullParser.START_TAG) continue;
+
+                final String key = parser.getAttributeValue(ANDROID_NS, "key");
+                final String title = getText(parser, "title");
+                final String summary = getText(parser, "summary");
+                final List<String> values = getValues(parser, key);
+                if (title != null || summary != null || !values.isEmpty()) {
+                    mIndex.add(new SettingsSearchIndex.Entry(key, title, summary,
+                            values.toArray(new String[values.size()]),
+                            category, getScreens(category, open)));
+                }
+                // root element is the category screen itself
+                open.add(!open.isEmpty() && "PreferenceScreen".equals(parser.getName()) ?
+                        key : null);
+            }
+        } catch (XmlPullParserException | IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static String[] getScreens(String category, List<String> open) {
+        final List<String> screens = new ArrayList<>();
+        if (category != null) {
+            screens.add(category);
+        }
+        for (String key : open) {
+            if (key != null) {
+                screens.add(key);
+            }
+        }
+        return screens.toArray(new String[screens.size()]);
+    }
+
+    private String getText(XmlResourceParser parser, String attr) {
+        final int resId = parser.getAttributeResourceValue(ANDROID_NS, attr, 0);
+        if (resId != 0) {
+            try {
+                return mResources.getString(resId);
+            } catch (Resources.NotFoundException e) {
+                return null;
+            }
+        }
+        return parser.getAttributeValue(ANDROID_NS, attr);
+    }
+
+    private List<String> getValues(XmlResourceParser parser, String key) {
+        final List<String> values = new ArrayList<>();
+        final int entriesResId = parser.getAttributeResourceValue(ANDROID_NS, "entries", 0);
+        if (entriesResId != 0) {
+            try {
+                for (CharSequence entry : mResources.getTextArray(entriesResId)) {
+                    values.add(entry.toString());
+                }
+            } catch (Resources.NotFoundException e) {
+                e.printStackTrace();
+            }
+        }
+        if (key == null) return values;
+
+        final String name = parser.getName();
+        if (name.endsWith(".AppPickerPreference")) {
+            values.add(mResources.getString(R.string.app_picker_none));
+            addAppName(values, getString(key));
+        } else if ("RingtonePreference".equals(name)) {
+            values.add(mResources.getString(R.string.stock_sound));
+            values.add(mResources.getString(R.string.lc_notif_sound_none));
+            addRingtoneTitle(values, getString(key));
+        } else if ("EditTextPreference".equals(name)) {
+            addValue(values, getString(key));
+            if (GravityBoxSettings.PREF_KEY_LOCKSCREEN_CARRIER_TEXT.equals(key)) {
+                values.add(mResources.getString(R.string.carrier_text_default));
+                values.add(mResources.getString(R.string.carrier_text_empty));
+            }
+        } else {
+            // hw key actions show name of custom app picked for them
+            addAppName(values, getString(key + "_custom"));
+        }
+        return values;
+    }
+
+    private String getString(String key) {
+        mRuntimeKeys.add(key);
+        try {
+            return mPrefs.getString(key, null);
+        } catch (ClassCastException e) {
+            return null;
+        }
+    }
+
+    private static void addValue(List<String> values, String value) {
+        if (value != null && !value.isEmpty()) {
+            values.add(value);
+        }
+    }
+
+    private void addAppName(List<String> values, String value) {
+        if (value == null) return;
+        try {
+            final Intent intent = Intent.parseUri(value, 0);
+            final ComponentName cn = intent.getComponent();
+            if (intent.getIntExtra("mode", AppPickerPreference.MODE_APP) ==
+                    AppPickerPreference.MODE_APP && cn != null) {
+                final PackageManager pm = mContext.getPackageManager();
+                addValue(values, pm.getActivityInfo(cn, 0).loadLabel(pm).toString());
+            } else {
+                addValue(values, intent.getStringExtra("prefLabel"));
+            }
+        } catch (Exception ignored) { }
+    }
+
+    private void addRingtoneTitle(List<String> values, String value) {
+        if (value == null || value.isEmpty()) return;
+        final Ringtone r = RingtoneManager.getRingtone(mContext, Uri.parse(value));
+        if (r != null) {
+            addValue(values, r.getTitle(mContext));
+        }
+    }
+}
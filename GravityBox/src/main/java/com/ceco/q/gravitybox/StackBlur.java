@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2020 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.q.gravitybox;
+
+/**
+ * Pure Java implementation of stack blur (based on algorithm by Mario Klingemann)
+ * working on packed ARGB pixels. All four channels are blurred, same as
+ * RenderScript's U8_4 blur intrinsic does.
+ * Has no Android dependencies. Instance reuses its buffers and is not thread safe.
+ */
+public final class StackBlur {
+
+    private int[] mBuffer;
+    private int[] mStack;
+
+    /**
+     * Blurs pixels in place
+     * @param pixels - packed ARGB pixels, row by row
+     * @param width - width of the image
+     * @param height - height of the image
+     * @param radius - blur radius in pixels; nothing is done for radius < 1
+     */
+    public void blur(int[] pixels, int width, int height, int radius) {
+        if (radius < 1 || width < 1 || height < 1) return;
+        if (pixels.length < width * height)
+            throw new IllegalArgumentException("Pixel array too small");
+
+        final int size = width * height;
+        if (mBuffer == null || mBuffer.length < size) {
+            mBuffer = new int[size];
+        }
+        final int div = radius + radius + 1;
+        if (mStack == null || mStack.length < div) {
+            mStack = new int[div];
+        }
+
+        // horizontal pass into buffer, vertical pass back into pixels
+        for (int y = 0; y < height; y++) {
+            blurLine(pixels, mBuffer, y * width, 1, width, radius);
+        }
+        for (int x = 0; x < width; x++) {
+            blurLine(mBuffer, pixels, x, width, height, radius);
+        }
+    }
+
+    private void blurLine(int[] src, int[] dst, int offset, int stride, int len, int radius) {
+        final int[] stack = mStack;
+        final int div = radius + radius + 1;
+        final int divSum = (radius + 1) * (radius + 1);
+        final int last = len - 1;
+
+        int sumA = 0, sumR = 0, sumG = 0, sumB = 0;
+        int inA = 0, inR = 0, inG = 0, inB = 0;
+        int outA = 0, outR = 0, outG = 0, outB = 0;
+
+        for (int i = -radius; i <= radius; i++) {
+            final int p = src[offset + Math.min(last, Math.max(i, 0)) * stride];
+            stack[i + radius] = p;
+            final int weight = radius + 1 - Math.abs(i);
+            final int a = p >>> 24, r = (p >> 16) & 0xff, g = (p >> 8) & 0xff, b = p & 0xff;
+            sumA += a * weight;
+            sumR += r * weight;
+            sumG += g * weight;
+            sumB += b * weight;
+            if (i > 0) {
+                inA += a; inR += r; inG += g; inB += b;
+            } else {
+                outA += a; outR += r; outG += g; outB += b;
+            }
+        }
+
+        int sp = radius;
+        for (int x = 0; x < len; x++) {
+            dst[offset + x * stride] = ((sumA / divSum) << 24) | ((sumR / divSum) << 16) |
+                    ((sumG / divSum) << 8) | (sumB / divSum);
+
+            sumA -= outA; sumR -= outR; sumG -= outG; sumB -= outB;
+
+            // replace the oldest pixel in the window with the incoming one
+            final int oldest = (sp + radius + 1) % div;
+            int p = stack[oldest];
+            outA -= p >>> 24; outR -= (p >> 16) & 0xff; outG -= (p >> 8) & 0xff; outB -= p & 0xff;
+
+            p = src[offset + Math.min(x + radius + 1, last) * stride];
+            stack[oldest] = p;
+            inA += p >>> 24; inR += (p >> 16) & 0xff; inG += (p >> 8) & 0xff; inB += p & 0xff;
+
+            sumA += inA; sumR += inR; sumG += inG; sumB += inB;
+
+            // move window center
+            sp = (sp + 1) % div;
+            p = stack[sp];
+            outA += p >>> 24; outR += (p >> 16) & 0xff; outG += (p >> 8) & 0xff; outB += p & 0xff;
+            inA -= p >>> 24; inR -= (p >> 16) & 0xff; inG -= (p >> 8) & 0xff; inB -= p & 0xff;
+        }
+    }
+}
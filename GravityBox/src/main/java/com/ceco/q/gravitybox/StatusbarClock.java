@@ -14,9 +14,12 @@
  */
 package com.ceco.q.gravitybox;
 
+import java.text.DateFormatSymbols;
+import java.text.FieldPosition;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
@@ -62,16 +65,80 @@ public class StatusbarClock implements BroadcastMediator.Receiver {
     private float mDowSize;
     private float mAmPmSize;
     private boolean mShowSeconds;
-    private SimpleDateFormat mSecondsFormat;
     private Handler mSecondsHandler;
     private List<Unhook> mHooks = new ArrayList<>();
     private Map<ClockPosition, ClockPositionInfo> mPositions;
     private ClockPosition mCurrentPosition = ClockPosition.DEFAULT;
 
+    // compiled clock layout; rebuilt only when locale, time format or preferences change
+    private boolean mFormatDirty = true;
+    private boolean mIs24;
+    private boolean mAmPmFirst;
+    private String[] mAmPmStrings;
+    private final String[] mDowStrings = new String[Calendar.SATURDAY + 1];
+    private SimpleDateFormat mDateFormat;
+    private String mDateText;
+    private int mDateTextDay = -1;
+    private SimpleDateFormat mSecondsFormat;
+    private final StringBuffer mSecondsBuffer = new StringBuffer();
+    private final FieldPosition mSecondsField = new FieldPosition(SimpleDateFormat.SECOND_FIELD);
+    private int mSecondsTextMinute = -1;
+    private boolean mSecondsPatchable;
+    private RelativeSizeSpan mDowSpan;
+    private RelativeSizeSpan mAmPmSpan;
+    private final Calendar mCalendar = Calendar.getInstance();
+    private final Date mDate = new Date();
+    private final ClockText mSbClockText = new ClockText();
+    private final ClockText mOtherClockText = new ClockText();
+
     private static void log(String message) {
         XposedBridge.log(TAG + ": " + message);
     }
 
+    /**
+     * Reusable output buffers of a clock; spans are re-applied only when text or layout changes
+     */
+    private static class ClockText {
+        final StringBuilder builder = new StringBuilder(32);
+        final SpannableStringBuilder spannable = new SpannableStringBuilder();
+        Object dowSpan;
+        Object amPmSpan;
+        int prefixLength = -1;
+        int amPmStart = -1;
+        int amPmEnd = -1;
+
+        CharSequence publish(int prefixLength, int amPmStart, int amPmEnd,
+                Object dowSpan, Object amPmSpan) {
+            if (prefixLength != this.prefixLength || amPmStart != this.amPmStart ||
+                    amPmEnd != this.amPmEnd || dowSpan != this.dowSpan ||
+                    amPmSpan != this.amPmSpan || !isTextUnchanged()) {
+                spannable.clearSpans();
+                spannable.replace(0, spannable.length(), builder);
+                if (prefixLength > 0) {
+                    spannable.setSpan(dowSpan, 0, prefixLength, Spannable.SPAN_EXCLUSIVE_INCLUSIVE);
+                }
+                if (amPmStart > -1) {
+                    spannable.setSpan(amPmSpan, amPmStart, amPmEnd, Spannable.SPAN_EXCLUSIVE_INCLUSIVE);
+                }
+                this.prefixLength = prefixLength;
+                this.amPmStart = amPmStart;
+                this.amPmEnd = amPmEnd;
+                this.dowSpan = dowSpan;
+                this.amPmSpan = amPmSpan;
+            }
+            return spannable;
+        }
+
+        private boolean isTextUnchanged() {
+            final int len = builder.length();
+            if (len != spannable.length()) return false;
+            for (int i = 0; i < len; i++) {
+                if (builder.charAt(i) != spannable.charAt(i)) return false;
+            }
+            return true;
+        }
+    }
+
     private static class ClockPositionInfo {
         ViewGroup parent;
         int position;
@@ -236,7 +303,6 @@ public class StatusbarClock implements BroadcastMediator.Receiver {
     private void hookGetSmallTime() {
         try {
             mHooks.add(XposedHelpers.findAndHookMethod(mClock.getClass(), "getSmallTime", new XC_MethodHook() {
-                @SuppressLint("SimpleDateFormat")
                 @Override
                 protected void afterHookedMethod(MethodHookParam param) {
                     // is this a status bar Clock instance?
@@ -251,73 +317,62 @@ public class StatusbarClock implements BroadcastMediator.Receiver {
                         }
                         return;
                     }
-                    Calendar calendar = Calendar.getInstance(TimeZone.getDefault());
-                    boolean is24 = DateFormat.is24HourFormat(mClock.getContext());
-                    String clockText = param.getResult().toString();
-                    if (DEBUG) log("Original clockText: '" + clockText + "'");
+                    if (mFormatDirty) {
+                        compileFormat();
+                    }
+                    mCalendar.setTimeInMillis(System.currentTimeMillis());
+                    final ClockText out = isStatusbarClock ? mSbClockText : mOtherClockText;
+                    final StringBuilder sb = out.builder;
+                    sb.setLength(0);
+
+                    // apply day of week and date only to statusbar clock, not the notification panel clock
+                    if (mClockShowDow != GravityBoxSettings.DOW_DISABLED && isStatusbarClock) {
+                        sb.append(mDowStrings[mCalendar.get(Calendar.DAY_OF_WEEK)]);
+                    }
+                    if (mDateFormat != null && isStatusbarClock) {
+                        sb.append(getDateText());
+                    }
+                    final int prefixLength = sb.length();
+
                     // generate fresh base time text if seconds enabled
                     if (mShowSeconds && isStatusbarClock) {
-                        if (mSecondsFormat == null) {
-                            mSecondsFormat = new SimpleDateFormat(
-                                    DateFormat.getBestDateTimePattern(
-                                    Locale.getDefault(), is24 ? "Hms" : "hms"));
-                        }
-                        clockText = mSecondsFormat.format(calendar.getTime());
-                        if (DEBUG) log("New clock text with seconds: " + clockText);
+                        appendSecondsText(sb);
+                    } else {
+                        sb.append((CharSequence) param.getResult());
                     }
-                    String amPm = calendar.getDisplayName(
-                            Calendar.AM_PM, Calendar.SHORT, Locale.getDefault());
-                    if (DEBUG) log("Locale specific AM/PM string: '" + amPm + "'");
-                    int amPmIndex = clockText.indexOf(amPm);
-                    if (DEBUG) log("Original AM/PM index: " + amPmIndex);
+                    if (DEBUG) log("Base clockText: '" + sb + "'");
+
+                    final String amPm = mAmPmStrings[mCalendar.get(Calendar.AM_PM)];
+                    int amPmIndex = sb.indexOf(amPm, prefixLength);
+                    if (DEBUG) log("Locale specific AM/PM string: '" + amPm + "'; index: " + amPmIndex);
                     if (mAmPmHide && amPmIndex != -1) {
-                        clockText = clockText.replace(amPm, "").trim();
-                        if (DEBUG) log("AM/PM removed. New clockText: '" + clockText + "'");
+                        sb.delete(amPmIndex, amPmIndex + amPm.length());
+                        trim(sb, prefixLength);
                         amPmIndex = -1;
-                    } else if (!mAmPmHide && !is24 && amPmIndex == -1) {
+                    } else if (!mAmPmHide && !mIs24 && amPmIndex == -1) {
                         // insert AM/PM if missing
-                        if(Locale.getDefault().equals(Locale.TAIWAN) || Locale.getDefault().equals(Locale.CHINA)) {
-                            clockText = amPm + " " + clockText;
+                        if (mAmPmFirst) {
+                            sb.insert(prefixLength, ' ');
+                            sb.insert(prefixLength, amPm);
                         } else {
-                            clockText += " " + amPm;
+                            sb.append(' ').append(amPm);
                         }
-                        amPmIndex = clockText.indexOf(amPm);
-                        if (DEBUG) log("AM/PM added. New clockText: '" + clockText + "'; New AM/PM index: " + amPmIndex);
-                    }
-                    CharSequence date = "";
-                    // apply date to statusbar clock, not the notification panel clock
-                    if (!mClockShowDate.equals("disabled") && isStatusbarClock) {
-                        SimpleDateFormat df = (SimpleDateFormat) SimpleDateFormat.getDateInstance(SimpleDateFormat.SHORT);
-                        String pattern = mClockShowDate.equals("localized") ?
-                                df.toLocalizedPattern().replaceAll(".?[Yy].?", "") : mClockShowDate;
-                        date = new SimpleDateFormat(pattern, Locale.getDefault()).format(calendar.getTime()) + " ";
-                    }
-                    clockText = date + clockText;
-                    CharSequence dow = "";
-                    // apply day of week only to statusbar clock, not the notification panel clock
-                    if (mClockShowDow != GravityBoxSettings.DOW_DISABLED && isStatusbarClock) {
-                        dow = getFormattedDow(calendar.getDisplayName(
-                                Calendar.DAY_OF_WEEK, Calendar.SHORT, Locale.getDefault())) + " ";
+                        amPmIndex = sb.indexOf(amPm, prefixLength);
                     }
-                    clockText = dow + clockText;
-                    SpannableStringBuilder sb = new SpannableStringBuilder(clockText);
-                    sb.setSpan(new RelativeSizeSpan(mDowSize), 0, dow.length() + date.length(),
-                            Spannable.SPAN_EXCLUSIVE_INCLUSIVE);
+
+                    int amPmStart = -1;
+                    int amPmEnd = -1;
                     if (amPmIndex > -1) {
-                        if(Locale.getDefault().equals(Locale.TAIWAN) || Locale.getDefault().equals(Locale.CHINA)) {
-                            sb.setSpan(new RelativeSizeSpan(mAmPmSize), dow.length() + date.length() + amPmIndex,
-                                    dow.length() + date.length() + amPmIndex + amPm.length(),
-                                    Spannable.SPAN_EXCLUSIVE_INCLUSIVE);
-                        } else {
-                            int offset = Character.isWhitespace(clockText.charAt(dow.length() + date.length() + amPmIndex - 1)) ?
-                                    1 : 0;
-                            sb.setSpan(new RelativeSizeSpan(mAmPmSize), dow.length() + date.length() + amPmIndex - offset,
-                                    dow.length() + date.length() + amPmIndex + amPm.length(),
-                                    Spannable.SPAN_EXCLUSIVE_INCLUSIVE);
+                        amPmStart = amPmIndex;
+                        amPmEnd = amPmIndex + amPm.length();
+                        if (!mAmPmFirst && amPmIndex > 0 &&
+                                Character.isWhitespace(sb.charAt(amPmIndex - 1))) {
+                            amPmStart--;
                         }
                     }
-                    if (DEBUG) log("Final clockText: '" + sb + "'");
-                    param.setResult(sb);
+
+                    param.setResult(out.publish(prefixLength, amPmStart, amPmEnd, mDowSpan, mAmPmSpan));
+                    if (DEBUG) log("Final clockText: '" + out.spannable + "'");
                 }
             }));
         } catch (Throwable t) {
@@ -325,6 +380,87 @@ public class StatusbarClock implements BroadcastMediator.Receiver {
         }
     }
 
+    @SuppressLint("SimpleDateFormat")
+    private void compileFormat() {
+        final Locale locale = Locale.getDefault();
+        mIs24 = DateFormat.is24HourFormat(mClock.getContext());
+        mAmPmFirst = locale.equals(Locale.TAIWAN) || locale.equals(Locale.CHINA);
+        mCalendar.setTimeZone(TimeZone.getDefault());
+
+        DateFormatSymbols symbols = DateFormatSymbols.getInstance(locale);
+        mAmPmStrings = symbols.getAmPmStrings();
+        String[] weekdays = symbols.getShortWeekdays();
+        for (int day = Calendar.SUNDAY; day <= Calendar.SATURDAY; day++) {
+            mDowStrings[day] = getFormattedDow(weekdays[day]) + " ";
+        }
+
+        if (mClockShowDate.equals("disabled")) {
+            mDateFormat = null;
+        } else {
+            SimpleDateFormat df = (SimpleDateFormat) SimpleDateFormat.getDateInstance(SimpleDateFormat.SHORT);
+            String pattern = mClockShowDate.equals("localized") ?
+                    df.toLocalizedPattern().replaceAll(".?[Yy].?", "") : mClockShowDate;
+            mDateFormat = new SimpleDateFormat(pattern, locale);
+        }
+        mDateTextDay = -1;
+
+        mSecondsFormat = mShowSeconds ? new SimpleDateFormat(DateFormat.getBestDateTimePattern(
+                locale, mIs24 ? "Hms" : "hms"), locale) : null;
+        mSecondsTextMinute = -1;
+
+        mDowSpan = new RelativeSizeSpan(mDowSize);
+        mAmPmSpan = new RelativeSizeSpan(mAmPmSize);
+        mFormatDirty = false;
+        if (DEBUG) log("Clock format compiled for locale " + locale);
+    }
+
+    private String getDateText() {
+        final int day = mCalendar.get(Calendar.YEAR) * 400 + mCalendar.get(Calendar.DAY_OF_YEAR);
+        if (day != mDateTextDay) {
+            mDate.setTime(mCalendar.getTimeInMillis());
+            mDateText = mDateFormat.format(mDate) + " ";
+            mDateTextDay = day;
+        }
+        return mDateText;
+    }
+
+    private void appendSecondsText(StringBuilder sb) {
+        // format once per minute and only patch seconds digits in between
+        final int minute = mCalendar.get(Calendar.DAY_OF_YEAR) * 1440 +
+                mCalendar.get(Calendar.HOUR_OF_DAY) * 60 + mCalendar.get(Calendar.MINUTE);
+        if (minute != mSecondsTextMinute || !mSecondsPatchable) {
+            mDate.setTime(mCalendar.getTimeInMillis());
+            mSecondsBuffer.setLength(0);
+            mSecondsFormat.format(mDate, mSecondsBuffer, mSecondsField);
+            final int begin = mSecondsField.getBeginIndex();
+            mSecondsPatchable = (mSecondsField.getEndIndex() - begin == 2 &&
+                    isAsciiDigit(mSecondsBuffer.charAt(begin)) &&
+                    isAsciiDigit(mSecondsBuffer.charAt(begin + 1)));
+            mSecondsTextMinute = minute;
+        }
+        final int start = sb.length();
+        sb.append(mSecondsBuffer);
+        if (mSecondsPatchable) {
+            final int second = mCalendar.get(Calendar.SECOND);
+            final int pos = start + mSecondsField.getBeginIndex();
+            sb.setCharAt(pos, (char) ('0' + second / 10));
+            sb.setCharAt(pos + 1, (char) ('0' + second % 10));
+        }
+    }
+
+    private static boolean isAsciiDigit(char c) {
+        return (c >= '0' && c <= '9');
+    }
+
+    private static void trim(StringBuilder sb, int start) {
+        int end = sb.length();
+        while (end > start && sb.charAt(end - 1) <= ' ') end--;
+        sb.setLength(end);
+        int i = start;
+        while (i < end && sb.charAt(i) <= ' ') i++;
+        sb.delete(start, i);
+    }
+
     private String getFormattedDow(String inDow) {
         switch (mClockShowDow) {
             case GravityBoxSettings.DOW_LOWERCASE: 
@@ -368,6 +504,7 @@ public class StatusbarClock implements BroadcastMediator.Receiver {
             if (intent.hasExtra(GravityBoxSettings.EXTRA_CLOCK_DOW)) {
                 mClockShowDow = intent.getIntExtra(GravityBoxSettings.EXTRA_CLOCK_DOW,
                         GravityBoxSettings.DOW_DISABLED);
+                mFormatDirty = true;
                 updateClock();
             }
             if (intent.hasExtra(GravityBoxSettings.EXTRA_AMPM_HIDE)) {
@@ -381,18 +518,22 @@ public class StatusbarClock implements BroadcastMediator.Receiver {
             }
             if (intent.hasExtra(GravityBoxSettings.EXTRA_CLOCK_DOW_SIZE)) {
                 mDowSize = intent.getIntExtra(GravityBoxSettings.EXTRA_CLOCK_DOW_SIZE, 70) / 100f;
+                mFormatDirty = true;
                 updateClock();
             }
             if (intent.hasExtra(GravityBoxSettings.EXTRA_AMPM_SIZE)) {
                 mAmPmSize = intent.getIntExtra(GravityBoxSettings.EXTRA_AMPM_SIZE, 70) / 100f;
+                mFormatDirty = true;
                 updateClock();
             }
             if (intent.hasExtra(GravityBoxSettings.EXTRA_CLOCK_DATE)) {
                 mClockShowDate = intent.getStringExtra(GravityBoxSettings.EXTRA_CLOCK_DATE);
+                mFormatDirty = true;
                 updateClock();
             }
             if (intent.hasExtra(GravityBoxSettings.EXTRA_CLOCK_SHOW_SECONDS)) {
                 mShowSeconds = intent.getBooleanExtra(GravityBoxSettings.EXTRA_CLOCK_SHOW_SECONDS, false);
+                mFormatDirty = true;
                 updateSecondsHandler();
             }
         }
@@ -410,7 +551,7 @@ public class StatusbarClock implements BroadcastMediator.Receiver {
         if (intent.getAction().equals(Intent.ACTION_CONFIGURATION_CHANGED) ||
             intent.getAction().equals(Intent.ACTION_TIME_CHANGED) ||
             intent.getAction().equals(Intent.ACTION_TIMEZONE_CHANGED)) {
-            mSecondsFormat = null;
+            mFormatDirty = true;
         }
     }
 }
@@ -28,8 +28,54 @@ import de.robv.android.xposed.XSharedPreferences;
 class SystemWideResources {
     private static ResourceProxy sResourceProxy;
 
+    // values read by resource interceptors which are called on every lookup of the resources
+    static final class Values {
+        final boolean tunerEnabled;
+        final boolean allowAllRotations;
+        final int translucentDecor;
+        final boolean navbarOverride;
+        final Boolean navbarEnable;
+        final Boolean unplugTurnsOnScreen;
+        final Utils.TriState safeMediaVolume;
+        final int pulseNotificationDelay;
+        final int navbarHeight;
+        final int navbarHeightLandscape;
+        final int navbarWidth;
+        final boolean cornerPaddingRemove;
+
+        Values(XSharedPreferences prefs, XSharedPreferences tunerPrefs) {
+            tunerEnabled = tunerPrefs.getBoolean(TunerMainActivity.PREF_KEY_ENABLED, false) &&
+                    !tunerPrefs.getBoolean(TunerMainActivity.PREF_KEY_LOCKED, false);
+            allowAllRotations = prefs.getBoolean(GravityBoxSettings.PREF_KEY_DISPLAY_ALLOW_ALL_ROTATIONS, false);
+            translucentDecor = Integer.valueOf(prefs.getString(GravityBoxSettings.PREF_KEY_TRANSLUCENT_DECOR, "0"));
+            navbarOverride = prefs.getBoolean(GravityBoxSettings.PREF_KEY_NAVBAR_OVERRIDE, false);
+            navbarEnable = prefs.contains(GravityBoxSettings.PREF_KEY_NAVBAR_ENABLE) ?
+                    prefs.getBoolean(GravityBoxSettings.PREF_KEY_NAVBAR_ENABLE, false) : null;
+            unplugTurnsOnScreen = prefs.contains(GravityBoxSettings.PREF_KEY_UNPLUG_TURNS_ON_SCREEN) ?
+                    prefs.getBoolean(GravityBoxSettings.PREF_KEY_UNPLUG_TURNS_ON_SCREEN, false) : null;
+            safeMediaVolume = Utils.TriState.valueOf(prefs.getString(
+                    GravityBoxSettings.PREF_KEY_SAFE_MEDIA_VOLUME, "DEFAULT"));
+            pulseNotificationDelay = prefs.getInt(GravityBoxSettings.PREF_KEY_PULSE_NOTIFICATION_DELAY, -1);
+            navbarHeight = prefs.getInt(GravityBoxSettings.PREF_KEY_NAVBAR_HEIGHT, 100);
+            navbarHeightLandscape = prefs.getInt(GravityBoxSettings.PREF_KEY_NAVBAR_HEIGHT_LANDSCAPE, 100);
+            navbarWidth = prefs.getInt(GravityBoxSettings.PREF_KEY_NAVBAR_WIDTH, 100);
+            cornerPaddingRemove = prefs.getBoolean(GravityBoxSettings.PREF_KEY_CORNER_PADDING_REMOVE, false);
+        }
+    }
+
+    static PrefsSnapshot<Values> createValues(final XSharedPreferences prefs,
+                                              final XSharedPreferences tunerPrefs) {
+        return new PrefsSnapshot<Values>(prefs, tunerPrefs) {
+            @Override
+            protected Values build() {
+                return new Values(prefs, tunerPrefs);
+            }
+        };
+    }
+
     static void initResources(final XSharedPreferences prefs, final XSharedPreferences tunerPrefs) {
         sResourceProxy = new ResourceProxy();
+        final PrefsSnapshot<Values> values = createValues(prefs, tunerPrefs);
         List<String> resourceNames;
 
         // Framework resources
@@ -71,9 +117,9 @@ class SystemWideResources {
         sResourceProxy.addInterceptor(new ResourceProxy.Interceptor("android", resourceNames) {
             @Override
             public boolean onIntercept(ResourceProxy.ResourceSpec resourceSpec) {
+                final Values v = values.get();
                 // Advanced tuning has priority
-                if (tunerPrefs.getBoolean(TunerMainActivity.PREF_KEY_ENABLED, false) &&
-                        !tunerPrefs.getBoolean(TunerMainActivity.PREF_KEY_LOCKED, false)) {
+                if (v.tunerEnabled) {
                     if (SysUiTunerManager.onIntercept(resourceSpec)) {
                         return true;
                     }
@@ -81,47 +127,44 @@ class SystemWideResources {
 
                 switch (resourceSpec.name) {
                     case "config_allowAllRotations":
-                        if (prefs.getBoolean(GravityBoxSettings.PREF_KEY_DISPLAY_ALLOW_ALL_ROTATIONS, false)) {
+                        if (v.allowAllRotations) {
                             resourceSpec.value = true;
                             return  true;
                         }
                         break;
                     case "config_enableTranslucentDecor":
-                        int translucentDecor = Integer.valueOf(prefs.getString(GravityBoxSettings.PREF_KEY_TRANSLUCENT_DECOR, "0"));
-                        if (translucentDecor != 0) {
-                            resourceSpec.value = (translucentDecor == 1);
+                        if (v.translucentDecor != 0) {
+                            resourceSpec.value = (v.translucentDecor == 1);
                             return true;
                         }
                         break;
                     case "config_showNavigationBar":
-                        if (prefs.getBoolean(GravityBoxSettings.PREF_KEY_NAVBAR_OVERRIDE, false)) {
-                            resourceSpec.value = prefs.getBoolean(GravityBoxSettings.PREF_KEY_NAVBAR_ENABLE,
-                                    (boolean)resourceSpec.value);
+                        if (v.navbarOverride) {
+                            if (v.navbarEnable != null) {
+                                resourceSpec.value = v.navbarEnable;
+                            }
                             return true;
                         }
                         break;
                     case "config_unplugTurnsOnScreen":
                         if (!Utils.isSamsungRom()) {
-                            resourceSpec.value = prefs.getBoolean(GravityBoxSettings.PREF_KEY_UNPLUG_TURNS_ON_SCREEN,
-                                    (boolean)resourceSpec.value);
+                            if (v.unplugTurnsOnScreen != null) {
+                                resourceSpec.value = v.unplugTurnsOnScreen;
+                            }
                             return true;
                         }
                         break;
                     case "config_safe_media_volume_enabled":
                         if (!Utils.isSamsungRom()) {
-                            Utils.TriState triState = Utils.TriState.valueOf(prefs.getString(
-                                    GravityBoxSettings.PREF_KEY_SAFE_MEDIA_VOLUME, "DEFAULT"));
-                            if (triState != Utils.TriState.DEFAULT) {
-                                resourceSpec.value = (triState == Utils.TriState.ENABLED);
+                            if (v.safeMediaVolume != Utils.TriState.DEFAULT) {
+                                resourceSpec.value = (v.safeMediaVolume == Utils.TriState.ENABLED);
                                 return true;
                             }
                         }
                         break;
                     case "config_defaultNotificationLedOff":
-                        int pulseNotificationDelay = prefs.getInt(
-                                GravityBoxSettings.PREF_KEY_PULSE_NOTIFICATION_DELAY, -1);
-                        if (pulseNotificationDelay != -1) {
-                            resourceSpec.value = pulseNotificationDelay;
+                        if (v.pulseNotificationDelay != -1) {
+                            resourceSpec.value = v.pulseNotificationDelay;
                             return true;
                         }
                         break;
@@ -130,17 +173,14 @@ class SystemWideResources {
                         return true;
                     case "navigation_bar_height":
                     case "navigation_bar_frame_height":
-                        resourceSpec.value = (int)((int)resourceSpec.value *
-                                prefs.getInt(GravityBoxSettings.PREF_KEY_NAVBAR_HEIGHT, 100) / 100f);
+                        resourceSpec.value = (int)((int)resourceSpec.value * v.navbarHeight / 100f);
                         return true;
                     case "navigation_bar_height_landscape":
                     case "navigation_bar_frame_height_landscape":
-                        resourceSpec.value = (int)((int)resourceSpec.value *
-                                prefs.getInt(GravityBoxSettings.PREF_KEY_NAVBAR_HEIGHT_LANDSCAPE, 100) / 100f);
+                        resourceSpec.value = (int)((int)resourceSpec.value * v.navbarHeightLandscape / 100f);
                         return true;
                     case "navigation_bar_width":
-                        resourceSpec.value = (int)((int)resourceSpec.value *
-                                prefs.getInt(GravityBoxSettings.PREF_KEY_NAVBAR_WIDTH, 100) / 100f);
+                        resourceSpec.value = (int)((int)resourceSpec.value * v.navbarWidth / 100f);
                         return true;
                 }
                 return false;
@@ -164,9 +204,9 @@ class SystemWideResources {
                         ResourceProxy.getFakeResId("ic_navbar_menu")))) {
             @Override
             public boolean onIntercept(ResourceProxy.ResourceSpec resourceSpec) {
+                final Values v = values.get();
                 // Advanced tuning has priority
-                if (tunerPrefs.getBoolean(TunerMainActivity.PREF_KEY_ENABLED, false) &&
-                        !tunerPrefs.getBoolean(TunerMainActivity.PREF_KEY_LOCKED, false)) {
+                if (v.tunerEnabled) {
                     if (SysUiTunerManager.onIntercept(resourceSpec)) {
                         return true;
                     }
@@ -174,7 +214,7 @@ class SystemWideResources {
 
                 switch (resourceSpec.name) {
                     case "rounded_corner_content_padding":
-                        if (prefs.getBoolean(GravityBoxSettings.PREF_KEY_CORNER_PADDING_REMOVE, false)) {
+                        if (v.cornerPaddingRemove) {
                             resourceSpec.value = 0;
                             return true;
                         }
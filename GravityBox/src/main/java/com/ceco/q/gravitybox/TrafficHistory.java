@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2020 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.q.gravitybox;
+
+/**
+ * Fixed size ring buffer of recent receive and transmit rates.
+ * Rates are exponentially smoothed on insertion so that short spikes
+ * do not dominate the trend. Storage is allocated once.
+ */
+class TrafficHistory {
+    static final int CHANNEL_RX = 1;
+    static final int CHANNEL_TX = 2;
+
+    private final long[] mRx;
+    private final long[] mTx;
+    // weight of the newest sample in percent
+    private final int mSmoothing;
+    private int mHead;
+    private int mSize;
+
+    /**
+     * @param capacity - number of samples kept
+     * @param smoothing - weight of the newest sample in percent; 100 disables smoothing
+     */
+    TrafficHistory(int capacity, int smoothing) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("Capacity must be at least 2");
+        }
+        if (smoothing < 1 || smoothing > 100) {
+            throw new IllegalArgumentException("Smoothing must be within 1 and 100");
+        }
+        mRx = new long[capacity];
+        mTx = new long[capacity];
+        mSmoothing = smoothing;
+    }
+
+    int capacity() {
+        return mRx.length;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    void clear() {
+        mHead = 0;
+        mSize = 0;
+    }
+
+    /**
+     * Adds rates in bytes per second replacing the oldest sample when full
+     */
+    void add(long rxRate, long txRate) {
+        if (mSize > 0) {
+            final int last = index(mSize - 1);
+            rxRate = smooth(mRx[last], rxRate);
+            txRate = smooth(mTx[last], txRate);
+        }
+        final int pos;
+        if (mSize < mRx.length) {
+            pos = index(mSize++);
+        } else {
+            pos = mHead;
+            mHead = (mHead + 1) % mRx.length;
+        }
+        mRx[pos] = rxRate;
+        mTx[pos] = txRate;
+    }
+
+    private long smooth(long previous, long current) {
+        final long diff = current - previous;
+        long step = Math.floorDiv(diff * mSmoothing + 50, 100);
+        // rounded step vanishes close to the target; keep moving so the trend
+        // settles exactly on current rate, e.g. on zero once traffic stops
+        if (step == 0) {
+            step = Long.signum(diff);
+        }
+        return previous + step;
+    }
+
+    private int index(int i) {
+        return (mHead + i) % mRx.length;
+    }
+
+    /**
+     * @param i - sample index from 0 (oldest) to size() - 1 (newest)
+     * @param channels - combination of CHANNEL_* flags to sum
+     */
+    long get(int i, int channels) {
+        if (i < 0 || i >= mSize) {
+            throw new IndexOutOfBoundsException("Index " + i + " out of " + mSize);
+        }
+        final int pos = index(i);
+        long value = 0;
+        if ((channels & CHANNEL_RX) != 0) value += mRx[pos];
+        if ((channels & CHANNEL_TX) != 0) value += mTx[pos];
+        return value;
+    }
+
+    /**
+     * @return highest value of given channels among kept samples
+     */
+    long max(int channels) {
+        long max = 0;
+        for (int i = 0; i < mSize; i++) {
+            max = Math.max(max, get(i, channels));
+        }
+        return max;
+    }
+}
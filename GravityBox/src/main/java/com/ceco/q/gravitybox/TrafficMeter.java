@@ -19,13 +19,11 @@ package com.ceco.q.gravitybox;
 
 import android.content.Context;
 import android.content.Intent;
-import android.os.Handler;
 import android.os.SystemClock;
 import android.util.TypedValue;
 import android.view.View;
 
-import java.text.DecimalFormat;
-import java.text.NumberFormat;
+import com.ceco.q.gravitybox.managers.SysUiTrafficSampler;
 
 import de.robv.android.xposed.XSharedPreferences;
 
@@ -34,6 +32,10 @@ public class TrafficMeter extends TrafficMeterAbstract {
     public static final int INACTIVITY_MODE_HIDDEN = 1;
     public static final int INACTIVITY_MODE_SUMMARY = 2;
 
+    private static final int UNIT_B = 0;
+    private static final int UNIT_KB = 1;
+    private static final int UNIT_MB = 2;
+
     boolean mTrafficMeterHide;
     int mTrafficMeterSummaryTime;
     long mTotalRxBytes;
@@ -41,13 +43,9 @@ public class TrafficMeter extends TrafficMeterAbstract {
     long mTrafficBurstStartTime;
     long mTrafficBurstStartBytes;
     long mKeepOnUntil = Long.MIN_VALUE;
-    String mB = "B";
-    String mKB = "KB";
-    String mMB = "MB";
-    String mS = "s";
-
-    NumberFormat mDecimalFormat = new DecimalFormat("##0.0");
-    NumberFormat mIntegerFormat = NumberFormat.getIntegerInstance();
+    // units indexed by UNIT_* constants
+    String[] mSpeedUnits = { "B/s", "KB/s", "MB/s" };
+    String[] mSummaryUnits = { "B)", "KB)", "MB)" };
 
     public TrafficMeter(Context context) {
         super(context);
@@ -56,10 +54,15 @@ public class TrafficMeter extends TrafficMeterAbstract {
     @Override
     protected void onInitialize(XSharedPreferences prefs) throws Throwable {
         Context gbContext = Utils.getGbContext(getContext());
-        mB = gbContext.getString(R.string.byte_abbr);
-        mKB = gbContext.getString(R.string.kilobyte_abbr);
-        mMB = gbContext.getString(R.string.megabyte_abbr);
-        mS = gbContext.getString(R.string.second_abbr);
+        final String[] units = new String[] {
+                gbContext.getString(R.string.byte_abbr),
+                gbContext.getString(R.string.kilobyte_abbr),
+                gbContext.getString(R.string.megabyte_abbr) };
+        final String s = gbContext.getString(R.string.second_abbr);
+        for (int i = 0; i < units.length; i++) {
+            mSpeedUnits[i] = units[i] + "/" + s;
+            mSummaryUnits[i] = units[i] + ")";
+        }
 
         try {
             int inactivityMode = Integer.valueOf(prefs.getString(
@@ -85,110 +88,107 @@ public class TrafficMeter extends TrafficMeterAbstract {
 
     @Override
     protected void startTrafficUpdates() {
-        mTotalRxBytes = getTotalRxTxBytes()[0];
-        mLastUpdateTime = SystemClock.elapsedRealtime();
-        mTrafficBurstStartTime = Long.MIN_VALUE;
+        final SysUiTrafficSampler sampler = getTrafficSampler();
+        if (sampler == null) return;
 
-        getHandler().removeCallbacks(mRunnable);
-        getHandler().post(mRunnable);
+        sampler.registerListener(this);
+        mTotalRxBytes = sampler.getRxBytes();
+        mLastUpdateTime = sampler.getTimestamp();
+        mTrafficBurstStartTime = Long.MIN_VALUE;
     }
 
     @Override
     protected void stopTrafficUpdates() {
-        final Handler h = getHandler();
-        if (h != null && mRunnable != null) {
-            h.removeCallbacks(mRunnable);
+        final SysUiTrafficSampler sampler = getTrafficSampler();
+        if (sampler != null) {
+            sampler.unregisterListener(this);
         }
     }
 
-    private String formatTraffic(long bytes, boolean speed) {
+    private void formatTraffic(TrafficTextBuilder text, long bytes, boolean speed) {
+        final int unit;
+        if (!speed) {
+            text.append('(');
+        }
         if (bytes > 10485760) { // 1024 * 1024 * 10
-            return (speed ? "" : "(")
-                    + mIntegerFormat.format(bytes / 1048576)
-                    + (speed ? mMB + "/" + mS : mMB + ")");
+            text.appendInteger(bytes / 1048576, true);
+            unit = UNIT_MB;
         } else if (bytes > 1048576) { // 1024 * 1024
-            return (speed ? "" : "(")
-                    + mDecimalFormat.format(((float) bytes) / 1048576f)
-                    + (speed ? mMB + "/" + mS : mMB + ")");
+            text.appendDecimal(bytes, 1048576, true);
+            unit = UNIT_MB;
         } else if (bytes > 10240) { // 1024 * 10
-            return (speed ? "" : "(")
-                    + mIntegerFormat.format(bytes / 1024)
-                    + (speed ? mKB + "/" + mS : mKB + ")");
+            text.appendInteger(bytes / 1024, true);
+            unit = UNIT_KB;
         } else if (bytes > 1024) { // 1024
-            return (speed ? "" : "(")
-                    + mDecimalFormat.format(((float) bytes) / 1024f)
-                    + (speed ? mKB + "/" + mS : mKB + ")");
+            text.appendDecimal(bytes, 1024, true);
+            unit = UNIT_KB;
         } else {
-            return (speed ? "" : "(")
-                    + mIntegerFormat.format(bytes)
-                    + (speed ? mB + "/" + mS : mB + ")");
+            text.appendInteger(bytes, true);
+            unit = UNIT_B;
         }
+        text.append(speed ? mSpeedUnits[unit] : mSummaryUnits[unit]);
     }
 
-    Runnable mRunnable = new Runnable() {
-        @Override
-        public void run() {
-            long td = SystemClock.elapsedRealtime() - mLastUpdateTime;
+    @Override
+    public void onTrafficSample(long timestamp, long rxBytes, long txBytes, long rxRate, long txRate) {
+        long td = timestamp - mLastUpdateTime;
 
-            if (!mAttached) {
-                return;
-            }
+        if (!mAttached) {
+            return;
+        }
 
-            long currentRxBytes = getTotalRxTxBytes()[0];
-            long newBytes = currentRxBytes - mTotalRxBytes;
+        if (td > 0) {
+            addHistorySample(rxRate, txRate);
+        }
 
-            boolean disconnected = false;
-            if (newBytes < 0) {
-                // It's impossible to get a speed under 0
-                currentRxBytes = 0;
-                newBytes = 0;
-                disconnected = true;
+        // rate is zeroed by sampler when counted interfaces change so it never spikes or drops;
+        // totals are used only to sum up bytes of a traffic burst
+        if (mTrafficMeterHide && rxRate == 0) {
+            long trafficBurstBytes = Math.max(0, rxBytes - mTrafficBurstStartBytes);
+
+            if (trafficBurstBytes != 0 && mTrafficMeterSummaryTime != 0) {
+                formatTraffic(beginText(), trafficBurstBytes, false);
+                commitText(false);
+
+                if (DEBUG) log("Traffic burst ended: " + trafficBurstBytes + "B in "
+                                + (SystemClock.elapsedRealtime() - mTrafficBurstStartTime)
+                                / 1000 + "s");
+                mKeepOnUntil = SystemClock.elapsedRealtime() + mTrafficMeterSummaryTime;
+                mTrafficBurstStartTime = Long.MIN_VALUE;
+                mTrafficBurstStartBytes = rxBytes;
             }
-
-            if (mTrafficMeterHide && newBytes == 0) {
-                long trafficBurstBytes = (disconnected) ?
-                        mTotalRxBytes - mTrafficBurstStartBytes : 
-                            currentRxBytes - mTrafficBurstStartBytes;
-
-                if (trafficBurstBytes != 0 && mTrafficMeterSummaryTime != 0) {
-                    setText(formatTraffic(trafficBurstBytes, false));
-
-                    if (DEBUG) log("Traffic burst ended: " + trafficBurstBytes + "B in "
-                                    + (SystemClock.elapsedRealtime() - mTrafficBurstStartTime)
-                                    / 1000 + "s");
-                    mKeepOnUntil = SystemClock.elapsedRealtime() + mTrafficMeterSummaryTime;
-                    mTrafficBurstStartTime = Long.MIN_VALUE;
-                    mTrafficBurstStartBytes = currentRxBytes;
-                }
-            } else {
-                if (mTrafficMeterHide && mTrafficBurstStartTime == Long.MIN_VALUE) {
-                    mTrafficBurstStartTime = mLastUpdateTime;
-                    mTrafficBurstStartBytes = mTotalRxBytes;
-                }
-                if (td > 0) {
-                    setText(formatTraffic(newBytes * 1000 / td, true));
-                }
+        } else {
+            if (mTrafficMeterHide && mTrafficBurstStartTime == Long.MIN_VALUE) {
+                mTrafficBurstStartTime = mLastUpdateTime;
+                mTrafficBurstStartBytes = mTotalRxBytes;
             }
-
-            // Hide if there is no traffic
-            if (mTrafficMeterHide && newBytes == 0) {
-                if (getVisibility() != GONE
-                        && mKeepOnUntil < SystemClock.elapsedRealtime()) {
-                    setText("");
-                    setVisibility(View.GONE);
-                }
-            } else {
-                if (getVisibility() != VISIBLE) {
-                    setVisibility(View.VISIBLE);
-                }
+            if (td > 0) {
+                formatTraffic(beginText(), rxRate, true);
+                commitText(false);
             }
+        }
 
-            mTotalRxBytes = (disconnected) ?
-                    mTotalRxBytes : currentRxBytes;
-            mLastUpdateTime = SystemClock.elapsedRealtime();
-            getHandler().postDelayed(mRunnable, mInterval);
+        // Hide if there is no traffic
+        if (mTrafficMeterHide && rxRate == 0) {
+            if (getVisibility() != GONE
+                    && mKeepOnUntil < SystemClock.elapsedRealtime()) {
+                clearText();
+                setVisibility(View.GONE);
+            }
+        } else {
+            if (getVisibility() != VISIBLE) {
+                setVisibility(View.VISIBLE);
+            }
         }
-    };
+
+        mTotalRxBytes = rxBytes;
+        mLastUpdateTime = timestamp;
+    }
+
+    @Override
+    protected int getSparklineChannels() {
+        return TrafficHistory.CHANNEL_RX;
+    }
 
     private void setInactivityMode(int mode) {
         switch (mode) {
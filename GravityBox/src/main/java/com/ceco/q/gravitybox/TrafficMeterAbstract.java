@@ -15,25 +15,24 @@
  */
 package com.ceco.q.gravitybox;
 
-import java.lang.reflect.Method;
-
 import com.ceco.q.gravitybox.ProgressBarController.Mode;
 import com.ceco.q.gravitybox.ProgressBarController.ProgressInfo;
 import com.ceco.q.gravitybox.managers.BroadcastMediator;
+import com.ceco.q.gravitybox.managers.SysUiManagers;
 import com.ceco.q.gravitybox.managers.SysUiStatusBarIconManager;
 import com.ceco.q.gravitybox.managers.SysUiStatusBarIconManager.ColorInfo;
 import com.ceco.q.gravitybox.managers.SysUiStatusBarIconManager.IconManagerListener;
+import com.ceco.q.gravitybox.managers.SysUiTrafficSampler;
 
 import android.annotation.SuppressLint;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
 import android.net.ConnectivityManager;
-import android.net.LinkProperties;
-import android.net.Network;
-import android.net.NetworkCapabilities;
-import android.net.TrafficStats;
 import android.telephony.PhoneStateListener;
 import android.telephony.TelephonyManager;
 import android.util.TypedValue;
@@ -48,18 +47,22 @@ import de.robv.android.xposed.XposedBridge;
 @SuppressLint("AppCompatCustomView")
 public abstract class TrafficMeterAbstract extends TextView
                         implements BroadcastMediator.Receiver, IconManagerListener,
-                                   ProgressBarController.ProgressStateListener {
+                                   ProgressBarController.ProgressStateListener,
+                                   SysUiTrafficSampler.Listener {
     protected static final String PACKAGE_NAME = "com.android.systemui";
     protected static final String TAG = "GB:NetworkTraffic";
     protected static final boolean DEBUG = false;
 
+    private static final int HISTORY_SIZE = 30;
+    private static final int HISTORY_SMOOTHING = 50;
+    private static final int SPARKLINE_ALPHA = 0x80;
+
     public enum TrafficMeterMode { OFF, SIMPLE, OMNI }
 
     public enum DisplayMode { ALWAYS, DOWNLOAD_MANAGER, PROGRESS_TRACKING }
 
     protected Context mGbContext;
     protected boolean mAttached;
-    protected int mInterval = 1000;
     protected int mPosition;
     protected int mSize;
     protected int mMarginStartRight;
@@ -74,9 +77,14 @@ public abstract class TrafficMeterAbstract extends TextView
     protected boolean mAllowInLockscreen;
     private boolean mHiddenByPolicy;
     private boolean mHiddenByHeadsUp;
-    private Method mGetRxBytesMethod;
-    private Method mGetTxBytesMethod;
-    private final ConnectivityManager mConManager;
+    // text is formatted into back buffer while front buffer is displayed
+    private TrafficTextBuilder mFrontText = new TrafficTextBuilder();
+    private TrafficTextBuilder mBackText = new TrafficTextBuilder();
+    private boolean mShowSparkline;
+    private final TrafficHistory mHistory = new TrafficHistory(HISTORY_SIZE, HISTORY_SMOOTHING);
+    // rebuilt when sample is added or size changes so drawing does not allocate
+    private final Path mSparklinePath = new Path();
+    private final Paint mSparklinePaint;
 
     protected static void log(String message) {
         XposedBridge.log(TAG + ": " + message);
@@ -95,8 +103,6 @@ public abstract class TrafficMeterAbstract extends TextView
     protected TrafficMeterAbstract(Context context) {
         super(context);
 
-        mConManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
-
         LinearLayout.LayoutParams lParams = new LinearLayout.LayoutParams(
                 LayoutParams.WRAP_CONTENT, LayoutParams.MATCH_PARENT);
         mMarginStartRight = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 6,
@@ -106,6 +112,12 @@ public abstract class TrafficMeterAbstract extends TextView
                 "TextAppearance.StatusBar.Clock", "style", PACKAGE_NAME));
         setGravity(Gravity.END | Gravity.CENTER_VERTICAL);
 
+        mSparklinePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        mSparklinePaint.setStyle(Paint.Style.STROKE);
+        mSparklinePaint.setStrokeJoin(Paint.Join.ROUND);
+        mSparklinePaint.setStrokeWidth(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 1,
+                context.getResources().getDisplayMetrics()));
+
         if (!Utils.isWifiOnly(getContext())) {
             mPhone = (TelephonyManager) getContext().getSystemService(Context.TELEPHONY_SERVICE);
             mPhoneStateListener = new PhoneStateListener() {
@@ -150,6 +162,9 @@ public abstract class TrafficMeterAbstract extends TextView
         mAllowInLockscreen = prefs.getBoolean(
                 GravityBoxSettings.PREF_KEY_DATA_TRAFFIC_LOCKSCREEN, true);
 
+        mShowSparkline = prefs.getBoolean(
+                GravityBoxSettings.PREF_KEY_DATA_TRAFFIC_SPARKLINE, false);
+
         onInitialize(prefs);
     }
 
@@ -256,6 +271,11 @@ public abstract class TrafficMeterAbstract extends TextView
                 mAllowInLockscreen = intent.getBooleanExtra(
                         GravityBoxSettings.EXTRA_DT_LOCKSCREEN, false);
             }
+            if (intent.hasExtra(GravityBoxSettings.EXTRA_DT_SPARKLINE)) {
+                mShowSparkline = intent.getBooleanExtra(
+                        GravityBoxSettings.EXTRA_DT_SPARKLINE, false);
+                clearHistory();
+            }
 
             onPreferenceChanged(intent);
             updateState();
@@ -301,7 +321,8 @@ public abstract class TrafficMeterAbstract extends TextView
         } else {
             stopTrafficUpdates();
             setVisibility(View.GONE);
-            setText("");
+            clearText();
+            clearHistory();
             if (DEBUG) log("traffic updates stopped");
         }
     }
@@ -337,82 +358,107 @@ public abstract class TrafficMeterAbstract extends TextView
     @Override
     public void onProgressPreferencesChanged(Intent intent) { }
 
-    protected abstract void onInitialize(XSharedPreferences prefs) throws Throwable;
-    protected abstract void onPreferenceChanged(Intent intent);
-    protected abstract void startTrafficUpdates();
-    protected abstract void stopTrafficUpdates();
+    /**
+     * Returns cleared buffer to format new text into
+     */
+    protected TrafficTextBuilder beginText() {
+        return mBackText.clear();
+    }
 
-    @SuppressLint("DiscouragedPrivateApi")
-    protected boolean canUsePrimaryMethod() {
-        if (mGetRxBytesMethod == null) {
-            try {
-                mGetRxBytesMethod = TrafficStats.class.getDeclaredMethod("getRxBytes", String.class);
-                mGetRxBytesMethod.setAccessible(true);
-            } catch (Throwable t) {
-                if (DEBUG) log("canUsePrimaryMethod: error resolving getRxBytes method: " + t.getMessage());
-            }
-        }
-        if (mGetTxBytesMethod == null) {
-            try {
-                mGetTxBytesMethod = TrafficStats.class.getDeclaredMethod("getTxBytes", String.class);
-                mGetTxBytesMethod.setAccessible(true);
-            } catch (Throwable t) {
-                if (DEBUG) log("canUsePrimaryMethod: error resolving getTxBytes method: " + t.getMessage());
-            }
+    /**
+     * Displays text formatted into buffer returned by {@link #beginText()}
+     * @param force - whether to set the text even if it is the same as currently displayed
+     * @return true if text was set
+     */
+    protected boolean commitText(boolean force) {
+        if (!force && mBackText.contentEquals(mFrontText)) {
+            return false;
         }
-        return (mGetRxBytesMethod != null && mGetTxBytesMethod != null);
+        final TrafficTextBuilder text = mBackText;
+        mBackText = mFrontText;
+        mFrontText = text;
+        // TextView keeps referencing the char array so only back buffer may be modified
+        setText(text.getChars(), 0, text.length());
+        return true;
     }
 
-    protected long[] getTotalRxTxBytes() {
-        return (canUsePrimaryMethod() ? getTotalRxTxBytesPrimary() :
-                getTotalRxTxBytesSecondary());
+    protected void clearText() {
+        mFrontText.clear();
+        setText("");
     }
 
-    private static boolean isCountedInterface(String iface) {
-        return (iface != null &&
-                !iface.equals("ifname") &&
-                !iface.equals("lo") &&
-                !iface.startsWith("tun"));
+    /**
+     * Records rates of a new sample to be shown by sparkline
+     */
+    protected void addHistorySample(long rxRate, long txRate) {
+        if (!mShowSparkline) return;
+        mHistory.add(rxRate, txRate);
+        updateSparklinePath();
+        invalidate();
     }
 
-    private static long tryParseLong(String obj) {
-        try {
-            return Long.parseLong(obj);
-        } catch (Exception e) {
-            return 0;
-        }
+    private void clearHistory() {
+        mHistory.clear();
+        mSparklinePath.rewind();
+        invalidate();
     }
 
-    @SuppressLint("MissingPermission")
-    private long[] getTotalRxTxBytesPrimary() {
-        try {
-            long[] bytes = new long[] {0, 0};
-            Network[] networks = mConManager.getAllNetworks();
-            for (Network network : networks){
-                NetworkCapabilities nCap = mConManager.getNetworkCapabilities(network);
-                if (nCap == null) continue;
-                if (nCap.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET) &&
-                        nCap.hasCapability(NetworkCapabilities.NET_CAPABILITY_FOREGROUND) &&
-                        nCap.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_VPN)) {
-                    LinkProperties lp = mConManager.getLinkProperties(network);
-                    if (lp == null || lp.getInterfaceName() == null) continue;
-                    long bytesRx = (long) mGetRxBytesMethod.invoke(null, lp.getInterfaceName());
-                    long bytesTx = (long) mGetTxBytesMethod.invoke(null, lp.getInterfaceName());
-                    if (DEBUG) log("getTotalRxTxBytesPrimary: iface=" + lp.getInterfaceName() +
-                            "; bytesRx=" + bytesRx + "; bytesTx=" + bytesTx);
-                    bytes[0] += bytesRx;
-                    bytes[1] += bytesTx;
-                }
+    /**
+     * @return combination of TrafficHistory.CHANNEL_* flags sparkline shows
+     */
+    protected int getSparklineChannels() {
+        return TrafficHistory.CHANNEL_RX | TrafficHistory.CHANNEL_TX;
+    }
+
+    private void updateSparklinePath() {
+        mSparklinePath.rewind();
+        final int size = mHistory.size();
+        final float left = getCompoundPaddingLeft();
+        final float right = getWidth() - getCompoundPaddingRight();
+        final float top = getCompoundPaddingTop();
+        final float bottom = getHeight() - getCompoundPaddingBottom();
+        if (size < 2 || right <= left || bottom <= top) return;
+
+        final int channels = getSparklineChannels();
+        final long max = Math.max(1, mHistory.max(channels));
+        final float step = (right - left) / (mHistory.capacity() - 1);
+        // newest sample is aligned to the right edge
+        float x = right - (size - 1) * step;
+        for (int i = 0; i < size; i++) {
+            final float y = bottom - (bottom - top) * mHistory.get(i, channels) / max;
+            if (i == 0) {
+                mSparklinePath.moveTo(x, y);
+            } else {
+                mSparklinePath.lineTo(x, y);
             }
-            return bytes;
-        } catch (Throwable t) {
-            if (DEBUG) log("getTotalRxTxBytesPrimary: error: " + t.getMessage());
-            return getTotalRxTxBytesSecondary();
+            x += step;
+        }
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        if (mShowSparkline) {
+            updateSparklinePath();
+        }
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (mShowSparkline && !mSparklinePath.isEmpty()) {
+            mSparklinePaint.setColor(getCurrentTextColor());
+            mSparklinePaint.setAlpha(SPARKLINE_ALPHA);
+            canvas.drawPath(mSparklinePath, mSparklinePaint);
         }
+        super.onDraw(canvas);
     }
 
-    private static long[] getTotalRxTxBytesSecondary() {
-        return new long[] { TrafficStats.getTotalRxBytes(),
-                TrafficStats.getTotalTxBytes() };
+    protected abstract void onInitialize(XSharedPreferences prefs) throws Throwable;
+    protected abstract void onPreferenceChanged(Intent intent);
+    protected abstract void startTrafficUpdates();
+    protected abstract void stopTrafficUpdates();
+
+    protected SysUiTrafficSampler getTrafficSampler() {
+        return SysUiManagers.TrafficSampler;
     }
 }
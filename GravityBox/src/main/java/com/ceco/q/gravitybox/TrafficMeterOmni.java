@@ -17,47 +17,30 @@
 
 package com.ceco.q.gravitybox;
 
-import java.text.DecimalFormat;
-import java.util.HashMap;
-import java.util.Map;
-
 import com.ceco.q.gravitybox.managers.SysUiStatusBarIconManager;
 import com.ceco.q.gravitybox.managers.SysUiStatusBarIconManager.ColorInfo;
+import com.ceco.q.gravitybox.managers.SysUiTrafficSampler;
 
 import de.robv.android.xposed.XSharedPreferences;
-import android.annotation.SuppressLint;
 import android.content.Context;
 import android.content.Intent;
 import android.content.res.ColorStateList;
 import android.content.res.Resources;
 import android.graphics.drawable.Drawable;
-import android.os.Handler;
-import android.os.Message;
-import android.os.SystemClock;
 import android.util.TypedValue;
 import android.view.View;
 
 public class TrafficMeterOmni extends TrafficMeterAbstract {
     private static final int KILOBYTE = 1024;
 
-    private static DecimalFormat decimalFormat = new DecimalFormat("##0.#");
-    private static final Map<String,String> SYMBOLS;
-    static {
-        decimalFormat.setMaximumIntegerDigits(4);
-        decimalFormat.setMaximumFractionDigits(1);
-
-        SYMBOLS = new HashMap<>();
-        SYMBOLS.put("b/s", "b/s");
-        SYMBOLS.put("B/s", "B/s");
-        SYMBOLS.put("k", "k");
-        SYMBOLS.put("M", "M");
-        SYMBOLS.put("G", "G");
-    }
-
     private enum Mode { IN, OUT, IN_OUT }
 
-    private long[] totalRxTxBytes = new long[] { 0, 0 };
+    // units for base, kilo, mega and giga multiples
+    private String[] mByteUnits = { "B/s", "kB/s", "MB/s", "GB/s" };
+    private String[] mBitUnits = { "b/s", "kb/s", "Mb/s", "Gb/s" };
+
     private long lastUpdateTime;
+    private boolean mForceUpdate;
     private int txtSizeSingle;
     private int txtSizeMulti;
     private int KB = KILOBYTE;
@@ -69,104 +52,94 @@ public class TrafficMeterOmni extends TrafficMeterAbstract {
     private boolean mAutoHide;
     private int mAutoHideThreshold;
 
-    @SuppressLint("HandlerLeak")
-    private Handler mTrafficHandler = new Handler() {
-        @Override
-        public void handleMessage(Message msg) {
-            long timeDelta = SystemClock.elapsedRealtime() - lastUpdateTime;
-
-            if (timeDelta < mInterval * .95) {
-                if (msg.what != 1) {
-                    // we just updated the view, nothing further to do
-                    return;
-                }
-                if (timeDelta < 1) {
-                    // Can't div by 0 so make sure the value displayed is minimal
-                    timeDelta = Long.MAX_VALUE;
-                }
+    @Override
+    public void onTrafficSample(long timestamp, long rxBytes, long txBytes, long rxRate, long txRate) {
+        if (timestamp - lastUpdateTime > 0) {
+            addHistorySample(rxRate, txRate);
+        }
+        lastUpdateTime = timestamp;
+
+        // rates are zeroed by sampler when counted interfaces change so they never spike or drop
+        long rxSpeed = rxRate;
+        long txSpeed = txRate;
+
+        if (shouldHide(rxSpeed, txSpeed)) {
+            clearText();
+            setVisibility(View.GONE);
+        } else {
+            // If bit/s convert from Bytes to bits
+            String[] units;
+            if (KB == KILOBYTE) {
+                units = mByteUnits;
+            } else {
+                units = mBitUnits;
+                rxSpeed = rxSpeed * 8;
+                txSpeed = txSpeed * 8;
             }
-            lastUpdateTime = SystemClock.elapsedRealtime();
 
-            // Calculate the data rate from the change in total bytes and time
-            long[] newTotalRxTxBytes = getTotalRxTxBytes();
-            long rxData = newTotalRxTxBytes[0] - totalRxTxBytes[0];
-            long txData = newTotalRxTxBytes[1] - totalRxTxBytes[1];
+            final TrafficTextBuilder output = beginText();
 
-            if (shouldHide(rxData, txData, timeDelta)) {
-                setText("");
-                setVisibility(View.GONE);
-            } else {
-                // If bit/s convert from Bytes to bits
-                String symbol;
-                if (KB == KILOBYTE) {
-                    symbol = SYMBOLS.get("B/s");
-                } else {
-                    symbol = SYMBOLS.get("b/s");
-                    rxData = rxData * 8;
-                    txData = txData * 8;
-                }
+            // Get information for uplink ready so the line return can be added
+            if (mMode == Mode.OUT || mMode == Mode.IN_OUT) {
+                formatOutput(output, txSpeed, units);
+            }
 
-                // Get information for uplink ready so the line return can be added
-                String output = "";
-                if (mMode == Mode.OUT || mMode == Mode.IN_OUT) {
-                    output = formatOutput(timeDelta, txData, symbol);
-                }
-    
-                // Ensure text size is where it needs to be
-                int textSize;
-                if (mMode == Mode.IN_OUT) {
-                    output += "\n";
-                    textSize = txtSizeMulti;
-                } else {
-                    textSize = txtSizeSingle;
-                }
-    
-                // Add information for downlink if it's called for
-                if (mMode == Mode.IN || mMode == Mode.IN_OUT) {
-                    output += formatOutput(timeDelta, rxData, symbol);
-                }
-    
-                // Update view if there's anything new to show
-                if (!output.contentEquals(getText()) || msg.what == 1) {
-                    setTextSize(TypedValue.COMPLEX_UNIT_PX, (float)textSize);
-                    setText(output);
-                }
-                setVisibility(View.VISIBLE);
+            // Ensure text size is where it needs to be
+            int textSize;
+            if (mMode == Mode.IN_OUT) {
+                output.append('\n');
+                textSize = txtSizeMulti;
+            } else {
+                textSize = txtSizeSingle;
             }
 
-            // Post delayed message to refresh in ~1000ms
-            totalRxTxBytes[0] = newTotalRxTxBytes[0];
-            totalRxTxBytes[1] = newTotalRxTxBytes[1];
-            clearHandlerCallbacks();
-            mTrafficHandler.postDelayed(mRunnable, mInterval);
-        }
+            // Add information for downlink if it's called for
+            if (mMode == Mode.IN || mMode == Mode.IN_OUT) {
+                formatOutput(output, rxSpeed, units);
+            }
 
-        private String formatOutput(long timeDelta, long data, String symbol) {
-            long speed = (long)(data / (timeDelta / 1000F));
-            if (speed < KB) {
-                return decimalFormat.format(speed) + symbol;
-            } else if (speed < MB) {
-                return decimalFormat.format(speed / (float)KB) + SYMBOLS.get("k") + symbol;
-            } else if (speed < GB) {
-                return decimalFormat.format(speed / (float)MB) + SYMBOLS.get("M") + symbol;
+            // Update view if there's anything new to show
+            if (commitText(mForceUpdate)) {
+                setTextSize(TypedValue.COMPLEX_UNIT_PX, (float)textSize);
+                mForceUpdate = false;
             }
-            return decimalFormat.format(speed / (float)GB) + SYMBOLS.get("G") + symbol;
+            setVisibility(View.VISIBLE);
         }
+    }
 
-        private boolean shouldHide(long rxData, long txData, long timeDelta) {
-            long speedTxKB = (long)(txData / (timeDelta / 1000f)) / KILOBYTE;
-            long speedRxKB = (long)(rxData / (timeDelta / 1000f)) / KILOBYTE;
-            return mAutoHide &&
-                   (mMode == Mode.IN && speedRxKB <= mAutoHideThreshold ||
-                   mMode == Mode.OUT && speedTxKB <= mAutoHideThreshold ||
-                   mMode == Mode.IN_OUT && 
-                       speedRxKB <= mAutoHideThreshold && 
-                       speedTxKB <= mAutoHideThreshold);
-                    
+    private void formatOutput(TrafficTextBuilder output, long speed, String[] units) {
+        if (speed < KB) {
+            output.appendInteger(speed, false).append(units[0]);
+        } else if (speed < MB) {
+            output.appendDecimal(speed, KB, false).append(units[1]);
+        } else if (speed < GB) {
+            output.appendDecimal(speed, MB, false).append(units[2]);
+        } else {
+            output.appendDecimal(speed, GB, false).append(units[3]);
         }
-    };
+    }
 
-    private Runnable mRunnable = () -> mTrafficHandler.sendEmptyMessage(0);
+    private boolean shouldHide(long rxRate, long txRate) {
+        long speedTxKB = txRate / KILOBYTE;
+        long speedRxKB = rxRate / KILOBYTE;
+        return mAutoHide &&
+               (mMode == Mode.IN && speedRxKB <= mAutoHideThreshold ||
+               mMode == Mode.OUT && speedTxKB <= mAutoHideThreshold ||
+               mMode == Mode.IN_OUT &&
+                   speedRxKB <= mAutoHideThreshold &&
+                   speedTxKB <= mAutoHideThreshold);
+    }
+
+    @Override
+    protected int getSparklineChannels() {
+        if (mMode == Mode.IN) {
+            return TrafficHistory.CHANNEL_RX;
+        } else if (mMode == Mode.OUT) {
+            return TrafficHistory.CHANNEL_TX;
+        } else {
+            return TrafficHistory.CHANNEL_RX | TrafficHistory.CHANNEL_TX;
+        }
+    }
 
     public TrafficMeterOmni(Context context) {
         super(context);
@@ -175,11 +148,16 @@ public class TrafficMeterOmni extends TrafficMeterAbstract {
     @Override
     protected void onInitialize(XSharedPreferences prefs) throws Throwable {
         mGbContext = Utils.getGbContext(getContext());
-        SYMBOLS.put("b/s", mGbContext.getString(R.string.bit_per_sec_abbr));
-        SYMBOLS.put("B/s", mGbContext.getString(R.string.byte_per_sec_abbr));
-        SYMBOLS.put("k", mGbContext.getString(R.string.kilo_abbr));
-        SYMBOLS.put("M", mGbContext.getString(R.string.mega_abbr));
-        SYMBOLS.put("G", mGbContext.getString(R.string.giga_abbr));
+        final String[] prefixes = new String[] { "",
+                mGbContext.getString(R.string.kilo_abbr),
+                mGbContext.getString(R.string.mega_abbr),
+                mGbContext.getString(R.string.giga_abbr) };
+        final String bytes = mGbContext.getString(R.string.byte_per_sec_abbr);
+        final String bits = mGbContext.getString(R.string.bit_per_sec_abbr);
+        for (int i = 0; i < prefixes.length; i++) {
+            mByteUnits[i] = prefixes[i] + bytes;
+            mBitUnits[i] = prefixes[i] + bits;
+        }
 
         mMode = Mode.valueOf(prefs.getString(GravityBoxSettings.PREF_KEY_DATA_TRAFFIC_OMNI_MODE, "IN_OUT"));
         mShowIcon = prefs.getBoolean(GravityBoxSettings.PREF_KEY_DATA_TRAFFIC_OMNI_SHOW_ICON, true);
@@ -217,21 +195,23 @@ public class TrafficMeterOmni extends TrafficMeterAbstract {
 
     @Override
     protected void startTrafficUpdates() {
-        totalRxTxBytes = getTotalRxTxBytes();
-        lastUpdateTime = SystemClock.elapsedRealtime();
-        mTrafficHandler.sendEmptyMessage(1);
+        final SysUiTrafficSampler sampler = getTrafficSampler();
+        if (sampler != null) {
+            sampler.registerListener(this);
+            lastUpdateTime = sampler.getTimestamp();
+            mForceUpdate = true;
+            // show initial state right away
+            onTrafficSample(lastUpdateTime, sampler.getRxBytes(), sampler.getTxBytes(), 0, 0);
+        }
         updateTrafficDrawable();
     }
 
     @Override
     protected void stopTrafficUpdates() {
-        clearHandlerCallbacks();
-    }
-
-    private void clearHandlerCallbacks() {
-        mTrafficHandler.removeCallbacks(mRunnable);
-        mTrafficHandler.removeMessages(0);
-        mTrafficHandler.removeMessages(1);
+        final SysUiTrafficSampler sampler = getTrafficSampler();
+        if (sampler != null) {
+            sampler.unregisterListener(this);
+        }
     }
 
     private void updateTrafficDrawable() {
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2020 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.q.gravitybox;
+
+import java.text.DecimalFormatSymbols;
+
+/**
+ * Reusable char buffer traffic meters format their text into.
+ * Numbers are formatted without intermediate objects so that steady state
+ * formatting does not allocate.
+ */
+class TrafficTextBuilder {
+    private final char mDecimalSeparator;
+    private final char mGroupingSeparator;
+    private char[] mChars = new char[32];
+    private int mLength;
+
+    TrafficTextBuilder() {
+        DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance();
+        mDecimalSeparator = symbols.getDecimalSeparator();
+        mGroupingSeparator = symbols.getGroupingSeparator();
+    }
+
+    TrafficTextBuilder clear() {
+        mLength = 0;
+        return this;
+    }
+
+    char[] getChars() {
+        return mChars;
+    }
+
+    int length() {
+        return mLength;
+    }
+
+    TrafficTextBuilder append(char c) {
+        ensureCapacity(mLength + 1);
+        mChars[mLength++] = c;
+        return this;
+    }
+
+    TrafficTextBuilder append(String s) {
+        final int len = s.length();
+        ensureCapacity(mLength + len);
+        s.getChars(0, len, mChars, mLength);
+        mLength += len;
+        return this;
+    }
+
+    /**
+     * Appends integer value
+     * @param grouping - whether to separate thousands
+     */
+    TrafficTextBuilder appendInteger(long value, boolean grouping) {
+        if (value < 0) {
+            append('-');
+            value = -value;
+        }
+        final int start = mLength;
+        int digits = 0;
+        do {
+            if (grouping && digits > 0 && digits % 3 == 0) {
+                append(mGroupingSeparator);
+            }
+            append((char) ('0' + value % 10));
+            value /= 10;
+            digits++;
+        } while (value > 0);
+        // digits were appended from the least significant one
+        for (int i = start, j = mLength - 1; i < j; i++, j--) {
+            char c = mChars[i];
+            mChars[i] = mChars[j];
+            mChars[j] = c;
+        }
+        return this;
+    }
+
+    /**
+     * Appends value / divisor rounded to one fraction digit the same way as DecimalFormat
+     * formatting float quotient does, i.e. half-even on exact value of the float
+     * @param keepZeroFraction - whether to append fraction digit also when it is zero
+     */
+    TrafficTextBuilder appendDecimal(long value, long divisor, boolean keepZeroFraction) {
+        if (value < 0) {
+            append('-');
+            value = -value;
+        }
+        // float quotient times ten is exact in double so ties are detected exactly
+        final double scaled = (double) ((float) value / (float) divisor) * 10;
+        long tenths = (long) scaled;
+        final double fraction = scaled - tenths;
+        if (fraction > 0.5 || (fraction == 0.5 && tenths % 2 != 0)) {
+            tenths++;
+        }
+        appendInteger(tenths / 10, false);
+        if (keepZeroFraction || tenths % 10 != 0) {
+            append(mDecimalSeparator);
+            append((char) ('0' + tenths % 10));
+        }
+        return this;
+    }
+
+    boolean contentEquals(TrafficTextBuilder other) {
+        if (mLength != other.mLength) return false;
+        for (int i = 0; i < mLength; i++) {
+            if (mChars[i] != other.mChars[i]) return false;
+        }
+        return true;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > mChars.length) {
+            char[] chars = new char[Math.max(capacity, mChars.length * 2)];
+            System.arraycopy(mChars, 0, chars, 0, mLength);
+            mChars = chars;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return new String(mChars, 0, mLength);
+    }
+}
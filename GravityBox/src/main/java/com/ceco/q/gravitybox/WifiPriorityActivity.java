@@ -159,7 +159,7 @@ public class WifiPriorityActivity extends GravityBoxListActivity {
                     trustedNetworks.add(filterSSID(wn.config.SSID));
                 }
             }
-            mPrefs.edit().putStringSet(PREF_KEY_WIFI_TRUSTED, trustedNetworks).commit();
+            mPrefs.edit().putStringSet(PREF_KEY_WIFI_TRUSTED, trustedNetworks).apply();
 
             Intent intent = new Intent(ACTION_WIFI_TRUSTED_CHANGED);
             intent.putExtra(EXTRA_WIFI_TRUSTED, trustedNetworks.toArray(
@@ -291,10 +291,21 @@ public class WorldReadablePrefs implements SharedPreferences,
             return mEditor.commit();
         }
 
+        /**
+         * Updates in-memory state immediately and leaves writing the file to the platform's
+         * background writer which coalesces pending edits into a single write of the latest state.
+         * World-readable permissions are restored by file observer as with commit() and listener,
+         * if any, is called once the file gets updated.
+         */
         @Override
         public void apply() {
-            throw new UnsupportedOperationException(
-                    "apply() not supported. Use commit() instead.");
+            apply(null);
+        }
+
+        public void apply(OnPreferencesCommitedListener listener) {
+            if (DEBUG) Log.d("GravityBox", "Apply for " + mPrefsName);
+            mOnPreferencesCommitedListener = listener;
+            mEditor.apply();
         }
     }
 }
@@ -205,7 +205,9 @@ public class LedListItem implements IBaseListAdapterItem {
     }
 
     protected void setEnabled(boolean enabled) {
-        mLedSettings.setEnabled(enabled);
+        LedSettings.Builder builder = mLedSettings.buildUpon();
+        builder.setEnabled(enabled);
+        mLedSettings = builder.build();
         mLedSettings.serialize();
     }
 
@@ -17,6 +17,7 @@ package com.ceco.q.gravitybox.ledcontrol;
 
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.Locale;
 import java.util.Set;
 
 import com.ceco.q.gravitybox.GravityBoxSettings;
@@ -60,39 +61,41 @@ public class LedSettings {
     }
     public enum VisibilityLs { DEFAULT, CLEARABLE, PERSISTENT, ALL }
 
-    private Context mContext;
-    private String mPackageName;
-    private boolean mEnabled;
-    private boolean mOngoing;
-    private int mLedOnMs;
-    private int mLedOffMs;
-    private int mColor;
-    private boolean mSoundOverride;
-    private Uri mSoundUri;
-    private boolean mSoundReplace;
-    private boolean mSoundOnlyOnce;
-    private long mSoundOnlyOnceTimeout;
-    private boolean mInsistent;
-    private boolean mVibrateOverride;
-    private boolean mVibrateReplace;
-    private String mVibratePatternStr;
-    private long[] mVibratePattern;
-    private ActiveScreenMode mActiveScreenMode;
-    private boolean mActiveScreenIgnoreUpdate;
-    private LedMode mLedMode;
-    private boolean mQhIgnore;
-    private String mQhIgnoreList;
-    private boolean mQhIgnoreInteractive;
-    private HeadsUpMode mHeadsUpMode;
-    private boolean mHeadsUpDnd;
-    private int mHeadsUpTimeout;
-    private boolean mProgressTracking;
-    private Visibility mVisibility;
-    private VisibilityLs mVisibilityLs;
-    private boolean mSoundToVibrateDisabled;
-    private boolean mHidePersistent;
-    private String mLedDnd;
-    private boolean mLedIgnoreUpdate;
+    private final Context mContext;
+    private final String mPackageName;
+    private final boolean mEnabled;
+    private final boolean mOngoing;
+    private final int mLedOnMs;
+    private final int mLedOffMs;
+    private final int mColor;
+    private final boolean mSoundOverride;
+    private final Uri mSoundUri;
+    private final boolean mSoundReplace;
+    private final boolean mSoundOnlyOnce;
+    private final long mSoundOnlyOnceTimeout;
+    private final boolean mInsistent;
+    private final boolean mVibrateOverride;
+    private final boolean mVibrateReplace;
+    private final String mVibratePatternStr;
+    private final long[] mVibratePattern;
+    private final ActiveScreenMode mActiveScreenMode;
+    private final boolean mActiveScreenIgnoreUpdate;
+    private final LedMode mLedMode;
+    private final boolean mQhIgnore;
+    private final String mQhIgnoreList;
+    private final String[] mQhIgnoreKeywords;
+    private final boolean mQhIgnoreInteractive;
+    private final HeadsUpMode mHeadsUpMode;
+    private final boolean mHeadsUpDnd;
+    private final int mHeadsUpTimeout;
+    private final boolean mProgressTracking;
+    private final Visibility mVisibility;
+    private final VisibilityLs mVisibilityLs;
+    private final boolean mSoundToVibrateDisabled;
+    private final boolean mHidePersistent;
+    private final String mLedDnd;
+    private final int mLedDndZenModes;
+    private final boolean mLedIgnoreUpdate;
 
     protected static LedSettings deserialize(Context context, String packageName) {
         try {
@@ -100,18 +103,18 @@ public class LedSettings {
             Set<String> dataSet = prefs.getStringSet(packageName, null);
             if (dataSet == null) {
                 if (packageName.equals("default")) {
-                    return new LedSettings(context, packageName);
+                    return new Builder(context, packageName).build();
                 } else {
-                    LedSettings defLs = LedSettings.getDefault(context);
-                    defLs.mPackageName = packageName;
-                    defLs.mEnabled = false;
-                    return defLs;
+                    Builder defLs = LedSettings.getDefault(context).buildUpon();
+                    defLs.setPackageName(packageName);
+                    defLs.setEnabled(false);
+                    return defLs.build();
                 }
             }
             return deserialize(context, packageName, dataSet);
         } catch (Throwable t) {
             t.printStackTrace();
-            return new LedSettings(context, packageName);
+            return new Builder(context, packageName).build();
         }
     }
 
@@ -124,9 +127,9 @@ public class LedSettings {
     }
 
     private static LedSettings deserialize(Context context, String packageName, Set<String> dataSet) {
-        LedSettings ls = new LedSettings(context, packageName);
+        Builder ls = new Builder(context, packageName);
         if (dataSet == null) {
-            return ls;
+            return ls.build();
         }
         for (String val : dataSet) {
             String[] data = val.split(":", 2);
@@ -193,55 +196,61 @@ public class LedSettings {
                 ls.setLedIgnoreUpdate(Boolean.valueOf(data[1]));
             }
         }
-        return ls;
-    }
-
-    private LedSettings(Context context, String packageName) {
-        mContext = context;
-        mPackageName = packageName;
-        mEnabled = false;
-        mOngoing = false;
-        mLedOnMs = 1000;
-        mLedOffMs = 5000;
-        mColor = 0xffffffff;
-        mSoundOverride = false;
-        mSoundUri = null;
-        mSoundReplace = true;
-        mSoundOnlyOnce = false;
-        mSoundOnlyOnceTimeout = 0;
-        mInsistent = false;
-        mVibrateOverride = false;
-        mVibratePatternStr = null;
-        mVibratePattern = null;
-        mVibrateReplace = true;
-        mActiveScreenMode = ActiveScreenMode.DISABLED;
-        mActiveScreenIgnoreUpdate = false;
-        mLedMode = LedMode.OVERRIDE;
-        mQhIgnore = false;
-        mQhIgnoreList = null;
-        mQhIgnoreInteractive = true;
-        mHeadsUpMode = HeadsUpMode.DEFAULT;
-        mHeadsUpDnd = false;
-        mHeadsUpTimeout = 5;
-        mProgressTracking = false;
-        mVisibility = Visibility.DEFAULT;
-        mVisibilityLs = VisibilityLs.DEFAULT;
-        mSoundToVibrateDisabled = false;
-        mHidePersistent = false;
-        mLedDnd = "";
-        mLedIgnoreUpdate = false;
+        return ls.build();
+    }
+
+    private LedSettings(Builder b) {
+        mContext = b.mContext;
+        mPackageName = b.mPackageName;
+        mEnabled = b.mEnabled;
+        mOngoing = b.mOngoing;
+        mLedOnMs = b.mLedOnMs;
+        mLedOffMs = b.mLedOffMs;
+        mColor = b.mColor;
+        mSoundOverride = b.mSoundOverride;
+        mSoundUri = b.mSoundUri;
+        mSoundReplace = b.mSoundReplace;
+        mSoundOnlyOnce = b.mSoundOnlyOnce;
+        mSoundOnlyOnceTimeout = b.mSoundOnlyOnceTimeout;
+        mInsistent = b.mInsistent;
+        mVibrateOverride = b.mVibrateOverride;
+        mVibrateReplace = b.mVibrateReplace;
+        mVibratePatternStr = b.mVibratePatternStr;
+        mVibratePattern = b.mVibratePattern;
+        mActiveScreenMode = b.mActiveScreenMode;
+        mActiveScreenIgnoreUpdate = b.mActiveScreenIgnoreUpdate;
+        mLedMode = b.mLedMode;
+        mQhIgnore = b.mQhIgnore;
+        mQhIgnoreList = b.mQhIgnoreList;
+        mQhIgnoreKeywords = b.mQhIgnoreKeywords;
+        mQhIgnoreInteractive = b.mQhIgnoreInteractive;
+        mHeadsUpMode = b.mHeadsUpMode;
+        mHeadsUpDnd = b.mHeadsUpDnd;
+        mHeadsUpTimeout = b.mHeadsUpTimeout;
+        mProgressTracking = b.mProgressTracking;
+        mVisibility = b.mVisibility;
+        mVisibilityLs = b.mVisibilityLs;
+        mSoundToVibrateDisabled = b.mSoundToVibrateDisabled;
+        mHidePersistent = b.mHidePersistent;
+        mLedDnd = b.mLedDnd;
+        mLedDndZenModes = b.mLedDndZenModes;
+        mLedIgnoreUpdate = b.mLedIgnoreUpdate;
     }
 
     protected static LedSettings getDefault(Context context) {
         return deserialize(context, "default");
     }
 
-    protected static LedSettings createForPreview() {
-        LedSettings settings = new LedSettings(null, "preview");
+    protected static Builder createForPreview() {
+        Builder settings = new Builder(null, "preview");
         settings.setEnabled(true);
         return settings;
     }
 
+    protected Builder buildUpon() {
+        return new Builder(this);
+    }
+
     protected static boolean isActiveScreenMasterEnabled(Context context) {
         try {
             SharedPreferences prefs = SettingsManager.getInstance(context).getLedControlPrefs();
@@ -328,58 +337,6 @@ public class LedSettings {
         }
     }
 
-    protected void setPackageName(String pkgName) {
-        mPackageName = pkgName;
-    }
-
-    protected void setEnabled(boolean enabled) {
-        mEnabled = enabled;
-    }
-
-    protected void setOngoing(boolean ongoing) {
-        mOngoing = ongoing;
-    }
-
-    protected void setLedOnMs(int ms) {
-        mLedOnMs = ms;
-    }
-
-    protected void setLedOffMs(int ms) {
-        mLedOffMs = ms;
-    }
-
-    protected void setColor(int color) {
-        mColor = color;
-    }
-
-    protected void setSoundOverride(boolean override) {
-        mSoundOverride = override;
-    }
-
-    protected void setSoundUri(Uri soundUri) {
-        mSoundUri = soundUri;
-    }
-
-    protected void setSoundReplace(boolean replace) {
-        mSoundReplace = replace;
-    }
-
-    protected void setSoundOnlyOnce(boolean onlyOnce) {
-        mSoundOnlyOnce = onlyOnce;
-    }
-
-    protected void setSoundOnlyOnceTimeout(long timeout) {
-        mSoundOnlyOnceTimeout = timeout;
-    }
-
-    protected void setInsistent(boolean insistent) {
-        mInsistent = insistent;
-    }
-
-    protected void setVibrateOverride(boolean override) {
-        mVibrateOverride = override;
-    }
-
     protected static long[] parseVibratePatternString(String patternStr) {
         String[] vals = patternStr.split(",");
         long[] pattern = new long[vals.length];
@@ -389,111 +346,6 @@ public class LedSettings {
         return pattern;
     }
 
-    protected void setVibratePatternFromString(String pattern) {
-        mVibratePatternStr = pattern == null || pattern.isEmpty() ?
-                null : pattern;
-        mVibratePattern = null;
-        if (mVibratePatternStr != null) {
-            try {
-                mVibratePattern = parseVibratePatternString(mVibratePatternStr);
-            } catch (Exception e) {
-                mVibratePatternStr = null;
-            }
-        }
-    }
-
-    protected void setVibrateReplace(boolean replace) {
-        mVibrateReplace = replace;
-    }
-
-    protected void setActiveScreenMode(ActiveScreenMode mode) {
-        mActiveScreenMode = mode;
-    }
-
-    protected void setActiveScreenIgnoreUpdate(boolean ignore) {
-        mActiveScreenIgnoreUpdate = ignore;
-    }
-
-    protected void setLedMode(LedMode ledMode) {
-        mLedMode = ledMode;
-    }
-
-    protected void setQhIgnore(boolean ignore) {
-        mQhIgnore = ignore;
-    }
-
-    protected void setQhIgnoreList(String ignoreList) {
-        mQhIgnoreList = ignoreList;
-    }
-
-    protected void setQhIgnoreInteractive (boolean ignore) {
-        mQhIgnoreInteractive = ignore;
-    }
-
-    protected void setHeadsUpMode(HeadsUpMode mode) {
-        mHeadsUpMode = mode;
-    }
-
-    protected void setHeadsUpMode(String mode) {
-        try {
-            setHeadsUpMode(HeadsUpMode.valueOf(mode));
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-    }
-
-    protected void setHeadsUpDnd(boolean dnd) {
-        mHeadsUpDnd = dnd;
-    }
-
-    protected void setHeadsUpTimeout(int timeout) {
-        mHeadsUpTimeout = timeout;
-    }
-
-    protected void setProgressTracking(boolean tracking) {
-        mProgressTracking = tracking;
-    }
-
-    protected void setVisibility(Visibility visibility) {
-        mVisibility = visibility;
-    }
-
-    protected void setVisibility(String visibility) {
-        try {
-            setVisibility(Visibility.valueOf(visibility));
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-    }
-
-    protected void setVisibilityLs(VisibilityLs visibilityLs) {
-        mVisibilityLs = visibilityLs;
-    }
-
-    protected void setVisibilityLs(String visibilityLs) {
-        try {
-            setVisibilityLs(VisibilityLs.valueOf(visibilityLs));
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-    }
-
-    protected void setSoundToVibrateDisabled(boolean disabled) {
-        mSoundToVibrateDisabled = disabled;
-    }
-
-    protected void setHidePersistent(boolean hide) {
-        mHidePersistent = hide;
-    }
-
-    protected void setLedDnd(String value) {
-        mLedDnd = value;
-    }
-
-    protected void setLedIgnoreUpdate(boolean ignore) {
-        mLedIgnoreUpdate = ignore;
-    }
-
     public String getPackageName() {
         return mPackageName;
     }
@@ -550,6 +402,9 @@ public class LedSettings {
         return mVibratePatternStr;
     }
 
+    /**
+     * @return parsed vibration pattern or null if none; shared, must not be modified
+     */
     public long[] getVibratePattern() {
         return mVibratePattern;
     }
@@ -578,6 +433,14 @@ public class LedSettings {
         return mQhIgnoreList;
     }
 
+    /**
+     * @return lower-cased keywords of quiet hours ignore list; empty array if none;
+     * shared, must not be modified
+     */
+    public String[] getQhIgnoreKeywords() {
+        return mQhIgnoreKeywords;
+    }
+
     public boolean getQhIgnoreInteractive() {
         return mQhIgnoreInteractive;
     }
@@ -618,6 +481,10 @@ public class LedSettings {
         return mLedDnd;
     }
 
+    public boolean isLedDisabledForZenMode(int zenMode) {
+        return zenMode >= 0 && zenMode < 32 && (mLedDndZenModes & (1 << zenMode)) != 0;
+    }
+
     public boolean getLedIgnoreUpdate() {
         return mLedIgnoreUpdate;
     }
@@ -692,4 +559,260 @@ public class LedSettings {
                 "," + mLedOffMs + "," + mOngoing + ";" + mSoundOverride + ";" +
                 mSoundUri + ";" + mSoundOnlyOnce + ";" + mInsistent + "]";
     }
+
+    /**
+     * Mutable counterpart of {@link LedSettings} used while parsing stored data
+     * and while editing settings in the UI.
+     */
+    protected static final class Builder {
+        private final Context mContext;
+        private String mPackageName;
+        private boolean mEnabled = false;
+        private boolean mOngoing = false;
+        private int mLedOnMs = 1000;
+        private int mLedOffMs = 5000;
+        private int mColor = 0xffffffff;
+        private boolean mSoundOverride = false;
+        private Uri mSoundUri = null;
+        private boolean mSoundReplace = true;
+        private boolean mSoundOnlyOnce = false;
+        private long mSoundOnlyOnceTimeout = 0;
+        private boolean mInsistent = false;
+        private boolean mVibrateOverride = false;
+        private boolean mVibrateReplace = true;
+        private String mVibratePatternStr = null;
+        private long[] mVibratePattern = null;
+        private ActiveScreenMode mActiveScreenMode = ActiveScreenMode.DISABLED;
+        private boolean mActiveScreenIgnoreUpdate = false;
+        private LedMode mLedMode = LedMode.OVERRIDE;
+        private boolean mQhIgnore = false;
+        private String mQhIgnoreList = null;
+        private String[] mQhIgnoreKeywords = new String[0];
+        private boolean mQhIgnoreInteractive = true;
+        private HeadsUpMode mHeadsUpMode = HeadsUpMode.DEFAULT;
+        private boolean mHeadsUpDnd = false;
+        private int mHeadsUpTimeout = 5;
+        private boolean mProgressTracking = false;
+        private Visibility mVisibility = Visibility.DEFAULT;
+        private VisibilityLs mVisibilityLs = VisibilityLs.DEFAULT;
+        private boolean mSoundToVibrateDisabled = false;
+        private boolean mHidePersistent = false;
+        private String mLedDnd = "";
+        private int mLedDndZenModes = 0;
+        private boolean mLedIgnoreUpdate = false;
+
+        protected Builder(Context context, String packageName) {
+            mContext = context;
+            mPackageName = packageName;
+        }
+
+        private Builder(LedSettings ls) {
+            mContext = ls.mContext;
+            mPackageName = ls.mPackageName;
+            mEnabled = ls.mEnabled;
+            mOngoing = ls.mOngoing;
+            mLedOnMs = ls.mLedOnMs;
+            mLedOffMs = ls.mLedOffMs;
+            mColor = ls.mColor;
+            mSoundOverride = ls.mSoundOverride;
+            mSoundUri = ls.mSoundUri;
+            mSoundReplace = ls.mSoundReplace;
+            mSoundOnlyOnce = ls.mSoundOnlyOnce;
+            mSoundOnlyOnceTimeout = ls.mSoundOnlyOnceTimeout;
+            mInsistent = ls.mInsistent;
+            mVibrateOverride = ls.mVibrateOverride;
+            mVibrateReplace = ls.mVibrateReplace;
+            mVibratePatternStr = ls.mVibratePatternStr;
+            mVibratePattern = ls.mVibratePattern == null ? null : ls.mVibratePattern.clone();
+            mActiveScreenMode = ls.mActiveScreenMode;
+            mActiveScreenIgnoreUpdate = ls.mActiveScreenIgnoreUpdate;
+            mLedMode = ls.mLedMode;
+            mQhIgnore = ls.mQhIgnore;
+            mQhIgnoreList = ls.mQhIgnoreList;
+            mQhIgnoreKeywords = ls.mQhIgnoreKeywords.clone();
+            mQhIgnoreInteractive = ls.mQhIgnoreInteractive;
+            mHeadsUpMode = ls.mHeadsUpMode;
+            mHeadsUpDnd = ls.mHeadsUpDnd;
+            mHeadsUpTimeout = ls.mHeadsUpTimeout;
+            mProgressTracking = ls.mProgressTracking;
+            mVisibility = ls.mVisibility;
+            mVisibilityLs = ls.mVisibilityLs;
+            mSoundToVibrateDisabled = ls.mSoundToVibrateDisabled;
+            mHidePersistent = ls.mHidePersistent;
+            mLedDnd = ls.mLedDnd;
+            mLedDndZenModes = ls.mLedDndZenModes;
+            mLedIgnoreUpdate = ls.mLedIgnoreUpdate;
+        }
+
+        protected void setPackageName(String pkgName) {
+            mPackageName = pkgName;
+        }
+
+        protected void setEnabled(boolean enabled) {
+            mEnabled = enabled;
+        }
+
+        protected void setOngoing(boolean ongoing) {
+            mOngoing = ongoing;
+        }
+
+        protected void setLedOnMs(int ms) {
+            mLedOnMs = ms;
+        }
+
+        protected void setLedOffMs(int ms) {
+            mLedOffMs = ms;
+        }
+
+        protected void setColor(int color) {
+            mColor = color;
+        }
+
+        protected void setSoundOverride(boolean override) {
+            mSoundOverride = override;
+        }
+
+        protected void setSoundUri(Uri soundUri) {
+            mSoundUri = soundUri;
+        }
+
+        protected void setSoundReplace(boolean replace) {
+            mSoundReplace = replace;
+        }
+
+        protected void setSoundOnlyOnce(boolean onlyOnce) {
+            mSoundOnlyOnce = onlyOnce;
+        }
+
+        protected void setSoundOnlyOnceTimeout(long timeout) {
+            mSoundOnlyOnceTimeout = timeout;
+        }
+
+        protected void setInsistent(boolean insistent) {
+            mInsistent = insistent;
+        }
+
+        protected void setVibrateOverride(boolean override) {
+            mVibrateOverride = override;
+        }
+
+        protected void setVibratePatternFromString(String pattern) {
+            mVibratePatternStr = pattern == null || pattern.isEmpty() ?
+                    null : pattern;
+            mVibratePattern = null;
+            if (mVibratePatternStr != null) {
+                try {
+                    mVibratePattern = parseVibratePatternString(mVibratePatternStr);
+                } catch (Exception e) {
+                    mVibratePatternStr = null;
+                }
+            }
+        }
+
+        protected void setVibrateReplace(boolean replace) {
+            mVibrateReplace = replace;
+        }
+
+        protected void setActiveScreenMode(ActiveScreenMode mode) {
+            mActiveScreenMode = mode;
+        }
+
+        protected void setActiveScreenIgnoreUpdate(boolean ignore) {
+            mActiveScreenIgnoreUpdate = ignore;
+        }
+
+        protected void setLedMode(LedMode ledMode) {
+            mLedMode = ledMode;
+        }
+
+        protected void setQhIgnore(boolean ignore) {
+            mQhIgnore = ignore;
+        }
+
+        protected void setQhIgnoreList(String ignoreList) {
+            mQhIgnoreList = ignoreList;
+            mQhIgnoreKeywords = (ignoreList == null || ignoreList.trim().isEmpty()) ?
+                    new String[0] : ignoreList.trim().toLowerCase(Locale.getDefault()).split(",");
+        }
+
+        protected void setQhIgnoreInteractive (boolean ignore) {
+            mQhIgnoreInteractive = ignore;
+        }
+
+        protected void setHeadsUpMode(HeadsUpMode mode) {
+            mHeadsUpMode = mode;
+        }
+
+        protected void setHeadsUpMode(String mode) {
+            try {
+                setHeadsUpMode(HeadsUpMode.valueOf(mode));
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+
+        protected void setHeadsUpDnd(boolean dnd) {
+            mHeadsUpDnd = dnd;
+        }
+
+        protected void setHeadsUpTimeout(int timeout) {
+            mHeadsUpTimeout = timeout;
+        }
+
+        protected void setProgressTracking(boolean tracking) {
+            mProgressTracking = tracking;
+        }
+
+        protected void setVisibility(Visibility visibility) {
+            mVisibility = visibility;
+        }
+
+        protected void setVisibility(String visibility) {
+            try {
+                setVisibility(Visibility.valueOf(visibility));
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+
+        protected void setVisibilityLs(VisibilityLs visibilityLs) {
+            mVisibilityLs = visibilityLs;
+        }
+
+        protected void setVisibilityLs(String visibilityLs) {
+            try {
+                setVisibilityLs(VisibilityLs.valueOf(visibilityLs));
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+
+        protected void setSoundToVibrateDisabled(boolean disabled) {
+            mSoundToVibrateDisabled = disabled;
+        }
+
+        protected void setHidePersistent(boolean hide) {
+            mHidePersistent = hide;
+        }
+
+        protected void setLedDnd(String value) {
+            mLedDnd = value;
+            mLedDndZenModes = 0;
+            if (value != null && !value.isEmpty()) {
+                for (String zenMode : value.split(",")) {
+                    try {
+                        mLedDndZenModes |= 1 << Integer.parseInt(zenMode);
+                    } catch (NumberFormatException ignored) { }
+                }
+            }
+        }
+
+        protected void setLedIgnoreUpdate(boolean ignore) {
+            mLedIgnoreUpdate = ignore;
+        }
+
+        protected LedSettings build() {
+            return new LedSettings(this);
+        }
+    }
 }
@@ -116,14 +116,14 @@ public class LedSettingsActivity extends GravityBoxActivity implements OnClickLi
     }
 
     private void resetToDefaults() {
-        LedSettings newLs = LedSettings.getDefault(this);
+        LedSettings.Builder newLs = LedSettings.getDefault(this).buildUpon();
         newLs.setPackageName(mLedSettings.getPackageName());
         newLs.setEnabled(mLedSettings.getEnabled());
-        mLedSettings = newLs;
+        mLedSettings = newLs.build();
         mPrefsFragment.initialize(mLedSettings);
     }
 
-    private void applyPrefsToSettings(LedSettings settings) {
+    private void applyPrefsToSettings(LedSettings.Builder settings) {
         settings.setColor(mPrefsFragment.getColor());
         settings.setLedOnMs(mPrefsFragment.getLedOnMs());
         settings.setLedOffMs(mPrefsFragment.getLedOffMs());
@@ -156,7 +156,7 @@ public class LedSettingsActivity extends GravityBoxActivity implements OnClickLi
     }
 
     private void previewSettings() {
-        LedSettings settings = LedSettings.createForPreview();
+        LedSettings.Builder settings = LedSettings.createForPreview();
         applyPrefsToSettings(settings);
 
         final NotificationManager nm = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
@@ -170,17 +170,19 @@ public class LedSettingsActivity extends GravityBoxActivity implements OnClickLi
 
         final Notification n = builder.build();
         n.extras.putBoolean("gbUncPreviewNotification", true);
-        n.extras.putStringArrayList(LedSettings.EXTRA_UNC_PACKAGE_SETTINGS, settings.toArrayList());
+        n.extras.putStringArrayList(LedSettings.EXTRA_UNC_PACKAGE_SETTINGS, settings.build().toArrayList());
         Intent intent = new Intent(ModHwKeys.ACTION_SLEEP);
         sendBroadcast(intent);
         new Handler().postDelayed(() -> nm.notify(++NOTIF_ID,  n), 1000);
     }
 
     private void saveSettings() {
-        applyPrefsToSettings(mLedSettings);
+        LedSettings.Builder settings = mLedSettings.buildUpon();
+        applyPrefsToSettings(settings);
         if (mLedSettings.getPackageName().equals("default")) {
-            mLedSettings.setEnabled(mPrefsFragment.getDefaultSettingsEnabled());
+            settings.setEnabled(mPrefsFragment.getDefaultSettingsEnabled());
         }
+        mLedSettings = settings.build();
         mLedSettings.serialize();
         Intent intent = new Intent();
         intent.putExtra(EXTRA_PACKAGE_NAME, mLedSettings.getPackageName());
@@ -21,11 +21,12 @@ import java.util.GregorianCalendar;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Objects;
 import java.util.Set;
+import java.util.TimeZone;
 import java.util.UUID;
 
 import com.ceco.q.gravitybox.ModLedControl;
-import com.ceco.q.gravitybox.Utils;
 
 import android.app.Notification;
 import android.content.SharedPreferences;
@@ -148,6 +149,26 @@ public class QuietHours {
             "android.title","android.text","android.subText","android.infoText",
             "android.summaryText","android.bigText"));
 
+    private static final int MINUTES_PER_DAY = 1440;
+    private static final int MINUTES_PER_WEEK = 7 * MINUTES_PER_DAY;
+    private static final int SCHEDULE_WORDS = (MINUTES_PER_WEEK + 63) / 64;
+    private static final int CLOCK_SLOT_MINUTES = 15;
+    private static final long MINUTE_MS = 60000;
+
+    // shared per-process instance
+    private static final Object sInstanceLock = new Object();
+    private static volatile QuietHours sInstance;
+    private static Bundle sInstanceExtras;
+
+    // cached local clock mapping of the current quarter of an hour to minute-of-week
+    // valid for time zone it was computed in
+    private static final Object sClockLock = new Object();
+    private static final Calendar sCalendar = new GregorianCalendar();
+    private static String sClockZoneId;
+    private static long sClockSlotStart = Long.MAX_VALUE;
+    private static long sClockSlotEnd;
+    private static int sClockSlotMinuteOfWeek;
+
     public boolean uncLocked;
     public boolean enabled;
     private boolean muteLED;
@@ -159,6 +180,97 @@ public class QuietHours {
     private boolean muteSystemVibe;
     private Set<String> ringerWhitelist;
     private Set<Range> ranges;
+    private Range[] mRanges;
+    private long[][] mRangeSchedules;
+    private long[] mSchedule;
+
+    /**
+     * Returns instance shared by all the hooks living in the current process.
+     * Instance is created from preferences on first use and then kept up to date
+     * by calling {@link #update(Bundle)} with extras of ACTION_QUIET_HOURS_CHANGED.
+     */
+    public static QuietHours getInstance(SharedPreferences prefs) {
+        QuietHours qh = sInstance;
+        if (qh == null) {
+            synchronized (sInstanceLock) {
+                if (sInstance == null) {
+                    sInstance = new QuietHours(prefs);
+                }
+                qh = sInstance;
+            }
+        }
+        return qh;
+    }
+
+    /**
+     * Replaces shared instance with one reflecting given preferences
+     * (e.g. after preference file change was detected)
+     */
+    public static QuietHours update(SharedPreferences prefs) {
+        synchronized (sInstanceLock) {
+            sInstance = new QuietHours(prefs);
+            sInstanceExtras = null;
+            return sInstance;
+        }
+    }
+
+    /**
+     * Updates shared instance from ACTION_QUIET_HOURS_CHANGED extras.
+     * Shared instance is rebuilt only when settings actually differ from the ones
+     * it was built from so that multiple receivers in the same process reuse it.
+     */
+    public static QuietHours update(Bundle prefs) {
+        synchronized (sInstanceLock) {
+            if (sInstance == null || !isSameSettings(sInstanceExtras, prefs)) {
+                sInstance = new QuietHours(prefs);
+                sInstanceExtras = new Bundle(prefs);
+                if (ModLedControl.DEBUG) ModLedControl.log("QuietHours shared instance rebuilt");
+            }
+            return sInstance;
+        }
+    }
+
+    private static boolean isSameSettings(Bundle b1, Bundle b2) {
+        if (b1 == null || b2 == null) return false;
+        if (b1.size() != b2.size()) return false;
+        for (String key : b1.keySet()) {
+            if (!b2.containsKey(key) || !Objects.equals(b1.get(key), b2.get(key))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Drops cached local clock mapping. Mapping gets recomputed also automatically
+     * when default time zone changes.
+     */
+    public static void onTimeChanged() {
+        synchronized (sClockLock) {
+            sClockSlotStart = Long.MAX_VALUE;
+        }
+    }
+
+    private static int getMinuteOfWeek(long timeMs) {
+        final TimeZone tz = TimeZone.getDefault();
+        synchronized (sClockLock) {
+            if (timeMs < sClockSlotStart || timeMs >= sClockSlotEnd ||
+                    !tz.getID().equals(sClockZoneId)) {
+                sClockZoneId = tz.getID();
+                sCalendar.setTimeZone(tz);
+                sCalendar.setTimeInMillis(timeMs);
+                sCalendar.set(Calendar.MINUTE, sCalendar.get(Calendar.MINUTE) /
+                        CLOCK_SLOT_MINUTES * CLOCK_SLOT_MINUTES);
+                sCalendar.set(Calendar.SECOND, 0);
+                sCalendar.set(Calendar.MILLISECOND, 0);
+                sClockSlotStart = sCalendar.getTimeInMillis();
+                sClockSlotEnd = sClockSlotStart + CLOCK_SLOT_MINUTES * MINUTE_MS;
+                sClockSlotMinuteOfWeek = (sCalendar.get(Calendar.DAY_OF_WEEK) - 1) * MINUTES_PER_DAY +
+                        sCalendar.get(Calendar.HOUR_OF_DAY) * 60 + sCalendar.get(Calendar.MINUTE);
+            }
+            return sClockSlotMinuteOfWeek + (int) ((timeMs - sClockSlotStart) / MINUTE_MS);
+        }
+    }
 
     public QuietHours(Bundle prefs) {
         uncLocked = prefs.getBoolean(QuietHoursActivity.EXTRA_QH_LOCKED);
@@ -177,6 +289,7 @@ public class QuietHours {
                 ranges.add(Range.parse(new HashSet<>(prefs.getStringArrayList(key))));
             }
         }
+        compileSchedule();
     }
 
     public QuietHours(SharedPreferences prefs) {
@@ -198,6 +311,7 @@ public class QuietHours {
                 ranges.add(Range.parse(new HashSet<>(prefs.getStringSet(key, null))));
             }
         }
+        compileSchedule();
     }
 
     public boolean quietHoursActive(LedSettings ls, Notification n, boolean userPresent) {
@@ -209,15 +323,14 @@ public class QuietHours {
 
         if (ls.getEnabled() && ls.getQhIgnore()) {
             boolean defaultIgnoreResult = (interactive && userPresent) && !ls.getQhIgnoreInteractive();
-            if (ls.getQhIgnoreList() == null || ls.getQhIgnoreList().trim().isEmpty()) {
+            final String[] keywords = ls.getQhIgnoreKeywords();
+            if (keywords.length == 0) {
                 if (ModLedControl.DEBUG) ModLedControl.log("QH ignored for all notifications");
                 return defaultIgnoreResult;
             } else {
                 List<CharSequence> notifTexts = getNotificationTexts(n);
-                String[] keywords = ls.getQhIgnoreList().trim().split(",");
                 boolean ignore = false;
                 for (String kw : keywords) {
-                    kw = kw.toLowerCase(Locale.getDefault());
                     ignore |= n.tickerText != null && n.tickerText.toString()
                             .toLowerCase(Locale.getDefault()).contains(kw);
                     for (CharSequence notifText : notifTexts) {
@@ -245,28 +358,105 @@ public class QuietHours {
     public Range getActiveRange() {
         if (uncLocked || !enabled || mode != Mode.AUTO) return null;
 
-        Calendar c = new GregorianCalendar();
-        c.setTimeInMillis(System.currentTimeMillis());
-        int curMin = c.get(Calendar.HOUR_OF_DAY) * 60 + c.get(Calendar.MINUTE);
-        int curDay = c.get(Calendar.DAY_OF_WEEK);
-        int prevDay = (curDay == 1 ? 7 : curDay - 1);
-
-        for (Range range : ranges) {
-            boolean active = false;
-            if (range.endsNextDay()) {
-                active = (curMin >= range.startTime && range.days.contains(String.valueOf(curDay)) ||
-                    (curMin < range.endTime && range.days.contains(String.valueOf(prevDay))));
-            } else {
-                active = range.days.contains(String.valueOf(curDay));
-            }
-            if (active && Utils.isTimeOfDayInRange(c.getTimeInMillis(), range.startTime, range.endTime)) {
-                return range;
+        final int minuteOfWeek = getMinuteOfWeek(System.currentTimeMillis());
+        if (!isBitSet(mSchedule, minuteOfWeek)) return null;
+
+        for (int i = 0; i < mRanges.length; i++) {
+            if (isBitSet(mRangeSchedules[i], minuteOfWeek)) {
+                return mRanges[i];
             }
         }
 
         return null;
     }
 
+    /**
+     * Returns wall clock time of the next change of quiet hours active state
+     * or -1 if state is not going to change by itself (mode other than AUTO,
+     * no ranges or schedule covering whole week)
+     */
+    public long getNextTransitionTime() {
+        if (uncLocked || !enabled || mode != Mode.AUTO) return -1;
+
+        final long now = System.currentTimeMillis();
+        final int minuteOfWeek = getMinuteOfWeek(now);
+        final int next = findNextTransition(mSchedule, minuteOfWeek);
+        if (next < 0) return -1;
+
+        // move by local calendar days so that DST changes are respected
+        final int today = minuteOfWeek / MINUTES_PER_DAY;
+        int days = (next / MINUTES_PER_DAY - today + 7) % 7;
+        if (days == 0 && next <= minuteOfWeek) {
+            days = 7;
+        }
+        final Calendar cal = new GregorianCalendar();
+        cal.setTimeInMillis(now);
+        cal.add(Calendar.DAY_OF_MONTH, days);
+        cal.set(Calendar.HOUR_OF_DAY, (next % MINUTES_PER_DAY) / 60);
+        cal.set(Calendar.MINUTE, next % 60);
+        cal.set(Calendar.SECOND, 0);
+        cal.set(Calendar.MILLISECOND, 0);
+        return cal.getTimeInMillis();
+    }
+
+    private void compileSchedule() {
+        mRanges = ranges.toArray(new Range[0]);
+        mRangeSchedules = new long[mRanges.length][];
+        mSchedule = new long[SCHEDULE_WORDS];
+        for (int i = 0; i < mRanges.length; i++) {
+            final Range r = mRanges[i];
+            final long[] rs = new long[SCHEDULE_WORDS];
+            for (int day = 1; day <= 7; day++) {
+                if (r.days == null || !r.days.contains(String.valueOf(day))) continue;
+                final int dayStart = (day - 1) * MINUTES_PER_DAY;
+                if (r.startTime < r.endTime) {
+                    setBits(rs, dayStart + r.startTime, dayStart + r.endTime);
+                } else if (r.endsNextDay()) {
+                    setBits(rs, dayStart + r.startTime, dayStart + MINUTES_PER_DAY);
+                    final int nextDayStart = (day % 7) * MINUTES_PER_DAY;
+                    setBits(rs, nextDayStart, nextDayStart + r.endTime);
+                }
+            }
+            for (int w = 0; w < SCHEDULE_WORDS; w++) {
+                mSchedule[w] |= rs[w];
+            }
+            mRangeSchedules[i] = rs;
+        }
+    }
+
+    private static void setBits(long[] bits, int from, int to) {
+        for (int i = from; i < to; i++) {
+            bits[i >> 6] |= (1L << i);
+        }
+    }
+
+    private static boolean isBitSet(long[] bits, int index) {
+        return (bits[index >> 6] & (1L << index)) != 0;
+    }
+
+    private static int findNextTransition(long[] bits, int fromMinute) {
+        final boolean active = isBitSet(bits, fromMinute);
+        int index = fromMinute + 1;
+        // scan forward one word at a time, wrapping around at the end of the week
+        for (int scanned = 0; scanned <= SCHEDULE_WORDS; scanned++) {
+            if (index >= MINUTES_PER_WEEK) {
+                index = 0;
+            }
+            final int wordIdx = index >> 6;
+            long word = active ? ~bits[wordIdx] : bits[wordIdx];
+            word &= (-1L << index);
+            if (wordIdx == SCHEDULE_WORDS - 1) {
+                // ignore padding bits beyond the end of the week
+                word &= (-1L >>> (SCHEDULE_WORDS * 64 - MINUTES_PER_WEEK));
+            }
+            if (word != 0) {
+                return (wordIdx << 6) + Long.numberOfTrailingZeros(word);
+            }
+            index = (wordIdx + 1) << 6;
+        }
+        return -1;
+    }
+
     public boolean shouldMuteLed() {
         if (mode == Mode.AUTO) {
             Range r = getActiveRange();
@@ -18,11 +18,16 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.os.Handler;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+
+import com.ceco.q.gravitybox.SettingsChangeBroadcaster;
 
 import de.robv.android.xposed.XposedBridge;
 
@@ -30,6 +35,8 @@ public class BroadcastMediator {
     public static final String TAG="GB:BroadcastMediator";
     private static boolean DEBUG = false;
 
+    private static final Receiver[] NO_RECEIVERS = new Receiver[0];
+
     private static void log(String msg) {
         XposedBridge.log(TAG + ": " + msg);
     }
@@ -48,20 +55,44 @@ public class BroadcastMediator {
     }
 
     private Context mContext;
+    private Handler mHandler;
     private final List<Subscriber> mSubscribers;
     private final IntentFilter mIntentFilter;
     private boolean mInternalReceiverRegistered;
+    // registration is held back until managers are created; see commit()
+    private boolean mCommitted;
+    // actions were added after commit and re-registration is posted to the main thread
+    private boolean mRegisterPending;
+    // immutable action to receivers index; replaced as a whole whenever subscribers change
+    private volatile Map<String, Receiver[]> mActionIndex;
 
     BroadcastMediator() {
         mSubscribers = new ArrayList<>();
         mIntentFilter = new IntentFilter();
+        mActionIndex = Collections.emptyMap();
+        // batched settings changes are unpacked and dispatched by the mediator itself
+        mIntentFilter.addAction(SettingsChangeBroadcaster.ACTION_BATCH);
         if (DEBUG) log("BroadcastMediator created");
     }
 
     void setContext(Context context) {
         if (DEBUG) log("Received context");
-        mContext = context;
-        if (mIntentFilter.countActions() > 0) {
+        synchronized (mSubscribers) {
+            mContext = context;
+            mHandler = new Handler(context.getMainLooper());
+        }
+    }
+
+    /**
+     * Registers receiver for all the actions subscribed so far with a single call.
+     * Called once initial subscribers are in; subscriptions adding new actions
+     * after that are coalesced into a single re-registration posted to the main thread
+     * so that mods subscribing one after another during startup don't re-register each.
+     */
+    void commit() {
+        synchronized (mSubscribers) {
+            if (mContext == null || mCommitted) return;
+            mCommitted = true;
             registerReceiverInternal();
         }
     }
@@ -80,25 +111,14 @@ public class BroadcastMediator {
                 }
             }
             mSubscribers.add(new Subscriber(receiver, actions));
+            rebuildActionIndex();
             if (DEBUG) log("subscribing receiver: " + receiver);
             if (oldActionCount != mIntentFilter.countActions()) {
-                registerReceiverInternal();
+                scheduleRegisterReceiver();
             }
         }
     }
 
-    private void registerReceiverInternal() {
-        if (mContext == null) return;
-        if (mInternalReceiverRegistered) {
-            mContext.unregisterReceiver(mReceiverInternal);
-            mInternalReceiverRegistered = false;
-            if (DEBUG) log("reisterReceiverInternal: old internal receiver unregistered");
-        }
-        mContext.registerReceiver(mReceiverInternal, mIntentFilter);
-        mInternalReceiverRegistered = true;
-        if (DEBUG) log("reisterReceiverInternal: new internal receiver registered");
-    }
-
     /**
      * Subscribes receiver to receive broadcasts represented by actions of interest
      * @param receiver - to receive broadcast
@@ -115,28 +135,84 @@ public class BroadcastMediator {
     public void unsubscribe(Receiver receiver) {
         if (DEBUG) log("unsubscribing receiver: " + receiver);
         synchronized (mSubscribers) {
-            List<Subscriber> toRemove = mSubscribers.stream()
-                    .filter(s -> s.receiver == receiver)
-                    .collect(Collectors.toList());
-            if (!toRemove.isEmpty()) {
-                mSubscribers.removeAll(toRemove);
+            if (mSubscribers.removeIf(s -> s.receiver == receiver)) {
+                rebuildActionIndex();
+            }
+        }
+    }
+
+    private void rebuildActionIndex() {
+        Map<String, List<Receiver>> lists = new HashMap<>();
+        for (Subscriber s : mSubscribers) {
+            for (String action : s.actions) {
+                List<Receiver> list = lists.get(action);
+                if (list == null) {
+                    list = new ArrayList<>();
+                    lists.put(action, list);
+                }
+                list.add(s.receiver);
             }
         }
+        Map<String, Receiver[]> index = new HashMap<>(lists.size() * 2);
+        for (Map.Entry<String, List<Receiver>> entry : lists.entrySet()) {
+            index.put(entry.getKey(), entry.getValue().toArray(NO_RECEIVERS));
+        }
+        mActionIndex = index;
+    }
+
+    private void scheduleRegisterReceiver() {
+        if (!mCommitted || mRegisterPending) return;
+        mRegisterPending = true;
+        mHandler.post(mRegisterReceiverRunnable);
     }
 
-    private BroadcastReceiver mReceiverInternal = new BroadcastReceiver() {
+    private final Runnable mRegisterReceiverRunnable = new Runnable() {
         @Override
-        public void onReceive(Context context, Intent intent) {
+        public void run() {
             synchronized (mSubscribers) {
-                List<Receiver> toNotify = mSubscribers.stream()
-                        .filter(s -> s.actions.contains(intent.getAction()))
-                        .map(s -> s.receiver)
-                        .collect(Collectors.toList());
-                toNotify.forEach(r -> {
-                    if (DEBUG) log("Notifying listener: " + r +
-                            "; action=" + intent.getAction());
-                    r.onBroadcastReceived(context, intent);
-                });
+                mRegisterPending = false;
+                registerReceiverInternal();
+            }
+        }
+    };
+
+    private void registerReceiverInternal() {
+        if (mContext == null) return;
+        // single receiver is re-registered with merged filter
+        if (mInternalReceiverRegistered) {
+            mContext.unregisterReceiver(mReceiverInternal);
+            mInternalReceiverRegistered = false;
+            if (DEBUG) log("registerReceiverInternal: old internal receiver unregistered");
+        }
+        mContext.registerReceiver(mReceiverInternal, mIntentFilter);
+        mInternalReceiverRegistered = true;
+        if (DEBUG) log("registerReceiverInternal: internal receiver registered for " +
+                mIntentFilter.countActions() + " action(s)");
+    }
+
+    private final BroadcastReceiver mReceiverInternal = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (SettingsChangeBroadcaster.ACTION_BATCH.equals(intent.getAction())) {
+                List<Intent> intents = intent.getParcelableArrayListExtra(
+                        SettingsChangeBroadcaster.EXTRA_INTENTS);
+                if (intents == null) return;
+                if (DEBUG) log("Dispatching batch of " + intents.size() + " broadcast(s)");
+                final Map<String, Receiver[]> index = mActionIndex;
+                for (Intent i : intents) {
+                    dispatch(context, i, index.get(i.getAction()));
+                }
+            } else {
+                dispatch(context, intent, mActionIndex.get(intent.getAction()));
+            }
+        }
+
+        private void dispatch(Context context, Intent intent, Receiver[] receivers) {
+            if (receivers == null) return;
+            for (Receiver r : receivers) {
+                if (DEBUG) log("Notifying listener: " + r +
+                        "; action=" + intent.getAction());
+                r.onBroadcastReceived(context, intent);
             }
         }
     };
@@ -59,5 +59,6 @@ public class FrameworkManagers {
 
     private static void onCoreServicesStarted(Context systemContext) {
         BroadcastMediator.setContext(systemContext);
+        BroadcastMediator.commit();
     }
 }
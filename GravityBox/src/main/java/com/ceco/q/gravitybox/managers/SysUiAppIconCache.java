@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2020 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.q.gravitybox.managers;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.ceco.q.gravitybox.GravityBox;
+
+import android.content.BroadcastReceiver;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.ActivityInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.PackageManager.NameNotFoundException;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.drawable.Drawable;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.LruCache;
+import de.robv.android.xposed.XposedBridge;
+
+/**
+ * Memory bounded cache of application icons rendered at given size.
+ * Entries are keyed by component, size and density and dropped whenever owning package
+ * gets added, removed, changed or replaced.
+ */
+public class SysUiAppIconCache {
+    public static final String TAG="GB:AppIconCache";
+    private static boolean DEBUG = false;
+
+    private static final int MAX_CACHE_SIZE_KB = 4096;
+
+    private static void log(String msg) {
+        XposedBridge.log(TAG + ": " + msg);
+    }
+
+    public interface Callback {
+        /**
+         * Called on the main thread when icon is ready
+         * @param component - component icon was requested for
+         * @param icon - rendered icon or null in case it could not be loaded
+         */
+        void onIconLoaded(ComponentName component, Bitmap icon);
+    }
+
+    public interface Listener {
+        void onPackageIconsInvalidated(String pkgName);
+    }
+
+    private final Context mContext;
+    private final PackageManager mPm;
+    private final Handler mHandler;
+    private final LruCache<String, Bitmap> mCache;
+    private final Map<String, List<Callback>> mPendingCallbacks = new HashMap<>();
+    private final List<Listener> mListeners = new ArrayList<>();
+    private volatile int mGeneration;
+
+    SysUiAppIconCache(Context context) {
+        if (context == null)
+            throw new IllegalArgumentException("Context cannot be null");
+
+        mContext = context;
+        mPm = context.getPackageManager();
+        mHandler = new Handler(Looper.getMainLooper());
+
+        final int maxSizeKb = (int) Math.min(MAX_CACHE_SIZE_KB,
+                Runtime.getRuntime().maxMemory() / 1024 / 32);
+        mCache = new LruCache<String, Bitmap>(maxSizeKb) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return Math.max(1, value.getAllocationByteCount() / 1024);
+            }
+        };
+
+        IntentFilter intentFilter = new IntentFilter();
+        intentFilter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        intentFilter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        intentFilter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        intentFilter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        intentFilter.addDataScheme("package");
+        context.registerReceiver(mPackageReceiver, intentFilter);
+    }
+
+    private final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            Uri data = intent.getData();
+            String pkgName = data == null ? null : data.getSchemeSpecificPart();
+            if (pkgName != null) {
+                // consumers reload only once package is available again
+                invalidatePackage(pkgName,
+                        !Intent.ACTION_PACKAGE_REMOVED.equals(intent.getAction()));
+            }
+        }
+    };
+
+    public void registerListener(Listener listener) {
+        if (listener == null) return;
+        synchronized (mListeners) {
+            if (!mListeners.contains(listener)) {
+                mListeners.add(listener);
+            }
+        }
+    }
+
+    public void unregisterListener(Listener listener) {
+        if (listener == null) return;
+        synchronized (mListeners) {
+            mListeners.remove(listener);
+        }
+    }
+
+    private String getKey(ComponentName component, int sizePx) {
+        return component.flattenToString() + "@" + sizePx + ":" +
+                mContext.getResources().getDisplayMetrics().densityDpi;
+    }
+
+    /**
+     * Returns icon if already cached. Never decodes.
+     */
+    public Bitmap getCachedIcon(ComponentName component, int sizePx) {
+        if (component == null) return null;
+        return mCache.get(getKey(component, sizePx));
+    }
+
+    /**
+     * Delivers icon to callback. Callback is invoked immediately when icon is cached,
+     * otherwise icon is rendered in background and callback invoked on the main thread.
+     * Concurrent requests for the same icon share single load.
+     * Must be called from the main thread.
+     */
+    public void loadIcon(final ComponentName component, final int sizePx, Callback callback) {
+        if (component == null || callback == null) return;
+
+        final String key = getKey(component, sizePx);
+        Bitmap icon = mCache.get(key);
+        if (icon != null) {
+            callback.onIconLoaded(component, icon);
+            return;
+        }
+
+        List<Callback> callbacks = mPendingCallbacks.get(key);
+        if (callbacks != null) {
+            callbacks.add(callback);
+            return;
+        }
+        callbacks = new ArrayList<>(2);
+        callbacks.add(callback);
+        mPendingCallbacks.put(key, callbacks);
+        startLoad(key, component, sizePx);
+    }
+
+    private void startLoad(final String key, final ComponentName component, final int sizePx) {
+        final int generation = mGeneration;
+        AsyncTask.execute(() -> {
+            final Bitmap bmp = createIcon(mPm, component, sizePx);
+            mHandler.post(() -> {
+                if (generation != mGeneration) {
+                    // icons got invalidated meanwhile; load again for everyone waiting
+                    // so that no outdated icon gets delivered
+                    if (DEBUG) log("Icon outdated while loading: " + key);
+                    if (bmp != null) {
+                        bmp.recycle();
+                    }
+                    startLoad(key, component, sizePx);
+                    return;
+                }
+                if (bmp != null) {
+                    mCache.put(key, bmp);
+                }
+                List<Callback> pending = mPendingCallbacks.remove(key);
+                if (pending != null) {
+                    for (Callback cb : pending) {
+                        cb.onIconLoaded(component, bmp);
+                    }
+                }
+            });
+        });
+        if (DEBUG) log("Loading icon: " + key);
+    }
+
+    private void invalidatePackage(String pkgName, boolean notifyListeners) {
+        mGeneration++;
+        final String prefix = pkgName + "/";
+        for (String key : mCache.snapshot().keySet()) {
+            if (key.startsWith(prefix)) {
+                mCache.remove(key);
+            }
+        }
+        if (DEBUG) log("Icons invalidated for: " + pkgName);
+
+        if (!notifyListeners) return;
+        synchronized (mListeners) {
+            for (Listener l : mListeners) {
+                l.onPackageIconsInvalidated(pkgName);
+            }
+        }
+    }
+
+    /**
+     * Renders icon of given component into new bitmap of given size
+     * @return bitmap or null if component does not exist or its icon cannot be loaded
+     */
+    public static Bitmap createIcon(PackageManager pm, ComponentName component, int sizePx) {
+        try {
+            ActivityInfo ai = pm.getActivityInfo(component, 0);
+            Drawable d = ai.loadIcon(pm);
+            if (d == null) return null;
+            Bitmap bmp = Bitmap.createBitmap(sizePx, sizePx, Bitmap.Config.ARGB_8888);
+            Canvas canvas = new Canvas(bmp);
+            d.setBounds(0, 0, sizePx, sizePx);
+            d.draw(canvas);
+            return bmp;
+        } catch (NameNotFoundException e) {
+            if (DEBUG) log("Component not found: " + component);
+            return null;
+        } catch (Throwable t) {
+            GravityBox.log(TAG, "Error creating icon for " + component + ": ", t);
+            return null;
+        }
+    }
+}
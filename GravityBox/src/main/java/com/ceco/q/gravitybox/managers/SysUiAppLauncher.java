@@ -36,6 +36,7 @@ import android.annotation.SuppressLint;
 import android.app.ActivityOptions;
 import android.app.Dialog;
 import android.content.BroadcastReceiver;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
@@ -62,7 +63,8 @@ import android.view.WindowManager;
 import android.widget.TextView;
 import android.widget.Toast;
 
-public class SysUiAppLauncher implements BroadcastMediator.Receiver, SysUiConfigChangeMonitor.ConfigChangeListener {
+public class SysUiAppLauncher implements BroadcastMediator.Receiver, SysUiConfigChangeMonitor.ConfigChangeListener,
+                                         SysUiAppIconCache.Listener {
     private static final String TAG = "GB:AppLauncher";
     private static final boolean DEBUG = false;
 
@@ -70,6 +72,13 @@ public class SysUiAppLauncher implements BroadcastMediator.Receiver, SysUiConfig
 
     enum DialogTheme { DEFAULT, LIGHT, DARK }
 
+    public interface AppIconListener {
+        /**
+         * Called on the main thread when icon of standalone app info got loaded
+         */
+        void onAppIconLoaded(AppInfo ai);
+    }
+
     private Context mContext;
     private Context mGbContext;
     private Resources mResources;
@@ -137,6 +146,10 @@ public class SysUiAppLauncher implements BroadcastMediator.Receiver, SysUiConfig
         intentFilter.addDataScheme("package");
         mContext.registerReceiver(mPackageRemoveReceiver, intentFilter);
 
+        if (SysUiManagers.AppIconCache != null) {
+            SysUiManagers.AppIconCache.registerListener(this);
+        }
+
         SysUiManagers.BroadcastMediator.subscribe(this,
                 GravityBoxSettings.ACTION_PREF_APP_LAUNCHER_CHANGED,
                 ACTION_SHOW_APP_LAUCNHER);
@@ -174,6 +187,24 @@ public class SysUiAppLauncher implements BroadcastMediator.Receiver, SysUiConfig
         }
     }
 
+    @Override
+    public void onPackageIconsInvalidated(String pkgName) {
+        for (AppInfo ai : mAppSlots) {
+            if (pkgName.equals(ai.getPackageName())) {
+                ai.initAppInfo(ai.getValue());
+            }
+        }
+    }
+
+    private void onAppIconLoaded(AppInfo ai) {
+        if (mDialog != null && mDialog.isShowing()) {
+            TextView tv = mDialog.findViewById(ai.getResId());
+            if (tv != null) {
+                tv.setCompoundDrawablesWithIntrinsicBounds(null, ai.getAppIcon(), null, null);
+            }
+        }
+    }
+
     public void setStatusBar(Object statusBar) {
         mStatusBar = statusBar;
     }
@@ -365,6 +396,9 @@ public class SysUiAppLauncher implements BroadcastMediator.Receiver, SysUiConfig
         private Intent mIntent;
         private String mPkgName;
         private int mSizeDp;
+        private AppIconListener mIconListener;
+        // identifies pending icon load; cleared when icon is set by other means
+        private Object mIconRequest;
 
         AppInfo(int resId) {
             mResId = resId;
@@ -385,9 +419,14 @@ public class SysUiAppLauncher implements BroadcastMediator.Receiver, SysUiConfig
         }
 
         public void setAppIcon(Drawable d) {
+            mIconRequest = null;
             mAppIcon = d;
         }
 
+        public void setAppIconListener(AppIconListener listener) {
+            mIconListener = listener;
+        }
+
         public void setSizeDp(int sizeDp) {
             mSizeDp = sizeDp;
         }
@@ -415,12 +454,47 @@ public class SysUiAppLauncher implements BroadcastMediator.Receiver, SysUiConfig
             mAppIcon = null;
             mIntent = null;
             mPkgName = null;
+            mIconRequest = null;
         }
 
         public void initAppInfo(String value) {
             initAppInfo(value, true);
         }
 
+        private void loadAppIcon(int sizePx) {
+            final ComponentName cn = mIntent.getComponent();
+            final SysUiAppIconCache iconCache = SysUiManagers.AppIconCache;
+            if (iconCache == null) {
+                Bitmap icon = SysUiAppIconCache.createIcon(mPm, cn, sizePx);
+                mIconRequest = null;
+                mAppIcon = icon == null ? null : new BitmapDrawable(mResources, icon);
+                return;
+            }
+
+            Bitmap icon = iconCache.getCachedIcon(cn, sizePx);
+            if (icon != null) {
+                mIconRequest = null;
+                mAppIcon = new BitmapDrawable(mResources, icon);
+                return;
+            }
+
+            // placeholder is shown until icon gets rendered in background
+            mAppIcon = null;
+            final Object request = new Object();
+            mIconRequest = request;
+            iconCache.loadIcon(cn, sizePx, (component, bmp) -> {
+                if (bmp != null && request == mIconRequest) {
+                    mIconRequest = null;
+                    mAppIcon = new BitmapDrawable(mResources, bmp);
+                    if (mResId != 0) {
+                        onAppIconLoaded(this);
+                    } else if (mIconListener != null) {
+                        mIconListener.onAppIconLoaded(this);
+                    }
+                }
+            });
+        }
+
         void initAppInfo(String value, boolean loadLabelAndIcon) {
             mValue = value;
             if (mValue == null) {
@@ -439,6 +513,8 @@ public class SysUiAppLauncher implements BroadcastMediator.Receiver, SysUiConfig
                 }
 
                 if (loadLabelAndIcon) {
+                    // icon of previous value still being loaded must not replace the new one
+                    mIconRequest = null;
                     final int mode = mIntent.getIntExtra("mode", AppPickerPreference.MODE_APP);
                     Bitmap appIcon = null;
                     final String iconResName = mIntent.getStringExtra("iconResName");
@@ -459,18 +535,18 @@ public class SysUiAppLauncher implements BroadcastMediator.Receiver, SysUiConfig
                         }
                     }
 
+                    int sizePx = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, mSizeDp, 
+                            mResources.getDisplayMetrics());
                     if (mode == AppPickerPreference.MODE_APP) {
                         ActivityInfo ai = mPm.getActivityInfo(mIntent.getComponent(), 0);
                         mAppName = ai.loadLabel(mPm).toString();
                         if (appIcon == null) {
-                            appIcon = BitmapUtils.drawableToBitmap(ai.loadIcon(mPm));
+                            loadAppIcon(sizePx);
                         }
                     } else if (mode == AppPickerPreference.MODE_SHORTCUT) {
                         mAppName = mIntent.getStringExtra("label");
                     }
                     if (appIcon != null) {
-                        int sizePx = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, mSizeDp, 
-                                mResources.getDisplayMetrics());
                         Bitmap scaledIcon = Bitmap.createScaledBitmap(appIcon, sizePx, sizePx, true);
                         mAppIcon = new BitmapDrawable(mResources, scaledIcon);
                         if (mDialogTheme != DialogTheme.DARK && 
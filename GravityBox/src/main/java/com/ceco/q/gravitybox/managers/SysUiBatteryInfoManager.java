@@ -117,7 +117,7 @@ public class SysUiBatteryInfoManager implements BroadcastMediator.Receiver {
 
     protected SysUiBatteryInfoManager(Context context, XSharedPreferences prefs, XSharedPreferences qhPrefs) {
         mContext = context;
-        mQuietHours = new QuietHours(qhPrefs);
+        mQuietHours = QuietHours.getInstance(qhPrefs);
         mBatteryData = new BatteryData();
         mSounds = new Uri[4];
         mPowerManager = (PowerManager) mContext.getSystemService(Context.POWER_SERVICE);
@@ -306,7 +306,7 @@ public class SysUiBatteryInfoManager implements BroadcastMediator.Receiver {
             mLowBatteryWarningPolicy = LowBatteryWarningPolicy.valueOf(intent.getStringExtra(
                     GravityBoxSettings.EXTRA_LOW_BATTERY_WARNING_POLICY));
         } else if (action.equals(QuietHoursActivity.ACTION_QUIET_HOURS_CHANGED)) {
-            mQuietHours = new QuietHours(intent.getExtras());
+            mQuietHours = QuietHours.update(intent.getExtras());
         }
     }
 }
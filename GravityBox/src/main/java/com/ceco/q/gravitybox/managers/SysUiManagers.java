@@ -38,6 +38,9 @@ public class SysUiManagers {
     public static SysUiTunerManager TunerMgr;
     public static SysUiPackageManager PackageMgr;
     public static SysUiConfigChangeMonitor ConfigChangeMonitor;
+    public static SysUiTrafficSampler TrafficSampler;
+    public static SysUiTaskStackMonitor TaskStackMonitor;
+    public static SysUiAppIconCache AppIconCache;
     public static BroadcastMediator BroadcastMediator;
 
     public static void init() {
@@ -78,6 +81,12 @@ public class SysUiManagers {
             GravityBox.log(TAG, "Error creating QuietHoursManager: ", t);
         }
 
+        try {
+            AppIconCache = new SysUiAppIconCache(context);
+        } catch (Throwable t) {
+            GravityBox.log(TAG, "Error creating AppIconCache: ", t);
+        }
+
         try {
             AppLauncher = new SysUiAppLauncher(context, prefs);
             if (ConfigChangeMonitor != null) {
@@ -131,6 +140,21 @@ public class SysUiManagers {
         } catch (Throwable t) {
             GravityBox.log(TAG, "Error creating PackageManager: ", t);
         }
+
+        try {
+            TrafficSampler = new SysUiTrafficSampler(context);
+        } catch (Throwable t) {
+            GravityBox.log(TAG, "Error creating TrafficSampler: ", t);
+        }
+
+        try {
+            TaskStackMonitor = new SysUiTaskStackMonitor(context);
+        } catch (Throwable t) {
+            GravityBox.log(TAG, "Error creating TaskStackMonitor: ", t);
+        }
+
+        // single registration covering all the managers created above
+        BroadcastMediator.commit();
     }
 
     public static void createKeyguardMonitor(Context ctx, XSharedPreferences prefs) {
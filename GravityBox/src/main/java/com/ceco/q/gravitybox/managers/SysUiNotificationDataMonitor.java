@@ -14,7 +14,9 @@
  */
 package com.ceco.q.gravitybox.managers;
 
+import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -43,9 +45,21 @@ public class SysUiNotificationDataMonitor {
         void onNotificationDataChanged(final StatusBarNotification sbn);
     }
 
+    private static final class NotifRecord {
+        String pkg;
+        int count;
+    }
+
     private Context mContext;
     private Object mNotifData;
     private final List<Listener> mListeners = new ArrayList<>();
+    // notification key -> record; package name -> total count of its notifications
+    private final Map<String, NotifRecord> mRecords = new HashMap<>();
+    private final Map<String, int[]> mPkgCounts = new HashMap<>();
+    // index is rebuilt from NotificationData entries when not in sync with them
+    private boolean mIndexValid;
+    private Class<?> mEntryClass;
+    private Field mNotificationField;
 
     protected SysUiNotificationDataMonitor(Context context) {
         if (context == null)
@@ -66,6 +80,7 @@ public class SysUiNotificationDataMonitor {
                 @Override
                 protected void afterHookedMethod(final MethodHookParam param) {
                     mNotifData = param.thisObject;
+                    mIndexValid = false;
                     if (DEBUG) log("NotificatioData object constructed");
                 }
             });
@@ -75,6 +90,7 @@ public class SysUiNotificationDataMonitor {
                 protected void afterHookedMethod(final MethodHookParam param) {
                     if (DEBUG) log("Notification entry added");
                     StatusBarNotification sbn = getSbNotificationFromArgs(param.args);
+                    putToIndex(sbn);
                     notifyDataChanged(sbn);
                 }
             });
@@ -83,10 +99,11 @@ public class SysUiNotificationDataMonitor {
                 @Override
                 protected void afterHookedMethod(final MethodHookParam param) {
                     if (DEBUG) log("Notification entry removed");
-                    StatusBarNotification sbn = null;
-                    if (hasNotificationField(param.getResult())) {
-                        sbn = (StatusBarNotification) XposedHelpers.getObjectField(
-                                param.getResult(), "notification");
+                    StatusBarNotification sbn = getSbNotification(param.getResult());
+                    if (sbn != null) {
+                        removeFromIndex(sbn.getKey());
+                    } else if (param.args.length > 0 && param.args[0] instanceof String) {
+                        removeFromIndex((String) param.args[0]);
                     }
                     notifyDataChanged(sbn);
                 }
@@ -97,7 +114,11 @@ public class SysUiNotificationDataMonitor {
                 @Override
                 protected void afterHookedMethod(MethodHookParam param) {
                     if (DEBUG) log("Notification entry updated");
-                    notifyDataChanged((StatusBarNotification) param.args[0]);
+                    StatusBarNotification sbn = (StatusBarNotification) param.args[0];
+                    if (mRecords.containsKey(sbn.getKey())) {
+                        putToIndex(sbn);
+                    }
+                    notifyDataChanged(sbn);
                 }
             });
         } catch (Throwable t) {
@@ -107,21 +128,83 @@ public class SysUiNotificationDataMonitor {
 
     private StatusBarNotification getSbNotificationFromArgs(Object[] args) {
         for (Object o : args) {
-            if (o instanceof StatusBarNotification)
-                return (StatusBarNotification) o;
-            else if (hasNotificationField(o))
-                return (StatusBarNotification)
-                        XposedHelpers.getObjectField(o, "notification");
+            StatusBarNotification sbn = getSbNotification(o);
+            if (sbn != null)
+                return sbn;
         }
         return null;
     }
 
-    private boolean hasNotificationField(Object o) {
+    private StatusBarNotification getSbNotification(Object o) {
+        if (o == null) return null;
+        if (o instanceof StatusBarNotification)
+            return (StatusBarNotification) o;
+
+        // notification field is looked up once per class of notification entry
+        final Class<?> cls = o.getClass();
+        if (cls != mEntryClass) {
+            mEntryClass = cls;
+            mNotificationField = XposedHelpers.findFieldIfExists(cls, "notification");
+        }
+        if (mNotificationField == null) return null;
         try {
-            XposedHelpers.getObjectField(o, "notification");
-            return true;
+            Object sbn = mNotificationField.get(o);
+            return (sbn instanceof StatusBarNotification ? (StatusBarNotification) sbn : null);
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    private void putToIndex(StatusBarNotification sbn) {
+        if (sbn == null || !mIndexValid) return;
+
+        NotifRecord record = mRecords.get(sbn.getKey());
+        if (record == null) {
+            record = new NotifRecord();
+            mRecords.put(sbn.getKey(), record);
+        } else {
+            addToPkgCount(record.pkg, -record.count);
+        }
+        final Notification n = sbn.getNotification();
+        record.pkg = sbn.getPackageName();
+        record.count = (n.number > 0 ? n.number : 1);
+        addToPkgCount(record.pkg, record.count);
+    }
+
+    private void removeFromIndex(String key) {
+        if (!mIndexValid) return;
+
+        NotifRecord record = mRecords.remove(key);
+        if (record != null) {
+            addToPkgCount(record.pkg, -record.count);
+        }
+    }
+
+    private void addToPkgCount(String pkg, int delta) {
+        int[] count = mPkgCounts.get(pkg);
+        if (count == null) {
+            count = new int[1];
+            mPkgCounts.put(pkg, count);
+        }
+        count[0] += delta;
+        if (count[0] <= 0) {
+            mPkgCounts.remove(pkg);
+        }
+    }
+
+    private void rebuildIndex() {
+        mRecords.clear();
+        mPkgCounts.clear();
+        mIndexValid = true;
+        try {
+            Map<?,?> entries = (Map<?,?>) XposedHelpers.getObjectField(mNotifData, "mEntries");
+            for (Object entry : entries.values()) {
+                putToIndex(getSbNotification(entry));
+            }
+            if (DEBUG) log("rebuildIndex: " + mRecords.size() + " entries");
         } catch (Throwable t) {
-            return false;
+            mIndexValid = false;
+            GravityBox.log(TAG, t);
         }
     }
 
@@ -152,22 +235,13 @@ public class SysUiNotificationDataMonitor {
     public int getNotifCountFor(String pkg) {
         if (pkg == null || mNotifData == null) return 0;
 
-        int count = 0;
-
-        try {
-            Map<?,?> entries = (Map<?,?>) XposedHelpers.getObjectField(mNotifData, "mEntries");
-            for (Object entry : entries.values()) {
-                StatusBarNotification sbn = (StatusBarNotification)
-                        XposedHelpers.getObjectField(entry, "notification");
-                if (pkg.equals(sbn.getPackageName())) {
-                    final Notification n = sbn.getNotification();
-                    count += (n.number > 0 ? n.number : 1);
-                }
-            }
-        } catch (Throwable t) {
-            GravityBox.log(TAG, t);
+        if (!mIndexValid) {
+            rebuildIndex();
         }
 
+        final int[] pkgCount = mPkgCounts.get(pkg);
+        final int count = (pkgCount == null ? 0 : pkgCount[0]);
+
         if (DEBUG) log("getNotifCountFor: " + pkg + "=" + count);
 
         return count;
@@ -35,6 +35,7 @@ public class SysUiStatusbarQuietHoursManager implements BroadcastMediator.Receiv
     private Context mContext;
     private QuietHours mQuietHours;
     private List<QuietHoursListener> mListeners;
+    private long mNextTransitionTime = -1;
 
     public interface QuietHoursListener {
         void onQuietHoursChanged();
@@ -52,7 +53,8 @@ public class SysUiStatusbarQuietHoursManager implements BroadcastMediator.Receiv
 
     private SysUiStatusbarQuietHoursManager(Context context, XSharedPreferences qhPrefs) {
         mContext = context;
-        mQuietHours = new QuietHours(qhPrefs);
+        mQuietHours = QuietHours.getInstance(qhPrefs);
+        mNextTransitionTime = mQuietHours.getNextTransitionTime();
         mListeners = new ArrayList<>();
 
         SysUiManagers.BroadcastMediator.subscribe(this,
@@ -65,12 +67,20 @@ public class SysUiStatusbarQuietHoursManager implements BroadcastMediator.Receiv
     @Override
     public void onBroadcastReceived(Context context, Intent intent) {
         final String action = intent.getAction();
-        if (action.equals(Intent.ACTION_TIME_TICK) ||
-                action.equals(Intent.ACTION_TIME_CHANGED) ||
+        if (action.equals(Intent.ACTION_TIME_TICK)) {
+            // quiet hours state can only change at scheduled transition
+            if (mNextTransitionTime >= 0 && System.currentTimeMillis() >= mNextTransitionTime) {
+                mNextTransitionTime = mQuietHours.getNextTransitionTime();
+                notifyTimeTick();
+            }
+        } else if (action.equals(Intent.ACTION_TIME_CHANGED) ||
                 action.equals(Intent.ACTION_TIMEZONE_CHANGED)) {
+            QuietHours.onTimeChanged();
+            mNextTransitionTime = mQuietHours.getNextTransitionTime();
             notifyTimeTick();
         } else if (action.equals(QuietHoursActivity.ACTION_QUIET_HOURS_CHANGED)) {
-            mQuietHours = new QuietHours(intent.getExtras());
+            mQuietHours = QuietHours.update(intent.getExtras());
+            mNextTransitionTime = mQuietHours.getNextTransitionTime();
             notifyQuietHoursChange();
         }
     }
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2020 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.q.gravitybox.managers;
+
+import java.util.List;
+
+import com.ceco.q.gravitybox.GravityBox;
+
+import android.app.ActivityManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.AsyncTask;
+import de.robv.android.xposed.XC_MethodHook;
+import de.robv.android.xposed.XposedBridge;
+import de.robv.android.xposed.XposedHelpers;
+
+/**
+ * Keeps track of the package owning top activity based on task stack events SystemUI
+ * already receives so that hot paths don't need to query ActivityManager.
+ */
+public class SysUiTaskStackMonitor {
+    public static final String TAG="GB:TaskStackMonitor";
+    private static final String CLASS_TASK_STACK_LISTENERS =
+            "com.android.systemui.shared.system.TaskStackChangeListeners";
+    private static boolean DEBUG = false;
+
+    private static void log(String msg) {
+        XposedBridge.log(TAG + ": " + msg);
+    }
+
+    private final ActivityManager mAm;
+    private volatile String mTopPackageName;
+    private volatile boolean mTracking;
+    private boolean mRefreshPending;
+
+    SysUiTaskStackMonitor(Context context) {
+        if (context == null)
+            throw new IllegalArgumentException("Context cannot be null");
+
+        mAm = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        createHooks(context.getClassLoader());
+        if (mTracking) {
+            scheduleRefresh();
+        }
+    }
+
+    private void createHooks(ClassLoader cl) {
+        try {
+            Class<?> listenersClass = XposedHelpers.findClass(CLASS_TASK_STACK_LISTENERS, cl);
+
+            XposedBridge.hookAllMethods(listenersClass, "onTaskStackChanged", new XC_MethodHook() {
+                @Override
+                protected void afterHookedMethod(MethodHookParam param) {
+                    scheduleRefresh();
+                }
+            });
+
+            XposedBridge.hookAllMethods(listenersClass, "onTaskMovedToFront", new XC_MethodHook() {
+                @Override
+                protected void afterHookedMethod(MethodHookParam param) {
+                    if (param.args.length == 1 &&
+                            param.args[0] instanceof ActivityManager.RunningTaskInfo) {
+                        ComponentName cn = ((ActivityManager.RunningTaskInfo) param.args[0]).topActivity;
+                        if (cn != null) {
+                            setTopPackageName(cn.getPackageName());
+                        }
+                    }
+                }
+            });
+
+            mTracking = true;
+        } catch (Throwable t) {
+            GravityBox.log(TAG, "Task stack tracking unavailable: ", t);
+            mTracking = false;
+        }
+    }
+
+    private void scheduleRefresh() {
+        synchronized (this) {
+            if (mRefreshPending) return;
+            mRefreshPending = true;
+        }
+        AsyncTask.execute(() -> {
+            synchronized (SysUiTaskStackMonitor.this) {
+                mRefreshPending = false;
+            }
+            String pkgName = queryTopPackageName();
+            if (pkgName != null) {
+                setTopPackageName(pkgName);
+            }
+        });
+    }
+
+    private void setTopPackageName(String pkgName) {
+        if (DEBUG && !pkgName.equals(mTopPackageName)) log("Top package: " + pkgName);
+        mTopPackageName = pkgName;
+    }
+
+    @SuppressWarnings("deprecation")
+    private String queryTopPackageName() {
+        try {
+            List<ActivityManager.RunningTaskInfo> taskInfo = mAm.getRunningTasks(1);
+            ComponentName cn = taskInfo.get(0).topActivity;
+            return cn.getPackageName();
+        } catch (Throwable t) {
+            GravityBox.log(TAG, "Error getting top level package: ", t);
+            return null;
+        }
+    }
+
+    /**
+     * Returns package name owning top activity.
+     * Falls back to querying ActivityManager in case task stack events cannot be tracked.
+     */
+    public String getTopPackageName() {
+        String pkgName = mTopPackageName;
+        if (!mTracking || pkgName == null) {
+            pkgName = queryTopPackageName();
+            if (mTracking && pkgName != null) {
+                setTopPackageName(pkgName);
+            }
+        }
+        return pkgName;
+    }
+}
@@ -0,0 +1,362 @@
+/*
+ * Copyright (C) 2020 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.q.gravitybox.managers;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.content.Intent;
+import android.net.ConnectivityManager;
+import android.net.LinkProperties;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
+import android.net.TrafficStats;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import de.robv.android.xposed.XposedBridge;
+
+/**
+ * Single SystemUI-wide source of network throughput samples.
+ * Interfaces to be counted are resolved once per change of any network (including VPN)
+ * or tethering state and sampling runs only while there is at least one listener
+ * and the screen is on.
+ * Sampling slows down while there is no traffic; listeners must not assume
+ * fixed interval between samples.
+ */
+public class SysUiTrafficSampler implements BroadcastMediator.Receiver {
+    public static final String TAG="GB:TrafficSampler";
+    private static boolean DEBUG = false;
+
+    public static final int SAMPLING_INTERVAL = 1000;
+    public static final int IDLE_SAMPLING_INTERVAL = 3000;
+    // number of consecutive samples without traffic after which sampling slows down
+    private static final int IDLE_SAMPLES_THRESHOLD = 5;
+    // network callbacks come in bursts; interfaces are resolved once they settle
+    private static final int INTERFACE_REFRESH_DELAY = 200;
+    private static final String ACTION_TETHER_STATE_CHANGED = "android.net.conn.TETHER_STATE_CHANGED";
+
+    private static void log(String msg) {
+        XposedBridge.log(TAG + ": " + msg);
+    }
+
+    public interface Listener {
+        /**
+         * Called on the main thread with each new sample
+         * @param timestamp - elapsed realtime of the sample
+         * @param rxBytes - total received bytes over counted interfaces
+         * @param txBytes - total transmitted bytes over counted interfaces
+         * @param rxRate - receive rate since previous sample in bytes per second;
+         *                 0 when counted interfaces changed since previous sample
+         * @param txRate - transmit rate since previous sample in bytes per second;
+         *                 0 when counted interfaces changed since previous sample
+         */
+        void onTrafficSample(long timestamp, long rxBytes, long txBytes, long rxRate, long txRate);
+    }
+
+    // direct handles of hidden TrafficStats.getRxBytes(String) and getTxBytes(String)
+    private static MethodHandle sGetRxBytesMethod;
+    private static MethodHandle sGetTxBytesMethod;
+    private static boolean sMethodsResolved;
+
+    private final ConnectivityManager mConManager;
+    private final Handler mHandler;
+    private final List<Listener> mListeners = new ArrayList<>();
+    private String[] mInterfaces;
+    // counted interfaces changed so the next sample must not be used for rate
+    private boolean mInterfacesChanged;
+    private boolean mIsScreenOn = true;
+    private boolean mSampling;
+    private long mTimestamp;
+    private long mRxBytes;
+    private long mTxBytes;
+    private long mRxRate;
+    private long mTxRate;
+    private int mIdleSamples;
+
+    SysUiTrafficSampler(Context context) {
+        if (context == null)
+            throw new IllegalArgumentException("Context cannot be null");
+
+        mConManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        mHandler = new Handler(Looper.getMainLooper());
+        resolveInterfaces();
+
+        try {
+            // VPN networks are included so that their changes trigger refresh as well
+            NetworkRequest request = new NetworkRequest.Builder()
+                    .removeCapability(NetworkCapabilities.NET_CAPABILITY_NOT_VPN)
+                    .build();
+            mConManager.registerNetworkCallback(request, mNetworkCallback, mHandler);
+        } catch (Throwable t) {
+            XposedBridge.log(t);
+        }
+
+        SysUiManagers.BroadcastMediator.subscribe(this,
+                ACTION_TETHER_STATE_CHANGED,
+                Intent.ACTION_SCREEN_ON,
+                Intent.ACTION_SCREEN_OFF);
+    }
+
+    private final ConnectivityManager.NetworkCallback mNetworkCallback =
+            new ConnectivityManager.NetworkCallback() {
+        @Override
+        public void onAvailable(Network network) {
+            scheduleInterfaceRefresh();
+        }
+
+        @Override
+        public void onLost(Network network) {
+            scheduleInterfaceRefresh();
+        }
+
+        @Override
+        public void onCapabilitiesChanged(Network network, NetworkCapabilities nCap) {
+            scheduleInterfaceRefresh();
+        }
+
+        @Override
+        public void onLinkPropertiesChanged(Network network, LinkProperties lp) {
+            scheduleInterfaceRefresh();
+        }
+    };
+
+    private void scheduleInterfaceRefresh() {
+        mHandler.removeCallbacks(mInterfaceRefreshRunnable);
+        mHandler.postDelayed(mInterfaceRefreshRunnable, INTERFACE_REFRESH_DELAY);
+    }
+
+    private final Runnable mInterfaceRefreshRunnable = new Runnable() {
+        @Override
+        public void run() {
+            resolveInterfaces();
+            // traffic is likely to follow so get back to regular interval
+            if (mSampling && mIdleSamples >= IDLE_SAMPLES_THRESHOLD) {
+                mIdleSamples = 0;
+                mHandler.removeCallbacks(mSampleRunnable);
+                mHandler.postDelayed(mSampleRunnable, SAMPLING_INTERVAL);
+            }
+        }
+    };
+
+    @Override
+    public void onBroadcastReceived(Context context, Intent intent) {
+        final String action = intent.getAction();
+        if (ACTION_TETHER_STATE_CHANGED.equals(action)) {
+            scheduleInterfaceRefresh();
+        } else if (Intent.ACTION_SCREEN_ON.equals(action) ||
+                Intent.ACTION_SCREEN_OFF.equals(action)) {
+            mIsScreenOn = Intent.ACTION_SCREEN_ON.equals(action);
+            updateSamplingState();
+        }
+    }
+
+    public void registerListener(Listener listener) {
+        if (listener == null) return;
+        synchronized (mListeners) {
+            if (!mListeners.contains(listener)) {
+                mListeners.add(listener);
+            }
+        }
+        updateSamplingState();
+    }
+
+    public void unregisterListener(Listener listener) {
+        if (listener == null) return;
+        synchronized (mListeners) {
+            mListeners.remove(listener);
+        }
+        updateSamplingState();
+    }
+
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    public long getRxBytes() {
+        return mRxBytes;
+    }
+
+    public long getTxBytes() {
+        return mTxBytes;
+    }
+
+    public long getRxRate() {
+        return mRxRate;
+    }
+
+    public long getTxRate() {
+        return mTxRate;
+    }
+
+    private void updateSamplingState() {
+        final boolean shouldSample;
+        synchronized (mListeners) {
+            shouldSample = mIsScreenOn && !mListeners.isEmpty();
+        }
+        if (shouldSample && !mSampling) {
+            mSampling = true;
+            // take baseline so that listeners get a valid rate with the first dispatched sample
+            takeSample();
+            mRxRate = mTxRate = 0;
+            mIdleSamples = 0;
+            mHandler.removeCallbacks(mSampleRunnable);
+            mHandler.postDelayed(mSampleRunnable, SAMPLING_INTERVAL);
+            if (DEBUG) log("sampling started");
+        } else if (!shouldSample && mSampling) {
+            mSampling = false;
+            mHandler.removeCallbacks(mSampleRunnable);
+            if (DEBUG) log("sampling stopped");
+        }
+    }
+
+    private final Runnable mSampleRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (!mSampling) return;
+            takeSample();
+            synchronized (mListeners) {
+                for (int i = 0; i < mListeners.size(); i++) {
+                    mListeners.get(i).onTrafficSample(mTimestamp, mRxBytes, mTxBytes, mRxRate, mTxRate);
+                }
+            }
+            if (mSampling) {
+                mHandler.postDelayed(this, mIdleSamples >= IDLE_SAMPLES_THRESHOLD ?
+                        IDLE_SAMPLING_INTERVAL : SAMPLING_INTERVAL);
+            }
+        }
+    };
+
+    private void takeSample() {
+        final long lastTimestamp = mTimestamp;
+        final long lastRxBytes = mRxBytes;
+        final long lastTxBytes = mTxBytes;
+
+        mTimestamp = SystemClock.elapsedRealtime();
+        if (!readInterfaceBytes()) {
+            mRxBytes = TrafficStats.getTotalRxBytes();
+            mTxBytes = TrafficStats.getTotalTxBytes();
+        }
+        final boolean interfacesChanged = mInterfacesChanged;
+        mInterfacesChanged = false;
+
+        // counters of added or removed interfaces would show up as a spike or a drop
+        if (interfacesChanged) {
+            mRxRate = mTxRate = 0;
+            if (DEBUG) log("takeSample: interfaces changed; new baseline taken");
+            return;
+        }
+
+        if (mRxBytes == lastRxBytes && mTxBytes == lastTxBytes) {
+            mIdleSamples++;
+        } else {
+            mIdleSamples = 0;
+        }
+
+        final long td = mTimestamp - lastTimestamp;
+        if (td > 0) {
+            mRxRate = Math.max(0, mRxBytes - lastRxBytes) * 1000 / td;
+            mTxRate = Math.max(0, mTxBytes - lastTxBytes) * 1000 / td;
+        }
+        if (DEBUG) log("takeSample: rxBytes=" + mRxBytes + "; txBytes=" + mTxBytes +
+                "; rxRate=" + mRxRate + "; txRate=" + mTxRate);
+    }
+
+    private boolean readInterfaceBytes() {
+        final String[] interfaces = mInterfaces;
+        if (interfaces == null) return false;
+        try {
+            long rxBytes = 0;
+            long txBytes = 0;
+            for (String iface : interfaces) {
+                rxBytes += (long) sGetRxBytesMethod.invokeExact(iface);
+                txBytes += (long) sGetTxBytesMethod.invokeExact(iface);
+            }
+            mRxBytes = rxBytes;
+            mTxBytes = txBytes;
+            return true;
+        } catch (Throwable t) {
+            if (DEBUG) log("readInterfaceBytes: error: " + t.getMessage());
+            // falling back to device totals is a change of counted interfaces as well
+            mInterfaces = null;
+            mInterfacesChanged = true;
+            return false;
+        }
+    }
+
+    private void resolveInterfaces() {
+        final String[] oldInterfaces = mInterfaces;
+        resolveInterfacesInternal();
+        if (!Arrays.equals(oldInterfaces, mInterfaces)) {
+            mInterfacesChanged = true;
+        }
+    }
+
+    @SuppressLint("MissingPermission")
+    private void resolveInterfacesInternal() {
+        if (!canUsePrimaryMethod()) {
+            mInterfaces = null;
+            return;
+        }
+        try {
+            List<String> interfaces = new ArrayList<>();
+            for (Network network : mConManager.getAllNetworks()) {
+                NetworkCapabilities nCap = mConManager.getNetworkCapabilities(network);
+                if (nCap == null) continue;
+                if (nCap.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET) &&
+                        nCap.hasCapability(NetworkCapabilities.NET_CAPABILITY_FOREGROUND) &&
+                        nCap.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_VPN)) {
+                    LinkProperties lp = mConManager.getLinkProperties(network);
+                    if (lp == null || lp.getInterfaceName() == null) continue;
+                    interfaces.add(lp.getInterfaceName());
+                }
+            }
+            mInterfaces = interfaces.toArray(new String[0]);
+            if (DEBUG) log("resolveInterfaces: " + interfaces);
+        } catch (Throwable t) {
+            if (DEBUG) log("resolveInterfaces: error: " + t.getMessage());
+            mInterfaces = null;
+        }
+    }
+
+    @SuppressLint("DiscouragedPrivateApi")
+    private static boolean canUsePrimaryMethod() {
+        if (!sMethodsResolved) {
+            sMethodsResolved = true;
+            try {
+                final MethodHandles.Lookup lookup = MethodHandles.lookup();
+                Method m = TrafficStats.class.getDeclaredMethod("getRxBytes", String.class);
+                m.setAccessible(true);
+                sGetRxBytesMethod = lookup.unreflect(m);
+                m = TrafficStats.class.getDeclaredMethod("getTxBytes", String.class);
+                m.setAccessible(true);
+                sGetTxBytesMethod = lookup.unreflect(m);
+            } catch (Throwable t) {
+                if (DEBUG) log("canUsePrimaryMethod: error resolving methods: " + t.getMessage());
+                sGetRxBytesMethod = null;
+                sGetTxBytesMethod = null;
+            }
+        }
+        return (sGetRxBytesMethod != null && sGetTxBytesMethod != null);
+    }
+}
@@ -168,6 +168,7 @@ public abstract class BaseTile implements QsEventListener, BroadcastMediator.Rec
         if (mTile != null) {
             XposedHelpers.setAdditionalInstanceField(mTile, BaseTile.TILE_KEY_NAME, mKey);
         }
+        mEventDistributor.bindTile(this, mTile);
     }
 
     @Override
@@ -215,7 +216,6 @@ public abstract class BaseTile implements QsEventListener, BroadcastMediator.Rec
     public void onCreateTileView(View tileView) {
         try {
             mTileView = tileView;
-            XposedHelpers.setAdditionalInstanceField(tileView, TILE_KEY_NAME, mKey);
 
             // backup original dimensions
             TextView label = (TextView) XposedHelpers.getObjectField(mTileView, "mLabel");
@@ -14,7 +14,6 @@
  */
 package com.ceco.q.gravitybox.quicksettings;
 
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
@@ -233,7 +232,10 @@ public class QsPanel implements BroadcastMediator.Receiver {
                     if (!QsPanel.CLASS_QS_PANEL.equals(param.thisObject.getClass().getName()))
                             return;
 
-                    mPrefs.reload();
+                    // tiles get set on every tile list change; reload only when needed
+                    if (mPrefs.hasFileChanged()) {
+                        mPrefs.reload();
+                    }
                     Object host = XposedHelpers.getObjectField(param.thisObject, "mHost");
 
                     if (mEventDistributor == null) {
@@ -246,33 +248,27 @@ public class QsPanel implements BroadcastMediator.Receiver {
                         }
                     }
 
-                    Collection<?> tiles = (Collection<?>)param.args[0];
+                    @SuppressWarnings("unchecked")
+                    Collection<Object> tiles = (Collection<Object>)param.args[0];
+                    QsTileListDiff<Object> diff = QsTileListDiff.compute(mTiles.keySet(), tiles,
+                            tile -> (String) XposedHelpers.getObjectField(tile, "mTileSpec"));
 
                     // destroy wrappers for removed tiles
-                    for (String ourKey : new ArrayList<>(mTiles.keySet())) {
-                        boolean removed = true;
-                        for (Object tile : tiles) {
-                            String key = (String) XposedHelpers.getObjectField(tile, "mTileSpec");
-                            if (key.equals(ourKey)) {
-                                removed = false;
-                                break;
-                            }
-                        }
-                        if (removed) {
-                            mTiles.get(ourKey).handleDestroy();
-                            mTiles.remove(ourKey);
-                            if (DEBUG) log("destroyed wrapper for: " + ourKey);
-                        }
+                    for (String key : diff.getRemoved()) {
+                        mTiles.remove(key).handleDestroy();
+                        if (DEBUG) log("destroyed wrapper for: " + key);
                     }
 
-                    // prepare tile wrappers
-                    for (Object tile : tiles) {
-                        String key = (String) XposedHelpers.getObjectField(tile, "mTileSpec");
-                        if (mTiles.containsKey(key)) {
-                            mTiles.get(key).setTile(tile);
-                            if (DEBUG) log("Updated tile reference for: " + key);
-                            continue;
-                        }
+                    // update tile references of retained wrappers
+                    for (Map.Entry<String,Object> entry : diff.getRetained().entrySet()) {
+                        mTiles.get(entry.getKey()).setTile(entry.getValue());
+                        if (DEBUG) log("Updated tile reference for: " + entry.getKey());
+                    }
+
+                    // create wrappers for new tiles
+                    for (Map.Entry<String,Object> entry : diff.getAdded().entrySet()) {
+                        final String key = entry.getKey();
+                        final Object tile = entry.getValue();
                         if (key.contains(GravityBox.PACKAGE_NAME)) {
                             if (DEBUG) log("Creating wrapper for custom tile: " + key);
                             QsTile gbTile = QsTile.create(host, key, tile,
@@ -15,6 +15,8 @@
 package com.ceco.q.gravitybox.quicksettings;
 
 import java.lang.reflect.Constructor;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.function.Supplier;
 
 import com.ceco.q.gravitybox.GravityBox;
@@ -33,69 +35,65 @@ public abstract class QsTile extends BaseTile {
 
     protected State mState;
 
+    interface Factory {
+        QsTile create(Object host, String key, Object tile, XSharedPreferences prefs,
+                QsTileEventDistributor eventDistributor) throws Throwable;
+    }
+
+    // keyed by simple name of the tile service class the tile spec points to
+    private static final Map<String, Factory> sFactories = new HashMap<>();
+    static {
+        sFactories.put(GravityBoxTile.Service.KEY, GravityBoxTile::new);
+        sFactories.put(NetworkModeTile.Service.KEY, NetworkModeTile::new);
+        sFactories.put(ExpandedDesktopTile.Service.KEY, ExpandedDesktopTile::new);
+        sFactories.put(GpsTile.Service.KEY, GpsTile::new);
+        sFactories.put(LocationTileSlimkat.Service.KEY, LocationTileSlimkat::new);
+        sFactories.put(LockScreenTile.Service.KEY, LockScreenTile::new);
+        sFactories.put(NfcTile.Service.KEY, (host, key, tile, prefs, eventDistributor) ->
+                Utils.hasNfc((Context) XposedHelpers.callMethod(host, "getContext")) ?
+                        new NfcTile(host, key, tile, prefs, eventDistributor) : null);
+        sFactories.put(QuickAppTile.Service1.KEY, (host, key, tile, prefs, eventDistributor) ->
+                new QuickAppTile(host, key, tile, prefs, eventDistributor, 1));
+        sFactories.put(QuickAppTile.Service2.KEY, (host, key, tile, prefs, eventDistributor) ->
+                new QuickAppTile(host, key, tile, prefs, eventDistributor, 2));
+        sFactories.put(QuickAppTile.Service3.KEY, (host, key, tile, prefs, eventDistributor) ->
+                new QuickAppTile(host, key, tile, prefs, eventDistributor, 3));
+        sFactories.put(QuickAppTile.Service4.KEY, (host, key, tile, prefs, eventDistributor) ->
+                new QuickAppTile(host, key, tile, prefs, eventDistributor, 4));
+        sFactories.put(QuickRecordTile.Service.KEY, QuickRecordTile::new);
+        sFactories.put(QuietHoursTile.Service.KEY, QuietHoursTile::new);
+        sFactories.put(RingerModeTile.Service.KEY, RingerModeTile::new);
+        sFactories.put(ScreenshotTile.Service.KEY, ScreenshotTile::new);
+        sFactories.put(SleepTile.Service.KEY, SleepTile::new);
+        sFactories.put(SmartRadioTile.Service.KEY, SmartRadioTile::new);
+        sFactories.put(StayAwakeTile.Service.KEY, StayAwakeTile::new);
+        sFactories.put(SyncTile.Service.KEY, SyncTile::new);
+        sFactories.put(TorchTile.Service.KEY, TorchTile::new);
+        sFactories.put(VolumeTile.Service.KEY, VolumeTile::new);
+        sFactories.put(CompassTile.Service.KEY, CompassTile::new);
+        sFactories.put(UsbTetherTile.Service.KEY, UsbTetherTile::new);
+        sFactories.put(BluetoothTetheringTile.Service.KEY, BluetoothTetheringTile::new);
+        sFactories.put(AmbientDisplayTile.Service.KEY, AmbientDisplayTile::new);
+        sFactories.put(HeadsUpTile.Service.KEY, HeadsUpTile::new);
+        sFactories.put(OpScreenRefreshRateTile.Service.KEY, OpScreenRefreshRateTile::new);
+        sFactories.put(OpScreenResolutionTile.Service.KEY, OpScreenResolutionTile::new);
+    }
+
+    /**
+     * Returns simple name of the tile service class from custom tile spec
+     * e.g. GravityBoxTile$Service for custom(com.ceco.q.gravitybox/.quicksettings.GravityBoxTile$Service)
+     */
+    static String getServiceKey(String spec) {
+        int end = spec.lastIndexOf(')');
+        if (end < 0) end = spec.length();
+        int start = Math.max(spec.lastIndexOf('.', end), spec.lastIndexOf('/', end)) + 1;
+        return spec.substring(start, end);
+    }
+
     public static QsTile create(Object host, String key, Object tile, XSharedPreferences prefs,
             QsTileEventDistributor eventDistributor) throws Throwable {
-
-        Context ctx = (Context) XposedHelpers.callMethod(host, "getContext");
-
-        if (key.contains(GravityBoxTile.Service.KEY))
-            return new GravityBoxTile(host, key, tile, prefs, eventDistributor);
-        else if (key.contains(NetworkModeTile.Service.KEY))
-            return new NetworkModeTile(host, key, tile, prefs, eventDistributor);
-        else if (key.contains(ExpandedDesktopTile.Service.KEY))
-            return new ExpandedDesktopTile(host, key, tile, prefs, eventDistributor);
-        else if (key.contains(GpsTile.Service.KEY))
-            return new GpsTile(host, key, tile, prefs, eventDistributor);
-        else if (key.contains(LocationTileSlimkat.Service.KEY))
-            return new LocationTileSlimkat(host, key, tile, prefs, eventDistributor);
-        else if (key.contains(LockScreenTile.Service.KEY))
-            return new LockScreenTile(host, key, tile, prefs, eventDistributor);
-        else if (key.contains(NfcTile.Service.KEY) && Utils.hasNfc(ctx))
-            return new NfcTile(host, key, tile, prefs, eventDistributor);
-        else if (key.contains(QuickAppTile.Service1.KEY))
-            return new QuickAppTile(host, key, tile, prefs, eventDistributor, 1);
-        else if (key.contains(QuickAppTile.Service2.KEY))
-            return new QuickAppTile(host, key, tile, prefs, eventDistributor, 2);
-        else if (key.contains(QuickAppTile.Service3.KEY))
-            return new QuickAppTile(host, key, tile, prefs, eventDistributor, 3);
-        else if (key.contains(QuickAppTile.Service4.KEY))
-            return new QuickAppTile(host, key, tile, prefs, eventDistributor, 4);
-        else if (key.contains(QuickRecordTile.Service.KEY))
-            return new QuickRecordTile(host, key, tile, prefs, eventDistributor);
-        else if (key.contains(QuietHoursTile.Service.KEY))
-            return new QuietHoursTile(host, key, tile, prefs, eventDistributor);
-        else if (key.contains(RingerModeTile.Service.KEY))
-            return new RingerModeTile(host, key, tile, prefs, eventDistributor);
-        else if (key.contains(ScreenshotTile.Service.KEY))
-            return new ScreenshotTile(host, key, tile, prefs, eventDistributor);
-        else if (key.contains(SleepTile.Service.KEY))
-            return new SleepTile(host, key, tile, prefs, eventDistributor);
-        else if (key.contains(SmartRadioTile.Service.KEY))
-            return new SmartRadioTile(host, key, tile, prefs, eventDistributor);
-        else if (key.contains(StayAwakeTile.Service.KEY))
-            return new StayAwakeTile(host, key, tile, prefs, eventDistributor);
-        else if (key.contains(SyncTile.Service.KEY))
-            return new SyncTile(host, key, tile, prefs, eventDistributor);
-        else if (key.contains(TorchTile.Service.KEY))
-            return new TorchTile(host, key, tile, prefs, eventDistributor);
-        else if (key.contains(VolumeTile.Service.KEY))
-            return new VolumeTile(host, key, tile, prefs, eventDistributor);
-        else if (key.contains(CompassTile.Service.KEY))
-            return new CompassTile(host, key, tile, prefs, eventDistributor);
-        else if (key.contains(UsbTetherTile.Service.KEY))
-            return new UsbTetherTile(host, key, tile, prefs, eventDistributor);
-        else if (key.contains(BluetoothTetheringTile.Service.KEY))
-            return new BluetoothTetheringTile(host, key, tile, prefs, eventDistributor);
-        else if (key.contains(AmbientDisplayTile.Service.KEY))
-            return new AmbientDisplayTile(host, key, tile, prefs, eventDistributor);
-        else if (key.contains(HeadsUpTile.Service.KEY))
-            return new HeadsUpTile(host, key, tile, prefs, eventDistributor);
-        else if (key.contains(OpScreenRefreshRateTile.Service.KEY))
-            return new OpScreenRefreshRateTile(host, key, tile, prefs, eventDistributor);
-        else if (key.contains(OpScreenResolutionTile.Service.KEY))
-            return new OpScreenResolutionTile(host, key, tile, prefs, eventDistributor);
-
-        return null;
+        Factory factory = sFactories.get(getServiceKey(key));
+        return (factory == null ? null : factory.create(host, key, tile, prefs, eventDistributor));
     }
 
     protected QsTile(Object host, String key, Object tile, XSharedPreferences prefs,
@@ -14,6 +14,8 @@
  */
 package com.ceco.q.gravitybox.quicksettings;
 
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -65,7 +67,11 @@ public class QsTileEventDistributor implements SysUiKeyguardStateMonitor.Listene
     @SuppressWarnings("unused")
     private XSharedPreferences mPrefs;
     private Map<String,QsEventListener> mListeners;
-    private String mCreateTileViewTileKey;
+    // Hot path lookups keyed by tile and tile view identity. Bindings change only when
+    // tiles get (re)created so maps are replaced as a whole and read without locking.
+    private volatile Map<Object,QsEventListener> mTileListeners = Collections.emptyMap();
+    private volatile Map<Object,QsEventListener> mTileViewListeners = Collections.emptyMap();
+    private QsEventListener mCreateTileViewListener;
     private QsPanel mQsPanel;
 
     public QsTileEventDistributor(Object host, XSharedPreferences prefs) {
@@ -95,8 +101,7 @@ public class QsTileEventDistributor implements SysUiKeyguardStateMonitor.Listene
                     BaseTile.CLASS_TILE_STATE, Object.class, new XC_MethodHook() {
                 @Override
                 protected void beforeHookedMethod(MethodHookParam param) {
-                    final QsEventListener l = mListeners.get(XposedHelpers
-                            .getAdditionalInstanceField(param.thisObject, BaseTile.TILE_KEY_NAME));
+                    final QsEventListener l = mTileListeners.get(param.thisObject);
                     if (l instanceof QsTile) {
                         l.handleUpdateState(param.args[0], param.args[1]);
                         param.setResult(null);
@@ -108,8 +113,7 @@ public class QsTileEventDistributor implements SysUiKeyguardStateMonitor.Listene
                     new XC_MethodHook() {
                 @Override
                 protected void beforeHookedMethod(MethodHookParam param) {
-                    final QsEventListener l = mListeners.get(XposedHelpers
-                            .getAdditionalInstanceField(param.thisObject, BaseTile.TILE_KEY_NAME));
+                    final QsEventListener l = mTileListeners.get(param.thisObject);
                     if (l instanceof QsTile) {
                         if (!l.isLocked()) {
                             l.handleClick();
@@ -125,8 +129,7 @@ public class QsTileEventDistributor implements SysUiKeyguardStateMonitor.Listene
                     boolean.class, new XC_MethodHook() {
                 @Override
                 protected void beforeHookedMethod(MethodHookParam param) {
-                    final QsEventListener l = mListeners.get(XposedHelpers
-                            .getAdditionalInstanceField(param.thisObject, BaseTile.TILE_KEY_NAME));
+                    final QsEventListener l = mTileListeners.get(param.thisObject);
                     if (l instanceof QsTile) {
                         l.setListening((boolean)param.args[0]);
                     }
@@ -137,17 +140,16 @@ public class QsTileEventDistributor implements SysUiKeyguardStateMonitor.Listene
                     BaseTile.CLASS_BASE_TILE, boolean.class, new XC_MethodHook() {
                 @Override
                 protected void beforeHookedMethod(MethodHookParam param) {
-                    mCreateTileViewTileKey = (String) XposedHelpers
-                            .getAdditionalInstanceField(param.args[0], BaseTile.TILE_KEY_NAME);
+                    mCreateTileViewListener = mTileListeners.get(param.args[0]);
                 }
                 @Override
                 protected void afterHookedMethod(MethodHookParam param) {
-                    final QsEventListener l = mListeners.get(XposedHelpers
-                            .getAdditionalInstanceField(param.args[0], BaseTile.TILE_KEY_NAME));
+                    final QsEventListener l = mCreateTileViewListener;
                     if (l != null && !(boolean)param.args[1]) {
+                        bindTileView(l, param.getResult());
                         l.onCreateTileView((View)param.getResult());
                     }
-                    mCreateTileViewTileKey = null;
+                    mCreateTileViewListener = null;
                 }
             });
 
@@ -155,8 +157,7 @@ public class QsTileEventDistributor implements SysUiKeyguardStateMonitor.Listene
                     new XC_MethodHook() {
                 @Override
                 protected void beforeHookedMethod(MethodHookParam param) {
-                    final QsEventListener l = mListeners.get(XposedHelpers
-                            .getAdditionalInstanceField(param.thisObject, BaseTile.TILE_KEY_NAME));
+                    final QsEventListener l = mTileListeners.get(param.thisObject);
                     if (l != null) {
                         Object detailAdapter = l.getDetailAdapter();
                         if (detailAdapter != null) {
@@ -170,8 +171,7 @@ public class QsTileEventDistributor implements SysUiKeyguardStateMonitor.Listene
                     new XC_MethodHook() {
                 @Override
                 protected void beforeHookedMethod(MethodHookParam param) {
-                    final QsEventListener l = mListeners.get(XposedHelpers
-                            .getAdditionalInstanceField(param.thisObject, BaseTile.TILE_KEY_NAME));
+                    final QsEventListener l = mTileListeners.get(param.thisObject);
                     if (l != null && (l.isLocked() || l.handleSecondaryClick())) {
                         param.setResult(null);
                     }
@@ -182,8 +182,7 @@ public class QsTileEventDistributor implements SysUiKeyguardStateMonitor.Listene
                     Configuration.class, new XC_MethodHook() {
                 @Override
                 protected void afterHookedMethod(MethodHookParam param) {
-                    final QsEventListener l = mListeners.get(XposedHelpers
-                            .getAdditionalInstanceField(param.thisObject, BaseTile.TILE_KEY_NAME));
+                    final QsEventListener l = mTileViewListeners.get(param.thisObject);
                     if (l != null) {
                         l.onViewConfigurationChanged((View)param.thisObject,
                                 (Configuration)param.args[0]);
@@ -195,8 +194,7 @@ public class QsTileEventDistributor implements SysUiKeyguardStateMonitor.Listene
                     BaseTile.CLASS_TILE_STATE, new XC_MethodHook() {
                         @Override
                         protected void afterHookedMethod(MethodHookParam param) {
-                    final QsEventListener l = mListeners.get(XposedHelpers
-                            .getAdditionalInstanceField(param.thisObject, BaseTile.TILE_KEY_NAME));
+                    final QsEventListener l = mTileViewListeners.get(param.thisObject);
                     if (l != null) {
                         l.onViewHandleStateChanged((View)param.thisObject, param.args[0]);
                     }
@@ -207,7 +205,7 @@ public class QsTileEventDistributor implements SysUiKeyguardStateMonitor.Listene
                     new XC_MethodHook() {
                 @Override
                 protected void beforeHookedMethod(MethodHookParam param) {
-                    final QsEventListener l = mListeners.get(mCreateTileViewTileKey);
+                    final QsEventListener l = mCreateTileViewListener;
                     if (l != null) {
                         View icon = l.onCreateIcon();
                         if (icon != null) {
@@ -220,8 +218,7 @@ public class QsTileEventDistributor implements SysUiKeyguardStateMonitor.Listene
             XC_MethodHook longClickHook = new XC_MethodHook() {
                 @Override
                 protected void beforeHookedMethod(MethodHookParam param) {
-                    final QsEventListener l = mListeners.get(XposedHelpers
-                            .getAdditionalInstanceField(param.thisObject, BaseTile.TILE_KEY_NAME));
+                    final QsEventListener l = mTileListeners.get(param.thisObject);
                     if (l != null && l.handleLongClick()) {
                         param.setResult(null);
                     }
@@ -250,6 +247,42 @@ public class QsTileEventDistributor implements SysUiKeyguardStateMonitor.Listene
 
         final String key = listener.getKey();
         mListeners.remove(key);
+        mTileListeners = unbind(mTileListeners, listener);
+        mTileViewListeners = unbind(mTileViewListeners, listener);
+    }
+
+    /**
+     * Binds tile object to the listener handling its events replacing any
+     * previous tile binding of the same listener
+     */
+    synchronized void bindTile(QsEventListener listener, Object tile) {
+        mTileListeners = bind(mTileListeners, listener, tile);
+    }
+
+    private synchronized void bindTileView(QsEventListener listener, Object tileView) {
+        mTileViewListeners = bind(mTileViewListeners, listener, tileView);
+    }
+
+    private static Map<Object,QsEventListener> bind(Map<Object,QsEventListener> map,
+                                                    QsEventListener listener, Object obj) {
+        Map<Object,QsEventListener> newMap = unbind(map, listener);
+        if (obj != null) {
+            if (newMap == map) {
+                newMap = new IdentityHashMap<>(map);
+            }
+            newMap.put(obj, listener);
+        }
+        return newMap;
+    }
+
+    private static Map<Object,QsEventListener> unbind(Map<Object,QsEventListener> map,
+                                                      QsEventListener listener) {
+        if (!map.containsValue(listener)) {
+            return map;
+        }
+        Map<Object,QsEventListener> newMap = new IdentityHashMap<>(map);
+        newMap.values().removeIf(l -> l == listener);
+        return newMap;
     }
 
     @Override
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2020 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.q.gravitybox.quicksettings;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Difference between tile specs we keep wrappers for and the new tile list.
+ * Computed in linear time; has no Android dependencies.
+ * @param <T> - type of tile objects
+ */
+final class QsTileListDiff<T> {
+    private final List<String> mRemoved;
+    private final Map<String,T> mRetained;
+    private final Map<String,T> mAdded;
+
+    private QsTileListDiff(List<String> removed, Map<String,T> retained, Map<String,T> added) {
+        mRemoved = removed;
+        mRetained = retained;
+        mAdded = added;
+    }
+
+    /**
+     * @param currentSpecs - specs of tiles we currently keep wrappers for
+     * @param tiles - new tile list
+     * @param specOf - returns spec of a tile
+     */
+    static <T> QsTileListDiff<T> compute(Set<String> currentSpecs, Collection<T> tiles,
+                                         Function<T,String> specOf) {
+        // index new tiles by spec; in case of duplicate specs the last tile wins
+        final Map<String,T> index = new LinkedHashMap<>(tiles.size() * 2);
+        for (T tile : tiles) {
+            index.put(specOf.apply(tile), tile);
+        }
+
+        final List<String> removed = new ArrayList<>();
+        for (String spec : currentSpecs) {
+            if (!index.containsKey(spec)) {
+                removed.add(spec);
+            }
+        }
+
+        final Map<String,T> retained = new LinkedHashMap<>();
+        final Map<String,T> added = new LinkedHashMap<>();
+        for (Map.Entry<String,T> entry : index.entrySet()) {
+            if (currentSpecs.contains(entry.getKey())) {
+                retained.put(entry.getKey(), entry.getValue());
+            } else {
+                added.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        return new QsTileListDiff<>(Collections.unmodifiableList(removed),
+                Collections.unmodifiableMap(retained), Collections.unmodifiableMap(added));
+    }
+
+    /**
+     * Specs of tiles no longer present in the list
+     */
+    List<String> getRemoved() {
+        return mRemoved;
+    }
+
+    /**
+     * Tiles we already have wrappers for keyed by spec
+     */
+    Map<String,T> getRetained() {
+        return mRetained;
+    }
+
+    /**
+     * Tiles new to the list keyed by spec in list order
+     */
+    Map<String,T> getAdded() {
+        return mAdded;
+    }
+}
@@ -25,6 +25,8 @@ import com.ceco.q.gravitybox.ColorUtils;
 import com.ceco.q.gravitybox.R;
 import com.ceco.q.gravitybox.GravityBoxSettings;
 import com.ceco.q.gravitybox.Utils;
+import com.ceco.q.gravitybox.managers.SysUiAppIconCache;
+import com.ceco.q.gravitybox.managers.SysUiManagers;
 import com.ceco.q.gravitybox.preference.AppPickerPreference;
 import com.ceco.q.gravitybox.shortcuts.ShortcutActivity;
 
@@ -32,6 +34,7 @@ import de.robv.android.xposed.XSharedPreferences;
 import de.robv.android.xposed.XposedHelpers;
 import android.annotation.SuppressLint;
 import android.app.Dialog;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.ActivityInfo;
@@ -53,7 +56,7 @@ import android.view.Window;
 import android.view.WindowManager;
 import android.widget.TextView;
 
-public class QuickAppTile extends QsTile {
+public class QuickAppTile extends QsTile implements SysUiAppIconCache.Listener {
     public static final class Service1 extends QsTileServiceBase {
         static final String KEY = QuickAppTile.class.getSimpleName()+"$Service1";
     }
@@ -121,6 +124,30 @@ public class QuickAppTile extends QsTile {
             return mIntent;
         }
 
+        String getPackageName() {
+            return (mIntent == null || mIntent.getComponent() == null ?
+                    null : mIntent.getComponent().getPackageName());
+        }
+
+        private void loadAppIcon(int sizePx) {
+            final ComponentName cn = mIntent.getComponent();
+            final SysUiAppIconCache iconCache = SysUiManagers.AppIconCache;
+            Bitmap icon = iconCache == null ? SysUiAppIconCache.createIcon(mPm, cn, sizePx) :
+                    iconCache.getCachedIcon(cn, sizePx);
+            if (icon != null || iconCache == null) {
+                mAppIconDrawable = icon == null ? null : new BitmapDrawable(mResources, icon);
+                return;
+            }
+
+            final Intent intent = mIntent;
+            iconCache.loadIcon(cn, sizePx, (component, bmp) -> {
+                if (bmp != null && intent == mIntent) {
+                    mAppIconDrawable = new BitmapDrawable(mResources, bmp);
+                    onAppIconLoaded(this);
+                }
+            });
+        }
+
         private void reset() {
             mValue = mAppName = null;
             mAppIconDrawable = null;
@@ -162,19 +189,19 @@ public class QuickAppTile extends QsTile {
                     }
                 }
 
+                int sizePx = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 40, 
+                        mResources.getDisplayMetrics());
                 if (mode == AppPickerPreference.MODE_APP) {
                     ActivityInfo ai = mPm.getActivityInfo(mIntent.getComponent(), 0);
                     mAppName = ai.loadLabel(mPm).toString();
                     if (appIcon == null) {
-                        appIcon = BitmapUtils.drawableToBitmap(ai.loadIcon(mPm));
+                        loadAppIcon(sizePx);
                     }
                 } else if (mode == AppPickerPreference.MODE_SHORTCUT) {
                     mAppName = mIntent.getStringExtra("label");
                 }
 
                 if (appIcon != null) {
-                    int sizePx = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 40, 
-                            mResources.getDisplayMetrics());
                     Bitmap scaledIcon = Bitmap.createScaledBitmap(appIcon, sizePx, sizePx, true);
                     mAppIconDrawable = new BitmapDrawable(mResources, scaledIcon);
                 }
@@ -189,6 +216,31 @@ public class QuickAppTile extends QsTile {
         }
     }
 
+    private void onAppIconLoaded(AppInfo ai) {
+        if (ai == mMainApp) {
+            refreshState();
+        } else if (mDialog != null && mDialog.isShowing()) {
+            TextView tv = mDialog.findViewById(ai.getResId());
+            if (tv != null) {
+                tv.setCompoundDrawablesWithIntrinsicBounds(null, ai.getAppIconDrawable(), null, null);
+            }
+        }
+    }
+
+    @Override
+    public void onPackageIconsInvalidated(String pkgName) {
+        if (mMainApp == null || mAppSlots == null) return;
+        if (pkgName.equals(mMainApp.getPackageName())) {
+            mMainApp.initAppInfo(mMainApp.getValue());
+            refreshState();
+        }
+        for (AppInfo ai : mAppSlots) {
+            if (pkgName.equals(ai.getPackageName())) {
+                ai.initAppInfo(ai.getValue());
+            }
+        }
+    }
+
     private void dismissDialog() {
         mHandler.removeCallbacks(mDismissDialogRunnable);
         if (mDialog != null) {
@@ -248,6 +300,10 @@ public class QuickAppTile extends QsTile {
         mAppSlots.add(new AppInfo(R.id.quickapp3));
         mAppSlots.add(new AppInfo(R.id.quickapp4));
 
+        if (SysUiManagers.AppIconCache != null) {
+            SysUiManagers.AppIconCache.registerListener(this);
+        }
+
         if (!Utils.isUserUnlocked(mContext)) {
             if (DEBUG) log(getKey() + "User has not unlocked yet making credential protected storage unavailable. Skipping updateAllApps().");
         } else {
@@ -447,6 +503,9 @@ public class QuickAppTile extends QsTile {
     @Override
     public void handleDestroy() {
         super.handleDestroy();
+        if (SysUiManagers.AppIconCache != null) {
+            SysUiManagers.AppIconCache.unregisterListener(this);
+        }
         mMainApp = null;
         if (mAppSlots != null) {
             mAppSlots.clear();
@@ -18,10 +18,12 @@ package com.ceco.q.gravitybox.quicksettings;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 
 import com.ceco.q.gravitybox.R;
 import com.ceco.q.gravitybox.GravityBoxListActivity;
@@ -160,17 +162,28 @@ public class TileOrderActivity extends GravityBoxListActivity implements View.On
         }
     }
 
+    /**
+     * Enables tile services of enabled tiles and disables the rest.
+     * Only components whose current state differs are changed as every change
+     * results in package changed broadcast.
+     */
     public static void updateServiceComponents(Context ctx) {
         SharedPreferences prefs = SettingsManager.getInstance(ctx).getMainPrefs();
-        List<String> enabledList = new ArrayList<>(Arrays.asList(
+        Set<String> enabledSet = new HashSet<>(Arrays.asList(
                 prefs.getString(PREF_KEY_TILE_ENABLED, "").split(",")));
         PackageManager pm = ctx.getPackageManager();
         for (Entry<String,Class<?>> service : SERVICES.entrySet()) {
-            pm.setComponentEnabledSetting(new ComponentName(ctx, service.getValue()),
-                    enabledList.contains(service.getKey()) ?
-                            PackageManager.COMPONENT_ENABLED_STATE_ENABLED :
-                                PackageManager.COMPONENT_ENABLED_STATE_DISABLED,
-                    PackageManager.DONT_KILL_APP);
+            ComponentName cn = new ComponentName(ctx, service.getValue());
+            boolean enable = enabledSet.contains(service.getKey());
+            // tile services are disabled in manifest so default state means disabled
+            boolean enabled = (pm.getComponentEnabledSetting(cn) ==
+                    PackageManager.COMPONENT_ENABLED_STATE_ENABLED);
+            if (enable != enabled) {
+                pm.setComponentEnabledSetting(cn, enable ?
+                                PackageManager.COMPONENT_ENABLED_STATE_ENABLED :
+                                    PackageManager.COMPONENT_ENABLED_STATE_DISABLED,
+                        PackageManager.DONT_KILL_APP);
+            }
         }
     }
 
@@ -173,7 +173,7 @@ public class TuneableItem implements Parcelable {
         dataSet.add("type:" + mUserValue.getClass().getName());
         dataSet.add("overridden:" + mOverridden);
         dataSet.add("value:" + mUserValue);
-        prefs.edit().putStringSet(getPrefKey(), dataSet).commit();
+        prefs.edit().putStringSet(getPrefKey(), dataSet).apply();
     }
 
     public static TuneableItem createUserInstance(String prefKey, SharedPreferences prefs) {
@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2020 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.q.gravitybox;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LinkIdleDetectorTest {
+    private static final long MINUTE = 60000;
+    private static final long KB = 1024;
+    private static final long THRESHOLD = 10 * KB;
+    // same parameters as used by ModSmartRadio
+    private static final long TIME_CONSTANT = 30000;
+    private static final long MIN_DWELL = 60000;
+    private static final int SCREEN_OFF_DELAY_MINUTES = 5;
+
+    private static final class Result {
+        int wakeups;
+        int switchMinute = -1;
+    }
+
+    private static LinkIdleDetector createDetector(long minDwell) {
+        LinkIdleDetector detector = new LinkIdleDetector(TIME_CONSTANT, minDwell);
+        detector.setThreshold(THRESHOLD);
+        detector.reset(0, 0, 0);
+        return detector;
+    }
+
+    /**
+     * Replays trace of bytes transferred in each minute after screen off the way
+     * ModSmartRadio does while device stays awake: wakeup alarm fires every screen off delay and link is sampled
+     * every minute in between. Postponed switch happens at first sample finding link idle.
+     */
+    private static Result replaySmoothed(long[] bytesPerMinute) {
+        final LinkIdleDetector detector = createDetector(MIN_DWELL);
+        final Result result = new Result();
+        boolean postponed = false;
+        long bytes = 0;
+        for (int minute = 1; minute <= bytesPerMinute.length; minute++) {
+            bytes += bytesPerMinute[minute - 1];
+            detector.addSample(minute * MINUTE, bytes, 0);
+            final boolean idle = detector.isIdle(minute * MINUTE);
+            if (minute % SCREEN_OFF_DELAY_MINUTES == 0) {
+                result.wakeups++;
+                if (idle) {
+                    result.switchMinute = minute;
+                    break;
+                }
+                postponed = true;
+            } else if (postponed && idle) {
+                result.switchMinute = minute;
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Replays trace comparing average rate between two snapshots taken when
+     * the wakeup alarm is scheduled and when it fires
+     */
+    private static Result replayTwoSnapshots(long[] bytesPerMinute) {
+        final Result result = new Result();
+        long bytes = 0;
+        long snapshotBytes = 0;
+        for (int minute = 1; minute <= bytesPerMinute.length; minute++) {
+            bytes += bytesPerMinute[minute - 1];
+            if (minute % SCREEN_OFF_DELAY_MINUTES == 0) {
+                result.wakeups++;
+                final long rate = (bytes - snapshotBytes) * 1000 / (SCREEN_OFF_DELAY_MINUTES * MINUTE);
+                if (rate < THRESHOLD) {
+                    result.switchMinute = minute;
+                    break;
+                }
+                snapshotBytes = bytes;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Replays trace the way ModSmartRadio does while device sleeps: non-wakeup samples
+     * are delivered only in minutes device is awake to transfer data; without traffic
+     * samples detector sees wakeups only.
+     */
+    private static Result replayAsleep(long[] bytesPerMinute, boolean trafficSamples) {
+        final LinkIdleDetector detector = createDetector(MIN_DWELL);
+        final Result result = new Result();
+        boolean postponed = false;
+        long bytes = 0;
+        for (int minute = 1; minute <= bytesPerMinute.length; minute++) {
+            bytes += bytesPerMinute[minute - 1];
+            final boolean wakeup = minute % SCREEN_OFF_DELAY_MINUTES == 0;
+            final boolean awake = trafficSamples && bytesPerMinute[minute - 1] > 0;
+            if (!wakeup && !awake) continue;
+
+            detector.addSample(minute * MINUTE, bytes, 0);
+            final boolean idle = detector.isIdle(minute * MINUTE);
+            if (wakeup) {
+                result.wakeups++;
+                if (idle) {
+                    result.switchMinute = minute;
+                    break;
+                }
+                postponed = true;
+            } else if (postponed && idle) {
+                result.switchMinute = minute;
+                break;
+            }
+        }
+        return result;
+    }
+
+    private static long[] trace(int minutes) {
+        return new long[minutes];
+    }
+
+    @Test
+    public void idleLinkIsReportedIdleAfterMinimumDwell() {
+        final LinkIdleDetector detector = createDetector(MIN_DWELL);
+        assertFalse(detector.isIdle(MIN_DWELL / 2));
+        detector.addSample(MINUTE, 0, 0);
+        assertTrue(detector.isIdle(MINUTE));
+    }
+
+    @Test
+    public void sustainedTrafficKeepsLinkBusy() {
+        final LinkIdleDetector detector = createDetector(0);
+        for (int minute = 1; minute <= 10; minute++) {
+            detector.addSample(minute * MINUTE, minute * 60 * 20 * KB, 0);
+            assertFalse(detector.isIdle(minute * MINUTE));
+        }
+    }
+
+    @Test
+    public void transmittedBytesCountAsActivity() {
+        final LinkIdleDetector detector = createDetector(0);
+        detector.addSample(MINUTE, 0, 60 * 20 * KB);
+        assertFalse(detector.isIdle(MINUTE));
+    }
+
+    @Test
+    public void hysteresisPreventsFlapping() {
+        // rate oscillating around threshold
+        final LinkIdleDetector detector = createDetector(0);
+        int flips = 0;
+        boolean idle = true;
+        long bytes = 0;
+        for (int minute = 1; minute <= 30; minute++) {
+            bytes += 60 * (minute % 2 == 0 ? 8 : 12) * KB;
+            detector.addSample(minute * MINUTE, bytes, 0);
+            if (detector.isIdle(minute * MINUTE) != idle) {
+                idle = !idle;
+                flips++;
+            }
+        }
+        assertEquals(1, flips);
+        assertFalse(idle);
+    }
+
+    @Test
+    public void counterResetIsNotTreatedAsTraffic() {
+        final LinkIdleDetector detector = createDetector(0);
+        detector.reset(0, 100 * 1024 * KB, 100 * 1024 * KB);
+        detector.addSample(MINUTE, 0, 0);
+        assertTrue(detector.isIdle(MINUTE));
+        assertEquals(0, detector.getEstimate());
+    }
+
+    @Test
+    public void burstBeforeWakeupCostsNoExtraWakeup() {
+        final long[] trace = trace(20);
+        trace[4] = 3 * 1024 * KB;
+
+        final Result baseline = replayTwoSnapshots(trace);
+        final Result smoothed = replaySmoothed(trace);
+        assertEquals(2, baseline.wakeups);
+        assertEquals(10, baseline.switchMinute);
+        assertEquals(1, smoothed.wakeups);
+        assertEquals(7, smoothed.switchMinute);
+    }
+
+    @Test
+    public void sustainedTrafficDoesNotAddWakeups() {
+        final long[] trace = trace(30);
+        for (int i = 0; i < 12; i++) {
+            trace[i] = 60 * 20 * KB;
+        }
+
+        final Result baseline = replayTwoSnapshots(trace);
+        final Result smoothed = replaySmoothed(trace);
+        assertTrue(smoothed.wakeups <= baseline.wakeups);
+        assertTrue(smoothed.switchMinute <= baseline.switchMinute);
+        assertEquals(15, baseline.switchMinute);
+        assertEquals(13, smoothed.switchMinute);
+    }
+
+    @Test
+    public void idleTraceSwitchesAtFirstWakeup() {
+        final Result smoothed = replaySmoothed(trace(10));
+        assertEquals(1, smoothed.wakeups);
+        assertEquals(SCREEN_OFF_DELAY_MINUTES, smoothed.switchMinute);
+    }
+
+    @Test
+    public void idleRateOverWholeSleepCountsAsDwell() {
+        final LinkIdleDetector detector = createDetector(MIN_DWELL);
+        detector.addSample(MINUTE, 60 * 2 * THRESHOLD, 0);
+        assertFalse(detector.isIdle(MINUTE));
+        // nothing transferred while device slept
+        detector.addSample(5 * MINUTE, 60 * 2 * THRESHOLD, 0);
+        assertTrue(detector.isIdle(5 * MINUTE));
+    }
+
+    @Test
+    public void burstAfterScreenOffCostsExtraWakeupWithWakeupSamplesOnly() {
+        final long[] trace = trace(20);
+        trace[0] = 3 * 1024 * KB;
+
+        final Result baseline = replayTwoSnapshots(trace);
+        final Result asleep = replayAsleep(trace, false);
+        // average over the whole sleep is no better than the former two snapshot decision
+        assertEquals(2, baseline.wakeups);
+        assertEquals(10, baseline.switchMinute);
+        assertEquals(2, asleep.wakeups);
+        assertEquals(10, asleep.switchMinute);
+    }
+
+    @Test
+    public void burstAfterScreenOffCostsNoExtraWakeupAsleep() {
+        final long[] trace = trace(20);
+        trace[0] = 3 * 1024 * KB;
+
+        final Result asleep = replayAsleep(trace, true);
+        assertEquals(1, asleep.wakeups);
+        assertEquals(SCREEN_OFF_DELAY_MINUTES, asleep.switchMinute);
+    }
+
+    @Test
+    public void burstBeforeWakeupCostsNoExtraWakeupAsleep() {
+        final long[] trace = trace(20);
+        trace[3] = 3 * 1024 * KB;
+
+        final Result baseline = replayTwoSnapshots(trace);
+        final Result asleep = replayAsleep(trace, true);
+        assertEquals(2, baseline.wakeups);
+        assertEquals(10, baseline.switchMinute);
+        assertEquals(1, asleep.wakeups);
+        assertEquals(SCREEN_OFF_DELAY_MINUTES, asleep.switchMinute);
+    }
+
+    @Test
+    public void sustainedTrafficAsleepDoesNotAddWakeups() {
+        final long[] trace = trace(30);
+        for (int i = 0; i < 12; i++) {
+            trace[i] = 60 * 20 * KB;
+        }
+
+        final Result baseline = replayTwoSnapshots(trace);
+        final Result asleep = replayAsleep(trace, true);
+        assertEquals(3, baseline.wakeups);
+        assertEquals(3, asleep.wakeups);
+        assertEquals(15, asleep.switchMinute);
+    }
+
+    @Test
+    public void idleTraceAsleepSwitchesAtFirstWakeup() {
+        assertEquals(SCREEN_OFF_DELAY_MINUTES, replayAsleep(trace(10), false).switchMinute);
+        assertEquals(SCREEN_OFF_DELAY_MINUTES, replayAsleep(trace(10), true).switchMinute);
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2020 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.q.gravitybox;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import com.ceco.q.gravitybox.tuner.TunerMainActivity;
+
+import de.robv.android.xposed.XSharedPreferences;
+
+/**
+ * Compares reads done by SystemWideResources framework interceptor on every resource lookup:
+ * former preference lookups of the intercepted resource against PrefsSnapshot access
+ * and field reads of the snapshot SystemWideResources builds. Preference file is generated
+ * from all the preference keys declared in module XML resources with values typed the way
+ * settings store them.
+ */
+@Category(Benchmark.class)
+public class PrefsSnapshotBenchmark {
+    private static final String ANDROID_NS = "http://schemas.android.com/apk/res/android";
+    private static final File RES_DIR = new File("src/main/res");
+    private static final int ITERATIONS = 2000000;
+    private static final String[] RESOURCE_NAMES = {
+            "config_allowAllRotations", "config_enableTranslucentDecor",
+            "config_showNavigationBar", "config_unplugTurnsOnScreen",
+            "config_safe_media_volume_enabled", "config_defaultNotificationLedOff",
+            "navigation_bar_height", "navigation_bar_height_landscape", "navigation_bar_width"
+    };
+
+    private static Document parse(File file) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        return factory.newDocumentBuilder().parse(file);
+    }
+
+    /**
+     * Writes shared preferences file with a value for every preference key
+     * @return number of values written
+     */
+    private static int writePrefsFile(File file) throws Exception {
+        final Map<String, String> lines = new HashMap<>();
+        for (File xml : new File(RES_DIR, "xml").listFiles()) {
+            collectValues(parse(xml).getDocumentElement(), lines);
+        }
+        // values read by interceptors, set the way a customized device has them
+        lines.put("pref_translucent_decor", "<string name=\"pref_translucent_decor\">1</string>");
+        lines.put("pref_navbar_override", "<boolean name=\"pref_navbar_override\" value=\"true\" />");
+        lines.put("pref_navbar_height", "<int name=\"pref_navbar_height\" value=\"85\" />");
+        lines.put("pref_safe_media_volume2", "<string name=\"pref_safe_media_volume2\">DISABLED</string>");
+        try (Writer w = new FileWriter(file)) {
+            w.write("<?xml version='1.0' encoding='utf-8' standalone='yes' ?>\n<map>\n");
+            for (String line : lines.values()) {
+                w.write("    " + line + "\n");
+            }
+            w.write("</map>\n");
+        }
+        return lines.size();
+    }
+
+    private static void collectValues(Element e, Map<String, String> lines) {
+        final String key = e.getAttributeNS(ANDROID_NS, "key");
+        if (!key.isEmpty()) {
+            final String name = e.getTagName();
+            final String def = e.getAttributeNS(ANDROID_NS, "defaultValue");
+            if (name.endsWith("CheckBoxPreference") || name.endsWith("SwitchPreference")) {
+                lines.put(key, "<boolean name=\"" + key + "\" value=\"" +
+                        (def.isEmpty() ? "false" : def) + "\" />");
+            } else if (name.endsWith("SeekBarPreference")) {
+                lines.put(key, "<int name=\"" + key + "\" value=\"" +
+                        (def.matches("-?\\d+") ? def : "50") + "\" />");
+            } else if (!name.endsWith("PreferenceScreen") && !name.endsWith("PreferenceCategory")) {
+                lines.put(key, "<string name=\"" + key + "\">" +
+                        (def.isEmpty() || def.startsWith("@") ? "0" : def) + "</string>");
+            }
+        }
+        NodeList children = e.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            if (children.item(i).getNodeType() == Node.ELEMENT_NODE) {
+                collectValues((Element) children.item(i), lines);
+            }
+        }
+    }
+
+    /**
+     * Reads shared preferences file into a map of typed values
+     */
+    private static Map<String, Object> readPrefsFile(File file) throws Exception {
+        final Map<String, Object> map = new HashMap<>();
+        NodeList nodes = parse(file).getDocumentElement().getChildNodes();
+        for (int i = 0; i < nodes.getLength(); i++) {
+            if (nodes.item(i).getNodeType() != Node.ELEMENT_NODE) continue;
+            Element e = (Element) nodes.item(i);
+            final String name = e.getAttribute("name");
+            switch (e.getTagName()) {
+                case "boolean": map.put(name, Boolean.valueOf(e.getAttribute("value"))); break;
+                case "int": map.put(name, Integer.valueOf(e.getAttribute("value"))); break;
+                default: map.put(name, e.getTextContent()); break;
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Reads done by framework interceptor before snapshot was introduced
+     */
+    private static int interceptPrefs(XSharedPreferences prefs, XSharedPreferences tunerPrefs,
+                                      String name) {
+        int result = 0;
+        if (tunerPrefs.getBoolean(TunerMainActivity.PREF_KEY_ENABLED, false) &&
+                !tunerPrefs.getBoolean(TunerMainActivity.PREF_KEY_LOCKED, false)) {
+            result++;
+        }
+        switch (name) {
+            case "config_allowAllRotations":
+                return result + (prefs.getBoolean(GravityBoxSettings.PREF_KEY_DISPLAY_ALLOW_ALL_ROTATIONS, false) ? 1 : 0);
+            case "config_enableTranslucentDecor":
+                return result + Integer.valueOf(prefs.getString(GravityBoxSettings.PREF_KEY_TRANSLUCENT_DECOR, "0"));
+            case "config_showNavigationBar":
+                if (prefs.getBoolean(GravityBoxSettings.PREF_KEY_NAVBAR_OVERRIDE, false)) {
+                    return result + (prefs.getBoolean(GravityBoxSettings.PREF_KEY_NAVBAR_ENABLE, false) ? 1 : 0);
+                }
+                return result;
+            case "config_unplugTurnsOnScreen":
+                return result + (prefs.getBoolean(GravityBoxSettings.PREF_KEY_UNPLUG_TURNS_ON_SCREEN, false) ? 1 : 0);
+            case "config_safe_media_volume_enabled":
+                return result + Utils.TriState.valueOf(prefs.getString(
+                        GravityBoxSettings.PREF_KEY_SAFE_MEDIA_VOLUME, "DEFAULT")).ordinal();
+            case "config_defaultNotificationLedOff":
+                return result + prefs.getInt(GravityBoxSettings.PREF_KEY_PULSE_NOTIFICATION_DELAY, -1);
+            case "navigation_bar_height":
+                return result + prefs.getInt(GravityBoxSettings.PREF_KEY_NAVBAR_HEIGHT, 100);
+            case "navigation_bar_height_landscape":
+                return result + prefs.getInt(GravityBoxSettings.PREF_KEY_NAVBAR_HEIGHT_LANDSCAPE, 100);
+            case "navigation_bar_width":
+                return result + prefs.getInt(GravityBoxSettings.PREF_KEY_NAVBAR_WIDTH, 100);
+        }
+        return result;
+    }
+
+    /**
+     * Reads done by framework interceptor of SystemWideResources
+     */
+    private static int interceptSnapshot(PrefsSnapshot<SystemWideResources.Values> values,
+                                         String name) {
+        final SystemWideResources.Values v = values.get();
+        int result = v.tunerEnabled ? 1 : 0;
+        switch (name) {
+            case "config_allowAllRotations":
+                return result + (v.allowAllRotations ? 1 : 0);
+            case "config_enableTranslucentDecor":
+                return result + v.translucentDecor;
+            case "config_showNavigationBar":
+                if (v.navbarOverride) {
+                    return result + (v.navbarEnable != null && v.navbarEnable ? 1 : 0);
+                }
+                return result;
+            case "config_unplugTurnsOnScreen":
+                return result + (v.unplugTurnsOnScreen != null && v.unplugTurnsOnScreen ? 1 : 0);
+            case "config_safe_media_volume_enabled":
+                return result + v.safeMediaVolume.ordinal();
+            case "config_defaultNotificationLedOff":
+                return result + v.pulseNotificationDelay;
+            case "navigation_bar_height":
+                return result + v.navbarHeight;
+            case "navigation_bar_height_landscape":
+                return result + v.navbarHeightLandscape;
+            case "navigation_bar_width":
+                return result + v.navbarWidth;
+        }
+        return result;
+    }
+
+    @Test
+    public void snapshotReadsAgainstPrefsLookups() throws Exception {
+        final File file = File.createTempFile("gravitybox_prefs", ".xml");
+        try {
+            final int count = writePrefsFile(file);
+            assertTrue(count > 100);
+            final XSharedPreferences prefs = PrefsSnapshotTest.createPrefs(readPrefsFile(file));
+            final XSharedPreferences tunerPrefs = PrefsSnapshotTest.createPrefs(new HashMap<>());
+            final PrefsSnapshot<SystemWideResources.Values> values =
+                    SystemWideResources.createValues(prefs, tunerPrefs);
+
+            long expected = 0;
+            for (String name : RESOURCE_NAMES) {
+                assertEquals(interceptPrefs(prefs, tunerPrefs, name), interceptSnapshot(values, name));
+                expected += interceptPrefs(prefs, tunerPrefs, name);
+            }
+
+            long sum = 0;
+            // warm up
+            for (int i = 0; i < ITERATIONS / 10; i++) {
+                for (String name : RESOURCE_NAMES) {
+                    sum += interceptPrefs(prefs, tunerPrefs, name);
+                    sum += interceptSnapshot(values, name);
+                }
+            }
+
+            long startTime = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                for (String name : RESOURCE_NAMES) {
+                    sum += interceptPrefs(prefs, tunerPrefs, name);
+                }
+            }
+            final long lookups = (long) ITERATIONS * RESOURCE_NAMES.length;
+            final double prefsNs = (System.nanoTime() - startTime) / (double) lookups;
+
+            startTime = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                for (String name : RESOURCE_NAMES) {
+                    sum += interceptSnapshot(values, name);
+                }
+            }
+            final double snapshotNs = (System.nanoTime() - startTime) / (double) lookups;
+
+            assertEquals(expected * (ITERATIONS / 10 * 2 + ITERATIONS * 2), sum);
+            System.out.println(String.format(Locale.US,
+                    "PrefsSnapshot: %d values in file; framework interceptor reads per lookup: " +
+                    "prefs %.1f ns, snapshot %.1f ns", count, prefsNs, snapshotNs));
+        } finally {
+            file.delete();
+        }
+    }
+}
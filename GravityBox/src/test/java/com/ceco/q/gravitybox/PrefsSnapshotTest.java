@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2020 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.q.gravitybox;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import de.robv.android.xposed.XSharedPreferences;
+
+public class PrefsSnapshotTest {
+
+    /**
+     * Creates preferences holding given values without reading any file,
+     * the state XSharedPreferences is in once loaded from disk
+     */
+    static XSharedPreferences createPrefs(Map<String, Object> values) throws Exception {
+        Field unsafeField = Class.forName("sun.misc.Unsafe").getDeclaredField("theUnsafe");
+        unsafeField.setAccessible(true);
+        Object unsafe = unsafeField.get(null);
+        XSharedPreferences prefs = (XSharedPreferences) unsafe.getClass()
+                .getMethod("allocateInstance", Class.class).invoke(unsafe, XSharedPreferences.class);
+        setField(prefs, "mLoaded", true);
+        setMap(prefs, values);
+        return prefs;
+    }
+
+    /**
+     * Replaces values of preferences the way reload does
+     */
+    static void setMap(XSharedPreferences prefs, Map<String, Object> values) throws Exception {
+        setField(prefs, "mMap", new HashMap<>(values));
+    }
+
+    private static void setField(Object obj, String name, Object value) throws Exception {
+        Field field = XSharedPreferences.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(obj, value);
+    }
+
+    private static PrefsSnapshot<Integer> createSnapshot(final XSharedPreferences prefs) {
+        return new PrefsSnapshot<Integer>(prefs) {
+            @Override
+            protected Integer build() {
+                return prefs.getInt("value", 0);
+            }
+        };
+    }
+
+    @Test
+    public void snapshotIsReusedWhilePrefsUnchanged() throws Exception {
+        final Map<String, Object> values = new HashMap<>();
+        values.put("value", 1000);
+        final PrefsSnapshot<Integer> snapshot = createSnapshot(createPrefs(values));
+        final Integer first = snapshot.get();
+        assertEquals(1000, (int) first);
+        assertSame(first, snapshot.get());
+    }
+
+    @Test
+    public void snapshotIsRebuiltWhenOtherOwnerReloadedPrefs() throws Exception {
+        final Map<String, Object> values = new HashMap<>();
+        values.put("value", 1000);
+        final XSharedPreferences prefs = createPrefs(values);
+        final PrefsSnapshot<Integer> snapshot = createSnapshot(prefs);
+        final Integer first = snapshot.get();
+
+        values.put("value", 2000);
+        setMap(prefs, values);
+        final Integer second = snapshot.get();
+        assertNotSame(first, second);
+        assertEquals(2000, (int) second);
+        assertSame(second, snapshot.get());
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2020 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.q.gravitybox;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Compares per-lookup cost and allocations of ResourceProxy spec lookup
+ * before (string key, entry name and interceptor match on every miss)
+ * and after (long key with negative entries) for cache hits and misses
+ */
+@Category(Benchmark.class)
+public class ResourceLookupBenchmark {
+    private static final int RESOURCES = 2000;
+    private static final int ROUNDS = 200;
+    private static final String NO_SPEC = "none";
+    private static final String[] PACKAGES = { "android", "com.android.systemui" };
+    private static final List<String> INTERCEPTED = Arrays.asList(
+            "res1", "res17", "res250", "res1024");
+
+    private final String[] mEntryNames = new String[RESOURCES];
+    private final List<Pattern> mPackagePatterns = new ArrayList<>();
+    private final Object[] mBlackhole = new Object[1];
+
+    public ResourceLookupBenchmark() {
+        for (int i = 0; i < RESOURCES; i++) {
+            mEntryNames[i] = "res" + i;
+        }
+        for (String pkg : PACKAGES) {
+            mPackagePatterns.add(Pattern.compile("^" + pkg.replace(".", "\\.") + "+((?:\\.\\w+)+)?$"));
+        }
+    }
+
+    private static int resId(int pkg, int i) {
+        return (pkg == 0 ? 0x01000000 : 0x7f000000) | i;
+    }
+
+    private String findInterceptor(String pkgName, String resName) {
+        for (Pattern p : mPackagePatterns) {
+            if (p.matcher(pkgName).matches() && INTERCEPTED.contains(resName)) {
+                return resName;
+            }
+        }
+        return null;
+    }
+
+    // former implementation; only claimed resources were cached
+    private String lookupBefore(Map<Integer, String> cache, int pkg, int i) {
+        final String pkgName = PACKAGES[pkg];
+        final int resId = resId(pkg, i);
+        final int key = (pkgName + "_" + resId).hashCode();
+        String spec = cache.get(key);
+        if (spec != null) return spec;
+        final String resName = mEntryNames[i];
+        spec = findInterceptor(pkgName, resName);
+        if (spec != null) {
+            cache.put(key, spec);
+        }
+        return spec;
+    }
+
+    private String lookupAfter(ResourceLookupCache<String> cache, int pkg, int i) {
+        final long key = ((long) pkg << 32) | (resId(pkg, i) & 0xffffffffL);
+        String spec = cache.get(key);
+        if (spec == NO_SPEC) return null;
+        if (spec != null) return spec;
+        spec = findInterceptor(PACKAGES[pkg], mEntryNames[i]);
+        cache.put(key, spec == null ? NO_SPEC : spec);
+        return spec;
+    }
+
+    private interface Lookup {
+        Object lookup(int pkg, int i);
+    }
+
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(
+                    Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private void measure(String name, Lookup lookup) {
+        // warm up
+        for (int r = 0; r < ROUNDS; r++) {
+            for (int i = 0; i < RESOURCES; i++) {
+                mBlackhole[0] = lookup.lookup(i & 1, i);
+            }
+        }
+        final long bytes = allocatedBytes();
+        final long startTime = System.nanoTime();
+        for (int r = 0; r < ROUNDS; r++) {
+            for (int i = 0; i < RESOURCES; i++) {
+                mBlackhole[0] = lookup.lookup(i & 1, i);
+            }
+        }
+        final long lookups = (long) ROUNDS * RESOURCES;
+        final double nsPerLookup = (System.nanoTime() - startTime) / (double) lookups;
+        final double bytesPerLookup = (allocatedBytes() - bytes) / (double) lookups;
+        System.out.println(String.format(Locale.US, "ResourceLookup %s: %.1f ns/lookup, %s bytes/lookup",
+                name, nsPerLookup, bytes < 0 ? "n/a" : String.format(Locale.US, "%.1f", bytesPerLookup)));
+    }
+
+    @Test
+    public void lookups() {
+        final Map<Integer, String> before = new HashMap<>();
+        final ResourceLookupCache<String> after = new ResourceLookupCache<>(NO_SPEC, RESOURCES);
+
+        int beforeHits = 0;
+        int afterHits = 0;
+        for (int i = 0; i < RESOURCES; i++) {
+            if (lookupBefore(before, i & 1, i) != null) beforeHits++;
+            if (lookupAfter(after, i & 1, i) != null) afterHits++;
+        }
+        assertEquals(beforeHits, afterHits);
+
+        measure("before", (pkg, i) -> lookupBefore(before, pkg, i));
+        measure("after", (pkg, i) -> lookupAfter(after, pkg, i));
+        System.out.println(String.format(Locale.US, "ResourceLookup after: hits=%d, misses=%d, negative=%d",
+                after.getHitCount(), after.getMissCount(), after.getNegativeCount()));
+    }
+}
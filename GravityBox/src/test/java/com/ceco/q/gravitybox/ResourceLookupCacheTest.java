@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2020 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.q.gravitybox;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ResourceLookupCacheTest {
+    private static final String NEGATIVE = "negative";
+
+    private static long key(int pkgIndex, int resId) {
+        return ((long) pkgIndex << 32) | (resId & 0xffffffffL);
+    }
+
+    @Test
+    public void unknownKeyIsMiss() {
+        ResourceLookupCache<String> cache = new ResourceLookupCache<>(NEGATIVE, 16);
+        assertNull(cache.get(key(0, 0x7f010001)));
+        assertEquals(0, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void storedValuesAreHits() {
+        ResourceLookupCache<String> cache = new ResourceLookupCache<>(NEGATIVE, 16);
+        cache.put(key(0, 0x7f010001), "spec");
+        cache.put(key(1, 0x7f010001), NEGATIVE);
+        assertEquals("spec", cache.get(key(0, 0x7f010001)));
+        assertSame(NEGATIVE, cache.get(key(1, 0x7f010001)));
+        assertEquals(2, cache.getHitCount());
+        assertEquals(0, cache.getMissCount());
+    }
+
+    @Test
+    public void putReplacesValue() {
+        ResourceLookupCache<String> cache = new ResourceLookupCache<>(NEGATIVE, 16);
+        cache.put(key(0, 1), NEGATIVE);
+        cache.put(key(0, 1), "spec");
+        assertEquals("spec", cache.get(key(0, 1)));
+        assertEquals(1, cache.size());
+        assertEquals(0, cache.getNegativeCount());
+    }
+
+    @Test
+    public void negativeEntriesAreBounded() {
+        ResourceLookupCache<String> cache = new ResourceLookupCache<>(NEGATIVE, 100);
+        cache.put(key(0, 0x01010001), "spec");
+        for (int i = 0; i < 1000; i++) {
+            cache.put(key(1, 0x7f000000 + i), NEGATIVE);
+            assertTrue(cache.getNegativeCount() <= 100);
+        }
+        assertEquals("spec", cache.get(key(0, 0x01010001)));
+        assertSame(NEGATIVE, cache.get(key(1, 0x7f000000 + 999)));
+        assertNull(cache.get(key(1, 0x7f000000)));
+    }
+
+    @Test
+    public void growsBeyondInitialCapacity() {
+        ResourceLookupCache<String> cache = new ResourceLookupCache<>(NEGATIVE, 16);
+        for (int i = 0; i < 5000; i++) {
+            cache.put(key(i % 3, 0x7f000000 + i), "spec" + i);
+        }
+        assertEquals(5000, cache.size());
+        for (int i = 0; i < 5000; i++) {
+            assertEquals("spec" + i, cache.get(key(i % 3, 0x7f000000 + i)));
+        }
+    }
+
+    @Test
+    public void clearDropsAll() {
+        ResourceLookupCache<String> cache = new ResourceLookupCache<>(NEGATIVE, 16);
+        cache.put(key(0, 1), "spec");
+        cache.put(key(0, 2), NEGATIVE);
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertNull(cache.get(key(0, 1)));
+        assertNull(cache.get(key(0, 2)));
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2020 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.q.gravitybox;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Builds index of all preferences from the module preference XML resources
+ * and compares lookups with linear scan of all entries for the full key set
+ */
+@Category(Benchmark.class)
+public class SettingsSearchIndexBenchmark {
+    private static final String ANDROID_NS = "http://schemas.android.com/apk/res/android";
+    private static final File RES_DIR = new File("src/main/res");
+    private static final int ROUNDS = 20;
+
+    private final Map<String, String> mStrings = new HashMap<>();
+    private final Map<String, List<String>> mArrays = new HashMap<>();
+
+    private static Document parse(File file) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        return factory.newDocumentBuilder().parse(file);
+    }
+
+    private void loadValues() throws Exception {
+        NodeList strings = parse(new File(RES_DIR, "values/strings.xml")).getElementsByTagName("string");
+        for (int i = 0; i < strings.getLength(); i++) {
+            Element e = (Element) strings.item(i);
+            mStrings.put(e.getAttribute("name"), e.getTextContent().replace("\\", ""));
+        }
+        NodeList arrays = parse(new File(RES_DIR, "values/arrays.xml")).getElementsByTagName("string-array");
+        for (int i = 0; i < arrays.getLength(); i++) {
+            Element e = (Element) arrays.item(i);
+            List<String> items = new ArrayList<>();
+            NodeList itemNodes = e.getElementsByTagName("item");
+            for (int j = 0; j < itemNodes.getLength(); j++) {
+                items.add(resolve(itemNodes.item(j).getTextContent()));
+            }
+            mArrays.put(e.getAttribute("name"), items);
+        }
+    }
+
+    private String resolve(String value) {
+        if (value != null && value.startsWith("@string/")) {
+            return mStrings.get(value.substring(8));
+        }
+        return (value == null || value.isEmpty() ? null : value);
+    }
+
+    private void addElement(List<SettingsSearchIndex.Entry> entries, Element e,
+                            String category, List<String> screens) {
+        final String key = e.hasAttributeNS(ANDROID_NS, "key") ? e.getAttributeNS(ANDROID_NS, "key") : null;
+        final String title = resolve(e.getAttributeNS(ANDROID_NS, "title"));
+        final String summary = resolve(e.getAttributeNS(ANDROID_NS, "summary"));
+        final String entriesRef = e.getAttributeNS(ANDROID_NS, "entries");
+        final List<String> values = entriesRef.startsWith("@array/") ?
+                mArrays.get(entriesRef.substring(7)) : null;
+        if (title != null || summary != null || values != null) {
+            entries.add(new SettingsSearchIndex.Entry(key, title, summary,
+                    values == null ? null : values.toArray(new String[values.size()]),
+                    category, screens.toArray(new String[screens.size()])));
+        }
+        final boolean isScreen = "PreferenceScreen".equals(e.getTagName()) && key != null;
+        if (isScreen) screens.add(key);
+        for (Node n = e.getFirstChild(); n != null; n = n.getNextSibling()) {
+            if (n instanceof Element) {
+                addElement(entries, (Element) n, category, screens);
+            }
+        }
+        if (isScreen) screens.remove(screens.size() - 1);
+    }
+
+    private List<SettingsSearchIndex.Entry> loadEntries() throws Exception {
+        loadValues();
+        final List<SettingsSearchIndex.Entry> entries = new ArrayList<>();
+        File[] files = new File(RES_DIR, "xml").listFiles((dir, name) -> name.startsWith("gravitybox"));
+        assertTrue(files != null && files.length > 0);
+        for (File file : files) {
+            final String name = file.getName().replace(".xml", "");
+            final String category = name.equals("gravitybox") ? null : name;
+            final List<String> screens = new ArrayList<>();
+            if (category != null) screens.add(category);
+            final Element root = parse(file).getDocumentElement();
+            for (Node n = root.getFirstChild(); n != null; n = n.getNextSibling()) {
+                if (n instanceof Element) {
+                    addElement(entries, (Element) n, category, screens);
+                }
+            }
+        }
+        return entries;
+    }
+
+    private static List<SettingsSearchIndex.Entry> scan(List<SettingsSearchIndex.Entry> entries, String query) {
+        final String lcQuery = query.toLowerCase(Locale.getDefault());
+        final List<SettingsSearchIndex.Entry> result = new ArrayList<>();
+        for (SettingsSearchIndex.Entry entry : entries) {
+            if (entry.matches(lcQuery)) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    @Test
+    public void fullKeySet() throws Exception {
+        final List<SettingsSearchIndex.Entry> entries = loadEntries();
+
+        // titles of all preferences and substrings of their words as typed by users
+        final Set<String> querySet = new LinkedHashSet<>();
+        for (SettingsSearchIndex.Entry entry : entries) {
+            if (entry.key == null || entry.title == null) continue;
+            querySet.add(entry.title.toLowerCase(Locale.getDefault()));
+            for (String word : SettingsSearchIndex.tokenize(entry.title)) {
+                if (word.length() >= 4) {
+                    querySet.add(word.substring(1, 4));
+                }
+            }
+        }
+        final List<String> queries = new ArrayList<>(querySet);
+
+        long startTime = System.nanoTime();
+        SettingsSearchIndex index = null;
+        for (int i = 0; i < ROUNDS; i++) {
+            index = new SettingsSearchIndex();
+            for (SettingsSearchIndex.Entry entry : entries) {
+                index.add(entry);
+            }
+        }
+        final long buildTime = (System.nanoTime() - startTime) / ROUNDS;
+        assertEquals(entries.size(), index.size());
+
+        long results = 0;
+        startTime = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            for (String query : queries) {
+                results += index.find(query).size();
+            }
+        }
+        final long indexTime = (System.nanoTime() - startTime) / ROUNDS;
+
+        long scanResults = 0;
+        startTime = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            for (String query : queries) {
+                scanResults += scan(entries, query).size();
+            }
+        }
+        final long scanTime = (System.nanoTime() - startTime) / ROUNDS;
+
+        assertEquals(scanResults, results);
+        for (String query : queries) {
+            assertEquals(scan(entries, query), index.find(query));
+        }
+
+        System.out.println(String.format(Locale.US,
+                "SettingsSearchIndex: %d entries, %d queries; build %.2f ms; " +
+                "index %.1f us/query; linear scan %.1f us/query",
+                entries.size(), queries.size(), buildTime / 1e6,
+                indexTime / 1e3 / queries.size(), scanTime / 1e3 / queries.size()));
+    }
+}
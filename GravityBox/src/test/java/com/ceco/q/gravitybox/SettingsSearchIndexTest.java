@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2020 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.q.gravitybox;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SettingsSearchIndexTest {
+
+    private static SettingsSearchIndex createIndex() {
+        SettingsSearchIndex index = new SettingsSearchIndex();
+        index.add(new SettingsSearchIndex.Entry("pref_cat_lockscreen", "Lockscreen tweaks",
+                "Lockscreen background, shortcuts", null, null, null));
+        index.add(new SettingsSearchIndex.Entry("pref_lockscreen_background", "Background",
+                "Stock", new String[] { "Stock", "Color fill", "Custom image" },
+                "pref_cat_lockscreen", new String[] { "pref_cat_lockscreen", "pref_cat_lockscreen_bg" }));
+        index.add(new SettingsSearchIndex.Entry("pref_screen_off_delay", "Screen off delay",
+                null, null, "pref_cat_power", new String[] { "pref_cat_power" }));
+        index.add(new SettingsSearchIndex.Entry("pref_battery_percent", "Battery percentage",
+                "Show 100% text", null, "pref_cat_statusbar", new String[] { "pref_cat_statusbar" }));
+        return index;
+    }
+
+    private static List<String> keys(List<SettingsSearchIndex.Entry> entries) {
+        List<String> keys = new ArrayList<>();
+        for (SettingsSearchIndex.Entry entry : entries) {
+            keys.add(entry.key);
+        }
+        return keys;
+    }
+
+    @Test
+    public void tokenizeSplitsOnNonAlphanumerics() {
+        assertArrayEquals(new String[] { "lock", "screen", "2nd", "tweak" },
+                SettingsSearchIndex.tokenize("Lock-screen: 2nd  tweak!"));
+        assertEquals(0, SettingsSearchIndex.tokenize(null).length);
+        assertEquals(0, SettingsSearchIndex.tokenize(" -- ").length);
+    }
+
+    @Test
+    public void matchesIsCaseInsensitiveSubstring() {
+        assertTrue(SettingsSearchIndex.matches("Lockscreen tweaks", "screen"));
+        assertTrue(SettingsSearchIndex.matches("Lockscreen tweaks", "kscreen tw"));
+        assertFalse(SettingsSearchIndex.matches("Lockscreen tweaks", "screens"));
+        assertFalse(SettingsSearchIndex.matches(null, "screen"));
+    }
+
+    @Test
+    public void findMatchesInsideWords() {
+        assertEquals(Arrays.asList("pref_cat_lockscreen", "pref_screen_off_delay"),
+                keys(createIndex().find("screen")));
+    }
+
+    @Test
+    public void findMatchesAcrossWords() {
+        assertEquals(Arrays.asList("pref_screen_off_delay"),
+                keys(createIndex().find("en off")));
+        assertTrue(createIndex().find("screen delay").isEmpty());
+    }
+
+    @Test
+    public void findIgnoresCase() {
+        assertEquals(Arrays.asList("pref_battery_percent"),
+                keys(createIndex().find("BATTERY")));
+    }
+
+    @Test
+    public void findMatchesRuntimeValues() {
+        assertEquals(Arrays.asList("pref_lockscreen_background"),
+                keys(createIndex().find("color fill")));
+    }
+
+    @Test
+    public void findQueryWithoutWords() {
+        assertEquals(Arrays.asList("pref_battery_percent"),
+                keys(createIndex().find("%")));
+        assertTrue(createIndex().find("").isEmpty());
+        assertTrue(createIndex().find(null).isEmpty());
+    }
+
+    @Test
+    public void findKeepsEntryOrder() {
+        assertEquals(Arrays.asList("pref_cat_lockscreen", "pref_lockscreen_background"),
+                keys(createIndex().find("ck")));
+    }
+
+    @Test
+    public void getCategoriesSkipsMainScreen() {
+        SettingsSearchIndex index = createIndex();
+        assertEquals(Arrays.asList("pref_cat_power"),
+                new ArrayList<>(SettingsSearchIndex.getCategories(index.find("screen"))));
+    }
+
+    @Test
+    public void entryKeepsScreenPath() {
+        List<SettingsSearchIndex.Entry> entries = createIndex().find("custom image");
+        assertEquals(1, entries.size());
+        assertArrayEquals(new String[] { "pref_cat_lockscreen", "pref_cat_lockscreen_bg" },
+                entries.get(0).screens);
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2020 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.q.gravitybox;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class StackBlurTest {
+    private static final int[] RADII = { 1, 2, 3, 7, 25 };
+
+    private static int[] randomPixels(int width, int height, long seed) {
+        final Random random = new Random(seed);
+        final int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = random.nextInt();
+        }
+        return pixels;
+    }
+
+    /**
+     * Reference blur: separable triangle kernel of given radius with edge pixels
+     * repeated, horizontal pass first, each pass truncating channel sums
+     */
+    private static int[] naiveBlur(int[] pixels, int width, int height, int radius) {
+        final int[] tmp = new int[width * height];
+        final int[] out = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                tmp[y * width + x] = blurPixel(pixels, y * width, 1, width, x, radius);
+            }
+        }
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                out[y * width + x] = blurPixel(tmp, x, width, height, y, radius);
+            }
+        }
+        return out;
+    }
+
+    private static int blurPixel(int[] src, int offset, int stride, int len, int pos, int radius) {
+        final int divSum = (radius + 1) * (radius + 1);
+        final long[] sums = new long[4];
+        for (int i = -radius; i <= radius; i++) {
+            final int p = src[offset + Math.min(len - 1, Math.max(0, pos + i)) * stride];
+            final int weight = radius + 1 - Math.abs(i);
+            for (int c = 0; c < 4; c++) {
+                sums[c] += ((p >>> (24 - c * 8)) & 0xff) * weight;
+            }
+        }
+        int result = 0;
+        for (int c = 0; c < 4; c++) {
+            result |= (int) (sums[c] / divSum) << (24 - c * 8);
+        }
+        return result;
+    }
+
+    private static void assertMatchesReference(int width, int height) {
+        final StackBlur blur = new StackBlur();
+        for (int radius : RADII) {
+            final int[] pixels = randomPixels(width, height, width * 31 + height + radius);
+            final int[] expected = naiveBlur(pixels, width, height, radius);
+            blur.blur(pixels, width, height, radius);
+            assertArrayEquals(width + "x" + height + " radius " + radius, expected, pixels);
+        }
+    }
+
+    @Test
+    public void matchesReferenceOnRegularImage() {
+        assertMatchesReference(37, 23);
+    }
+
+    @Test
+    public void matchesReferenceOnSingleRow() {
+        assertMatchesReference(40, 1);
+    }
+
+    @Test
+    public void matchesReferenceOnSingleColumn() {
+        assertMatchesReference(1, 40);
+    }
+
+    @Test
+    public void matchesReferenceWhenRadiusExceedsSize() {
+        // radius 7 and 25 are larger than both dimensions
+        assertMatchesReference(5, 3);
+        assertMatchesReference(1, 1);
+    }
+
+    @Test
+    public void reusedInstanceGivesSameResult() {
+        final StackBlur blur = new StackBlur();
+        blur.blur(randomPixels(64, 64, 1), 64, 64, 25);
+        final int[] pixels = randomPixels(9, 11, 2);
+        final int[] expected = naiveBlur(pixels, 9, 11, 3);
+        blur.blur(pixels, 9, 11, 3);
+        assertArrayEquals(expected, pixels);
+    }
+
+    @Test
+    public void uniformImageStaysUniform() {
+        final int[] pixels = new int[20 * 10];
+        Arrays.fill(pixels, 0x80ff4020);
+        new StackBlur().blur(pixels, 20, 10, 6);
+        for (int p : pixels) {
+            assertEquals(0x80ff4020, p);
+        }
+    }
+
+    @Test
+    public void radiusBelowOneLeavesPixels() {
+        final int[] pixels = randomPixels(8, 8, 3);
+        final int[] copy = pixels.clone();
+        new StackBlur().blur(pixels, 8, 8, 0);
+        assertArrayEquals(copy, pixels);
+    }
+
+    @Test
+    public void rejectsTooSmallPixelArray() {
+        try {
+            new StackBlur().blur(new int[10], 4, 4, 1);
+            fail("Too small array accepted");
+        } catch (IllegalArgumentException expected) { }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2020 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.q.gravitybox;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class TrafficHistoryTest {
+    private static final int ALL = TrafficHistory.CHANNEL_RX | TrafficHistory.CHANNEL_TX;
+
+    @Test
+    public void keepsSamplesInInsertionOrder() {
+        final TrafficHistory history = new TrafficHistory(4, 100);
+        history.add(1, 10);
+        history.add(2, 20);
+        history.add(3, 30);
+        assertEquals(3, history.size());
+        assertEquals(1, history.get(0, TrafficHistory.CHANNEL_RX));
+        assertEquals(30, history.get(2, TrafficHistory.CHANNEL_TX));
+        assertEquals(22, history.get(1, ALL));
+    }
+
+    @Test
+    public void replacesOldestSampleWhenFull() {
+        final TrafficHistory history = new TrafficHistory(3, 100);
+        for (int i = 1; i <= 5; i++) {
+            history.add(i, 0);
+        }
+        assertEquals(3, history.size());
+        assertEquals(3, history.get(0, TrafficHistory.CHANNEL_RX));
+        assertEquals(5, history.get(2, TrafficHistory.CHANNEL_RX));
+    }
+
+    @Test
+    public void maxOfSelectedChannels() {
+        final TrafficHistory history = new TrafficHistory(4, 100);
+        history.add(100, 5);
+        history.add(10, 200);
+        assertEquals(100, history.max(TrafficHistory.CHANNEL_RX));
+        assertEquals(200, history.max(TrafficHistory.CHANNEL_TX));
+        assertEquals(210, history.max(ALL));
+    }
+
+    @Test
+    public void clearDropsSamples() {
+        final TrafficHistory history = new TrafficHistory(4, 100);
+        history.add(1, 1);
+        history.clear();
+        assertEquals(0, history.size());
+        assertEquals(0, history.max(ALL));
+    }
+
+    @Test
+    public void smoothingDampsSpike() {
+        final TrafficHistory history = new TrafficHistory(4, 30);
+        history.add(0, 0);
+        history.add(1000, 0);
+        assertEquals(300, history.get(1, TrafficHistory.CHANNEL_RX));
+    }
+
+    @Test
+    public void smoothingRoundsToNearest() {
+        final TrafficHistory history = new TrafficHistory(4, 30);
+        history.add(0, 0);
+        history.add(5, 0);
+        // 1.5 rounds up to 2 rather than truncating to 1
+        assertEquals(2, history.get(1, TrafficHistory.CHANNEL_RX));
+    }
+
+    @Test
+    public void trendSettlesOnZeroWhenTrafficStops() {
+        final TrafficHistory history = new TrafficHistory(64, 30);
+        history.add(100000, 100000);
+        for (int i = 0; i < 63; i++) {
+            history.add(0, 0);
+        }
+        assertEquals(0, history.get(history.size() - 1, ALL));
+    }
+
+    @Test
+    public void trendSettlesOnSteadyRate() {
+        final TrafficHistory history = new TrafficHistory(64, 10);
+        history.add(0, 0);
+        for (int i = 0; i < 63; i++) {
+            history.add(1000, 7);
+        }
+        assertEquals(1000, history.get(history.size() - 1, TrafficHistory.CHANNEL_RX));
+        assertEquals(7, history.get(history.size() - 1, TrafficHistory.CHANNEL_TX));
+    }
+
+    @Test
+    public void smoothedValueStaysBetweenPreviousAndCurrent() {
+        final TrafficHistory history = new TrafficHistory(2, 1);
+        history.add(0, 0);
+        history.add(1, 0);
+        assertEquals(1, history.get(1, TrafficHistory.CHANNEL_RX));
+        history.add(0, 0);
+        assertEquals(0, history.get(1, TrafficHistory.CHANNEL_RX));
+    }
+
+    @Test
+    public void noSmoothingKeepsRawRates() {
+        final TrafficHistory history = new TrafficHistory(4, 100);
+        history.add(1000, 0);
+        history.add(3, 0);
+        assertEquals(3, history.get(1, TrafficHistory.CHANNEL_RX));
+    }
+
+    @Test
+    public void rejectsInvalidArguments() {
+        try {
+            new TrafficHistory(1, 50);
+            fail("Capacity 1 accepted");
+        } catch (IllegalArgumentException expected) { }
+        try {
+            new TrafficHistory(4, 0);
+            fail("Smoothing 0 accepted");
+        } catch (IllegalArgumentException expected) { }
+        try {
+            new TrafficHistory(4, 50).get(0, ALL);
+            fail("Index out of range accepted");
+        } catch (IndexOutOfBoundsException expected) {
+            assertTrue(expected.getMessage().contains("0"));
+        }
+    }
+}
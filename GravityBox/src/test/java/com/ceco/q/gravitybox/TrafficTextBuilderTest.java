@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2020 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.q.gravitybox;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.text.DecimalFormat;
+
+import org.junit.Test;
+
+public class TrafficTextBuilderTest {
+
+    private static String decimal(long value, long divisor, boolean keepZeroFraction) {
+        return new TrafficTextBuilder().appendDecimal(value, divisor, keepZeroFraction).toString();
+    }
+
+    @Test
+    public void integerGrouping() {
+        final DecimalFormat format = new DecimalFormat("#,##0");
+        for (long value : new long[] { 0, 7, 999, 1000, 123456, 1234567890L }) {
+            assertEquals(format.format(value),
+                    new TrafficTextBuilder().appendInteger(value, true).toString());
+        }
+        assertEquals("1234567", new TrafficTextBuilder().appendInteger(1234567, false).toString());
+    }
+
+    @Test
+    public void tiesRoundToEven() {
+        // 1.25 and 1.75 are exact binary values
+        assertEquals(new DecimalFormat("##0.0").format(1.25f), decimal(1280, 1024, true));
+        assertTrue(decimal(1280, 1024, true).endsWith("2"));
+        assertTrue(decimal(1792, 1024, true).endsWith("8"));
+    }
+
+    @Test
+    public void matchesFormerFormatWithZeroFraction() {
+        final DecimalFormat format = new DecimalFormat("##0.0");
+        for (long divisor : new long[] { 1024, 1048576 }) {
+            for (long value = 0; value < 200 * divisor; value += divisor / 64 + 1) {
+                assertEquals(value + "/" + divisor,
+                        format.format((float) value / (float) divisor),
+                        decimal(value, divisor, true));
+            }
+        }
+    }
+
+    @Test
+    public void matchesFormerFormatWithoutZeroFraction() {
+        final DecimalFormat format = new DecimalFormat("##0.#");
+        for (long divisor : new long[] { 1000, 1000000, 1000000000 }) {
+            for (long value = 0; value < 100 * divisor; value += divisor / 200 + 1) {
+                assertEquals(value + "/" + divisor,
+                        format.format((float) value / (float) divisor),
+                        decimal(value, divisor, false));
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2020 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.q.gravitybox.quicksettings;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class QsTileListDiffTest {
+
+    private static final class Tile {
+        final String spec;
+        Tile(String spec) {
+            this.spec = spec;
+        }
+    }
+
+    private static List<Tile> tiles(String... specs) {
+        List<Tile> tiles = new ArrayList<>();
+        for (String spec : specs) {
+            tiles.add(new Tile(spec));
+        }
+        return tiles;
+    }
+
+    private static Set<String> specs(String... specs) {
+        return new LinkedHashSet<>(Arrays.asList(specs));
+    }
+
+    private static QsTileListDiff<Tile> compute(Set<String> current, List<Tile> tiles) {
+        return QsTileListDiff.compute(current, tiles, t -> t.spec);
+    }
+
+    @Test
+    public void initialListIsAdded() {
+        QsTileListDiff<Tile> diff = compute(specs(), tiles("wifi", "bt", "gb_tile_torch"));
+        assertTrue(diff.getRemoved().isEmpty());
+        assertTrue(diff.getRetained().isEmpty());
+        assertEquals(Arrays.asList("wifi", "bt", "gb_tile_torch"),
+                new ArrayList<>(diff.getAdded().keySet()));
+    }
+
+    @Test
+    public void unchangedListIsRetained() {
+        List<Tile> tiles = tiles("wifi", "bt");
+        QsTileListDiff<Tile> diff = compute(specs("wifi", "bt"), tiles);
+        assertTrue(diff.getRemoved().isEmpty());
+        assertTrue(diff.getAdded().isEmpty());
+        assertSame(tiles.get(0), diff.getRetained().get("wifi"));
+        assertSame(tiles.get(1), diff.getRetained().get("bt"));
+    }
+
+    @Test
+    public void changedListIsSplit() {
+        QsTileListDiff<Tile> diff = compute(specs("wifi", "bt", "cast"),
+                tiles("cast", "dnd", "wifi"));
+        assertEquals(Collections.singletonList("bt"), diff.getRemoved());
+        assertEquals(Arrays.asList("cast", "wifi"), new ArrayList<>(diff.getRetained().keySet()));
+        assertEquals(Collections.singletonList("dnd"), new ArrayList<>(diff.getAdded().keySet()));
+    }
+
+    @Test
+    public void emptyListRemovesAll() {
+        QsTileListDiff<Tile> diff = compute(specs("wifi", "bt"), tiles());
+        assertEquals(Arrays.asList("wifi", "bt"), diff.getRemoved());
+        assertTrue(diff.getRetained().isEmpty());
+        assertTrue(diff.getAdded().isEmpty());
+    }
+
+    @Test
+    public void lastDuplicateSpecWins() {
+        List<Tile> tiles = tiles("wifi", "bt", "wifi");
+        QsTileListDiff<Tile> diff = compute(specs(), tiles);
+        assertEquals(Arrays.asList("wifi", "bt"), new ArrayList<>(diff.getAdded().keySet()));
+        assertSame(tiles.get(2), diff.getAdded().get("wifi"));
+    }
+
+    @Test
+    public void largeListIsReconciled() {
+        Set<String> current = new LinkedHashSet<>();
+        List<Tile> tiles = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            current.add("tile" + i);
+            tiles.add(new Tile("tile" + (i + 5000)));
+        }
+        QsTileListDiff<Tile> diff = compute(current, tiles);
+        assertEquals(5000, diff.getRemoved().size());
+        assertEquals(5000, diff.getRetained().size());
+        assertEquals(5000, diff.getAdded().size());
+        assertEquals("tile0", diff.getRemoved().get(0));
+        assertEquals("tile10000", diff.getAdded().keySet().iterator().next());
+    }
+}